@@ -1,12 +1,15 @@
 package com.timeyang.athena;
 
 import com.timeyang.athena.message.MessageServer;
+import com.timeyang.athena.scheduler.DagScheduler;
 import com.timeyang.athena.task.TaskManager;
 import com.timeyang.athena.task.TaskManagerImpl;
 import com.timeyang.athena.utill.Asserts;
 import com.timeyang.athena.utill.IoUtils;
 import com.timeyang.athena.utill.StringUtils;
 import com.timeyang.athena.utill.SystemUtils;
+import com.timeyang.athena.utill.jdbc.JdbcMetrics;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
 import com.timeyang.athena.web.AthenaWebServer;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
@@ -32,8 +35,10 @@ public class Athena {
 
     private AthenaConf conf;
     private DataSource dataSource;
+    private JdbcMetrics jdbcMetrics;
     private DataSource hiveDataSource;
     private TaskManager taskManager;
+    private DagScheduler dagScheduler;
     private AthenaWebServer webServer;
     private MessageServer messageServer;
 
@@ -44,7 +49,9 @@ public class Athena {
         if (!conf.disabled("hive"))
             initHiveDataSource();
         if (!conf.disabled("taskManager"))
-            this.taskManager = new TaskManagerImpl(athenaConf, dataSource);
+            this.taskManager = new TaskManagerImpl(athenaConf, dataSource, jdbcMetrics);
+        if (!conf.disabled("dagScheduler") && taskManager != null && dataSource != null)
+            this.dagScheduler = new DagScheduler(athenaConf, taskManager, dataSource);
         if (!conf.disabled("webServer"))
             this.webServer = new AthenaWebServer(athenaConf);
         if (!conf.disabled("messageServer"))
@@ -60,6 +67,13 @@ public class Athena {
         return dataSource;
     }
 
+    /**
+     * @return latencies of database access and usage of connection pool, null if jdbc is disabled
+     */
+    public JdbcMetrics getJdbcMetrics() {
+        return jdbcMetrics;
+    }
+
     public DataSource getHiveDataSource() {
         return hiveDataSource;
     }
@@ -68,6 +82,13 @@ public class Athena {
         return taskManager;
     }
 
+    /**
+     * @return scheduler of task graphs, null if task manager or jdbc is disabled
+     */
+    public DagScheduler getDagScheduler() {
+        return dagScheduler;
+    }
+
     public AthenaWebServer getWebServer() {
         return webServer;
     }
@@ -84,7 +105,14 @@ public class Athena {
             ds.setUsername(conf.getJdbcUsername());
         if (StringUtils.hasText(conf.getJdbcPassword()))
             ds.setPassword(conf.getJdbcPassword());
-        ds.setMaximumPoolSize(20);
+        // all queries use bind parameters, so driver statement caches can be enabled here
+        conf.getJdbcDataSourceProperties().forEach(ds::addDataSourceProperty);
+        ds.setMaximumPoolSize(conf.getDbPoolSize());
+        ds.setMinimumIdle(conf.getDbPoolMinIdle());
+        ds.setConnectionTimeout(conf.getDbPoolConnectionTimeoutMillis());
+        jdbcMetrics = new JdbcMetrics(conf.getDbSlowStatementMillis());
+        ds.setMetricsTrackerFactory(jdbcMetrics);
+        JdbcUtils.setMetrics(jdbcMetrics);
         dataSource = ds;
     }
 
@@ -104,6 +132,8 @@ public class Athena {
 
         if (this.taskManager != null)
             this.taskManager.start();
+        if (this.dagScheduler != null)
+            this.dagScheduler.start();
         if (this.webServer != null)
             this.webServer.start();
         if (this.messageServer != null)
@@ -118,6 +148,8 @@ public class Athena {
             this.messageServer.stop();
         if (this.webServer != null)
             this.webServer.stop();
+        if (this.dagScheduler != null)
+            this.dagScheduler.stop();
         if (this.taskManager != null)
             this.taskManager.stop();
     }
@@ -170,7 +202,7 @@ public class Athena {
         /**
          * disable specified components
          *
-         * @param components jdbc, hive, taskManager, webServer, messageServer ...
+         * @param components jdbc, hive, taskManager, dagScheduler, webServer, messageServer ...
          */
         public AthenaBuilder disable(String... components) {
             if (components != null) {
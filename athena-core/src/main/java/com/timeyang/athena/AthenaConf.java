@@ -4,7 +4,11 @@ import com.timeyang.athena.utill.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -19,6 +23,7 @@ public class AthenaConf {
     public static AthenaConf DEFAULT_CONF = getDefaultConf();
 
     static final String DISABLE_KEY_PREFIX = "disable.";
+    static final String JDBC_DATASOURCE_KEY_PREFIX = "db.datasource.";
 
     private final Map<String, String> settings;
 
@@ -76,6 +81,53 @@ public class AthenaConf {
         return this.settings.get("db.password");
     }
 
+    /**
+     * rows fetched from database in one round trip when streaming query results
+     */
+    public int getJdbcFetchSize() {
+        return Integer.valueOf(this.settings.getOrDefault("db.fetch.size", "1000"));
+    }
+
+    /**
+     * max number of connections in database connection pool
+     */
+    public int getDbPoolSize() {
+        return Integer.valueOf(this.settings.getOrDefault("db.pool.size", "20"));
+    }
+
+    /**
+     * min number of idle connections kept in pool, defaults to pool size, i.e. a fixed size pool
+     */
+    public int getDbPoolMinIdle() {
+        return Integer.valueOf(this.settings.getOrDefault("db.pool.min.idle", String.valueOf(getDbPoolSize())));
+    }
+
+    /**
+     * milliseconds a thread waits for a connection from pool before failing
+     */
+    public long getDbPoolConnectionTimeoutMillis() {
+        return Long.valueOf(this.settings.getOrDefault("db.pool.connection.timeout.ms", "30000"));
+    }
+
+    /**
+     * statements and task repository operations slower than this many milliseconds are logged
+     */
+    public long getDbSlowStatementMillis() {
+        return Long.valueOf(this.settings.getOrDefault("db.slow.statement.ms", "1000"));
+    }
+
+    /**
+     * driver properties configured by {@code db.datasource.xxx=value}, e.g. prepared statement cache settings
+     */
+    public Map<String, String> getJdbcDataSourceProperties() {
+        Map<String, String> properties = new HashMap<>();
+        this.settings.forEach((key, value) -> {
+            if (key.startsWith(JDBC_DATASOURCE_KEY_PREFIX))
+                properties.put(key.substring(JDBC_DATASOURCE_KEY_PREFIX.length()), value);
+        });
+        return properties;
+    }
+
     /**
      * beeline -u jdbc:hive2://127.0.0.1:10000/athena
      */
@@ -107,6 +159,282 @@ public class AthenaConf {
         return Long.valueOf(this.settings.get("task.retryWait"));
     }
 
+    /**
+     * retry wait of a task is multiplied by this for each further failed try, 1 keeps it fixed
+     */
+    public double getTaskRetryBackoffMultiplier() {
+        return Double.valueOf(this.settings.getOrDefault("task.retry.backoff.multiplier", "2"));
+    }
+
+    /**
+     * max seconds of retry wait grown by backoff
+     */
+    public long getTaskRetryMaxWaitSeconds() {
+        return Long.valueOf(this.settings.getOrDefault("task.retry.max.wait.seconds", "600"));
+    }
+
+    /**
+     * fraction of retry wait which is random, so that tasks failed together don't retry together
+     */
+    public double getTaskRetryJitter() {
+        return Double.valueOf(this.settings.getOrDefault("task.retry.jitter", "0.5"));
+    }
+
+    /**
+     * finished tasks ended within this number of days stay in task table, older ones are archived into history
+     */
+    public int getTaskHistoryHotDays() {
+        return Integer.valueOf(this.settings.getOrDefault("task.history.hot.days", "7"));
+    }
+
+    /**
+     * archived tasks are dropped after this number of days, daily rollups are kept. Non-positive value keeps them forever
+     */
+    public int getTaskHistoryRetentionDays() {
+        return Integer.valueOf(this.settings.getOrDefault("task.history.retention.days", "180"));
+    }
+
+    /**
+     * interval in minutes between two runs of history archiving
+     */
+    public long getTaskHistoryArchiveInterval() {
+        return Long.valueOf(this.settings.getOrDefault("task.history.archive.interval", "60"));
+    }
+
+    /**
+     * storage of tasks, {@code jdbc} for database or {@code wal} for embedded write-ahead log
+     */
+    public String getTaskRepository() {
+        return this.settings.getOrDefault("task.repository", "jdbc");
+    }
+
+    /**
+     * directory of write-ahead log and snapshots of {@code wal} task repository
+     */
+    public String getTaskWalDir() {
+        return this.settings.getOrDefault("task.repository.wal.dir", "./.local/wal");
+    }
+
+    /**
+     * whether to force write-ahead log to disk before a change returns. If false, a machine crash may lose recent
+     * changes, while a process crash doesn't
+     */
+    public boolean isTaskWalFsync() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.repository.wal.fsync", "true"));
+    }
+
+    /**
+     * number of write-ahead log records between two snapshots
+     */
+    public long getTaskWalSnapshotRecords() {
+        return Long.valueOf(this.settings.getOrDefault("task.repository.wal.snapshot.records", "100000"));
+    }
+
+    /**
+     * id of this instance, which owns leases of tasks it schedules. Defaults to local host name and task rpc port, so
+     * a restarted instance gets leases of its tasks back
+     */
+    public String getTaskSchedulerId() {
+        String schedulerId = this.settings.get("task.scheduler.id");
+        if (schedulerId != null)
+            return schedulerId;
+        String hostname;
+        try {
+            hostname = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            hostname = "localhost";
+        }
+        return hostname + ":" + getTaskRpcPort();
+    }
+
+    /**
+     * seconds until lease of a task expires if its scheduler stops renewing it
+     */
+    public long getTaskLeaseSeconds() {
+        return Long.valueOf(this.settings.getOrDefault("task.lease.seconds", "60"));
+    }
+
+    /**
+     * whether instances sharing the database elect one of them to schedule tasks, the others stand by until its
+     * leader lease expires. Only with jdbc task repository
+     */
+    public boolean isTaskSchedulerLeaderElection() {
+        return Boolean.valueOf(this.settings.getOrDefault("task.scheduler.leader.election", "true"));
+    }
+
+    /**
+     * seconds until leader lease of scheduler expires if its leader stops renewing it, standbys try to take it over
+     * every third of it
+     */
+    public long getTaskSchedulerLeaderLeaseSeconds() {
+        return Long.valueOf(this.settings.getOrDefault("task.scheduler.leader.lease.seconds", "10"));
+    }
+
+    /**
+     * task rpc addresses of all scheduler instances as host:port, comma separated. An executor which lost its
+     * scheduler reconnects to them, so that the new leader takes over its task
+     */
+    public String getTaskSchedulerPeers() {
+        return this.settings.getOrDefault("task.scheduler.peers", "");
+    }
+
+    /**
+     * number of recently finished tasks kept in task registry besides waiting and running tasks
+     */
+    public int getTaskRegistryFinishedCapacity() {
+        return Integer.valueOf(this.settings.getOrDefault("task.registry.finished.capacity", "10000"));
+    }
+
+    /**
+     * max number of task lifecycle events persisted in one transaction
+     */
+    public int getTaskLifecycleBatchSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.lifecycle.batch.size", "500"));
+    }
+
+    /**
+     * max number of task lifecycle events waiting to be persisted, callbacks block when it's full
+     */
+    public int getTaskLifecycleQueueCapacity() {
+        return Integer.valueOf(this.settings.getOrDefault("task.lifecycle.queue.capacity", "100000"));
+    }
+
+    /**
+     * max number of task executors this instance runs at once on all hosts, waiting tasks beyond it stay in queue
+     */
+    public int getTaskSchedulerMaxRunning() {
+        return Integer.valueOf(this.settings.getOrDefault("task.scheduler.max.running", "200"));
+    }
+
+    /**
+     * hosts tasks are placed on, comma separated. Tasks are launched on hosts other than this one through ssh
+     */
+    public List<String> getTaskHosts() {
+        List<String> hosts = new ArrayList<>();
+        for (String host : this.settings.getOrDefault("task.scheduler.hosts", "localhost").split(",")) {
+            if (!host.trim().isEmpty())
+                hosts.add(host.trim());
+        }
+        return hosts;
+    }
+
+    /**
+     * max number of task executors running on a host at once, {@code task.scheduler.host.slots.<host>} overrides
+     * {@code task.scheduler.host.slots} for a host
+     */
+    public int getTaskHostSlots(String host) {
+        String slots = this.settings.get("task.scheduler.host.slots." + host);
+        if (slots != null)
+            return Integer.valueOf(slots);
+        return Integer.valueOf(this.settings.getOrDefault("task.scheduler.host.slots", "50"));
+    }
+
+    /**
+     * max number of waiting tasks leased in one query
+     */
+    public int getTaskSchedulerBatchSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.scheduler.batch.size", "100"));
+    }
+
+    /**
+     * milliseconds between polls of waiting tasks submitted by other instances, while polls find tasks. Submits to
+     * this instance wake scheduler up at once
+     */
+    public long getTaskSchedulerPollMinMillis() {
+        return Long.valueOf(this.settings.getOrDefault("task.scheduler.poll.min.ms", "100"));
+    }
+
+    /**
+     * upper bound of poll interval, which doubles while polls find no task
+     */
+    public long getTaskSchedulerPollMaxMillis() {
+        return Long.valueOf(this.settings.getOrDefault("task.scheduler.poll.max.ms", "2000"));
+    }
+
+    /**
+     * weights of task queues, as {@code queue:weight} pairs separated by comma. Queues share launches in proportion
+     * to their weights, queues not listed have weight 1
+     */
+    public Map<String, Integer> getTaskQueueWeights() {
+        Map<String, Integer> weights = new HashMap<>();
+        String value = this.settings.getOrDefault("task.scheduler.queue.weights", "");
+        for (String pair : value.split(",")) {
+            if (pair.trim().isEmpty())
+                continue;
+            String[] parts = pair.split(":");
+            if (parts.length != 2)
+                throw new AthenaException("Illegal task queue weight: " + pair);
+            weights.put(parts[0].trim(), Integer.valueOf(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * max number of task launch commands running at once
+     */
+    public int getTaskLauncherThreads() {
+        return Integer.valueOf(this.settings.getOrDefault("task.launcher.threads", "16"));
+    }
+
+    /**
+     * seconds after which a task launch command is killed and the launch fails. Executors are started in background,
+     * so running tasks aren't limited by it
+     */
+    public long getTaskLauncherTimeoutSeconds() {
+        return Long.valueOf(this.settings.getOrDefault("task.launcher.timeout.seconds", "60"));
+    }
+
+    /**
+     * milliseconds an executor has to connect after its launch command exited, a task whose executor doesn't connect
+     * in time fails, e.g. when the executor died before its handshake
+     */
+    public long getTaskExecutorHandshakeTimeoutMillis() {
+        return Long.valueOf(this.settings.getOrDefault("task.executor.handshake.timeout.ms", "60000"));
+    }
+
+    /**
+     * milliseconds of a tick of schedule timing wheel, a schedule fires at most a tick after its fire time
+     */
+    public long getTaskScheduleWheelTickMillis() {
+        return Long.valueOf(this.settings.getOrDefault("task.schedule.wheel.tick.ms", "1000"));
+    }
+
+    /**
+     * number of buckets of schedule timing wheel
+     */
+    public int getTaskScheduleWheelSize() {
+        return Integer.valueOf(this.settings.getOrDefault("task.schedule.wheel.size", "512"));
+    }
+
+    /**
+     * seconds a schedule may fire late before its misfire policy applies
+     */
+    public long getTaskScheduleMisfireThresholdSeconds() {
+        return Long.valueOf(this.settings.getOrDefault("task.schedule.misfire.threshold.seconds", "60"));
+    }
+
+    /**
+     * max number of tasks a catching up schedule submits for missed fire times at once
+     */
+    public int getTaskScheduleCatchUpMax() {
+        return Integer.valueOf(this.settings.getOrDefault("task.schedule.catchup.max", "100"));
+    }
+
+    /**
+     * seconds between reloads of schedules, which picks up schedules changed by other instances
+     */
+    public long getTaskScheduleReloadSeconds() {
+        return Long.valueOf(this.settings.getOrDefault("task.schedule.reload.seconds", "60"));
+    }
+
+    /**
+     * milliseconds between checks of tasks of running jobs, a node is submitted at most this long after its upstream
+     * nodes succeeded
+     */
+    public long getJobSchedulerPollMillis() {
+        return Long.valueOf(this.settings.getOrDefault("job.scheduler.poll.ms", "1000"));
+    }
+
     static AthenaConf getDefaultConf() {
         Map<String, String> allConf = new HashMap<>();
 
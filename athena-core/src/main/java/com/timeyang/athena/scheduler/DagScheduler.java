@@ -1,13 +1,251 @@
 package com.timeyang.athena.scheduler;
 
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskManager;
+import com.timeyang.athena.task.TaskState;
+import com.timeyang.athena.task.TaskStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 /**
+ * Runs {@link Job jobs} on top of {@link TaskManager}. A job is validated and ordered by {@link JobGraph}, then every
+ * node whose upstream nodes all succeeded is submitted, so independent branches run in parallel. Tasks of running jobs
+ * are checked every {@code job.scheduler.poll.ms}, and nodes which became ready are submitted together.
+ * <p>Ready nodes are submitted in order of their rank, the estimated time from their start to the end of the job
+ * by average durations of finished tasks of the same name. Ranks are also mapped into a band of
+ * {@value #RANK_PRIORITY_BAND} priorities on top of priority of node task, so nodes on the critical path launch first
+ * when slots are short, while tasks of other jobs whose priority differs by the band or more keep their order.</p>
+ * <p>If a node fails, nodes not submitted yet are cancelled and the job fails when submitted nodes finished. Jobs and
+ * nodes are kept in {@link JobStore}, running jobs are resumed when the scheduler starts. A node is submitted with an
+ * idempotency key of its job and index, so a node submitted right before a crash gets its task back instead of a
+ * duplicate when submitted again.</p>
+ * <p>Only the instance whose task scheduler is leader advances jobs. Jobs submitted to a standby are saved and
+ * advanced by the leader, and a standby which takes over reloads running jobs first.</p>
+ *
  * @author https://github.com/chaokunyang
  */
 public class DagScheduler implements Scheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DagScheduler.class);
+    private static final long AWAIT_TERMINATION_SECONDS = 5;
+    /**
+     * estimated seconds of a task whose name has no finished task yet
+     */
+    private static final double DEFAULT_DURATION = 1;
+    /**
+     * number of priorities ranks of a job are mapped into
+     */
+    static final int RANK_PRIORITY_BAND = 4;
+
+    private final TaskManager taskManager;
+    private final JobStore jobStore;
+    private final long pollMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dag-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * running jobs by id, guarded by this
+     */
+    private final Map<Long, Job> runningJobs = new LinkedHashMap<>();
+    /**
+     * whether running jobs were loaded since this instance became leader, guarded by this
+     */
+    private boolean resumed;
+
+    public DagScheduler(AthenaConf athenaConf, TaskManager taskManager, DataSource dataSource) {
+        this.taskManager = taskManager;
+        this.jobStore = new JobStore(dataSource);
+        this.pollMillis = athenaConf.getJobSchedulerPollMillis();
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::advanceJobs, 0, pollMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Dag scheduler started");
+    }
+
+    /**
+     * replace running jobs by those in store, which other instances may have submitted or advanced
+     */
+    private synchronized void resume() {
+        List<Job> jobs = jobStore.getRunningJobs();
+        runningJobs.clear();
+        jobs.forEach(job -> runningJobs.put(job.getJobId(), job));
+        resumed = true;
+        LOGGER.info("Dag scheduler resumed {} running jobs", jobs.size());
+    }
+
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(AWAIT_TERMINATION_SECONDS, TimeUnit.SECONDS);
+            LOGGER.info("Dag scheduler stopped");
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public long submit(Job job) {
+        JobGraph graph = job.buildGrapth();
+        double[] durations = new double[graph.size()];
+        for (int i = 0; i < graph.size(); i++) {
+            TaskStats stats = taskManager.getTaskStats(graph.getTask(i).getTaskName());
+            durations[i] = stats != null && stats.getDurationCount() > 0 ? stats.getAvgDuration() : DEFAULT_DURATION;
+        }
+        double[] ranks = graph.ranks(durations);
+
+        List<JobNode> nodes = new ArrayList<>(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            JobNode node = new JobNode();
+            node.setNodeIndex(i);
+            WaitingTask task = new WaitingTask(graph.getTask(i));
+            task.setTaskId(null);
+            task.setSubmitTime(null);
+            node.setTask(task);
+            node.setUpstreams(new ArrayList<>(graph.getUpstreams(i)));
+            node.setRank(ranks[i]);
+            nodes.add(node);
+        }
+        // greater rank, higher priority
+        double maxRank = Arrays.stream(ranks).max().orElse(0);
+        for (JobNode node : nodes) {
+            WaitingTask task = node.getTask();
+            int priority = task.getPriority() == null ? 0 : task.getPriority();
+            task.setPriority(priority + rankPriority(node.getRank(), maxRank));
+        }
+
+        job.setJobNodes(nodes);
+        job.setState(JobState.RUNNING);
+        job.setSubmitTime(Instant.now());
+        job.setEndTime(null);
+        jobStore.create(job);
+        synchronized (this) {
+            runningJobs.put(job.getJobId(), job);
+            if (resumed && taskManager.isLeader())
+                advance(job);
+        }
+        LOGGER.info("Job [{}] {} submitted with {} tasks", job.getJobId(), job.getJobName(), nodes.size());
+        return job.getJobId();
+    }
+
+    /**
+     * @return rank mapped into [0, {@link #RANK_PRIORITY_BAND})
+     */
+    static int rankPriority(double rank, double maxRank) {
+        if (maxRank <= 0)
+            return 0;
+        return (int) Math.round(rank / maxRank * (RANK_PRIORITY_BAND - 1));
+    }
+
+    @Override
+    public Job getJob(long jobId) {
+        return jobStore.get(jobId);
+    }
+
+    private void advanceJobs() {
+        // catch all, or else subsequent runs are suppressed
+        try {
+            synchronized (this) {
+                if (!taskManager.isLeader()) {
+                    resumed = false;
+                    return;
+                }
+                if (!resumed)
+                    resume();
+                for (Job job : new ArrayList<>(runningJobs.values())) {
+                    advance(job);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Advance jobs failed", e);
+        }
+    }
+
+    /**
+     * record finished nodes, submit nodes which became ready and finish job when all its nodes finished
+     */
+    private synchronized void advance(Job job) {
+        List<JobNode> nodes = job.getJobNodes();
+        List<JobNode> changed = new ArrayList<>();
+
+        List<Long> submittedTaskIds = nodes.stream()
+                .filter(node -> node.getState() == JobNode.State.SUBMITTED)
+                .map(JobNode::getTaskId)
+                .collect(Collectors.toList());
+        if (!submittedTaskIds.isEmpty()) {
+            Map<Long, TaskInfo> tasks = taskManager.getTasks(submittedTaskIds);
+            for (JobNode node : nodes) {
+                if (node.getState() != JobNode.State.SUBMITTED)
+                    continue;
+                TaskInfo task = tasks.get(node.getTaskId());
+                if (task == null) {
+                    LOGGER.warn("Task [{}] of job [{}] is gone, fail its node", node.getTaskId(), job.getJobId());
+                    node.setState(JobNode.State.FAILED);
+                    changed.add(node);
+                } else if (task instanceof FinishedTask) {
+                    boolean succeeded = ((FinishedTask) task).getState() == TaskState.SUCCESS;
+                    node.setState(succeeded ? JobNode.State.SUCCESS : JobNode.State.FAILED);
+                    changed.add(node);
+                }
+            }
+        }
 
+        boolean failed = nodes.stream().anyMatch(node -> node.getState() == JobNode.State.FAILED);
+        List<JobNode> ready = new ArrayList<>();
+        for (JobNode node : nodes) {
+            if (node.getState() != JobNode.State.PENDING)
+                continue;
+            if (failed) {
+                node.setState(JobNode.State.CANCELLED);
+                changed.add(node);
+            } else if (node.getUpstreams().stream()
+                    .allMatch(up -> nodes.get(up).getState() == JobNode.State.SUCCESS)) {
+                ready.add(node);
+            }
+        }
+        if (!ready.isEmpty()) {
+            ready.sort(Comparator.comparingDouble(JobNode::getRank).reversed());
+            List<WaitingTask> tasks = new ArrayList<>(ready.size());
+            for (JobNode node : ready) {
+                WaitingTask task = new WaitingTask(node.getTask());
+                task.setIdempotencyKey("job-" + job.getJobId() + "-node-" + node.getNodeIndex());
+                tasks.add(task);
+            }
+            List<Long> taskIds = taskManager.submitTasks(tasks);
+            for (int i = 0; i < ready.size(); i++) {
+                ready.get(i).setTaskId(taskIds.get(i));
+                ready.get(i).setState(JobNode.State.SUBMITTED);
+                changed.add(ready.get(i));
+            }
+        }
 
-        return 0;
+        boolean finished = nodes.stream().allMatch(node -> node.getState().isFinished());
+        if (finished) {
+            job.setState(failed ? JobState.FAILED : JobState.SUCCESS);
+            job.setEndTime(Instant.now());
+        }
+        if (!changed.isEmpty() || finished)
+            jobStore.update(job, changed);
+        if (finished) {
+            runningJobs.remove(job.getJobId());
+            LOGGER.info("Job [{}] {} finished in state {}", job.getJobId(), job.getJobName(), job.getState());
+        }
     }
 }
@@ -2,16 +2,29 @@ package com.timeyang.athena.scheduler;
 
 import com.timeyang.athena.task.TaskInfo;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 /**
+ * a graph of tasks, a task is launched after all its upstream tasks succeeded. Tasks are templates, task id and
+ * submit time are ignored.
+ *
  * @author https://github.com/chaokunyang
  */
 public class Job {
+    private Long jobId;
+    private String jobName;
+    private JobState state;
+    private Instant submitTime;
+    private Instant endTime;
     private List<TaskInfo> tasks = new ArrayList<>();
-    private List<Node> nodes;
+    private List<Node> nodes = new ArrayList<>();
+    /**
+     * nodes of submitted job in topological order, absent before submit
+     */
+    private List<JobNode> jobNodes = new ArrayList<>();
 
     public Job addTask(TaskInfo task) {
         tasks.add(task);
@@ -23,13 +36,72 @@ public class Job {
         return this;
     }
 
+    /**
+     * @param taskInfo task which runs after {@code up} succeeded
+     * @param up       upstream task
+     */
     public Job setUpStrteam(TaskInfo taskInfo, TaskInfo up) {
         nodes.add(new Node(taskInfo, up));
         return this;
     }
 
-    public void buildGrapth() {
+    /**
+     * validate tasks and dependencies of job and order them topologically
+     *
+     * @throws com.timeyang.athena.AthenaException if a dependency refers to a task not in job, or tasks depend on
+     *                                             each other in a cycle
+     */
+    public JobGraph buildGrapth() {
+        return JobGraph.of(this);
+    }
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(Long jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public Job setJobName(String jobName) {
+        this.jobName = jobName;
+        return this;
+    }
+
+    public JobState getState() {
+        return state;
+    }
+
+    public void setState(JobState state) {
+        this.state = state;
+    }
 
+    public Instant getSubmitTime() {
+        return submitTime;
+    }
+
+    public void setSubmitTime(Instant submitTime) {
+        this.submitTime = submitTime;
+    }
+
+    public Instant getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Instant endTime) {
+        this.endTime = endTime;
+    }
+
+    public List<JobNode> getJobNodes() {
+        return jobNodes;
+    }
+
+    public void setJobNodes(List<JobNode> jobNodes) {
+        this.jobNodes = jobNodes;
     }
 
     List<TaskInfo> getTasks() {
@@ -39,8 +111,23 @@ public class Job {
     List<Node> getNodes() {
         return nodes;
     }
+
+    @Override
+    public String toString() {
+        return "Job{" +
+                "jobId=" + jobId +
+                ", jobName='" + jobName + '\'' +
+                ", state=" + state +
+                ", submitTime=" + submitTime +
+                ", endTime=" + endTime +
+                ", nodes=" + jobNodes.size() +
+                '}';
+    }
 }
 
+/**
+ * dependency of a task on an upstream task
+ */
 class Node {
     private TaskInfo taskInfo;
     private TaskInfo up;
@@ -0,0 +1,160 @@
+package com.timeyang.athena.scheduler;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validated task graph of a {@link Job}, with tasks in topological order by Kahn's algorithm: a task comes after all
+ * its upstream tasks, and tasks without order between them keep the order they were added in. Tasks are identified by
+ * instance, the same task added twice is rejected.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class JobGraph {
+    private final List<TaskInfo> tasks;
+    private final List<List<Integer>> upstreams;
+    private final List<List<Integer>> downstreams;
+
+    private JobGraph(List<TaskInfo> tasks, List<List<Integer>> upstreams, List<List<Integer>> downstreams) {
+        this.tasks = tasks;
+        this.upstreams = upstreams;
+        this.downstreams = downstreams;
+    }
+
+    static JobGraph of(Job job) {
+        List<TaskInfo> added = job.getTasks();
+        if (added.isEmpty())
+            throw new AthenaException("Job has no task");
+        Map<TaskInfo, Integer> indexes = new IdentityHashMap<>();
+        for (TaskInfo task : added) {
+            if (task == null)
+                throw new AthenaException("Job has a null task");
+            if (indexes.putIfAbsent(task, indexes.size()) != null)
+                throw new AthenaException("Task is added to job twice: " + task.getTaskName());
+        }
+
+        int size = added.size();
+        List<Set<Integer>> ups = new ArrayList<>(size);
+        List<Set<Integer>> downs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ups.add(new LinkedHashSet<>());
+            downs.add(new LinkedHashSet<>());
+        }
+        for (Node node : job.getNodes()) {
+            int down = indexOf(indexes, node.getTaskInfo());
+            int up = indexOf(indexes, node.getUp());
+            if (up == down)
+                throw new AthenaException("Task depends on itself: " + node.getTaskInfo().getTaskName());
+            ups.get(down).add(up);
+            downs.get(up).add(down);
+        }
+
+        int[] inDegrees = new int[size];
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < size; i++) {
+            inDegrees[i] = ups.get(i).size();
+            if (inDegrees[i] == 0)
+                ready.add(i);
+        }
+        int[] order = new int[size];
+        int[] positions = new int[size];
+        int ordered = 0;
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            positions[i] = ordered;
+            order[ordered++] = i;
+            for (int down : downs.get(i)) {
+                if (--inDegrees[down] == 0)
+                    ready.add(down);
+            }
+        }
+        if (ordered < size) {
+            List<String> cyclic = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (inDegrees[i] > 0)
+                    cyclic.add(added.get(i).getTaskName());
+            }
+            throw new AthenaException("Tasks of job depend on each other in a cycle: " + cyclic);
+        }
+
+        List<TaskInfo> tasks = new ArrayList<>(size);
+        List<List<Integer>> upstreams = new ArrayList<>(size);
+        List<List<Integer>> downstreams = new ArrayList<>(size);
+        for (int i : order) {
+            tasks.add(added.get(i));
+            upstreams.add(renumber(ups.get(i), positions));
+            downstreams.add(renumber(downs.get(i), positions));
+        }
+        return new JobGraph(tasks, upstreams, downstreams);
+    }
+
+    private static int indexOf(Map<TaskInfo, Integer> indexes, TaskInfo task) {
+        Integer index = task == null ? null : indexes.get(task);
+        if (index == null)
+            throw new AthenaException("Dependency refers to a task not added to job: " +
+                    (task == null ? null : task.getTaskName()));
+        return index;
+    }
+
+    private static List<Integer> renumber(Set<Integer> indexes, int[] positions) {
+        List<Integer> renumbered = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            renumbered.add(positions[index]);
+        }
+        renumbered.sort(null);
+        return renumbered;
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * @param index position in topological order
+     */
+    public TaskInfo getTask(int index) {
+        return tasks.get(index);
+    }
+
+    /**
+     * @return positions of upstream tasks, all less than {@code index}
+     */
+    public List<Integer> getUpstreams(int index) {
+        return upstreams.get(index);
+    }
+
+    /**
+     * @return positions of downstream tasks, all greater than {@code index}
+     */
+    public List<Integer> getDownstreams(int index) {
+        return downstreams.get(index);
+    }
+
+    /**
+     * longest path from each task to end of job, weighted by estimated durations of tasks on it. Tasks on the critical
+     * path have the greatest rank, delaying them delays the whole job.
+     *
+     * @param durations estimated duration of each task in topological order
+     * @return rank of each task in topological order
+     */
+    public double[] ranks(double[] durations) {
+        double[] ranks = new double[size()];
+        for (int i = size() - 1; i >= 0; i--) {
+            double longestDownstream = 0;
+            for (int down : downstreams.get(i)) {
+                longestDownstream = Math.max(longestDownstream, ranks[down]);
+            }
+            ranks[i] = durations[i] + longestDownstream;
+        }
+        return ranks;
+    }
+}
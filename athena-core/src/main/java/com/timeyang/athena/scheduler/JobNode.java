@@ -0,0 +1,114 @@
+package com.timeyang.athena.scheduler;
+
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a task of a submitted job and its progress
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class JobNode {
+    /**
+     * position of node in topological order of job, upstream nodes come first
+     */
+    private int nodeIndex;
+    /**
+     * template of task submitted when node is ready
+     */
+    private WaitingTask task;
+    private List<Integer> upstreams = new ArrayList<>();
+    /**
+     * estimated seconds from start of node to end of job along its longest downstream path. Nodes of greater rank
+     * are on the critical path and launched first
+     */
+    private double rank;
+    /**
+     * id of submitted task, null before node is submitted
+     */
+    private Long taskId;
+    private State state = State.PENDING;
+
+    public int getNodeIndex() {
+        return nodeIndex;
+    }
+
+    public void setNodeIndex(int nodeIndex) {
+        this.nodeIndex = nodeIndex;
+    }
+
+    public WaitingTask getTask() {
+        return task;
+    }
+
+    public void setTask(WaitingTask task) {
+        this.task = task;
+    }
+
+    public List<Integer> getUpstreams() {
+        return upstreams;
+    }
+
+    public void setUpstreams(List<Integer> upstreams) {
+        this.upstreams = upstreams;
+    }
+
+    public double getRank() {
+        return rank;
+    }
+
+    public void setRank(double rank) {
+        this.rank = rank;
+    }
+
+    public Long getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(Long taskId) {
+        this.taskId = taskId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    @Override
+    public String toString() {
+        return "JobNode{" +
+                "nodeIndex=" + nodeIndex +
+                ", taskName='" + (task == null ? null : task.getTaskName()) + '\'' +
+                ", upstreams=" + upstreams +
+                ", rank=" + rank +
+                ", taskId=" + taskId +
+                ", state=" + state +
+                '}';
+    }
+
+    public enum State {
+        /**
+         * waiting for upstream nodes
+         */
+        PENDING,
+        /**
+         * task submitted, not finished yet
+         */
+        SUBMITTED,
+        SUCCESS,
+        FAILED,
+        /**
+         * not submitted because an upstream node failed
+         */
+        CANCELLED;
+
+        boolean isFinished() {
+            return this == SUCCESS || this == FAILED || this == CANCELLED;
+        }
+    }
+}
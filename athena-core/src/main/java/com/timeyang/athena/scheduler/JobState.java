@@ -0,0 +1,16 @@
+package com.timeyang.athena.scheduler;
+
+/**
+ * @author https://github.com/chaokunyang
+ */
+public enum JobState {
+    RUNNING,
+    /**
+     * all tasks succeeded
+     */
+    SUCCESS,
+    /**
+     * a task failed, tasks after it are cancelled
+     */
+    FAILED
+}
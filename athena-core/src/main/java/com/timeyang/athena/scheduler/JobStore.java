@@ -0,0 +1,249 @@
+package com.timeyang.athena.scheduler;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.JdbcUtils.RowMapper;
+import com.timeyang.athena.utill.jdbc.SchemaMigrator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Jobs in table {@code job} and their nodes in table {@code job_node}. A node row holds its task template inline like
+ * a schedule row, and the id of its task once submitted. A job and its nodes are created in one transaction, and
+ * progress of a job is saved in one transaction, so a restarted scheduler resumes from a consistent state.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class JobStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobStore.class);
+    static final String JOB_TABLE = "job";
+    static final String JOB_NODE_TABLE = "job_node";
+
+    private static final String INSERT_JOB_SQL = "INSERT INTO " + JOB_TABLE + "(job_name, state, submit_time) " +
+            "VALUES(?, ?, ?)";
+    private static final String INSERT_NODE_SQL = "INSERT INTO " + JOB_NODE_TABLE + "(job_id, node_index, " +
+            "upstreams, node_rank, state, task_name, task_type, class_name, classpath, params, max_tries, retry_wait, " +
+            "priority, queue, cpus, memory_mb) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_JOB_SQL = "UPDATE " + JOB_TABLE + " SET state = ?, end_time = ? " +
+            "WHERE job_id = ?";
+    private static final String UPDATE_NODE_SQL = "UPDATE " + JOB_NODE_TABLE + " SET task_id = ?, state = ? " +
+            "WHERE job_id = ? AND node_index = ?";
+
+    private final DataSource dataSource;
+
+    JobStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+        new SchemaMigrator(JOB_TABLE)
+                .add(1, "create job tables", this::createTables)
+                .migrate(dataSource);
+    }
+
+    private void createTables(Connection connection) {
+        String jobSql = "CREATE TABLE " + JOB_TABLE +
+                "(" +
+                "job_id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) PRIMARY KEY, " +
+                "job_name VARCHAR(100), " +
+                "state VARCHAR(20) NOT NULL, " +
+                "submit_time TIMESTAMP, " +
+                "end_time TIMESTAMP" +
+                ")";
+        if (JdbcUtils.createTableIfAbsent(connection, JOB_TABLE, jobSql))
+            LOGGER.info("Created table " + JOB_TABLE);
+        // running jobs are loaded on start
+        JdbcUtils.createIndexIfAbsent(connection, JOB_TABLE, JOB_TABLE + "_state_idx", "state");
+
+        String nodeSql = "CREATE TABLE " + JOB_NODE_TABLE +
+                "(" +
+                "job_id BIGINT NOT NULL, " +
+                "node_index INTEGER NOT NULL, " +
+                "upstreams VARCHAR(10000), " +
+                "node_rank DOUBLE, " +
+                "task_id BIGINT, " +
+                "state VARCHAR(20) NOT NULL, " +
+                "task_name VARCHAR(100), " +
+                "task_type VARCHAR(100), " +
+                "class_name VARCHAR(100), " +
+                "classpath VARCHAR(30000), " +
+                "params VARCHAR(10000), " +
+                "max_tries INTEGER, " +
+                "retry_wait BIGINT, " +
+                "priority INTEGER, " +
+                "queue VARCHAR(100), " +
+                "cpus DOUBLE, " +
+                "memory_mb INTEGER, " +
+                "PRIMARY KEY (job_id, node_index)" +
+                ")";
+        if (JdbcUtils.createTableIfAbsent(connection, JOB_NODE_TABLE, nodeSql))
+            LOGGER.info("Created table " + JOB_NODE_TABLE);
+    }
+
+    /**
+     * insert job and its nodes
+     *
+     * @return job with job id set
+     */
+    Job create(Job job) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            try (PreparedStatement pStatement = connection.prepareStatement(INSERT_JOB_SQL, new String[]{"job_id"})) {
+                JdbcUtils.setParameters(pStatement, job.getJobName(), job.getState(), job.getSubmitTime());
+                pStatement.executeUpdate();
+                try (ResultSet rs = pStatement.getGeneratedKeys()) {
+                    rs.next();
+                    job.setJobId(rs.getLong(1));
+                }
+            }
+            try (PreparedStatement pStatement = connection.prepareStatement(INSERT_NODE_SQL)) {
+                for (JobNode node : job.getJobNodes()) {
+                    WaitingTask task = node.getTask();
+                    JdbcUtils.setParameters(pStatement, job.getJobId(), node.getNodeIndex(),
+                            node.getUpstreams().stream().map(String::valueOf).collect(Collectors.joining(",")),
+                            node.getRank(), node.getState(), task.getTaskName(), task.getTaskType(),
+                            task.getClassName(), task.getClasspath(), task.getParams(), task.getMaxTries(),
+                            task.getRetryWait(), task.getPriority(), task.getQueue(), task.getCpus(),
+                            task.getMemoryMb());
+                    pStatement.addBatch();
+                }
+                pStatement.executeBatch();
+            }
+            connection.commit();
+            return job;
+        } catch (SQLException e) {
+            JdbcUtils.rollback(connection);
+            job.setJobId(null);
+            throw new AthenaException("Can't create job " + job, e);
+        } finally {
+            JdbcUtils.close(connection);
+        }
+    }
+
+    /**
+     * save state of job and changed nodes
+     */
+    void update(Job job, Collection<JobNode> nodes) {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            if (!nodes.isEmpty()) {
+                try (PreparedStatement pStatement = connection.prepareStatement(UPDATE_NODE_SQL)) {
+                    for (JobNode node : nodes) {
+                        JdbcUtils.setParameters(pStatement, node.getTaskId(), node.getState(), job.getJobId(),
+                                node.getNodeIndex());
+                        pStatement.addBatch();
+                    }
+                    pStatement.executeBatch();
+                }
+            }
+            try (PreparedStatement pStatement = connection.prepareStatement(UPDATE_JOB_SQL)) {
+                JdbcUtils.setParameters(pStatement, job.getState(), job.getEndTime(), job.getJobId());
+                pStatement.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            JdbcUtils.rollback(connection);
+            throw new AthenaException("Can't update job " + job.getJobId(), e);
+        } finally {
+            JdbcUtils.close(connection);
+        }
+    }
+
+    /**
+     * @return job with its nodes, or null if job doesn't exist
+     */
+    Job get(long jobId) {
+        String sql = "SELECT * FROM " + JOB_TABLE + " WHERE job_id = ?";
+        List<Job> jobs = JdbcUtils.query(dataSource, sql, jobRowMapper, jobId);
+        if (jobs.isEmpty())
+            return null;
+        Job job = jobs.get(0);
+        String nodeSql = "SELECT * FROM " + JOB_NODE_TABLE + " WHERE job_id = ? ORDER BY node_index";
+        job.setJobNodes(JdbcUtils.query(dataSource, nodeSql, nodeRowMapper, jobId));
+        return job;
+    }
+
+    /**
+     * @return running jobs with their nodes, ordered by job id
+     */
+    List<Job> getRunningJobs() {
+        String sql = "SELECT * FROM " + JOB_TABLE + " WHERE state = ? ORDER BY job_id";
+        List<Job> jobs = JdbcUtils.query(dataSource, sql, jobRowMapper, JobState.RUNNING);
+        if (jobs.isEmpty())
+            return jobs;
+
+        Map<Long, Job> jobsById = new HashMap<>();
+        jobs.forEach(job -> jobsById.put(job.getJobId(), job));
+        String nodeSql = "SELECT n.* FROM " + JOB_NODE_TABLE + " n JOIN " + JOB_TABLE + " j " +
+                "ON n.job_id = j.job_id WHERE j.state = ? ORDER BY n.job_id, n.node_index";
+        JdbcUtils.query(dataSource, nodeSql, (rs, rowNum) -> {
+            Job job = jobsById.get(rs.getLong("job_id"));
+            // job started after jobs were read is left to next load
+            if (job != null)
+                job.getJobNodes().add(nodeRowMapper.mapRow(rs, rowNum));
+            return null;
+        }, JobState.RUNNING);
+        return jobs;
+    }
+
+    private static final RowMapper<Job> jobRowMapper = (rs, rowNum) -> {
+        Job job = new Job();
+        job.setJobId(rs.getLong("job_id"));
+        job.setJobName(rs.getString("job_name"));
+        job.setState(JobState.valueOf(rs.getString("state")));
+        job.setSubmitTime(toInstant(rs.getTimestamp("submit_time")));
+        job.setEndTime(toInstant(rs.getTimestamp("end_time")));
+        return job;
+    };
+
+    private static final RowMapper<JobNode> nodeRowMapper = (rs, rowNum) -> {
+        JobNode node = new JobNode();
+        node.setNodeIndex(rs.getInt("node_index"));
+        String upstreams = rs.getString("upstreams");
+        node.setUpstreams(upstreams == null || upstreams.isEmpty() ? new ArrayList<>() :
+                Arrays.stream(upstreams.split(",")).map(Integer::valueOf).collect(Collectors.toList()));
+        node.setRank(rs.getDouble("node_rank"));
+        long taskId = rs.getLong("task_id");
+        node.setTaskId(rs.wasNull() ? null : taskId);
+        node.setState(JobNode.State.valueOf(rs.getString("state")));
+
+        WaitingTask task = new WaitingTask();
+        task.setTaskName(rs.getString("task_name"));
+        String taskType = rs.getString("task_type");
+        task.setTaskType(taskType == null ? null : TaskType.valueOf(taskType));
+        task.setClassName(rs.getString("class_name"));
+        task.setClasspath(rs.getString("classpath"));
+        task.setParams(rs.getString("params"));
+        // unset fields stay null, so task manager fills its defaults when node is submitted
+        task.setMaxTries((Integer) rs.getObject("max_tries"));
+        task.setRetryWait(rs.getObject("retry_wait") == null ? null : rs.getLong("retry_wait"));
+        task.setPriority((Integer) rs.getObject("priority"));
+        task.setQueue(rs.getString("queue"));
+        task.setCpus(rs.getObject("cpus") == null ? null : rs.getDouble("cpus"));
+        task.setMemoryMb((Integer) rs.getObject("memory_mb"));
+        node.setTask(task);
+        return node;
+    };
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+}
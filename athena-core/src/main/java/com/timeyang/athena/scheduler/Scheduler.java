@@ -7,6 +7,15 @@ package com.timeyang.athena.scheduler;
  */
 public interface Scheduler {
 
+    /**
+     * @return job id
+     * @throws com.timeyang.athena.AthenaException if job is invalid
+     */
     long submit(Job job);
 
+    /**
+     * @return job with state of its nodes, or null if job doesn't exist
+     */
+    Job getJob(long jobId);
+
 }
@@ -0,0 +1,470 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.utill.jdbc.PagedResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Write-through registry of active tasks in front of a repository. Waiting and running tasks are loaded on start and
+ * kept in memory together with recently finished tasks, so lookups of a task by id, which the scheduler does on every
+ * lifecycle event, don't go to the repository. Changes are written to the repository first, then to the registry.
+ * Page queries and history always go to the repository.
+ * <p>Tasks unknown to the registry, e.g. created by another instance, are loaded on first lookup. If a transition
+ * changes nothing because another instance moved the task, its entry is dropped and reloaded on next lookup.</p>
+ * <p>Idempotency keys of active tasks are indexed, so a resubmit of an active task is answered without going to the
+ * repository. Other keys are checked by the repository.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class CachingTaskRepository implements TaskRepository {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingTaskRepository.class);
+
+    private final TaskRepository delegate;
+    /**
+     * waiting and running tasks, guarded by this
+     */
+    private final Map<Long, TaskInfo> activeTasks = new HashMap<>();
+    /**
+     * ids of active tasks by their idempotency keys, guarded by this
+     */
+    private final Map<String, Long> activeKeys = new HashMap<>();
+    /**
+     * recently finished tasks in access order, guarded by this
+     */
+    private final LinkedHashMap<Long, FinishedTask> finishedTasks;
+
+    /**
+     * @param finishedCapacity max number of recently finished tasks kept
+     */
+    CachingTaskRepository(TaskRepository delegate, int finishedCapacity) {
+        this.delegate = delegate;
+        this.finishedTasks = new LinkedHashMap<Long, FinishedTask>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, FinishedTask> eldest) {
+                return size() > finishedCapacity;
+            }
+        };
+        long waiting = delegate.forEachWaitingTask(this::put);
+        long running = delegate.forEachRunningTask(this::put);
+        LOGGER.info("Loaded {} waiting tasks and {} running tasks into task registry", waiting, running);
+    }
+
+    //************************ Waiting task ************************
+    @Override
+    public TaskInfo create(TaskInfo task) {
+        create(Collections.singletonList(task));
+        return task;
+    }
+
+    /**
+     * only tasks created by repository are put, a task whose key is taken may be in any state
+     */
+    @Override
+    public <T extends TaskInfo> List<T> create(List<T> tasks) {
+        List<T> missed = new ArrayList<>(tasks.size());
+        synchronized (this) {
+            for (T task : tasks) {
+                Long taskId = task.getIdempotencyKey() == null ? null : activeKeys.get(task.getIdempotencyKey());
+                if (taskId != null)
+                    task.setTaskId(taskId);
+                else
+                    missed.add(task);
+            }
+        }
+        if (missed.isEmpty())
+            return missed;
+        List<T> created = delegate.create(missed);
+        created.forEach(task -> put(new WaitingTask(task)));
+        return created;
+    }
+
+    @Override
+    public WaitingTask getWaitingTask(long taskId) {
+        TaskInfo task = getTask(taskId);
+        return task instanceof WaitingTask ? (WaitingTask) task : null;
+    }
+
+    @Override
+    public PagedResult<WaitingTask> getWaitingTasks(Page page) {
+        return delegate.getWaitingTasks(page);
+    }
+
+    @Override
+    public long forEachWaitingTask(Consumer<? super WaitingTask> consumer) {
+        return delegate.forEachWaitingTask(consumer);
+    }
+
+    @Override
+    public void deleteWaitingTask(Long taskId) {
+        delegate.deleteWaitingTask(taskId);
+        synchronized (this) {
+            if (activeTasks.get(taskId) instanceof WaitingTask)
+                removeActive(taskId);
+        }
+    }
+
+    @Override
+    public void deleteAllWaitingTask() {
+        delegate.deleteAllWaitingTask();
+        synchronized (this) {
+            activeTasks.values().removeIf(task -> task instanceof WaitingTask);
+            activeKeys.values().removeIf(taskId -> !activeTasks.containsKey(taskId));
+        }
+    }
+
+
+    //************************ Running task ************************
+    @Override
+    public void moveToRunning(RunningTask task) {
+        if (apply(TaskTransition.moveToRunning(task)) == 0)
+            LOGGER.warn("Task [{}] isn't waiting, can't move it to running", task.getTaskId());
+    }
+
+    @Override
+    public void updateRunningTask(RunningTask task) {
+        apply(TaskTransition.updateRunning(task));
+    }
+
+    @Override
+    public Optional<RunningTask> getRunningTask(long taskId) {
+        TaskInfo task = getTask(taskId);
+        return task instanceof RunningTask ? Optional.of((RunningTask) task) : Optional.empty();
+    }
+
+    @Override
+    public long forEachRunningTask(Consumer<? super RunningTask> consumer) {
+        return delegate.forEachRunningTask(consumer);
+    }
+
+    @Override
+    public PagedResult<RunningTask> getRunningTasks(Page page) {
+        return delegate.getRunningTasks(page);
+    }
+
+
+    //************************ Finished Task ************************
+    @Override
+    public void moveFromWaitingToFinished(FinishedTask task) {
+        if (apply(TaskTransition.moveFromWaitingToFinished(task)) == 0)
+            LOGGER.warn("Task [{}] isn't waiting, can't move it to finished", task.getTaskId());
+    }
+
+    @Override
+    public void moveToFinished(FinishedTask task) {
+        if (apply(TaskTransition.moveToFinished(task)) == 0)
+            LOGGER.warn("Task [{}] isn't running, can't move it to finished", task.getTaskId());
+    }
+
+    @Override
+    public long forEachFinishedTask(Consumer<? super FinishedTask> consumer) {
+        return delegate.forEachFinishedTask(consumer);
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getFinishedTasks(Page page) {
+        return delegate.getFinishedTasks(page);
+    }
+
+    /**
+     * finished tasks never change, so they are served from the registry. A task active in the registry may have been
+     * finished by another instance, so it is looked up in repository like unknown tasks
+     */
+    @Override
+    public FinishedTask getFinishedTask(long taskId) {
+        synchronized (this) {
+            FinishedTask task = finishedTasks.get(taskId);
+            if (task != null)
+                return task.copy();
+        }
+        FinishedTask task = delegate.getFinishedTask(taskId);
+        if (task != null)
+            put(task);
+        return task;
+    }
+
+
+    //************************ Batch ************************
+    @Override
+    public Map<Long, TaskInfo> getTasks(Collection<Long> taskIds) {
+        Map<Long, TaskInfo> tasks = new HashMap<>();
+        List<Long> missed = new ArrayList<>();
+        synchronized (this) {
+            for (Long taskId : taskIds) {
+                TaskInfo task = cached(taskId);
+                if (task != null)
+                    tasks.put(taskId, task.copy());
+                else
+                    missed.add(taskId);
+            }
+        }
+        if (!missed.isEmpty()) {
+            Map<Long, TaskInfo> loaded = delegate.getTasks(missed);
+            loaded.values().forEach(this::put);
+            tasks.putAll(loaded);
+        }
+        return tasks;
+    }
+
+    @Override
+    public int[] applyTransitions(List<TaskTransition> transitions) {
+        int[] counts = delegate.applyTransitions(transitions);
+        for (int i = 0; i < counts.length; i++) {
+            applied(transitions.get(i), counts[i]);
+        }
+        return counts;
+    }
+
+
+    //************************ Lease ************************
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, int limit, Duration leaseTime) {
+        List<WaitingTask> claimed = delegate.claimWaitingTasks(owner, limit, leaseTime);
+        claimed.forEach(this::put);
+        return claimed;
+    }
+
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, String queue, int limit, Duration leaseTime) {
+        List<WaitingTask> claimed = delegate.claimWaitingTasks(owner, queue, limit, leaseTime);
+        claimed.forEach(this::put);
+        return claimed;
+    }
+
+    /**
+     * retries may be left by other instances, so due retries always come from repository
+     */
+    @Override
+    public List<RunningTask> claimDueRetries(String owner, int limit, Duration leaseTime) {
+        List<RunningTask> claimed = delegate.claimDueRetries(owner, limit, leaseTime);
+        claimed.forEach(this::put);
+        return claimed;
+    }
+
+    /**
+     * waiting tasks may be submitted by other instances, so queues always come from repository
+     */
+    @Override
+    public Set<String> getWaitingQueues() {
+        return delegate.getWaitingQueues();
+    }
+
+    @Override
+    public Set<Long> claimTasks(String owner, Collection<Long> taskIds, Duration leaseTime) {
+        return delegate.claimTasks(owner, taskIds, leaseTime);
+    }
+
+    @Override
+    public void releaseTasks(String owner, Collection<Long> taskIds) {
+        delegate.releaseTasks(owner, taskIds);
+    }
+
+
+    //************************ History ************************
+    /**
+     * archived tasks are only served by repository, so recently finished tasks are forgotten
+     */
+    @Override
+    public int archiveFinishedTasks(Instant before) {
+        int archived = delegate.archiveFinishedTasks(before);
+        if (archived > 0) {
+            synchronized (this) {
+                finishedTasks.clear();
+            }
+        }
+        return archived;
+    }
+
+    @Override
+    public List<YearMonth> dropFinishedTaskHistory(Instant before) {
+        List<YearMonth> months = delegate.dropFinishedTaskHistory(before);
+        if (!months.isEmpty()) {
+            synchronized (this) {
+                finishedTasks.clear();
+            }
+        }
+        return months;
+    }
+
+    @Override
+    public List<YearMonth> getArchivedMonths() {
+        return delegate.getArchivedMonths();
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page) {
+        return delegate.getArchivedTasks(month, page);
+    }
+
+    @Override
+    public List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        return delegate.getDailyRollups(from, to);
+    }
+
+
+
+    //************************ Stats ************************
+    @Override
+    public List<TaskStats> getTaskStats() {
+        return delegate.getTaskStats();
+    }
+
+    @Override
+    public TaskStats getTaskStats(String taskName) {
+        return delegate.getTaskStats(taskName);
+    }
+
+
+    //************************ Schedule ************************
+    @Override
+    public TaskSchedule createSchedule(TaskSchedule schedule) {
+        return delegate.createSchedule(schedule);
+    }
+
+    @Override
+    public TaskSchedule getSchedule(long scheduleId) {
+        return delegate.getSchedule(scheduleId);
+    }
+
+    @Override
+    public List<TaskSchedule> getSchedules() {
+        return delegate.getSchedules();
+    }
+
+    @Override
+    public void deleteSchedule(long scheduleId) {
+        delegate.deleteSchedule(scheduleId);
+    }
+
+    @Override
+    public boolean fireSchedule(long scheduleId, Instant expectedFireTime, Instant nextFireTime, Instant fireTime,
+                                List<WaitingTask> tasks) {
+        boolean fired = delegate.fireSchedule(scheduleId, expectedFireTime, nextFireTime, fireTime, tasks);
+        if (fired)
+            tasks.forEach(task -> put(new WaitingTask(task)));
+        return fired;
+    }
+
+    /**
+     * put current waiting and running tasks, and drop active tasks which aren't active any more, e.g. finished by
+     * another instance, so they are reloaded on next lookup. A task doesn't go back to an earlier state
+     */
+    @Override
+    public void refresh() {
+        delegate.refresh();
+        Map<Long, TaskInfo> tasks = new HashMap<>();
+        delegate.forEachWaitingTask(task -> tasks.put(task.getTaskId(), task));
+        delegate.forEachRunningTask(task -> tasks.put(task.getTaskId(), task));
+        synchronized (this) {
+            for (Long taskId : new ArrayList<>(activeTasks.keySet())) {
+                if (!tasks.containsKey(taskId))
+                    removeActive(taskId);
+            }
+            tasks.values().forEach(this::put);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            activeTasks.clear();
+            activeKeys.clear();
+            finishedTasks.clear();
+        }
+        delegate.close();
+    }
+
+
+    //************************ Registry ************************
+    /**
+     * @return copy of current state of task, or null if task doesn't exist
+     */
+    private TaskInfo getTask(long taskId) {
+        synchronized (this) {
+            TaskInfo task = cached(taskId);
+            if (task != null)
+                return task.copy();
+        }
+        TaskInfo task = delegate.getTasks(Collections.singletonList(taskId)).get(taskId);
+        if (task != null)
+            put(task);
+        return task;
+    }
+
+    private TaskInfo cached(long taskId) {
+        TaskInfo task = activeTasks.get(taskId);
+        return task != null ? task : finishedTasks.get(taskId);
+    }
+
+    private int apply(TaskTransition transition) {
+        int count = delegate.applyTransitions(Collections.singletonList(transition))[0];
+        applied(transition, count);
+        return count;
+    }
+
+    private void applied(TaskTransition transition, int count) {
+        if (count > 0) {
+            put(transition.getTask());
+        } else {
+            // registry and repository disagree, reload task on next lookup
+            long taskId = transition.getTask().getTaskId();
+            synchronized (this) {
+                removeActive(taskId);
+                finishedTasks.remove(taskId);
+            }
+        }
+    }
+
+    /**
+     * Put a copy of task. Writers may update registry in a different order than they changed repository, so a task
+     * never goes back to an earlier state, e.g. a finished task isn't put back as running.
+     */
+    private synchronized void put(TaskInfo task) {
+        long taskId = task.getTaskId();
+        TaskInfo current = cached(taskId);
+        if (current != null && stage(current) > stage(task))
+            return;
+        if (task instanceof FinishedTask) {
+            removeActive(taskId);
+            finishedTasks.put(taskId, ((FinishedTask) task).copy());
+        } else {
+            activeTasks.put(taskId, task.copy());
+            if (task.getIdempotencyKey() != null)
+                activeKeys.put(task.getIdempotencyKey(), taskId);
+        }
+    }
+
+    private void removeActive(long taskId) {
+        TaskInfo task = activeTasks.remove(taskId);
+        if (task != null && task.getIdempotencyKey() != null)
+            activeKeys.remove(task.getIdempotencyKey(), taskId);
+    }
+
+    private static int stage(TaskInfo task) {
+        if (task instanceof WaitingTask)
+            return 0;
+        else if (task instanceof RunningTask)
+            return 1;
+        else
+            return 2;
+    }
+
+}
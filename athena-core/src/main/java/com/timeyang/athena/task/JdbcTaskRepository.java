@@ -0,0 +1,1355 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.utill.jdbc.CountCache;
+import com.timeyang.athena.utill.jdbc.Criterion;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.JdbcUtils.RowMapper;
+import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.utill.jdbc.PagedResult;
+import com.timeyang.athena.utill.jdbc.SchemaMigrator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * task repository backed by database, tasks of all states live in one table
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class JdbcTaskRepository implements TaskRepository {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcTaskRepository.class);
+    /**
+     * all tasks live in this table, lifecycle transitions only update state columns
+     */
+    public static final String TASK_TABLE = "task";
+    // tables of old storage layout, which copies rows between tables. Migrated into TASK_TABLE when found.
+    private static final String WAITING_TASK_TABLE = "waiting_task";
+    private static final String RUNNING_TASK_TABLE = "running_task";
+    private static final String FINISHED_TASK_TABLE = "finished_task";
+    private static final long TASK_ID_START = 10000000;
+
+    private static final String WAITING_STATE_CONDITION = "state = '" + TaskState.PENDING + "'";
+    private static final String RUNNING_STATE_CONDITION = "state = '" + TaskState.RUNNING + "'";
+    private static final String FINISHED_STATE_CONDITION = "state IN (" +
+            "'" + TaskState.SUCCESS + "', " +
+            "'" + TaskState.FAILED + "', " +
+            "'" + TaskState.KILLED + "', " +
+            "'" + TaskState.LOST + "')";
+    private static final Set<TaskState> FINISHED_STATES =
+            EnumSet.of(TaskState.SUCCESS, TaskState.FAILED, TaskState.KILLED, TaskState.LOST);
+
+    private static final String CREATE_WAITING_TASK_SQL = "INSERT INTO " + TASK_TABLE +
+            "(task_name, host, class_name, params_hash, max_tries, submit_time, classpath_hash, retry_wait, task_type, " +
+            "priority, queue, cpus, memory_mb, idempotency_key, state) " +
+            "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, '" + TaskState.PENDING + "')";
+
+    private static final String MOVE_TO_RUNNING_SQL = "UPDATE " + TASK_TABLE + " " +
+            "SET state = '" + TaskState.RUNNING + "', host = ?, start_time = ?, try_number = ?, pid = ? " +
+            "WHERE task_id = ? AND " + WAITING_STATE_CONDITION;
+    private static final String UPDATE_RUNNING_SQL = "UPDATE " + TASK_TABLE + " " +
+            "SET try_number = ?, pid = ?, retry_time = NULL " +
+            "WHERE task_id = ? AND " + RUNNING_STATE_CONDITION;
+    private static final String RETRY_RUNNING_SQL = "UPDATE " + TASK_TABLE + " " +
+            "SET retry_time = ?, lease_owner = NULL, lease_expiry = NULL " +
+            "WHERE task_id = ? AND " + RUNNING_STATE_CONDITION;
+    private static final String MOVE_FROM_WAITING_TO_FINISHED_SQL = "UPDATE " + TASK_TABLE + " " +
+            "SET state = ?, try_number = ?, end_time = ? " +
+            "WHERE task_id = ? AND " + WAITING_STATE_CONDITION;
+    private static final String MOVE_TO_FINISHED_SQL = "UPDATE " + TASK_TABLE + " " +
+            "SET state = ?, try_number = ?, end_time = ?, duration = ?, retry_time = NULL " +
+            "WHERE task_id = ? AND " + RUNNING_STATE_CONDITION;
+
+    private static final String LEASE_FREE_CONDITION = "(lease_expiry IS NULL OR lease_expiry < ?)";
+    /**
+     * appended to transitions of a launch by a lease owner, an update of no row then means the lease was lost
+     */
+    private static final String LEASE_HELD_CONDITION = " AND lease_owner = ?";
+    private static final String ACTIVE_STATE_CONDITION = "state IN (" +
+            "'" + TaskState.PENDING + "', " +
+            "'" + TaskState.RUNNING + "')";
+
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final int MAX_IN_LIST_SIZE = 500;
+    /**
+     * prefix of idempotency keys which tasks without key get while their batch is inserted
+     */
+    private static final String TEMPORARY_KEY_PREFIX = "athena-batch:";
+    /**
+     * whether driver of a data source returns generated keys of all rows of a batch, detected by first batch insert
+     */
+    private static final Map<DataSource, Boolean> BATCH_GENERATED_KEYS_SUPPORTED =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final DataSource dataSource;
+    private final int fetchSize;
+    private final TaskContentStore contentStore;
+    private final TaskHistoryStore historyStore;
+    private final TaskSearchIndex searchIndex;
+    private final TaskStatsStore statsStore;
+    private final TaskScheduleStore scheduleStore;
+    /**
+     * invalidated when tasks are created, deleted or archived. State changes are frequent, totals by state are stale
+     * for at most ttl after them
+     */
+    private final CountCache countCache = new CountCache();
+
+    JdbcTaskRepository(DataSource dataSource) {
+        this(dataSource, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param fetchSize rows fetched in one round trip when iterating all tasks of a state
+     */
+    JdbcTaskRepository(DataSource dataSource, int fetchSize) {
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
+        this.contentStore = new TaskContentStore(dataSource);
+        this.historyStore = new TaskHistoryStore(dataSource, TASK_TABLE, FINISHED_STATE_CONDITION);
+        this.statsStore = new TaskStatsStore(dataSource);
+        this.scheduleStore = new TaskScheduleStore(dataSource);
+        this.searchIndex = new TaskSearchIndex(dataSource, TASK_TABLE);
+        migrateSchema();
+        searchIndex.load(historyStore.getPartitions());
+    }
+
+    /**
+     * migrate schema of task tables to latest version. Version 1 is the schema created before versioning, so its
+     * steps are idempotent.
+     */
+    private void migrateSchema() {
+        new SchemaMigrator(TASK_TABLE)
+                .add(1, "create task tables", this::createTaskTables)
+                .add(2, "index task name, host and lease expiry", connection -> {
+                    JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_name_state_idx",
+                            "task_name", "state");
+                    JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_host_idx", "host");
+                    JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_state_lease_idx",
+                            "state", "lease_expiry");
+                })
+                .add(3, "create task stats table and compute stats of finished tasks", connection -> {
+                    statsStore.createTableIfAbsent(connection);
+                    historyStore.loadPartitions(connection);
+                    statsStore.backfill(connection, TASK_TABLE, FINISHED_STATE_CONDITION,
+                            historyStore.getPartitions());
+                })
+                .add(4, "move inline params of old tasks to content store", connection -> {
+                    // search index only sees params in content store
+                    historyStore.loadPartitions(connection);
+                    moveInlineContent(connection, TASK_TABLE, "params");
+                    for (YearMonth month : historyStore.getPartitions()) {
+                        moveInlineContent(connection, TaskHistoryStore.partitionTable(month), "params");
+                    }
+                })
+                .add(5, "add priority and queue of tasks", connection -> {
+                    addPriorityAndQueue(connection, TASK_TABLE);
+                    historyStore.loadPartitions(connection);
+                    for (YearMonth month : historyStore.getPartitions()) {
+                        addPriorityAndQueue(connection, TaskHistoryStore.partitionTable(month));
+                    }
+                    // waiting tasks of a queue are leased in index order
+                    JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_state_queue_priority_idx",
+                            "state", "queue", "priority DESC", "submit_time");
+                })
+                .add(6, "add resource requests of tasks", connection -> {
+                    addResourceRequests(connection, TASK_TABLE);
+                    historyStore.loadPartitions(connection);
+                    for (YearMonth month : historyStore.getPartitions()) {
+                        addResourceRequests(connection, TaskHistoryStore.partitionTable(month));
+                    }
+                })
+                .add(7, "create task schedule table", scheduleStore::createTableIfAbsent)
+                .add(8, "add retry time of running tasks", connection -> {
+                    // finished tasks don't retry, so history partitions don't have it
+                    JdbcUtils.addColumnIfAbsent(connection, TASK_TABLE, "retry_time", "TIMESTAMP");
+                    JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_state_retry_idx",
+                            "state", "retry_time");
+                })
+                .add(9, "add idempotency key of tasks", connection -> {
+                    JdbcUtils.addColumnIfAbsent(connection, TASK_TABLE, "idempotency_key",
+                            "VARCHAR(" + TaskInfo.MAX_IDEMPOTENCY_KEY_LENGTH + ")");
+                    // keys are unique until tasks are archived, tasks without key don't conflict
+                    JdbcUtils.addUniqueConstraintIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_idempotency_key_uk",
+                            "idempotency_key");
+                    historyStore.loadPartitions(connection);
+                    for (YearMonth month : historyStore.getPartitions()) {
+                        JdbcUtils.addColumnIfAbsent(connection, TaskHistoryStore.partitionTable(month),
+                                "idempotency_key", "VARCHAR(" + TaskInfo.MAX_IDEMPOTENCY_KEY_LENGTH + ")");
+                    }
+                })
+                .add(10, "move inline classpath of old tasks to content store", connection -> {
+                    // classpath filters are rewritten to lookups of content store
+                    historyStore.loadPartitions(connection);
+                    moveInlineContent(connection, TASK_TABLE, "classpath");
+                    for (YearMonth month : historyStore.getPartitions()) {
+                        moveInlineContent(connection, TaskHistoryStore.partitionTable(month), "classpath");
+                    }
+                })
+                .migrate(dataSource);
+        historyStore.loadPartitions();
+    }
+
+    /**
+     * move inline content of {@code column}, which is params or classpath, to content store
+     */
+    private void moveInlineContent(Connection connection, String table, String column) throws SQLException {
+        String hashColumn = column + "_hash";
+        String selectSql = "SELECT task_id, " + column + " FROM " + table +
+                " WHERE " + column + " IS NOT NULL AND " + hashColumn + " IS NULL";
+        String updateSql = "UPDATE " + table + " SET " + hashColumn + " = ?, " + column + " = NULL WHERE task_id = ?";
+        Set<String> savedContents = new HashSet<>();
+        int moved = 0;
+        try (PreparedStatement select = connection.prepareStatement(selectSql);
+             PreparedStatement update = connection.prepareStatement(updateSql);
+             ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                update.setString(1, contentStore.save(connection, rs.getString(column), savedContents));
+                update.setLong(2, rs.getLong("task_id"));
+                update.addBatch();
+                moved++;
+            }
+            if (moved > 0)
+                update.executeBatch();
+        }
+        if (moved > 0)
+            LOGGER.info("Moved inline {} of {} tasks in table {} to content store", column, moved, table);
+    }
+
+    private static void addPriorityAndQueue(Connection connection, String table) {
+        JdbcUtils.addColumnIfAbsent(connection, table, "priority", "INTEGER DEFAULT 0 NOT NULL");
+        JdbcUtils.addColumnIfAbsent(connection, table, "queue",
+                "VARCHAR(100) DEFAULT '" + TaskInfo.DEFAULT_QUEUE + "' NOT NULL");
+    }
+
+    private static void addResourceRequests(Connection connection, String table) {
+        JdbcUtils.addColumnIfAbsent(connection, table, "cpus", "DOUBLE DEFAULT " + TaskInfo.DEFAULT_CPUS + " NOT NULL");
+        JdbcUtils.addColumnIfAbsent(connection, table, "memory_mb",
+                "INTEGER DEFAULT " + TaskInfo.DEFAULT_MEMORY_MB + " NOT NULL");
+    }
+
+    private void createTaskTables(Connection connection) throws SQLException {
+        // GENERATED BY DEFAULT so that task ids are kept when migrating tasks from old tables
+        String taskSql = "CREATE TABLE " + TASK_TABLE +
+                "(" +
+                "task_id INTEGER GENERATED BY DEFAULT AS IDENTITY " +
+                "(START WITH " + TASK_ID_START + ", INCREMENT BY 1) PRIMARY KEY, " +
+                "task_name VARCHAR(100), " +
+                "task_type VARCHAR(100), " +
+                "host VARCHAR(100), " +
+                "class_name VARCHAR(100), " +
+                "classpath VARCHAR(30000), " +
+                "params VARCHAR(10000), " +
+                "classpath_hash CHAR(64), " +
+                "params_hash CHAR(64), " +
+                "max_tries INTEGER, " +
+                "try_number INTEGER, " +
+                "retry_wait BIGINT, " +
+                "state VARCHAR(40) NOT NULL, " +
+                "submit_time TIMESTAMP, " +
+                "start_time TIMESTAMP, " +
+                "end_time TIMESTAMP, " +
+                "duration BIGINT, " +
+                "pid INTEGER, " +
+                "lease_owner VARCHAR(100), " +
+                "lease_expiry TIMESTAMP" +
+                ")";
+        if (JdbcUtils.createTableIfAbsent(connection, TASK_TABLE, taskSql))
+            LOGGER.info("Created table " + TASK_TABLE);
+        JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_state_submit_idx", "state", "submit_time");
+        JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_state_start_idx", "state", "start_time");
+        JdbcUtils.createIndexIfAbsent(connection, TASK_TABLE, TASK_TABLE + "_state_end_idx", "state", "end_time");
+        migrateOldTaskTables(connection);
+
+        // classpath and params of new tasks are kept in content store, old rows keep them inline
+        contentStore.createTableIfAbsent(connection);
+        JdbcUtils.addColumnIfAbsent(connection, TASK_TABLE, "classpath_hash", "CHAR(64)");
+        JdbcUtils.addColumnIfAbsent(connection, TASK_TABLE, "params_hash", "CHAR(64)");
+        // schedulers of several instances lease tasks before launching them
+        JdbcUtils.addColumnIfAbsent(connection, TASK_TABLE, "lease_owner", "VARCHAR(100)");
+        JdbcUtils.addColumnIfAbsent(connection, TASK_TABLE, "lease_expiry", "TIMESTAMP");
+        historyStore.createTablesIfAbsent(connection);
+    }
+
+    private void migrateOldTaskTables(Connection connection) throws SQLException {
+        String commonColumns = "task_id, task_name, task_type, host, class_name, classpath, params, " +
+                "max_tries, retry_wait, submit_time";
+        String[] migrateSqls = {
+                "INSERT INTO " + TASK_TABLE + "(" + commonColumns + ", state) " +
+                        "SELECT " + commonColumns + ", '" + TaskState.PENDING + "' FROM " + WAITING_TASK_TABLE,
+                "INSERT INTO " + TASK_TABLE + "(" + commonColumns + ", try_number, start_time, pid, state) " +
+                        "SELECT " + commonColumns + ", try_number, start_time, pid, '" + TaskState.RUNNING + "' " +
+                        "FROM " + RUNNING_TASK_TABLE,
+                "INSERT INTO " + TASK_TABLE + "(" + commonColumns + ", try_number, start_time, end_time, duration, state) " +
+                        "SELECT " + commonColumns + ", try_number, start_time, end_time, duration, state " +
+                        "FROM " + FINISHED_TASK_TABLE
+        };
+        String[] oldTables = {WAITING_TASK_TABLE, RUNNING_TASK_TABLE, FINISHED_TASK_TABLE};
+
+        boolean migrated = false;
+        try (Statement statement = connection.createStatement()) {
+            for (int i = 0; i < oldTables.length; i++) {
+                if (JdbcUtils.isTableExists(connection, oldTables[i])) {
+                    int rows = statement.executeUpdate(migrateSqls[i]);
+                    statement.execute("DROP TABLE " + oldTables[i]);
+                    LOGGER.info("Migrated {} tasks from table {} to table {}", rows, oldTables[i], TASK_TABLE);
+                    migrated = true;
+                }
+            }
+
+            if (migrated) {
+                long nextTaskId = TASK_ID_START;
+                try (ResultSet rs = statement.executeQuery("SELECT MAX(task_id) FROM " + TASK_TABLE)) {
+                    if (rs.next() && rs.getLong(1) >= TASK_ID_START)
+                        nextTaskId = rs.getLong(1) + 1;
+                }
+                statement.execute("ALTER TABLE " + TASK_TABLE + " ALTER COLUMN task_id RESTART WITH " + nextTaskId);
+            }
+        }
+    }
+
+
+    //************************ Waiting task ************************
+    @Override
+    public TaskInfo create(TaskInfo task) {
+        if (task.getIdempotencyKey() != null) {
+            create(Collections.singletonList(task));
+            return task;
+        }
+
+        String sql = CREATE_WAITING_TASK_SQL;
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement pStatement = connection.prepareStatement(sql, new String[]{"task_id"})) {
+            setCreateParameters(connection, pStatement, task, new HashSet<>());
+
+            int affectedRows = pStatement.executeUpdate();
+            if (affectedRows == 0) {
+                throw new AthenaException("Creating waiting task failed, no rows affected.");
+            }
+            try (ResultSet generatedKeys = pStatement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    Long id = generatedKeys.getLong(1);
+                    task.setTaskId(id);
+                }
+            }
+        } catch (SQLException e) {
+            throw new AthenaException("Can't create waiting task, sql: " + sql, e);
+        }
+        committed(task);
+
+        return task;
+    }
+
+    /**
+     * create tasks in one transaction using jdbc batch.
+     * <p>Some drivers (e.g. derby) only return the generated key of the last row of a batch. When this is detected on
+     * first insert of a data source, the batch is rolled back, and batches on that data source read their ids back
+     * by idempotency key in the same transaction.</p>
+     * <p>Idempotency keys are looked up by unique index first, tasks whose key is taken get the id of the existing
+     * task and are not inserted.</p>
+     *
+     * @param tasks tasks to create
+     * @return created tasks with task id set, in the same order
+     */
+    @Override
+    public <T extends TaskInfo> List<T> create(List<T> tasks) {
+        if (tasks.isEmpty())
+            return tasks;
+
+        String sql = CREATE_WAITING_TASK_SQL;
+        boolean hasKeys = tasks.stream().anyMatch(task -> task.getIdempotencyKey() != null);
+        // a key taken by a concurrent submit after lookup fails the insert, which is retried once with a new lookup
+        for (int attempt = 1; ; attempt++) {
+            Connection connection = null;
+            try {
+                connection = this.dataSource.getConnection();
+                connection.setAutoCommit(false);
+                List<T> created = hasKeys ? withoutTakenKeys(connection, tasks) : tasks;
+                if (!created.isEmpty())
+                    insert(connection, created);
+                if (hasKeys)
+                    setIdsOfDuplicates(tasks, created);
+                connection.commit();
+                created.forEach(this::committed);
+                return created;
+            } catch (SQLException e) {
+                JdbcUtils.rollback(connection);
+                if (hasKeys && attempt == 1 && JdbcUtils.isUniqueViolation(e)) {
+                    LOGGER.info("Idempotency key of a task was taken concurrently, look up keys again");
+                    continue;
+                }
+                LOGGER.error("Create waiting tasks failed. tasks number: " + tasks.size(), e);
+                throw new AthenaException("Can't create waiting tasks, sql: " + sql, e);
+            } finally {
+                JdbcUtils.close(connection);
+            }
+        }
+    }
+
+    /**
+     * set ids of tasks whose idempotency key is taken by an existing task
+     *
+     * @return tasks to insert, a key taken by a task before it in the list only inserts that task
+     */
+    private <T extends TaskInfo> List<T> withoutTakenKeys(Connection connection, List<T> tasks) throws SQLException {
+        List<String> keys = new ArrayList<>(new LinkedHashSet<>(tasks.stream()
+                .map(TaskInfo::getIdempotencyKey)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())));
+        Map<String, Long> takenKeys = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += MAX_IN_LIST_SIZE) {
+            List<String> chunk = keys.subList(from, Math.min(from + MAX_IN_LIST_SIZE, keys.size()));
+            String sql = "SELECT idempotency_key, task_id FROM " + TASK_TABLE + " WHERE idempotency_key IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            JdbcUtils.query(connection, sql, (rs, rowNum) ->
+                    takenKeys.put(rs.getString("idempotency_key"), rs.getLong("task_id")), chunk.toArray());
+        }
+
+        List<T> created = new ArrayList<>(tasks.size());
+        Set<String> createdKeys = new HashSet<>();
+        for (T task : tasks) {
+            String key = task.getIdempotencyKey();
+            if (key != null && takenKeys.containsKey(key))
+                task.setTaskId(takenKeys.get(key));
+            else if (key == null || createdKeys.add(key))
+                created.add(task);
+        }
+        return created;
+    }
+
+    /**
+     * set ids of tasks which weren't inserted because a task before them in the list took their key
+     */
+    private static <T extends TaskInfo> void setIdsOfDuplicates(List<T> tasks, List<T> created) {
+        Map<String, Long> createdIds = new HashMap<>();
+        for (T task : created) {
+            if (task.getIdempotencyKey() != null)
+                createdIds.put(task.getIdempotencyKey(), task.getTaskId());
+        }
+        for (T task : tasks) {
+            Long taskId = task.getIdempotencyKey() == null ? null : createdIds.get(task.getIdempotencyKey());
+            if (taskId != null)
+                task.setTaskId(taskId);
+        }
+    }
+
+    /**
+     * insert tasks as first change of caller's transaction. The first insert on a data source detects whether its
+     * driver returns generated keys of a batch, it's rolled back if it doesn't
+     */
+    private <T extends TaskInfo> void insert(Connection connection, List<T> tasks) throws SQLException {
+        Boolean supported = BATCH_GENERATED_KEYS_SUPPORTED.get(dataSource);
+        if (supported == null || supported) {
+            try (PreparedStatement pStatement = connection.prepareStatement(CREATE_WAITING_TASK_SQL,
+                    new String[]{"task_id"})) {
+                if (createInBatch(connection, pStatement, tasks)) {
+                    BATCH_GENERATED_KEYS_SUPPORTED.put(dataSource, true);
+                    return;
+                }
+            }
+            LOGGER.info("Driver doesn't return generated keys for batch insert, read ids back by idempotency keys");
+            BATCH_GENERATED_KEYS_SUPPORTED.put(dataSource, false);
+            connection.rollback();
+        }
+        createInBatchByKeys(connection, tasks);
+    }
+
+    private <T extends TaskInfo> boolean createInBatch(Connection connection, PreparedStatement pStatement,
+                                                       List<T> tasks) throws SQLException {
+        Set<String> savedContents = new HashSet<>();
+        for (T task : tasks) {
+            setCreateParameters(connection, pStatement, task, savedContents);
+            pStatement.addBatch();
+        }
+        pStatement.executeBatch();
+
+        List<Long> ids = new ArrayList<>(tasks.size());
+        try (ResultSet generatedKeys = pStatement.getGeneratedKeys()) {
+            while (generatedKeys != null && generatedKeys.next()) {
+                ids.add(generatedKeys.getLong(1));
+            }
+        }
+        if (ids.size() != tasks.size())
+            return false;
+
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).setTaskId(ids.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * batch insert for drivers which only return generated key of last row of a batch, e.g. derby. Ids are read back
+     * by idempotency key, a task without key is inserted with a temporary key which is cleared before commit, so
+     * other transactions never see it
+     */
+    private <T extends TaskInfo> void createInBatchByKeys(Connection connection, List<T> tasks) throws SQLException {
+        String temporaryKeyPrefix = TEMPORARY_KEY_PREFIX + UUID.randomUUID() + ":";
+        Map<String, T> tasksByKey = new LinkedHashMap<>();
+        Set<String> savedContents = new HashSet<>();
+        try (PreparedStatement pStatement = connection.prepareStatement(CREATE_WAITING_TASK_SQL)) {
+            for (T task : tasks) {
+                String key = task.getIdempotencyKey();
+                if (key == null)
+                    key = temporaryKeyPrefix + tasksByKey.size();
+                tasksByKey.put(key, task);
+                setCreateParameters(connection, pStatement, task, savedContents);
+                pStatement.setString(14, key);
+                pStatement.addBatch();
+            }
+            pStatement.executeBatch();
+        }
+
+        List<String> keys = new ArrayList<>(tasksByKey.keySet());
+        for (int from = 0; from < keys.size(); from += MAX_IN_LIST_SIZE) {
+            List<String> chunk = keys.subList(from, Math.min(from + MAX_IN_LIST_SIZE, keys.size()));
+            String sql = "SELECT idempotency_key, task_id FROM " + TASK_TABLE + " WHERE idempotency_key IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            JdbcUtils.query(connection, sql, (rs, rowNum) -> {
+                tasksByKey.get(rs.getString("idempotency_key")).setTaskId(rs.getLong("task_id"));
+                return null;
+            }, chunk.toArray());
+        }
+        List<Long> temporaryKeyIds = tasksByKey.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(temporaryKeyPrefix))
+                .map(entry -> entry.getValue().getTaskId())
+                .collect(Collectors.toList());
+        for (int from = 0; from < temporaryKeyIds.size(); from += MAX_IN_LIST_SIZE) {
+            List<Long> chunk = temporaryKeyIds.subList(from, Math.min(from + MAX_IN_LIST_SIZE, temporaryKeyIds.size()));
+            String sql = "UPDATE " + TASK_TABLE + " SET idempotency_key = NULL WHERE task_id IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    pStatement.setLong(i + 1, chunk.get(i));
+                }
+                pStatement.executeUpdate();
+            }
+        }
+    }
+
+    private void setCreateParameters(Connection connection, PreparedStatement pStatement,
+                                     TaskInfo task, Set<String> savedContents) throws SQLException {
+        task.setParamsHash(contentStore.save(connection, task.getParams(), savedContents));
+        task.setClasspathHash(contentStore.save(connection, task.getClasspath(), savedContents));
+
+        pStatement.setString(1, task.getTaskName());
+        pStatement.setString(2, task.getHost());
+        pStatement.setString(3, task.getClassName());
+        pStatement.setString(4, task.getParamsHash());
+        pStatement.setInt(5, task.getMaxTries());
+        pStatement.setTimestamp(6, Timestamp.from(task.getSubmitTime()));
+        pStatement.setString(7, task.getClasspathHash());
+        pStatement.setLong(8, task.getRetryWait());
+        pStatement.setString(9, task.getTaskType().toString());
+        pStatement.setInt(10, task.getPriority() == null ? 0 : task.getPriority());
+        pStatement.setString(11, task.getQueue() == null ? TaskInfo.DEFAULT_QUEUE : task.getQueue());
+        pStatement.setDouble(12, task.getCpus() == null ? TaskInfo.DEFAULT_CPUS : task.getCpus());
+        pStatement.setInt(13, task.getMemoryMb() == null ? TaskInfo.DEFAULT_MEMORY_MB : task.getMemoryMb());
+        pStatement.setString(14, task.getIdempotencyKey());
+    }
+
+    @Override
+    public WaitingTask getWaitingTask(long taskId) {
+        String sql = "select * from " + TASK_TABLE + " where task_id = ? and " + WAITING_STATE_CONDITION;
+        List<WaitingTask> query = JdbcUtils.query(dataSource, sql, waitingTaskRowMapper, taskId);
+        if (query.isEmpty()) {
+            return null;
+        } else {
+            return query.get(0);
+        }
+    }
+
+    @Override
+    public PagedResult<WaitingTask> getWaitingTasks(Page page) {
+        return withContent(JdbcUtils.queryPage(dataSource, TASK_TABLE, "task_id", WAITING_STATE_CONDITION,
+                rewrite(page), waitingTaskRowMapper, countCache));
+    }
+
+    /**
+     * iterate all waiting tasks without loading them into memory
+     *
+     * @return number of tasks
+     */
+    @Override
+    public long forEachWaitingTask(Consumer<? super WaitingTask> consumer) {
+        String sql = "select * from " + TASK_TABLE + " where " + WAITING_STATE_CONDITION;
+        return JdbcUtils.forEach(dataSource, sql, fetchSize, waitingTaskRowMapper, consumer);
+    }
+
+    @Override
+    public void deleteWaitingTask(Long taskId) {
+        String sql = "delete from " + TASK_TABLE + " WHERE task_id = ? and " + WAITING_STATE_CONDITION;
+        try {
+            JdbcUtils.update(dataSource, sql, taskId);
+            countCache.invalidate();
+        } catch (AthenaException e) {
+            String msg = String.format("Can't delete waiting task of task_id [%d], sql [%s]", taskId, sql);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    @Override
+    public void deleteAllWaitingTask() {
+        try (Connection connection = this.dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            String sql = "DELETE FROM " + TASK_TABLE + " WHERE " + WAITING_STATE_CONDITION;
+            statement.execute(sql);
+            countCache.invalidate();
+        } catch (SQLException e) {
+            throw new AthenaException("Can't delete all waiting tasks", e);
+        }
+    }
+
+
+    //************************ Running task ************************
+    @Override
+    public void moveToRunning(RunningTask task) {
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement pStatement = connection.prepareStatement(MOVE_TO_RUNNING_SQL)) {
+            setTransitionParameters(pStatement, TaskTransition.moveToRunning(task));
+
+            if (pStatement.executeUpdate() == 0)
+                LOGGER.warn("Task [{}] isn't waiting, can't move it to running", task.getTaskId());
+        } catch (SQLException e) {
+            LOGGER.error("Move waiting task to running failed. task: " + task, e);
+        }
+    }
+
+    @Override
+    public void updateRunningTask(RunningTask task) {
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement pStatement = connection.prepareStatement(UPDATE_RUNNING_SQL)) {
+            setTransitionParameters(pStatement, TaskTransition.updateRunning(task));
+
+            pStatement.executeUpdate();
+        } catch (SQLException e) {
+            throw new AthenaException("Can't update running task, sql: " + UPDATE_RUNNING_SQL, e);
+        }
+    }
+
+    @Override
+    public Optional<RunningTask> getRunningTask(long taskId) {
+        String sql = "select * from " + TASK_TABLE + " where task_id = ? and " + RUNNING_STATE_CONDITION;
+        List<RunningTask> query = JdbcUtils.query(dataSource, sql, runningTaskRowMapper, taskId);
+        if (query.isEmpty()) {
+            return Optional.empty();
+        } else {
+            return Optional.of(query.get(0));
+        }
+    }
+
+    /**
+     * iterate all running tasks without loading them into memory
+     *
+     * @return number of tasks
+     */
+    @Override
+    public long forEachRunningTask(Consumer<? super RunningTask> consumer) {
+        String sql = "select * from " + TASK_TABLE + " where " + RUNNING_STATE_CONDITION;
+        return JdbcUtils.forEach(dataSource, sql, fetchSize, runningTaskRowMapper, consumer);
+    }
+
+    @Override
+    public PagedResult<RunningTask> getRunningTasks(Page page) {
+        return withContent(JdbcUtils.queryPage(dataSource, TASK_TABLE, "task_id", RUNNING_STATE_CONDITION,
+                rewrite(page), runningTaskRowMapper, countCache));
+    }
+
+
+    //************************ Finished Task ************************
+    @Override
+    public void moveFromWaitingToFinished(FinishedTask task) {
+        try {
+            if (applyTransitions(Collections.singletonList(TaskTransition.moveFromWaitingToFinished(task)))[0] == 0)
+                LOGGER.warn("Task [{}] isn't waiting, can't move it to finished", task.getTaskId());
+        } catch (AthenaException e) {
+            LOGGER.error("Move waiting task to finished failed. task: " + task, e);
+        }
+    }
+
+    @Override
+    public void moveToFinished(FinishedTask task) {
+        try {
+            if (applyTransitions(Collections.singletonList(TaskTransition.moveToFinished(task)))[0] == 0)
+                LOGGER.warn("Task [{}] isn't running, can't move it to finished", task.getTaskId());
+        } catch (AthenaException e) {
+            LOGGER.error("Move running task to finished failed. task: " + task, e);
+        }
+    }
+
+    /**
+     * iterate all finished tasks in task table without loading them into memory, archived tasks are not included
+     *
+     * @return number of tasks
+     */
+    @Override
+    public long forEachFinishedTask(Consumer<? super FinishedTask> consumer) {
+        String sql = "select * from " + TASK_TABLE + " where " + FINISHED_STATE_CONDITION;
+        return JdbcUtils.forEach(dataSource, sql, fetchSize, finishedTaskRowMapper, consumer);
+    }
+
+    /**
+     * get a page of finished tasks which are not archived
+     */
+    @Override
+    public PagedResult<FinishedTask> getFinishedTasks(Page page) {
+        return withContent(JdbcUtils.queryPage(dataSource, TASK_TABLE, "task_id", FINISHED_STATE_CONDITION,
+                rewrite(page), finishedTaskRowMapper, countCache));
+    }
+
+    /**
+     * get finished task, archived tasks are looked up in history partitions
+     *
+     * @return finished task, or null if task isn't finished or doesn't exist
+     */
+    @Override
+    public FinishedTask getFinishedTask(long taskId) {
+        String sql = "select * from " + TASK_TABLE + " where task_id = ?";
+        List<Optional<FinishedTask>> tasks = JdbcUtils.query(this.dataSource, sql, (rs, rowNum) -> {
+            if (FINISHED_STATES.contains(TaskState.valueOf(rs.getString("state"))))
+                return Optional.of(finishedTaskRowMapper.mapRow(rs, rowNum));
+            else
+                return Optional.empty();
+        }, taskId);
+
+        if (!tasks.isEmpty())
+            return tasks.get(0).orElse(null);
+        else
+            return historyStore.getTask(taskId, finishedTaskRowMapper);
+    }
+
+    //************************ Batch ************************
+    @Override
+    public Map<Long, TaskInfo> getTasks(Collection<Long> taskIds) {
+        Map<Long, TaskInfo> tasks = new HashMap<>();
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(taskIds));
+        for (int from = 0; from < ids.size(); from += MAX_IN_LIST_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + MAX_IN_LIST_SIZE, ids.size()));
+            String sql = "select * from " + TASK_TABLE + " where task_id IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            List<TaskInfo> query = JdbcUtils.query(this.dataSource, sql, (rs, rowNum) -> {
+                TaskState state = TaskState.valueOf(rs.getString("state"));
+                if (state == TaskState.PENDING)
+                    return waitingTaskRowMapper.mapRow(rs, rowNum);
+                else if (state == TaskState.RUNNING)
+                    return runningTaskRowMapper.mapRow(rs, rowNum);
+                else if (FINISHED_STATES.contains(state))
+                    return finishedTaskRowMapper.mapRow(rs, rowNum);
+                else
+                    return null;
+            }, chunk.toArray());
+            for (TaskInfo task : query) {
+                if (task != null)
+                    tasks.put(task.getTaskId(), task);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * apply transitions in one transaction. Transitions are grouped into rounds, the n-th transition of a task goes
+     * into the n-th round, so a task's transitions keep their order while transitions of the same type in a round
+     * are sent in one JDBC batch. Statistics of tasks which are finished by the transitions are updated in the same
+     * transaction.
+     */
+    @Override
+    public int[] applyTransitions(List<TaskTransition> transitions) {
+        int[] counts = new int[transitions.size()];
+        if (transitions.isEmpty())
+            return counts;
+
+        List<List<Integer>> rounds = new ArrayList<>();
+        Map<Long, Integer> taskRounds = new HashMap<>();
+        for (int i = 0; i < transitions.size(); i++) {
+            int round = taskRounds.merge(transitions.get(i).getTask().getTaskId(), 1, Integer::sum) - 1;
+            if (round == rounds.size())
+                rounds.add(new ArrayList<>());
+            rounds.get(round).add(i);
+        }
+
+        Connection connection = null;
+        Map<String, PreparedStatement> statements = new HashMap<>();
+        try {
+            connection = this.dataSource.getConnection();
+            connection.setAutoCommit(false);
+            for (List<Integer> round : rounds) {
+                Map<String, List<Integer>> batches = new LinkedHashMap<>();
+                for (int i : round) {
+                    TaskTransition transition = transitions.get(i);
+                    String sql = transitionSql(transition);
+                    PreparedStatement pStatement = statements.get(sql);
+                    if (pStatement == null) {
+                        pStatement = connection.prepareStatement(sql);
+                        statements.put(sql, pStatement);
+                    }
+                    setTransitionParameters(pStatement, transition);
+                    pStatement.addBatch();
+                    batches.computeIfAbsent(sql, key -> new ArrayList<>()).add(i);
+                }
+                for (Map.Entry<String, List<Integer>> batch : batches.entrySet()) {
+                    int[] updateCounts = statements.get(batch.getKey()).executeBatch();
+                    for (int j = 0; j < updateCounts.length; j++) {
+                        // the driver may not know the count of a successful statement
+                        counts[batch.getValue().get(j)] =
+                                updateCounts[j] == Statement.SUCCESS_NO_INFO ? 1 : updateCounts[j];
+                    }
+                }
+            }
+            statsStore.record(connection, finishedStats(transitions, counts));
+            connection.commit();
+            return counts;
+        } catch (SQLException e) {
+            JdbcUtils.rollback(connection);
+            throw new AthenaException("Can't apply " + transitions.size() + " task transitions", e);
+        } finally {
+            statements.values().forEach(JdbcUtils::close);
+            JdbcUtils.close(connection);
+        }
+    }
+
+    /**
+     * @return statistics of tasks finished by applied transitions, one per task name
+     */
+    private static Collection<TaskStats> finishedStats(List<TaskTransition> transitions, int[] counts) {
+        Map<String, TaskStats> stats = new TreeMap<>();
+        for (int i = 0; i < transitions.size(); i++) {
+            TaskTransition transition = transitions.get(i);
+            if (counts[i] > 0 && transition.getTask() instanceof FinishedTask) {
+                FinishedTask task = (FinishedTask) transition.getTask();
+                stats.computeIfAbsent(TaskStatsStore.statsKey(task.getTaskName()), TaskStats::new).add(task);
+            }
+        }
+        return stats.values();
+    }
+
+    private static String transitionSql(TaskTransition transition) {
+        String leaseCondition = transition.getLeaseOwner() == null ? "" : LEASE_HELD_CONDITION;
+        switch (transition.getType()) {
+            case MOVE_TO_RUNNING:
+                return MOVE_TO_RUNNING_SQL + leaseCondition;
+            case UPDATE_RUNNING:
+                return UPDATE_RUNNING_SQL + leaseCondition;
+            case RETRY_RUNNING:
+                return RETRY_RUNNING_SQL;
+            case MOVE_FROM_WAITING_TO_FINISHED:
+                return MOVE_FROM_WAITING_TO_FINISHED_SQL;
+            case MOVE_TO_FINISHED:
+                return MOVE_TO_FINISHED_SQL;
+            default:
+                throw new IllegalArgumentException("Unknown transition type: " + transition.getType());
+        }
+    }
+
+    private static void setTransitionParameters(PreparedStatement pStatement, TaskTransition transition)
+            throws SQLException {
+        switch (transition.getType()) {
+            case MOVE_TO_RUNNING: {
+                RunningTask task = (RunningTask) transition.getTask();
+                pStatement.setString(1, task.getHost());
+                pStatement.setTimestamp(2, Timestamp.from(task.getStartTime()));
+                pStatement.setInt(3, task.getTryNumber());
+                pStatement.setInt(4, task.getPid());
+                pStatement.setLong(5, task.getTaskId());
+                if (transition.getLeaseOwner() != null)
+                    pStatement.setString(6, transition.getLeaseOwner());
+                break;
+            }
+            case UPDATE_RUNNING: {
+                RunningTask task = (RunningTask) transition.getTask();
+                pStatement.setInt(1, task.getTryNumber());
+                pStatement.setInt(2, task.getPid());
+                pStatement.setLong(3, task.getTaskId());
+                if (transition.getLeaseOwner() != null)
+                    pStatement.setString(4, transition.getLeaseOwner());
+                break;
+            }
+            case RETRY_RUNNING: {
+                RunningTask task = (RunningTask) transition.getTask();
+                pStatement.setTimestamp(1, Timestamp.from(task.getRetryTime()));
+                pStatement.setLong(2, task.getTaskId());
+                break;
+            }
+            case MOVE_FROM_WAITING_TO_FINISHED: {
+                FinishedTask task = (FinishedTask) transition.getTask();
+                if (task.getEndTime() == null)
+                    task.setEndTime(Instant.now());
+                pStatement.setString(1, task.getState().toString());
+                pStatement.setInt(2, task.getTryNumber());
+                pStatement.setTimestamp(3, Timestamp.from(task.getEndTime()));
+                pStatement.setLong(4, task.getTaskId());
+                break;
+            }
+            case MOVE_TO_FINISHED: {
+                FinishedTask task = (FinishedTask) transition.getTask();
+                pStatement.setString(1, task.getState().toString());
+                pStatement.setInt(2, task.getTryNumber());
+                pStatement.setTimestamp(3, Timestamp.from(task.getEndTime()));
+                pStatement.setLong(4, task.getDuration().getSeconds());
+                pStatement.setLong(5, task.getTaskId());
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown transition type: " + transition.getType());
+        }
+    }
+
+    //************************ Lease ************************
+    /**
+     * select candidates, then lease each one by a conditional update, so a task leased by another instance between
+     * select and update is skipped
+     */
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, int limit, Duration leaseTime) {
+        Instant now = Instant.now();
+        String sql = "SELECT task_id FROM " + TASK_TABLE + " WHERE " + WAITING_STATE_CONDITION + " AND " +
+                LEASE_FREE_CONDITION + " ORDER BY priority DESC, submit_time FETCH FIRST ? ROWS ONLY";
+        List<Long> candidates = JdbcUtils.query(this.dataSource, sql, (rs, rowNum) -> rs.getLong("task_id"),
+                Timestamp.from(now), limit);
+        return claimWaitingTasks(owner, candidates, now, leaseTime);
+    }
+
+    /**
+     * candidates are read from index of state, queue, priority and submit time, so cost doesn't grow with number
+     * of waiting tasks
+     */
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, String queue, int limit, Duration leaseTime) {
+        Instant now = Instant.now();
+        String sql = "SELECT task_id FROM " + TASK_TABLE + " WHERE " + WAITING_STATE_CONDITION + " AND queue = ? AND " +
+                LEASE_FREE_CONDITION + " ORDER BY priority DESC, submit_time FETCH FIRST ? ROWS ONLY";
+        List<Long> candidates = JdbcUtils.query(this.dataSource, sql, (rs, rowNum) -> rs.getLong("task_id"),
+                queue, Timestamp.from(now), limit);
+        return claimWaitingTasks(owner, candidates, now, leaseTime);
+    }
+
+    private List<WaitingTask> claimWaitingTasks(String owner, List<Long> candidates, Instant now, Duration leaseTime) {
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+
+        String claimSql = "UPDATE " + TASK_TABLE + " SET lease_owner = ?, lease_expiry = ? " +
+                "WHERE task_id = ? AND " + WAITING_STATE_CONDITION + " AND " + LEASE_FREE_CONDITION;
+        Set<Long> claimed = lease(claimSql, owner, candidates, (pStatement, taskId) -> {
+            pStatement.setString(1, owner);
+            pStatement.setTimestamp(2, Timestamp.from(now.plus(leaseTime)));
+            pStatement.setLong(3, taskId);
+            pStatement.setTimestamp(4, Timestamp.from(now));
+        });
+
+        Map<Long, TaskInfo> tasks = getTasks(claimed);
+        List<WaitingTask> waitingTasks = new ArrayList<>();
+        for (Long taskId : candidates) {
+            TaskInfo task = tasks.get(taskId);
+            if (task instanceof WaitingTask)
+                waitingTasks.add((WaitingTask) task);
+        }
+        return waitingTasks;
+    }
+
+    /**
+     * candidates are read from index of state and retry time, then leased like waiting tasks
+     */
+    @Override
+    public List<RunningTask> claimDueRetries(String owner, int limit, Duration leaseTime) {
+        Instant now = Instant.now();
+        String sql = "SELECT task_id FROM " + TASK_TABLE + " WHERE " + RUNNING_STATE_CONDITION + " AND " +
+                "retry_time <= ? AND " + LEASE_FREE_CONDITION + " ORDER BY retry_time FETCH FIRST ? ROWS ONLY";
+        List<Long> candidates = JdbcUtils.query(this.dataSource, sql, (rs, rowNum) -> rs.getLong("task_id"),
+                Timestamp.from(now), Timestamp.from(now), limit);
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+
+        String claimSql = "UPDATE " + TASK_TABLE + " SET lease_owner = ?, lease_expiry = ? " +
+                "WHERE task_id = ? AND " + RUNNING_STATE_CONDITION + " AND retry_time <= ? AND " + LEASE_FREE_CONDITION;
+        Set<Long> claimed = lease(claimSql, owner, candidates, (pStatement, taskId) -> {
+            pStatement.setString(1, owner);
+            pStatement.setTimestamp(2, Timestamp.from(now.plus(leaseTime)));
+            pStatement.setLong(3, taskId);
+            pStatement.setTimestamp(4, Timestamp.from(now));
+            pStatement.setTimestamp(5, Timestamp.from(now));
+        });
+
+        Map<Long, TaskInfo> tasks = getTasks(claimed);
+        List<RunningTask> retries = new ArrayList<>();
+        for (Long taskId : candidates) {
+            TaskInfo task = tasks.get(taskId);
+            if (task instanceof RunningTask)
+                retries.add((RunningTask) task);
+        }
+        return retries;
+    }
+
+    @Override
+    public Set<String> getWaitingQueues() {
+        String sql = "SELECT DISTINCT queue FROM " + TASK_TABLE + " WHERE " + WAITING_STATE_CONDITION;
+        return new HashSet<>(JdbcUtils.query(dataSource, sql, (rs, rowNum) -> rs.getString("queue")));
+    }
+
+    @Override
+    public Set<Long> claimTasks(String owner, Collection<Long> taskIds, Duration leaseTime) {
+        if (taskIds.isEmpty())
+            return Collections.emptySet();
+
+        Instant now = Instant.now();
+        String sql = "UPDATE " + TASK_TABLE + " SET lease_owner = ?, lease_expiry = ? " +
+                "WHERE task_id = ? AND " + ACTIVE_STATE_CONDITION +
+                " AND (lease_owner = ? OR lease_owner IS NULL OR " + LEASE_FREE_CONDITION + ")";
+        return lease(sql, owner, taskIds, (pStatement, taskId) -> {
+            pStatement.setString(1, owner);
+            pStatement.setTimestamp(2, Timestamp.from(now.plus(leaseTime)));
+            pStatement.setLong(3, taskId);
+            pStatement.setString(4, owner);
+            pStatement.setTimestamp(5, Timestamp.from(now));
+        });
+    }
+
+    @Override
+    public void releaseTasks(String owner, Collection<Long> taskIds) {
+        if (taskIds.isEmpty())
+            return;
+
+        String sql = "UPDATE " + TASK_TABLE + " SET lease_owner = NULL, lease_expiry = NULL " +
+                "WHERE task_id = ? AND lease_owner = ?";
+        lease(sql, null, taskIds, (pStatement, taskId) -> {
+            pStatement.setLong(1, taskId);
+            pStatement.setString(2, owner);
+        });
+    }
+
+    /**
+     * run a conditional lease update for each task in one transaction
+     *
+     * @param owner lease owner of updated tasks, whose leases are read back when driver doesn't know an update count.
+     *              Null if caller doesn't need updated tasks
+     * @return ids of tasks updated
+     */
+    private Set<Long> lease(String sql, String owner, Collection<Long> taskIds, LeaseParameterSetter setter) {
+        List<Long> ids = new ArrayList<>(taskIds);
+        Connection connection = null;
+        try {
+            connection = this.dataSource.getConnection();
+            connection.setAutoCommit(false);
+            int[] counts;
+            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+                for (Long taskId : ids) {
+                    setter.setParameters(pStatement, taskId);
+                    pStatement.addBatch();
+                }
+                counts = pStatement.executeBatch();
+            }
+            connection.commit();
+
+            Set<Long> leased = new HashSet<>();
+            List<Long> unknown = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0)
+                    leased.add(ids.get(i));
+                else if (counts[i] == Statement.SUCCESS_NO_INFO)
+                    unknown.add(ids.get(i));
+            }
+            if (owner != null && !unknown.isEmpty())
+                leased.addAll(getLeasedTasks(owner, unknown));
+            return leased;
+        } catch (SQLException e) {
+            JdbcUtils.rollback(connection);
+            throw new AthenaException("Can't lease tasks, sql: " + sql, e);
+        } finally {
+            JdbcUtils.close(connection);
+        }
+    }
+
+    /**
+     * @return ids of tasks whose lease is held by owner now
+     */
+    private Set<Long> getLeasedTasks(String owner, List<Long> taskIds) {
+        Set<Long> leased = new HashSet<>();
+        for (int from = 0; from < taskIds.size(); from += MAX_IN_LIST_SIZE) {
+            List<Long> ids = taskIds.subList(from, Math.min(from + MAX_IN_LIST_SIZE, taskIds.size()));
+            String sql = "SELECT task_id FROM " + TASK_TABLE + " WHERE lease_owner = ? AND task_id IN (" +
+                    String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+            List<Object> params = new ArrayList<>(ids.size() + 1);
+            params.add(owner);
+            params.addAll(ids);
+            leased.addAll(JdbcUtils.query(dataSource, sql, (rs, rowNum) -> rs.getLong("task_id"), params.toArray()));
+        }
+        return leased;
+    }
+
+    @FunctionalInterface
+    private interface LeaseParameterSetter {
+        void setParameters(PreparedStatement pStatement, long taskId) throws SQLException;
+    }
+
+
+    /**
+     * move finished tasks which ended before {@code before} into history partitions
+     *
+     * @return number of archived tasks
+     */
+    @Override
+    public int archiveFinishedTasks(Instant before) {
+        int archived = historyStore.archive(before);
+        countCache.invalidate();
+        return archived;
+    }
+
+    /**
+     * drop history partitions whose tasks all ended before {@code before}, daily rollups are kept
+     *
+     * @return months of dropped partitions
+     */
+    @Override
+    public List<YearMonth> dropFinishedTaskHistory(Instant before) {
+        List<YearMonth> dropped = historyStore.dropPartitionsBefore(before);
+        // names and params of dropped tasks can't be removed from search index
+        if (!dropped.isEmpty())
+            searchIndex.load(historyStore.getPartitions());
+        return dropped;
+    }
+
+    /**
+     * @return months which have archived tasks, newest first
+     */
+    @Override
+    public List<YearMonth> getArchivedMonths() {
+        return historyStore.getPartitions();
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page) {
+        return withContent(historyStore.getTasks(month, rewrite(page), finishedTaskRowMapper));
+    }
+
+    /**
+     * @param from first day, inclusive
+     * @param to   last day, inclusive
+     */
+    @Override
+    public List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        return historyStore.getDailyRollups(from, to);
+    }
+
+
+    //************************ Stats ************************
+    @Override
+    public List<TaskStats> getTaskStats() {
+        return statsStore.getAll();
+    }
+
+    @Override
+    public TaskStats getTaskStats(String taskName) {
+        return statsStore.get(taskName);
+    }
+
+
+    //************************ Schedule ************************
+    @Override
+    public TaskSchedule createSchedule(TaskSchedule schedule) {
+        return scheduleStore.create(schedule);
+    }
+
+    @Override
+    public TaskSchedule getSchedule(long scheduleId) {
+        return scheduleStore.get(scheduleId);
+    }
+
+    @Override
+    public List<TaskSchedule> getSchedules() {
+        return scheduleStore.getAll();
+    }
+
+    @Override
+    public void deleteSchedule(long scheduleId) {
+        scheduleStore.delete(scheduleId);
+    }
+
+    /**
+     * tasks are inserted before schedule row is updated, so a fire which lost the race only held task id sequence
+     */
+    @Override
+    public boolean fireSchedule(long scheduleId, Instant expectedFireTime, Instant nextFireTime, Instant fireTime,
+                                List<WaitingTask> tasks) {
+        Connection connection = null;
+        try {
+            connection = this.dataSource.getConnection();
+            connection.setAutoCommit(false);
+            if (!tasks.isEmpty())
+                insert(connection, tasks);
+            if (!scheduleStore.fire(connection, scheduleId, expectedFireTime, nextFireTime, fireTime)) {
+                connection.rollback();
+                tasks.forEach(task -> task.setTaskId(null));
+                return false;
+            }
+            connection.commit();
+            tasks.forEach(this::committed);
+            return true;
+        } catch (SQLException e) {
+            LOGGER.error("Fire schedule [" + scheduleId + "] failed", e);
+            JdbcUtils.rollback(connection);
+            throw new AthenaException("Can't fire schedule " + scheduleId, e);
+        } finally {
+            JdbcUtils.close(connection);
+        }
+    }
+
+    /**
+     * nothing is kept in memory, tasks are always read from database
+     */
+    @Override
+    public void refresh() {
+    }
+
+    /**
+     * connections are owned by data source, nothing to release
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * rewrite searches of name and params to lookups of search index, and filters of classpath, which is only stored
+     * by hash, to lookups of content store
+     */
+    private Page rewrite(Page page) {
+        Page rewritten = searchIndex.rewrite(page);
+        List<Criterion> criteria = rewritten.getCriteria();
+        if (criteria == null || criteria.stream().noneMatch(JdbcTaskRepository::isClasspathFilter))
+            return rewritten;
+        return rewritten.withCriteria(criteria.stream()
+                .map(criterion -> isClasspathFilter(criterion) ?
+                        TaskContentStore.toHashCriterion(criterion, "classpath_hash") : criterion)
+                .collect(Collectors.toList()));
+    }
+
+    private static boolean isClasspathFilter(Criterion criterion) {
+        return "classpath".equalsIgnoreCase(criterion.getField());
+    }
+
+    /**
+     * set classpath and params of listed tasks, which are stored by hash
+     */
+    private <T extends TaskInfo> PagedResult<T> withContent(PagedResult<T> result) {
+        contentStore.loadContents(result.getElements());
+        return result;
+    }
+
+    private void committed(TaskInfo task) {
+        contentStore.committed(task.getParamsHash(), task.getParams());
+        contentStore.committed(task.getClasspathHash(), task.getClasspath());
+        task.setContentLoader(contentStore);
+        searchIndex.add(task);
+        countCache.invalidate();
+    }
+
+    /**
+     * set inline classpath and params of old rows, or hashes to load them from content store when needed
+     */
+    private void setContent(TaskInfo task, ResultSet rs) throws SQLException {
+        task.setClasspath(rs.getString("classpath"));
+        task.setParams(rs.getString("params"));
+        task.setClasspathHash(rs.getString("classpath_hash"));
+        task.setParamsHash(rs.getString("params_hash"));
+        task.setContentLoader(contentStore);
+    }
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
+    private RowMapper<WaitingTask> waitingTaskRowMapper = (rs, rowNum) -> {
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(rs.getLong("task_id"));
+        task.setTaskName(rs.getString("task_name"));
+        task.setTaskType(TaskType.valueOf(rs.getString("task_type")));
+        task.setHost(rs.getString("host"));
+        task.setClassName(rs.getString("class_name"));
+        setContent(task, rs);
+        task.setMaxTries(rs.getInt("max_tries"));
+        task.setRetryWait(rs.getLong("retry_wait"));
+        task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
+        task.setPriority(rs.getInt("priority"));
+        task.setQueue(rs.getString("queue"));
+        task.setCpus(rs.getDouble("cpus"));
+        task.setMemoryMb(rs.getInt("memory_mb"));
+        task.setIdempotencyKey(rs.getString("idempotency_key"));
+
+        return task;
+    };
+
+    private RowMapper<FinishedTask> finishedTaskRowMapper = (rs, rowNum) -> {
+        FinishedTask task = new FinishedTask();
+        task.setTaskId(rs.getLong("task_id"));
+        task.setTaskName(rs.getString("task_name"));
+        task.setTaskType(TaskType.valueOf(rs.getString("task_type")));
+        task.setHost(rs.getString("host"));
+        task.setClassName(rs.getString("class_name"));
+        setContent(task, rs);
+        task.setMaxTries(rs.getInt("max_tries"));
+        task.setRetryWait(rs.getLong("retry_wait"));
+        task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
+        task.setPriority(rs.getInt("priority"));
+        task.setQueue(rs.getString("queue"));
+        task.setCpus(rs.getDouble("cpus"));
+        task.setMemoryMb(rs.getInt("memory_mb"));
+        task.setIdempotencyKey(rs.getString("idempotency_key"));
+        task.setStartTime(toInstant(rs.getTimestamp("start_time")));
+        long duration = rs.getLong("duration");
+        task.setDuration(rs.wasNull() ? null : Duration.ofSeconds(duration));
+        task.setEndTime(toInstant(rs.getTimestamp("end_time")));
+        task.setState(TaskState.valueOf(rs.getString("state")));
+        task.setTryNumber(rs.getInt("try_number"));
+
+        return task;
+    };
+
+    private RowMapper<RunningTask> runningTaskRowMapper = (rs, rowNum) -> {
+        RunningTask task = new RunningTask();
+        task.setTaskId(rs.getLong("task_id"));
+        task.setTaskName(rs.getString("task_name"));
+        task.setTaskType(TaskType.valueOf(rs.getString("task_type")));
+        task.setHost(rs.getString("host"));
+        task.setClassName(rs.getString("class_name"));
+        setContent(task, rs);
+        task.setMaxTries(rs.getInt("max_tries"));
+        task.setRetryWait(rs.getLong("retry_wait"));
+        task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
+        task.setPriority(rs.getInt("priority"));
+        task.setQueue(rs.getString("queue"));
+        task.setCpus(rs.getDouble("cpus"));
+        task.setMemoryMb(rs.getInt("memory_mb"));
+        task.setIdempotencyKey(rs.getString("idempotency_key"));
+        task.setStartTime(toInstant(rs.getTimestamp("start_time")));
+        task.setTryNumber(rs.getInt("try_number"));
+        task.setPid(rs.getInt("pid"));
+        task.setRetryTime(toInstant(rs.getTimestamp("retry_time")));
+
+        return task;
+    };
+
+}
@@ -0,0 +1,249 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.utill.jdbc.JdbcMetrics;
+import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.utill.jdbc.PagedResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Records latency of each method of a repository in {@link JdbcMetrics}, keyed by method name. Placed right in front
+ * of the database backed repository, so that latencies are those of database access rather than of cache hits.
+ * Latency of {@code forEach} methods includes their consumers.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class MeteredTaskRepository implements TaskRepository {
+    private final TaskRepository delegate;
+    private final JdbcMetrics metrics;
+
+    MeteredTaskRepository(TaskRepository delegate, JdbcMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    //************************ Waiting task ************************
+    @Override
+    public TaskInfo create(TaskInfo task) {
+        return metrics.time("create", () -> delegate.create(task));
+    }
+
+    @Override
+    public <T extends TaskInfo> List<T> create(List<T> tasks) {
+        return metrics.time("createBatch", () -> delegate.create(tasks));
+    }
+
+    @Override
+    public WaitingTask getWaitingTask(long taskId) {
+        return metrics.time("getWaitingTask", () -> delegate.getWaitingTask(taskId));
+    }
+
+    @Override
+    public PagedResult<WaitingTask> getWaitingTasks(Page page) {
+        return metrics.time("getWaitingTasks", () -> delegate.getWaitingTasks(page));
+    }
+
+    @Override
+    public long forEachWaitingTask(Consumer<? super WaitingTask> consumer) {
+        return metrics.time("forEachWaitingTask", () -> delegate.forEachWaitingTask(consumer));
+    }
+
+    @Override
+    public void deleteWaitingTask(Long taskId) {
+        metrics.time("deleteWaitingTask", () -> delegate.deleteWaitingTask(taskId));
+    }
+
+    @Override
+    public void deleteAllWaitingTask() {
+        metrics.time("deleteAllWaitingTask", delegate::deleteAllWaitingTask);
+    }
+
+
+    //************************ Running task ************************
+    @Override
+    public void moveToRunning(RunningTask task) {
+        metrics.time("moveToRunning", () -> delegate.moveToRunning(task));
+    }
+
+    @Override
+    public void updateRunningTask(RunningTask task) {
+        metrics.time("updateRunningTask", () -> delegate.updateRunningTask(task));
+    }
+
+    @Override
+    public Optional<RunningTask> getRunningTask(long taskId) {
+        return metrics.time("getRunningTask", () -> delegate.getRunningTask(taskId));
+    }
+
+    @Override
+    public long forEachRunningTask(Consumer<? super RunningTask> consumer) {
+        return metrics.time("forEachRunningTask", () -> delegate.forEachRunningTask(consumer));
+    }
+
+    @Override
+    public PagedResult<RunningTask> getRunningTasks(Page page) {
+        return metrics.time("getRunningTasks", () -> delegate.getRunningTasks(page));
+    }
+
+
+    //************************ Finished Task ************************
+    @Override
+    public void moveFromWaitingToFinished(FinishedTask task) {
+        metrics.time("moveFromWaitingToFinished", () -> delegate.moveFromWaitingToFinished(task));
+    }
+
+    @Override
+    public void moveToFinished(FinishedTask task) {
+        metrics.time("moveToFinished", () -> delegate.moveToFinished(task));
+    }
+
+    @Override
+    public long forEachFinishedTask(Consumer<? super FinishedTask> consumer) {
+        return metrics.time("forEachFinishedTask", () -> delegate.forEachFinishedTask(consumer));
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getFinishedTasks(Page page) {
+        return metrics.time("getFinishedTasks", () -> delegate.getFinishedTasks(page));
+    }
+
+    @Override
+    public FinishedTask getFinishedTask(long taskId) {
+        return metrics.time("getFinishedTask", () -> delegate.getFinishedTask(taskId));
+    }
+
+
+    //************************ Batch ************************
+    @Override
+    public Map<Long, TaskInfo> getTasks(Collection<Long> taskIds) {
+        return metrics.time("getTasks", () -> delegate.getTasks(taskIds));
+    }
+
+    @Override
+    public int[] applyTransitions(List<TaskTransition> transitions) {
+        return metrics.time("applyTransitions", () -> delegate.applyTransitions(transitions));
+    }
+
+
+    //************************ Lease ************************
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, int limit, Duration leaseTime) {
+        return metrics.time("claimWaitingTasks", () -> delegate.claimWaitingTasks(owner, limit, leaseTime));
+    }
+
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, String queue, int limit, Duration leaseTime) {
+        return metrics.time("claimQueuedWaitingTasks", () -> delegate.claimWaitingTasks(owner, queue, limit, leaseTime));
+    }
+
+    @Override
+    public List<RunningTask> claimDueRetries(String owner, int limit, Duration leaseTime) {
+        return metrics.time("claimDueRetries", () -> delegate.claimDueRetries(owner, limit, leaseTime));
+    }
+
+    @Override
+    public Set<String> getWaitingQueues() {
+        return metrics.time("getWaitingQueues", delegate::getWaitingQueues);
+    }
+
+    @Override
+    public Set<Long> claimTasks(String owner, Collection<Long> taskIds, Duration leaseTime) {
+        return metrics.time("claimTasks", () -> delegate.claimTasks(owner, taskIds, leaseTime));
+    }
+
+    @Override
+    public void releaseTasks(String owner, Collection<Long> taskIds) {
+        metrics.time("releaseTasks", () -> delegate.releaseTasks(owner, taskIds));
+    }
+
+
+    //************************ History ************************
+    @Override
+    public int archiveFinishedTasks(Instant before) {
+        return metrics.time("archiveFinishedTasks", () -> delegate.archiveFinishedTasks(before));
+    }
+
+    @Override
+    public List<YearMonth> dropFinishedTaskHistory(Instant before) {
+        return metrics.time("dropFinishedTaskHistory", () -> delegate.dropFinishedTaskHistory(before));
+    }
+
+    @Override
+    public List<YearMonth> getArchivedMonths() {
+        return metrics.time("getArchivedMonths", delegate::getArchivedMonths);
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page) {
+        return metrics.time("getArchivedTasks", () -> delegate.getArchivedTasks(month, page));
+    }
+
+    @Override
+    public List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        return metrics.time("getDailyRollups", () -> delegate.getDailyRollups(from, to));
+    }
+
+
+    //************************ Stats ************************
+    @Override
+    public List<TaskStats> getTaskStats() {
+        return metrics.time("getAllTaskStats", () -> delegate.getTaskStats());
+    }
+
+    @Override
+    public TaskStats getTaskStats(String taskName) {
+        return metrics.time("getTaskStats", () -> delegate.getTaskStats(taskName));
+    }
+
+
+    //************************ Schedule ************************
+    @Override
+    public TaskSchedule createSchedule(TaskSchedule schedule) {
+        return metrics.time("createSchedule", () -> delegate.createSchedule(schedule));
+    }
+
+    @Override
+    public TaskSchedule getSchedule(long scheduleId) {
+        return metrics.time("getSchedule", () -> delegate.getSchedule(scheduleId));
+    }
+
+    @Override
+    public List<TaskSchedule> getSchedules() {
+        return metrics.time("getSchedules", () -> delegate.getSchedules());
+    }
+
+    @Override
+    public void deleteSchedule(long scheduleId) {
+        metrics.time("deleteSchedule", () -> delegate.deleteSchedule(scheduleId));
+    }
+
+    @Override
+    public boolean fireSchedule(long scheduleId, Instant expectedFireTime, Instant nextFireTime, Instant fireTime,
+                                List<WaitingTask> tasks) {
+        return metrics.time("fireSchedule",
+                () -> delegate.fireSchedule(scheduleId, expectedFireTime, nextFireTime, fireTime, tasks));
+    }
+
+    @Override
+    public void refresh() {
+        metrics.time("refresh", () -> delegate.refresh());
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.timeyang.athena.task;
+
+/**
+ * load task classpath or params stored by content hash
+ *
+ * @author https://github.com/chaokunyang
+ */
+@FunctionalInterface
+interface TaskContentLoader {
+
+    /**
+     * @param hash content hash
+     * @return content, null if absent
+     */
+    String load(String hash);
+
+}
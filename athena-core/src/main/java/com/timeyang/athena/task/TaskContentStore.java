@@ -0,0 +1,175 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.utill.jdbc.Criterion;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed store of task classpath and params. Tasks sharing the same classpath or params reference one
+ * row by its sha-256 hash instead of storing the content again.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskContentStore implements TaskContentLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskContentStore.class);
+    static final String TASK_CONTENT_TABLE = "task_content";
+    private static final int CACHE_SIZE = 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final DataSource dataSource;
+    // hash -> content of recently committed or loaded contents
+    private final Map<String, String> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    TaskContentStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void createTableIfAbsent(Connection connection) {
+        String sql = "CREATE TABLE " + TASK_CONTENT_TABLE +
+                "(" +
+                "content_hash CHAR(64) PRIMARY KEY, " +
+                "content VARCHAR(30000)" +
+                ")";
+        boolean created = JdbcUtils.createTableIfAbsent(connection, TASK_CONTENT_TABLE, sql);
+        if (created) LOGGER.info("Created table " + TASK_CONTENT_TABLE);
+    }
+
+    /**
+     * save content if absent, in caller's transaction. Call {@link #committed(String, String)} after the transaction
+     * is committed, so that later saves of the same content skip the database.
+     *
+     * @param connection Connection
+     * @param content    content
+     * @param saved      hashes saved before in the same transaction
+     * @return content hash, null if content is null
+     */
+    String save(Connection connection, String content, Set<String> saved) throws SQLException {
+        if (content == null)
+            return null;
+
+        String hash = hash(content);
+        if (saved.contains(hash) || cache.containsKey(hash))
+            return hash;
+
+        String selectSql = "SELECT content_hash FROM " + TASK_CONTENT_TABLE + " WHERE content_hash = ?";
+        boolean exists = !JdbcUtils.query(connection, selectSql, (rs, rowNum) -> rs.getString(1), hash).isEmpty();
+        if (!exists) {
+            String insertSql = "INSERT INTO " + TASK_CONTENT_TABLE + "(content_hash, content) VALUES(?, ?)";
+            try (PreparedStatement pStatement = connection.prepareStatement(insertSql)) {
+                pStatement.setString(1, hash);
+                pStatement.setString(2, content);
+                pStatement.executeUpdate();
+            } catch (SQLException e) {
+                // integrity constraint violation: saved by another transaction concurrently
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23"))
+                    throw e;
+            }
+        }
+        saved.add(hash);
+        return hash;
+    }
+
+    void committed(String hash, String content) {
+        if (hash != null)
+            cache.put(hash, content);
+    }
+
+    @Override
+    public String load(String hash) {
+        if (hash == null)
+            return null;
+
+        String content = cache.get(hash);
+        if (content != null)
+            return content;
+
+        String sql = "SELECT content FROM " + TASK_CONTENT_TABLE + " WHERE content_hash = ?";
+        List<String> contents = JdbcUtils.query(dataSource, sql, (rs, rowNum) -> rs.getString(1), hash);
+        if (contents.isEmpty()) {
+            throw new AthenaException("Can't find task content of hash " + hash);
+        }
+        content = contents.get(0);
+        cache.put(hash, content);
+        return content;
+    }
+
+    /**
+     * set classpath and params of tasks which reference them by hash, loading contents not cached in one query
+     */
+    void loadContents(Collection<? extends TaskInfo> tasks) {
+        Set<String> missing = new HashSet<>();
+        for (TaskInfo task : tasks) {
+            for (String hash : Arrays.asList(task.getClasspathHash(), task.getParamsHash())) {
+                if (hash != null && !cache.containsKey(hash))
+                    missing.add(hash);
+            }
+        }
+        if (!missing.isEmpty()) {
+            String sql = "SELECT content_hash, content FROM " + TASK_CONTENT_TABLE + " WHERE content_hash IN (" +
+                    String.join(", ", Collections.nCopies(missing.size(), "?")) + ")";
+            JdbcUtils.query(dataSource, sql, (rs, rowNum) -> cache.put(rs.getString(1), rs.getString(2)),
+                    missing.toArray());
+        }
+        for (TaskInfo task : tasks) {
+            if (task.getClasspath() == null)
+                task.setClasspath(load(task.getClasspathHash()));
+            if (task.getParams() == null)
+                task.setParams(load(task.getParamsHash()));
+        }
+    }
+
+    /**
+     * rewrite a criterion on content of a task column stored by hash, e.g. classpath, into one on its hash column
+     *
+     * @param criterion criterion on content
+     * @param hashField column of content hash in task tables
+     */
+    static Criterion toHashCriterion(Criterion criterion, String hashField) {
+        if (criterion.getPredicate() == Criterion.Predicate.EQ) {
+            String content = Criterion.Predicate.getString(criterion);
+            return new Criterion(hashField, Criterion.Predicate.EQ, hash(content), criterion.getCondition());
+        }
+        Criterion contentCriterion = new Criterion("content", criterion.getPredicate(), criterion.getCompareTo());
+        Criterion.Select select = new Criterion.Select(TASK_CONTENT_TABLE, "content_hash", contentCriterion);
+        return new Criterion(hashField, Criterion.Predicate.IN_SELECT, select, criterion.getCondition());
+    }
+
+    static String hash(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AthenaException("SHA-256 not supported", e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.timeyang.athena.task;
+
+import java.time.LocalDate;
+
+/**
+ * statistics of finished tasks of one task name and state in one day, kept after raw task rows expire
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class TaskDailyRollup {
+    private LocalDate day;
+    private String taskName;
+    private TaskState state;
+    private long taskCount;
+    /**
+     * number of tasks which have duration, tasks finished before running don't have duration
+     */
+    private long durationCount;
+    /**
+     * sum of task duration in seconds
+     */
+    private long totalDuration;
+    /**
+     * max task duration in seconds
+     */
+    private long maxDuration;
+    private long totalTries;
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public void setDay(LocalDate day) {
+        this.day = day;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public void setTaskName(String taskName) {
+        this.taskName = taskName;
+    }
+
+    public TaskState getState() {
+        return state;
+    }
+
+    public void setState(TaskState state) {
+        this.state = state;
+    }
+
+    public long getTaskCount() {
+        return taskCount;
+    }
+
+    public void setTaskCount(long taskCount) {
+        this.taskCount = taskCount;
+    }
+
+    public long getDurationCount() {
+        return durationCount;
+    }
+
+    public void setDurationCount(long durationCount) {
+        this.durationCount = durationCount;
+    }
+
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public void setTotalDuration(long totalDuration) {
+        this.totalDuration = totalDuration;
+    }
+
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public void setMaxDuration(long maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+    public long getTotalTries() {
+        return totalTries;
+    }
+
+    public void setTotalTries(long totalTries) {
+        this.totalTries = totalTries;
+    }
+
+    /**
+     * @return average duration in seconds of tasks which have duration
+     */
+    public double getAvgDuration() {
+        return durationCount == 0 ? 0 : (double) totalDuration / durationCount;
+    }
+
+    TaskDailyRollup copy() {
+        TaskDailyRollup copy = new TaskDailyRollup();
+        copy.day = this.day;
+        copy.taskName = this.taskName;
+        copy.state = this.state;
+        copy.merge(this);
+        return copy;
+    }
+
+    void merge(TaskDailyRollup other) {
+        this.taskCount += other.taskCount;
+        this.durationCount += other.durationCount;
+        this.totalDuration += other.totalDuration;
+        this.maxDuration = Math.max(this.maxDuration, other.maxDuration);
+        this.totalTries += other.totalTries;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskDailyRollup{" +
+                "day=" + day +
+                ", taskName='" + taskName + '\'' +
+                ", state=" + state +
+                ", taskCount=" + taskCount +
+                ", durationCount=" + durationCount +
+                ", totalDuration=" + totalDuration +
+                ", maxDuration=" + maxDuration +
+                ", totalTries=" + totalTries +
+                '}';
+    }
+}
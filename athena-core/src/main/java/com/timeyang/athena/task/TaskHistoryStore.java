@@ -0,0 +1,347 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.utill.jdbc.CountCache;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.JdbcUtils.RowMapper;
+import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.utill.jdbc.PagedResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time partitioned history of finished tasks. Finished tasks which ended before the hot window are moved out of task
+ * table into monthly partition tables {@code task_history_yyyyMM}, so that listings, counts and lookups on task table
+ * only touch recent tasks. Expired partitions are dropped as a whole, per-day rollups of archived tasks are kept in
+ * {@code task_daily_rollup} after that.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskHistoryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskHistoryStore.class);
+    static final String HISTORY_TABLE_PREFIX = "task_history_";
+    static final String DAILY_ROLLUP_TABLE = "task_daily_rollup";
+    private static final DateTimeFormatter PARTITION_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final String HISTORY_COLUMNS = "task_id, task_name, task_type, host, class_name, " +
+            "classpath, params, classpath_hash, params_hash, max_tries, try_number, retry_wait, state, " +
+            "submit_time, start_time, end_time, duration, pid, priority, queue, cpus, memory_mb, idempotency_key";
+
+    private final DataSource dataSource;
+    private final String taskTable;
+    private final String finishedCondition;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final CountCache countCache = new CountCache();
+    // months of partitions, newest first
+    private volatile List<YearMonth> partitions = Collections.emptyList();
+
+    /**
+     * @param taskTable         table of hot tasks
+     * @param finishedCondition condition of finished tasks in task table
+     */
+    TaskHistoryStore(DataSource dataSource, String taskTable, String finishedCondition) {
+        this.dataSource = dataSource;
+        this.taskTable = taskTable;
+        this.finishedCondition = finishedCondition;
+    }
+
+    void createTablesIfAbsent(Connection connection) throws SQLException {
+        String sql = "CREATE TABLE " + DAILY_ROLLUP_TABLE +
+                "(" +
+                "rollup_day DATE NOT NULL, " +
+                "task_name VARCHAR(100) NOT NULL, " +
+                "state VARCHAR(40) NOT NULL, " +
+                "task_count BIGINT, " +
+                "duration_count BIGINT, " +
+                "total_duration BIGINT, " +
+                "max_duration BIGINT, " +
+                "total_tries BIGINT, " +
+                "PRIMARY KEY (rollup_day, task_name, state)" +
+                ")";
+        boolean created = JdbcUtils.createTableIfAbsent(connection, DAILY_ROLLUP_TABLE, sql);
+        if (created) LOGGER.info("Created table " + DAILY_ROLLUP_TABLE);
+    }
+
+    void loadPartitions(Connection connection) {
+        String prefix = HISTORY_TABLE_PREFIX.toUpperCase();
+        List<YearMonth> months = new ArrayList<>();
+        for (String table : JdbcUtils.getAllTables(connection)) {
+            if (table.startsWith(prefix)) {
+                try {
+                    months.add(YearMonth.parse(table.substring(prefix.length()), PARTITION_FORMATTER));
+                } catch (DateTimeParseException e) {
+                    LOGGER.warn("Table {} isn't a task history partition, ignore it", table);
+                }
+            }
+        }
+        months.sort(Collections.reverseOrder());
+        this.partitions = Collections.unmodifiableList(months);
+    }
+
+    void loadPartitions() {
+        try (Connection connection = dataSource.getConnection()) {
+            loadPartitions(connection);
+        } catch (SQLException e) {
+            throw new AthenaException("Can't load task history partitions", e);
+        }
+    }
+
+    /**
+     * @return months of history partitions, newest first
+     */
+    List<YearMonth> getPartitions() {
+        return partitions;
+    }
+
+    static String partitionTable(YearMonth month) {
+        return HISTORY_TABLE_PREFIX + month.format(PARTITION_FORMATTER);
+    }
+
+    private void createPartitionIfAbsent(Connection connection, YearMonth month) throws SQLException {
+        String table = partitionTable(month);
+        String sql = "CREATE TABLE " + table +
+                "(" +
+                "task_id INTEGER NOT NULL PRIMARY KEY, " +
+                "task_name VARCHAR(100), " +
+                "task_type VARCHAR(100), " +
+                "host VARCHAR(100), " +
+                "class_name VARCHAR(100), " +
+                "classpath VARCHAR(30000), " +
+                "params VARCHAR(10000), " +
+                "classpath_hash CHAR(64), " +
+                "params_hash CHAR(64), " +
+                "max_tries INTEGER, " +
+                "try_number INTEGER, " +
+                "retry_wait BIGINT, " +
+                "state VARCHAR(40) NOT NULL, " +
+                "submit_time TIMESTAMP, " +
+                "start_time TIMESTAMP, " +
+                "end_time TIMESTAMP, " +
+                "duration BIGINT, " +
+                "pid INTEGER, " +
+                "priority INTEGER DEFAULT 0 NOT NULL, " +
+                "queue VARCHAR(100) DEFAULT '" + TaskInfo.DEFAULT_QUEUE + "' NOT NULL, " +
+                "cpus DOUBLE DEFAULT " + TaskInfo.DEFAULT_CPUS + " NOT NULL, " +
+                "memory_mb INTEGER DEFAULT " + TaskInfo.DEFAULT_MEMORY_MB + " NOT NULL, " +
+                "idempotency_key VARCHAR(" + TaskInfo.MAX_IDEMPOTENCY_KEY_LENGTH + ")" +
+                ")";
+        if (JdbcUtils.createTableIfAbsent(connection, table, sql)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX " + table + "_end_idx ON " + table + "(end_time)");
+            }
+            LOGGER.info("Created task history partition " + table);
+        }
+    }
+
+    /**
+     * move finished tasks which ended before {@code before} into history partitions, one day per transaction.
+     * Rollups of the moved tasks are merged into daily rollups in the same transaction.
+     *
+     * @param before tasks ended before this instant are archived
+     * @return number of archived tasks
+     */
+    int archive(Instant before) {
+        // tasks finished before end time was recorded are archived by their submit time
+        String fillEndTimeSql = "UPDATE " + taskTable + " SET end_time = submit_time " +
+                "WHERE " + finishedCondition + " AND end_time IS NULL";
+        JdbcUtils.update(dataSource, fillEndTimeSql);
+
+        String minEndTimeSql = "SELECT MIN(end_time) FROM " + taskTable + " WHERE " + finishedCondition;
+        int archived = 0;
+        while (true) {
+            Timestamp minEndTime = JdbcUtils.query(dataSource, minEndTimeSql, (rs, rowNum) -> rs.getTimestamp(1)).get(0);
+            if (minEndTime == null || !minEndTime.toInstant().isBefore(before))
+                break;
+
+            LocalDate day = minEndTime.toInstant().atZone(zone).toLocalDate();
+            Instant dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant();
+            int rows = archiveDay(day, dayEnd.isBefore(before) ? dayEnd : before);
+            // make tasks of new partition visible to lookups right away
+            if (!partitions.contains(YearMonth.from(day)))
+                loadPartitions();
+            if (rows == 0)
+                break;
+            archived += rows;
+            countCache.invalidate();
+        }
+
+        return archived;
+    }
+
+    /**
+     * archive finished tasks which ended in {@code day} and before {@code end}
+     */
+    private int archiveDay(LocalDate day, Instant end) {
+        Instant start = day.atStartOfDay(zone).toInstant();
+        String rangeCondition = finishedCondition + " AND end_time >= ? AND end_time < ?";
+        String table = partitionTable(YearMonth.from(day));
+
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            createPartitionIfAbsent(connection, YearMonth.from(day));
+
+            String rollupSql = "SELECT COALESCE(task_name, '') AS task_name, state, COUNT(*) AS task_count, " +
+                    "COUNT(duration) AS duration_count, SUM(duration) AS total_duration, " +
+                    "MAX(duration) AS max_duration, SUM(try_number) AS total_tries " +
+                    "FROM " + taskTable + " WHERE " + rangeCondition + " GROUP BY COALESCE(task_name, ''), state";
+            List<TaskDailyRollup> rollups = JdbcUtils.query(connection, rollupSql, (rs, rowNum) -> {
+                TaskDailyRollup rollup = mapRollupStatistics(rs);
+                rollup.setDay(day);
+                return rollup;
+            }, start, end);
+            mergeRollups(connection, day, rollups);
+
+            String copySql = "INSERT INTO " + table + "(" + HISTORY_COLUMNS + ") " +
+                    "SELECT " + HISTORY_COLUMNS + " FROM " + taskTable + " WHERE " + rangeCondition;
+            String deleteSql = "DELETE FROM " + taskTable + " WHERE " + rangeCondition;
+            int rows;
+            try (PreparedStatement copyStatement = connection.prepareStatement(copySql);
+                 PreparedStatement deleteStatement = connection.prepareStatement(deleteSql)) {
+                JdbcUtils.setParameters(copyStatement, start, end);
+                rows = copyStatement.executeUpdate();
+                JdbcUtils.setParameters(deleteStatement, start, end);
+                int deleted = deleteStatement.executeUpdate();
+                if (deleted != rows)
+                    throw new AthenaException(String.format(
+                            "Archived %d tasks of day %s but deleted %d tasks", rows, day, deleted));
+            }
+            connection.commit();
+            LOGGER.info("Archived {} finished tasks of day {} into {}", rows, day, table);
+            return rows;
+        } catch (SQLException e) {
+            JdbcUtils.rollback(connection);
+            throw new AthenaException("Can't archive finished tasks of day " + day, e);
+        } catch (RuntimeException e) {
+            JdbcUtils.rollback(connection);
+            throw e;
+        } finally {
+            JdbcUtils.close(connection);
+        }
+    }
+
+    private void mergeRollups(Connection connection, LocalDate day, List<TaskDailyRollup> rollups) throws SQLException {
+        String selectSql = "SELECT * FROM " + DAILY_ROLLUP_TABLE + " WHERE rollup_day = ?";
+        Map<String, TaskDailyRollup> existed = new HashMap<>();
+        for (TaskDailyRollup rollup : JdbcUtils.query(connection, selectSql, rollupRowMapper, Date.valueOf(day))) {
+            existed.put(rollup.getTaskName() + "\n" + rollup.getState(), rollup);
+        }
+
+        String insertSql = "INSERT INTO " + DAILY_ROLLUP_TABLE + "(task_count, duration_count, total_duration, " +
+                "max_duration, total_tries, rollup_day, task_name, state) VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+        String updateSql = "UPDATE " + DAILY_ROLLUP_TABLE + " SET task_count = ?, duration_count = ?, " +
+                "total_duration = ?, max_duration = ?, total_tries = ? " +
+                "WHERE rollup_day = ? AND task_name = ? AND state = ?";
+        try (PreparedStatement insertStatement = connection.prepareStatement(insertSql);
+             PreparedStatement updateStatement = connection.prepareStatement(updateSql)) {
+            for (TaskDailyRollup rollup : rollups) {
+                TaskDailyRollup old = existed.get(rollup.getTaskName() + "\n" + rollup.getState());
+                PreparedStatement statement = insertStatement;
+                if (old != null) {
+                    old.merge(rollup);
+                    rollup = old;
+                    statement = updateStatement;
+                }
+                JdbcUtils.setParameters(statement, rollup.getTaskCount(), rollup.getDurationCount(),
+                        rollup.getTotalDuration(), rollup.getMaxDuration(), rollup.getTotalTries(),
+                        Date.valueOf(day), rollup.getTaskName(), rollup.getState());
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * drop history partitions whose tasks all ended before {@code before}. Daily rollups are kept.
+     *
+     * @return months of dropped partitions
+     */
+    List<YearMonth> dropPartitionsBefore(Instant before) {
+        List<YearMonth> dropped = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (YearMonth month : partitions) {
+                Instant monthEnd = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant();
+                if (!monthEnd.isAfter(before)) {
+                    statement.execute("DROP TABLE " + partitionTable(month));
+                    dropped.add(month);
+                    LOGGER.info("Dropped expired task history partition " + partitionTable(month));
+                }
+            }
+            if (!dropped.isEmpty())
+                loadPartitions(connection);
+        } catch (SQLException e) {
+            throw new AthenaException("Can't drop task history partitions before " + before, e);
+        }
+        return dropped;
+    }
+
+    /**
+     * find task in history partitions, newest partition first
+     *
+     * @return task or null if not found
+     */
+    <T> T getTask(long taskId, RowMapper<T> rowMapper) {
+        for (YearMonth month : partitions) {
+            String sql = "select * from " + partitionTable(month) + " where task_id = ?";
+            List<T> tasks = JdbcUtils.query(dataSource, sql, rowMapper, taskId);
+            if (!tasks.isEmpty())
+                return tasks.get(0);
+        }
+        return null;
+    }
+
+    <T> PagedResult<T> getTasks(YearMonth month, Page page, RowMapper<T> rowMapper) {
+        if (!partitions.contains(month))
+            throw new AthenaException("Task history of month " + month + " doesn't exist");
+        return JdbcUtils.queryPage(dataSource, partitionTable(month), "task_id", null, page, rowMapper,
+                countCache);
+    }
+
+    /**
+     * @param from first day, inclusive
+     * @param to   last day, inclusive
+     */
+    List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        String sql = "SELECT * FROM " + DAILY_ROLLUP_TABLE + " WHERE rollup_day >= ? AND rollup_day <= ? " +
+                "ORDER BY rollup_day, task_name, state";
+        return JdbcUtils.query(dataSource, sql, rollupRowMapper, Date.valueOf(from), Date.valueOf(to));
+    }
+
+    private static final RowMapper<TaskDailyRollup> rollupRowMapper = (rs, rowNum) -> {
+        TaskDailyRollup rollup = mapRollupStatistics(rs);
+        rollup.setDay(rs.getDate("rollup_day").toLocalDate());
+        return rollup;
+    };
+
+    private static TaskDailyRollup mapRollupStatistics(ResultSet rs) throws SQLException {
+        TaskDailyRollup rollup = new TaskDailyRollup();
+        rollup.setTaskName(rs.getString("task_name"));
+        rollup.setState(TaskState.valueOf(rs.getString("state")));
+        rollup.setTaskCount(rs.getLong("task_count"));
+        rollup.setDurationCount(rs.getLong("duration_count"));
+        rollup.setTotalDuration(rs.getLong("total_duration"));
+        rollup.setMaxDuration(rs.getLong("max_duration"));
+        rollup.setTotalTries(rs.getLong("total_tries"));
+        return rollup;
+    }
+}
@@ -8,6 +8,11 @@ import java.time.Instant;
  */
 
 public abstract class TaskInfo {
+    public static final String DEFAULT_QUEUE = "default";
+    public static final double DEFAULT_CPUS = 1;
+    public static final int DEFAULT_MEMORY_MB = 512;
+    public static final int MAX_IDEMPOTENCY_KEY_LENGTH = 200;
+
     private Long taskId;
     private String taskName;
     private TaskType taskType;
@@ -19,6 +24,14 @@ public abstract class TaskInfo {
     private String className;
     private String classpath;
     private String params;
+    /**
+     * hash of classpath in content store, classpath is loaded by {@link #loadClasspath()} when needed
+     */
+    private String classpathHash;
+    /**
+     * hash of params in content store, params is loaded by {@link #loadParams()} when needed
+     */
+    private String paramsHash;
     /**
      * max retry number
      */
@@ -28,6 +41,28 @@ public abstract class TaskInfo {
      */
     private Long retryWait;
     private Instant submitTime;
+    /**
+     * tasks of higher priority in a queue are launched first
+     */
+    private Integer priority;
+    /**
+     * queues share launches by their weights, so a large batch in one queue doesn't starve others
+     */
+    private String queue;
+    /**
+     * cores the task uses, tasks are placed on hosts which have them free
+     */
+    private Double cpus;
+    /**
+     * memory in MB the task uses, tasks are placed on hosts which have it free
+     */
+    private Integer memoryMb;
+    /**
+     * key given by submitter, a task submitted again with the same key isn't created, the id of the existing task is
+     * returned instead. Keys are unique among tasks which are not archived
+     */
+    private String idempotencyKey;
+    private transient TaskContentLoader contentLoader;
 
     public Long getTaskId() {
         return taskId;
@@ -85,6 +120,73 @@ public abstract class TaskInfo {
         this.params = params;
     }
 
+    public String getClasspathHash() {
+        return classpathHash;
+    }
+
+    public void setClasspathHash(String classpathHash) {
+        this.classpathHash = classpathHash;
+    }
+
+    public String getParamsHash() {
+        return paramsHash;
+    }
+
+    public void setParamsHash(String paramsHash) {
+        this.paramsHash = paramsHash;
+    }
+
+    /**
+     * @return classpath, loaded from content store if it's stored by hash
+     */
+    public String loadClasspath() {
+        if (classpath == null && classpathHash != null && contentLoader != null)
+            classpath = contentLoader.load(classpathHash);
+        return classpath;
+    }
+
+    /**
+     * @return params, loaded from content store if it's stored by hash
+     */
+    public String loadParams() {
+        if (params == null && paramsHash != null && contentLoader != null)
+            params = contentLoader.load(paramsHash);
+        return params;
+    }
+
+    void setContentLoader(TaskContentLoader contentLoader) {
+        this.contentLoader = contentLoader;
+    }
+
+    /**
+     * copy fields of task common to all task states
+     */
+    void copyFrom(TaskInfo task) {
+        this.taskId = task.taskId;
+        this.taskName = task.taskName;
+        this.taskType = task.taskType;
+        this.host = task.host;
+        this.className = task.className;
+        this.classpath = task.classpath;
+        this.params = task.params;
+        this.classpathHash = task.classpathHash;
+        this.paramsHash = task.paramsHash;
+        this.maxTries = task.maxTries;
+        this.retryWait = task.retryWait;
+        this.submitTime = task.submitTime;
+        this.priority = task.priority;
+        this.queue = task.queue;
+        this.cpus = task.cpus;
+        this.memoryMb = task.memoryMb;
+        this.idempotencyKey = task.idempotencyKey;
+        this.contentLoader = task.contentLoader;
+    }
+
+    /**
+     * @return a copy of task in the same state
+     */
+    abstract TaskInfo copy();
+
     public Integer getMaxTries() {
         return maxTries;
     }
@@ -109,6 +211,46 @@ public abstract class TaskInfo {
         this.submitTime = submitTime;
     }
 
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    public Double getCpus() {
+        return cpus;
+    }
+
+    public void setCpus(Double cpus) {
+        this.cpus = cpus;
+    }
+
+    public Integer getMemoryMb() {
+        return memoryMb;
+    }
+
+    public void setMemoryMb(Integer memoryMb) {
+        this.memoryMb = memoryMb;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
     @Override
     public String toString() {
         return "taskId=" + taskId +
@@ -118,32 +260,46 @@ public abstract class TaskInfo {
                 ", className='" + className + '\'' +
                 ", classpath='" + classpath + '\'' +
                 ", params='" + params + '\'' +
+                ", classpathHash='" + classpathHash + '\'' +
+                ", paramsHash='" + paramsHash + '\'' +
                 ", maxTries=" + maxTries +
                 ", retryWait=" + retryWait +
-                ", submitTime=" + submitTime;
+                ", submitTime=" + submitTime +
+                ", priority=" + priority +
+                ", queue='" + queue + '\'' +
+                ", cpus=" + cpus +
+                ", memoryMb=" + memoryMb +
+                ", idempotencyKey='" + idempotencyKey + '\'';
     }
 
-    public static final class WaitingTask extends TaskInfo {}
+    public static final class WaitingTask extends TaskInfo {
+
+        public WaitingTask() { }
+
+        public WaitingTask(TaskInfo task) {
+            super.copyFrom(task);
+        }
+
+        @Override
+        WaitingTask copy() {
+            return new WaitingTask(this);
+        }
+    }
 
     public static final class RunningTask extends TaskInfo {
 
         private Instant startTime;
         private Integer tryNumber;
         private Integer pid;
+        /**
+         * time a failed try is retried, null if task isn't waiting for a retry
+         */
+        private Instant retryTime;
 
         public RunningTask() { }
 
         public RunningTask(TaskInfo task) {
-            super.setTaskId(task.getTaskId());
-            super.setTaskName(task.getTaskName());
-            super.setTaskType(task.getTaskType());
-            super.setHost(task.getHost());
-            super.setClassName(task.getClassName());
-            super.setClasspath(task.getClasspath());
-            super.setParams(task.getParams());
-            super.setMaxTries(task.getMaxTries());
-            super.setRetryWait(task.getRetryWait());
-            super.setSubmitTime(task.getSubmitTime());
+            super.copyFrom(task);
         }
 
         public Instant getStartTime() {
@@ -170,12 +326,31 @@ public abstract class TaskInfo {
             this.pid = pid;
         }
 
+        public Instant getRetryTime() {
+            return retryTime;
+        }
+
+        public void setRetryTime(Instant retryTime) {
+            this.retryTime = retryTime;
+        }
+
+        @Override
+        RunningTask copy() {
+            RunningTask copy = new RunningTask(this);
+            copy.startTime = this.startTime;
+            copy.tryNumber = this.tryNumber;
+            copy.pid = this.pid;
+            copy.retryTime = this.retryTime;
+            return copy;
+        }
+
         @Override
         public String toString() {
             return super.toString() +
                     ", startTime=" + startTime +
                     ", tryNumber=" + tryNumber +
-                    ", pid='" + pid;
+                    ", pid='" + pid +
+                    ", retryTime=" + retryTime;
         }
     }
 
@@ -189,29 +364,11 @@ public abstract class TaskInfo {
         public FinishedTask() {}
 
         public FinishedTask(TaskInfo task) {
-            super.setTaskId(task.getTaskId());
-            super.setTaskName(task.getTaskName());
-            super.setTaskType(task.getTaskType());
-            super.setHost(task.getHost());
-            super.setClassName(task.getClassName());
-            super.setClasspath(task.getClasspath());
-            super.setParams(task.getParams());
-            super.setMaxTries(task.getMaxTries());
-            super.setRetryWait(task.getRetryWait());
-            super.setSubmitTime(task.getSubmitTime());
+            super.copyFrom(task);
         }
 
         public FinishedTask(RunningTask task) {
-            super.setTaskId(task.getTaskId());
-            super.setTaskName(task.getTaskName());
-            super.setTaskType(task.getTaskType());
-            super.setHost(task.getHost());
-            super.setClassName(task.getClassName());
-            super.setClasspath(task.getClasspath());
-            super.setParams(task.getParams());
-            super.setMaxTries(task.getMaxTries());
-            super.setRetryWait(task.getRetryWait());
-            super.setSubmitTime(task.getSubmitTime());
+            super.copyFrom(task);
 
             this.startTime = task.getStartTime();
             this.tryNumber = task.getTryNumber();
@@ -260,6 +417,17 @@ public abstract class TaskInfo {
             this.tryNumber = tryNumber;
         }
 
+        @Override
+        FinishedTask copy() {
+            FinishedTask copy = new FinishedTask((TaskInfo) this);
+            copy.startTime = this.startTime;
+            copy.endTime = this.endTime;
+            copy.duration = this.duration;
+            copy.state = this.state;
+            copy.tryNumber = this.tryNumber;
+            return copy;
+        }
+
         @Override
         public String toString() {
             return super.toString() +
@@ -0,0 +1,345 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of task records with snapshots, in a directory of segment files {@code wal-<lsn>.log} and snapshot
+ * files {@code snapshot-<lsn>.bin}. Lsn is the sequence number of a record, a segment starts with record of its lsn,
+ * and a snapshot covers all records before its lsn.
+ * <p>Records are framed as {@code length, crc32, payload}. A torn record at the end of the last segment left by a
+ * crash is truncated on recovery.</p>
+ * <p>Appending only writes to a buffer, {@link #sync(long)} makes records durable. Concurrent callers of sync share
+ * one fsync: the first one flushes and forces all records appended so far, later ones return once their records are
+ * covered.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskLog implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskLog.class);
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int SNAPSHOT_MAGIC = 0x41544853;
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private final Path dir;
+    private final boolean fsync;
+    // guards appending and segment switching
+    private final Object writeLock = new Object();
+    // serializes fsync, acquired before writeLock
+    private final Object syncLock = new Object();
+
+    private FileOutputStream segmentStream;
+    private DataOutputStream out;
+    private long appendedLsn;
+    private volatile long syncedLsn;
+
+    /**
+     * @param dir   directory of log files, created if absent
+     * @param fsync whether to force records to disk when syncing. If false, records are flushed to operating system
+     *              on appending, which survives process crash but not machine crash
+     */
+    TaskLog(Path dir, boolean fsync) {
+        this.dir = dir;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new AthenaException("Can't create task log dir " + dir, e);
+        }
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * load latest snapshot and replay records after it, then open log for appending
+     *
+     * @param snapshotConsumer consumes snapshot payload, not called if there is no snapshot
+     * @param recordConsumer   consumes records after snapshot in order
+     * @return number of replayed records
+     */
+    long recover(Consumer<byte[]> snapshotConsumer, Consumer<byte[]> recordConsumer) {
+        try {
+            for (Path tmp : list(TMP_SUFFIX)) {
+                Files.delete(tmp);
+            }
+
+            long lsn = 0;
+            List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+            for (int i = snapshots.size() - 1; i >= 0; i--) {
+                Path snapshot = snapshots.get(i);
+                byte[] payload = readSnapshot(snapshot);
+                if (payload != null) {
+                    lsn = lsnOf(snapshot, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+                    snapshotConsumer.accept(payload);
+                    LOGGER.info("Loaded task snapshot {}", snapshot);
+                    break;
+                }
+                LOGGER.warn("Task snapshot {} is corrupted, ignore it", snapshot);
+            }
+
+            long replayed = 0;
+            Path lastSegment = null;
+            List<Path> segments = list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+            for (int i = 0; i < segments.size(); i++) {
+                Path segment = segments.get(i);
+                long start = lsnOf(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if (start < lsn)
+                    continue; // covered by snapshot
+                if (start != lsn)
+                    throw new AthenaException(String.format("Task log records from %d to %d are missing", lsn, start));
+                long records = replaySegment(segment, i == segments.size() - 1, recordConsumer);
+                lsn += records;
+                replayed += records;
+                lastSegment = segment;
+            }
+            LOGGER.info("Replayed {} task log records", replayed);
+
+            this.appendedLsn = lsn;
+            this.syncedLsn = lsn;
+            openSegment(lastSegment != null ? lastSegment : segmentPath(lsn));
+            return replayed;
+        } catch (IOException e) {
+            throw new AthenaException("Can't recover task log of " + dir, e);
+        }
+    }
+
+    private long replaySegment(Path segment, boolean last, Consumer<byte[]> recordConsumer) throws IOException {
+        long records = 0;
+        long position = 0;
+        long size = Files.size(segment);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (position < size) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    if (!last)
+                        throw new AthenaException("Task log segment " + segment + " is corrupted at " + position);
+                    LOGGER.warn("Truncate torn task log record of segment {} at {}", segment, position);
+                    break;
+                }
+                recordConsumer.accept(payload);
+                records++;
+                position += 8 + payload.length;
+            }
+        }
+        if (position < size) {
+            try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                file.setLength(position);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return payload, or null if record is torn or corrupted
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length < 0 || length > MAX_RECORD_LENGTH)
+                return null;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return crc(payload) == crc ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void openSegment(Path segment) throws IOException {
+        segmentStream = new FileOutputStream(segment.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(segmentStream, 64 * 1024));
+    }
+
+    /**
+     * append record to buffer, call {@link #sync(long)} with returned lsn to make it durable
+     *
+     * @return lsn after the record
+     */
+    long append(byte[] record) {
+        synchronized (writeLock) {
+            try {
+                out.writeInt(record.length);
+                out.writeInt(crc(record));
+                out.write(record);
+                if (!fsync)
+                    out.flush();
+            } catch (IOException e) {
+                throw new AthenaException("Can't append task log record", e);
+            }
+            return ++appendedLsn;
+        }
+    }
+
+    /**
+     * wait until records before lsn are durable
+     */
+    void sync(long lsn) {
+        if (!fsync || syncedLsn >= lsn)
+            return;
+
+        synchronized (syncLock) {
+            if (syncedLsn >= lsn)
+                return;
+            try {
+                long target;
+                FileChannel channel;
+                synchronized (writeLock) {
+                    out.flush();
+                    target = appendedLsn;
+                    channel = segmentStream.getChannel();
+                }
+                channel.force(false);
+                syncedLsn = target;
+            } catch (IOException e) {
+                throw new AthenaException("Can't sync task log", e);
+            }
+        }
+    }
+
+    /**
+     * make all appended records durable and start a new segment
+     *
+     * @return lsn of the first record of new segment
+     */
+    long roll() {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                try {
+                    out.flush();
+                    segmentStream.getChannel().force(false);
+                    out.close();
+                    syncedLsn = appendedLsn;
+                    openSegment(segmentPath(appendedLsn));
+                    return appendedLsn;
+                } catch (IOException e) {
+                    throw new AthenaException("Can't roll task log segment", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * write snapshot atomically, then delete segments and snapshots covered by it
+     *
+     * @param lsn      lsn of the first record not covered by snapshot, returned by {@link #roll()}
+     * @param snapshot snapshot payload
+     */
+    void writeSnapshot(long lsn, byte[] snapshot) {
+        Path path = dir.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+        Path tmp = dir.resolve(path.getFileName() + TMP_SUFFIX);
+        try {
+            try (FileOutputStream stream = new FileOutputStream(tmp.toFile());
+                 DataOutputStream snapshotOut = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024))) {
+                snapshotOut.writeInt(SNAPSHOT_MAGIC);
+                snapshotOut.writeInt(snapshot.length);
+                snapshotOut.writeInt(crc(snapshot));
+                snapshotOut.write(snapshot);
+                snapshotOut.flush();
+                stream.getChannel().force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+
+            for (Path segment : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (lsnOf(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX) < lsn)
+                    Files.delete(segment);
+            }
+            for (Path old : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (lsnOf(old, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < lsn)
+                    Files.delete(old);
+            }
+            LOGGER.info("Wrote task snapshot {}, {} bytes", path, snapshot.length);
+        } catch (IOException e) {
+            throw new AthenaException("Can't write task snapshot " + path, e);
+        }
+    }
+
+    /**
+     * @return payload, or null if snapshot is corrupted
+     */
+    private static byte[] readSnapshot(Path snapshot) throws IOException {
+        try (InputStream stream = Files.newInputStream(snapshot);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                return null;
+            return readRecord(in);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (syncLock) {
+            synchronized (writeLock) {
+                try {
+                    out.flush();
+                    if (fsync)
+                        segmentStream.getChannel().force(false);
+                    syncedLsn = appendedLsn;
+                    out.close();
+                } catch (IOException e) {
+                    throw new AthenaException("Can't close task log", e);
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(long lsn) {
+        return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, lsn, SEGMENT_SUFFIX));
+    }
+
+    private static long lsnOf(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * @return files of prefix and suffix, ordered by lsn
+     */
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> list(String suffix) throws IOException {
+        return list("", suffix);
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        return (int) crc32.getValue();
+    }
+}
@@ -7,6 +7,9 @@ import com.timeyang.athena.task.exec.TaskFactory;
 import com.timeyang.athena.utill.jdbc.Page;
 import com.timeyang.athena.utill.jdbc.PagedResult;
 
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
@@ -60,17 +63,38 @@ public interface TaskManager {
 
     /**
      * if host is no specified, then host is determined according to cluster available resources, task type, server role.
+     * If idempotency key of task is taken by a task which is not archived, no task is created.
      * @param task TaskInfo
-     * @return taskId
+     * @return taskId, id of the existing task if idempotency key is taken
      */
     long submitTask(TaskInfo task);
 
+    /**
+     * submit tasks in one transaction.
+     * @param tasks tasks, host and idempotency are determined in the same way as {@link #submitTask(TaskInfo)}
+     * @return task ids, in the same order as tasks
+     */
+    List<Long> submitTasks(List<? extends TaskInfo> tasks);
+
     Future killTask(long taskId);
 
+    /**
+     * @return whether scheduler of this instance is leader, which launches tasks of all instances sharing storage
+     */
+    boolean isLeader();
+
     boolean isTaskAlive(long taskId);
 
     boolean isTaskFinished(long taskId);
 
+    /**
+     * get current state of tasks in one lookup
+     * @param taskIds task ids
+     * @return task id to {@link WaitingTask}, {@link RunningTask} or {@link FinishedTask}, archived tasks included,
+     * tasks not found are absent
+     */
+    Map<Long, TaskInfo> getTasks(Collection<Long> taskIds);
+
     /**
      * get task logs
      * @param taskId task id
@@ -84,6 +108,55 @@ public interface TaskManager {
 
     PagedResult<RunningTask> getRunningTasks(Page page);
 
+    /**
+     * get a page of finished tasks which are not archived into history yet
+     */
     PagedResult<FinishedTask> getFinishedTasks(Page page);
 
+    /**
+     * @return months which have archived finished tasks, newest first
+     */
+    List<YearMonth> getArchivedMonths();
+
+    /**
+     * get a page of finished tasks archived into history partition of month
+     */
+    PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page);
+
+    /**
+     * get daily rollups of archived finished tasks, which are kept after archived tasks expire
+     * @param from first day, inclusive
+     * @param to last day, inclusive
+     * @return rollups ordered by day, task name and state
+     */
+    List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to);
+
+    /**
+     * get statistics of all finished tasks of each task name, which are updated as tasks finish
+     * @return statistics ordered by task name
+     */
+    List<TaskStats> getTaskStats();
+
+    /**
+     * @return statistics of finished tasks of task name, or null if no task of this name finished
+     */
+    TaskStats getTaskStats(String taskName);
+
+    /**
+     * persist a recurring schedule and fire it from its first fire time after now
+     * @return schedule with id and next fire time
+     * @throws com.timeyang.athena.AthenaException if schedule is invalid
+     */
+    TaskSchedule createSchedule(TaskSchedule schedule);
+
+    /**
+     * stop and remove a schedule, tasks it submitted are kept
+     */
+    void deleteSchedule(long scheduleId);
+
+    /**
+     * @return schedules ordered by id
+     */
+    List<TaskSchedule> getSchedules();
+
 }
@@ -1,12 +1,15 @@
 package com.timeyang.athena.task;
 
 import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.TaskInfo.FinishedTask;
 import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
 import com.timeyang.athena.task.exec.TaskFactory;
+import com.timeyang.athena.task.scheduler.LeaderElection;
 import com.timeyang.athena.task.scheduler.TaskScheduler;
 import com.timeyang.athena.task.scheduler.TaskSchedulerImpl;
+import com.timeyang.athena.utill.jdbc.JdbcMetrics;
 import com.timeyang.athena.utill.jdbc.Page;
 import com.timeyang.athena.utill.jdbc.PagedResult;
 import com.timeyang.athena.utill.ParametersUtils;
@@ -14,10 +17,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * task manager
@@ -31,25 +45,90 @@ public class TaskManagerImpl implements TaskManager {
     private final TaskRepository taskRepository;
 
     private final TaskScheduler taskScheduler;
+    private final ScheduledExecutorService historyExecutor = Executors.newSingleThreadScheduledExecutor();
 
     public TaskManagerImpl(AthenaConf athenaConf, DataSource dataSource) {
+        this(athenaConf, dataSource, null);
+    }
+
+    /**
+     * @param jdbcMetrics metrics which latencies of task repository are recorded to, null if not recorded
+     */
+    public TaskManagerImpl(AthenaConf athenaConf, DataSource dataSource, JdbcMetrics jdbcMetrics) {
         this.athenaConf = athenaConf;
-        this.taskRepository = new TaskRepository(dataSource);
-        this.taskScheduler = new TaskSchedulerImpl(athenaConf, taskRepository);
+        this.taskRepository = createTaskRepository(athenaConf, dataSource, jdbcMetrics);
+        this.taskScheduler = new TaskSchedulerImpl(athenaConf, taskRepository,
+                createLeaderElection(athenaConf, dataSource));
+    }
+
+    /**
+     * instances sharing a database elect a scheduler leader, a write-ahead log is owned by one process only
+     */
+    private static LeaderElection createLeaderElection(AthenaConf athenaConf, DataSource dataSource) {
+        if (!"jdbc".equals(athenaConf.getTaskRepository()) || !athenaConf.isTaskSchedulerLeaderElection())
+            return null;
+        return new LeaderElection(dataSource, "task-scheduler", athenaConf.getTaskSchedulerId(),
+                Duration.ofSeconds(athenaConf.getTaskSchedulerLeaderLeaseSeconds()));
+    }
+
+    private static TaskRepository createTaskRepository(AthenaConf athenaConf, DataSource dataSource,
+                                                       JdbcMetrics jdbcMetrics) {
+        String repository = athenaConf.getTaskRepository();
+        switch (repository) {
+            case "jdbc": {
+                TaskRepository jdbcRepository = new JdbcTaskRepository(dataSource, athenaConf.getJdbcFetchSize());
+                if (jdbcMetrics != null)
+                    jdbcRepository = new MeteredTaskRepository(jdbcRepository, jdbcMetrics);
+                return new CachingTaskRepository(jdbcRepository, athenaConf.getTaskRegistryFinishedCapacity());
+            }
+            case "wal":
+                return new WalTaskRepository(Paths.get(athenaConf.getTaskWalDir()),
+                        athenaConf.isTaskWalFsync(), athenaConf.getTaskWalSnapshotRecords());
+            default:
+                throw new AthenaException("Unknown task repository: " + repository);
+        }
     }
 
     @Override
     public void start() {
         taskScheduler.start();
+        long archiveInterval = athenaConf.getTaskHistoryArchiveInterval();
+        historyExecutor.scheduleWithFixedDelay(this::archiveHistory, 0, archiveInterval, TimeUnit.MINUTES);
         LOGGER.info("Task manager started");
     }
 
     @Override
     public void stop() {
+        historyExecutor.shutdownNow();
         taskScheduler.stop();
+        taskRepository.close();
         LOGGER.info("Task manager stopped");
     }
 
+    /**
+     * archive finished tasks out of hot window and drop expired history, by scheduler leader only
+     */
+    private void archiveHistory() {
+        if (!isLeader())
+            return;
+        // catch all, or else subsequent runs are suppressed
+        try {
+            Instant now = Instant.now();
+            int archived = taskRepository.archiveFinishedTasks(now.minus(athenaConf.getTaskHistoryHotDays(), ChronoUnit.DAYS));
+            if (archived > 0)
+                LOGGER.info("Archived {} finished tasks", archived);
+
+            int retentionDays = athenaConf.getTaskHistoryRetentionDays();
+            if (retentionDays > 0) {
+                List<YearMonth> dropped = taskRepository.dropFinishedTaskHistory(now.minus(retentionDays, ChronoUnit.DAYS));
+                if (!dropped.isEmpty())
+                    LOGGER.info("Dropped expired task history of months {}", dropped);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Archive task history failed", e);
+        }
+    }
+
     @Override
     public long submitTask(String taskName, String className, Map<String, String> params) {
         TaskInfo taskInfo = new WaitingTask();
@@ -100,15 +179,51 @@ public class TaskManagerImpl implements TaskManager {
 
     @Override
     public long submitTask(TaskInfo task) {
+        checkIdempotencyKey(task);
+        fillDefaults(task, Instant.now());
+
+        long taskId = this.taskRepository.create(task).getTaskId();
+        taskScheduler.wakeUp();
+        return taskId;
+    }
+
+    @Override
+    public List<Long> submitTasks(List<? extends TaskInfo> tasks) {
+        tasks.forEach(TaskManagerImpl::checkIdempotencyKey);
+        Instant submitTime = Instant.now();
+        tasks.forEach(task -> fillDefaults(task, submitTime));
+
+        this.taskRepository.create(tasks);
+        taskScheduler.wakeUp();
+        // tasks whose idempotency key is taken aren't created but get the id of the existing task
+        return tasks.stream()
+                .map(TaskInfo::getTaskId)
+                .collect(Collectors.toList());
+    }
+
+    private static void checkIdempotencyKey(TaskInfo task) {
+        String key = task.getIdempotencyKey();
+        if (key != null && (key.isEmpty() || key.length() > TaskInfo.MAX_IDEMPOTENCY_KEY_LENGTH))
+            throw new AthenaException("Idempotency key must have 1 to " + TaskInfo.MAX_IDEMPOTENCY_KEY_LENGTH +
+                    " characters: " + key);
+    }
+
+    private void fillDefaults(TaskInfo task, Instant submitTime) {
         if (task.getMaxTries() == null)
             task.setMaxTries(athenaConf.getDefaultTaskRetryNumber());
         if (task.getRetryWait() == null)
             task.setRetryWait(athenaConf.getDefaultTaskRetryWait());
         if (task.getTaskType() == null)
             task.setTaskType(TaskType.JAVA);
-        task.setSubmitTime(Instant.now());
-
-        return this.taskRepository.create(task).getTaskId();
+        if (task.getPriority() == null)
+            task.setPriority(0);
+        if (task.getQueue() == null)
+            task.setQueue(TaskInfo.DEFAULT_QUEUE);
+        if (task.getCpus() == null)
+            task.setCpus(TaskInfo.DEFAULT_CPUS);
+        if (task.getMemoryMb() == null)
+            task.setMemoryMb(TaskInfo.DEFAULT_MEMORY_MB);
+        task.setSubmitTime(submitTime);
     }
 
     @Override
@@ -116,6 +231,11 @@ public class TaskManagerImpl implements TaskManager {
         return this.taskScheduler.killTask(taskId);
     }
 
+    @Override
+    public boolean isLeader() {
+        return this.taskScheduler.isLeader();
+    }
+
     @Override
     public boolean isTaskAlive(long taskId) {
         return this.taskScheduler.isTaskRunning(taskId);
@@ -127,6 +247,20 @@ public class TaskManagerImpl implements TaskManager {
         return finishedTask != null;
     }
 
+    @Override
+    public Map<Long, TaskInfo> getTasks(Collection<Long> taskIds) {
+        Map<Long, TaskInfo> tasks = new HashMap<>(taskRepository.getTasks(taskIds));
+        // archived tasks are looked up one by one in history
+        for (Long taskId : taskIds) {
+            if (!tasks.containsKey(taskId)) {
+                FinishedTask finishedTask = taskRepository.getFinishedTask(taskId);
+                if (finishedTask != null)
+                    tasks.put(taskId, finishedTask);
+            }
+        }
+        return tasks;
+    }
+
     @Override
     public List<String> getLogLines(long taskId, int lineNumber, int rows) {
         return this.taskScheduler.getLogLines(taskId, lineNumber, rows);
@@ -147,4 +281,57 @@ public class TaskManagerImpl implements TaskManager {
         return taskRepository.getFinishedTasks(page);
     }
 
+    @Override
+    public List<YearMonth> getArchivedMonths() {
+        return taskRepository.getArchivedMonths();
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page) {
+        return taskRepository.getArchivedTasks(month, page);
+    }
+
+    @Override
+    public List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        return taskRepository.getDailyRollups(from, to);
+    }
+
+    @Override
+    public List<TaskStats> getTaskStats() {
+        return taskRepository.getTaskStats();
+    }
+
+    @Override
+    public TaskStats getTaskStats(String taskName) {
+        return taskRepository.getTaskStats(taskName);
+    }
+
+    @Override
+    public TaskSchedule createSchedule(TaskSchedule schedule) {
+        schedule.validate();
+        Instant now = Instant.now();
+        fillDefaults(schedule.getTask(), now);
+        if (schedule.getMisfirePolicy() == null)
+            schedule.setMisfirePolicy(TaskSchedule.MisfirePolicy.FIRE_ONCE);
+        schedule.setCreateTime(now);
+        schedule.setNextFireTime(null);
+        schedule.setNextFireTime(schedule.fireTimeAfter(now));
+
+        taskRepository.createSchedule(schedule);
+        // wheel updates its schedule as it fires
+        taskScheduler.addSchedule(schedule.copy());
+        return schedule;
+    }
+
+    @Override
+    public void deleteSchedule(long scheduleId) {
+        taskRepository.deleteSchedule(scheduleId);
+        taskScheduler.removeSchedule(scheduleId);
+    }
+
+    @Override
+    public List<TaskSchedule> getSchedules() {
+        return taskRepository.getSchedules();
+    }
+
 }
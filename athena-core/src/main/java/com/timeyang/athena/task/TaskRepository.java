@@ -1,460 +1,274 @@
 package com.timeyang.athena.task;
 
-import com.timeyang.athena.AthenaException;
 import com.timeyang.athena.task.TaskInfo.FinishedTask;
 import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
-import com.timeyang.athena.utill.jdbc.JdbcUtils;
-import com.timeyang.athena.utill.jdbc.JdbcUtils.RowMapper;
 import com.timeyang.athena.utill.jdbc.Page;
 import com.timeyang.athena.utill.jdbc.PagedResult;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import javax.sql.DataSource;
-import java.sql.*;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
- * access database to get all kinds of task
+ * Storage of tasks of all states. A task is created as waiting task, then moved to running and finished, finished
+ * tasks are archived into monthly history after a while.
+ * <p>Column names used by {@link Page} sorts and criteria are the same for all implementations, e.g.
+ * {@code task_id, task_name, host, submit_time}.</p>
  *
  * @author https://github.com/chaokunyang
+ * @see JdbcTaskRepository
+ * @see WalTaskRepository
+ * @see CachingTaskRepository
  */
-public class TaskRepository {
-
-    private static final Logger LOGGER = LoggerFactory.getLogger(TaskRepository.class);
-    public static final String WAITING_TASK_TABLE = "waiting_task";
-    public static final String RUNNING_TASK_TABLE = "running_task";
-    public static final String FINISHED_TASK_TABLE = "finished_task";
-
-    private final DataSource dataSource;
-
-    TaskRepository(DataSource dataSource) {
-        this.dataSource = dataSource;
-        createTaskTableIfAbsent();
-    }
-
-    private void createTaskTableIfAbsent() {
-        String waitingTaskSql = "CREATE TABLE " + WAITING_TASK_TABLE +
-                "(" +
-                "task_id INTEGER GENERATED ALWAYS AS IDENTITY " +
-                "(START WITH 10000000, INCREMENT BY 1), " +
-                "task_name VARCHAR(100), " +
-                "task_type VARCHAR(100), " +
-                "host VARCHAR(100), " +
-                "class_name VARCHAR(100), " +
-                "classpath VARCHAR(30000), " +
-                "params VARCHAR(10000), " +
-                "max_tries INTEGER, " +
-                "retry_wait BIGINT, " +
-                "submit_time TIMESTAMP" +
-                ")";
-        String runningTaskSql = "CREATE TABLE " + RUNNING_TASK_TABLE +
-                "(" +
-                "task_id INTEGER PRIMARY KEY, " +
-                "task_name VARCHAR(100), " +
-                "task_type VARCHAR(100), " +
-                "host VARCHAR(100), " +
-                "class_name VARCHAR(100), " +
-                "classpath VARCHAR(30000), " +
-                "params VARCHAR(10000), " +
-                "max_tries INTEGER, " +
-                "try_number INTEGER, " +
-                "retry_wait BIGINT, " +
-                "submit_time TIMESTAMP, " +
-                "start_time TIMESTAMP, " +
-                "pid INTEGER" +
-                ")";
-        String finishedTaskSql = "CREATE TABLE " + FINISHED_TASK_TABLE +
-                "(" +
-                "task_id INTEGER PRIMARY KEY, " +
-                "task_name VARCHAR(100), " +
-                "task_type VARCHAR(100), " +
-                "host VARCHAR(100), " +
-                "class_name VARCHAR(100), " +
-                "classpath VARCHAR(30000), " +
-                "params VARCHAR(10000), " +
-                "max_tries INTEGER, " +
-                "try_number INTEGER, " +
-                "retry_wait BIGINT, " +
-                "submit_time TIMESTAMP, " +
-                "start_time TIMESTAMP, " +
-                "end_time TIMESTAMP, " +
-                "duration BIGINT, " +
-                "state VARCHAR(40)" +
-                ")";
-
-        try (Connection connection = this.dataSource.getConnection()) {
-            boolean waitingTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, WAITING_TASK_TABLE, waitingTaskSql);
-            if (waitingTaskTableCreated) LOGGER.info("Created table " + WAITING_TASK_TABLE);
-
-            boolean runningTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, RUNNING_TASK_TABLE, runningTaskSql);
-            if (runningTaskTableCreated) LOGGER.info("Created table " + RUNNING_TASK_TABLE);
-
-            boolean finishedTaskTableCreated = JdbcUtils.createTableIfAbsent(connection, FINISHED_TASK_TABLE, finishedTaskSql);
-            if (finishedTaskTableCreated) LOGGER.info("Created table " + FINISHED_TASK_TABLE);
-        } catch (SQLException e) {
-            throw new AthenaException("Can't get connection", e);
-        }
-    }
-
+public interface TaskRepository {
 
     //************************ Waiting task ************************
-    public TaskInfo create(TaskInfo task) {
-        String sql = "INSERT INTO " + WAITING_TASK_TABLE +
-                "(task_name, host, class_name, params, max_tries, submit_time, classpath, retry_wait, task_type) " +
-                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (Connection connection = this.dataSource.getConnection();
-             PreparedStatement pStatement = connection.prepareStatement(sql, new String[]{"task_id"})) {
-            pStatement.setString(1, task.getTaskName());
-            pStatement.setString(2, task.getHost());
-            pStatement.setString(3, task.getClassName());
-            pStatement.setString(4, task.getParams());
-            pStatement.setInt(5, task.getMaxTries());
-            pStatement.setTimestamp(6, Timestamp.from(task.getSubmitTime()));
-            pStatement.setString(7, task.getClasspath());
-            pStatement.setLong(8, task.getRetryWait());
-            pStatement.setString(9, task.getTaskType().toString());
-
-            int affectedRows = pStatement.executeUpdate();
-            if (affectedRows == 0) {
-                throw new AthenaException("Creating waiting task failed, no rows affected.");
-            }
-            try (ResultSet generatedKeys = pStatement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    Long id = generatedKeys.getLong(1);
-                    task.setTaskId(id);
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new AthenaException("Can't create waiting task, sql: " + sql, e);
-        }
-
-        return task;
-    }
-
-    public WaitingTask getWaitingTask(long taskId) {
-        String sql = String.format("select * from %s where task_id = %d",
-                WAITING_TASK_TABLE, taskId);
-        List<WaitingTask> query = JdbcUtils.query(dataSource, sql, waitingTaskRowMapper);
-        if (query.isEmpty()) {
-            return null;
-        } else {
-            return query.get(0);
-        }
-    }
-
-    public PagedResult<WaitingTask> getWaitingTasks(Page page) {
-       return JdbcUtils.queryPage(dataSource, WAITING_TASK_TABLE, page, waitingTaskRowMapper);
-    }
-
-    public List<WaitingTask> getAllWaitingTasks() {
-        PagedResult<WaitingTask> pagedResult = getWaitingTasks(new Page(0, Integer.MAX_VALUE));
-        return pagedResult.getElements();
-    }
-
-    public void deleteWaitingTask(Long taskId) {
-        String sql = String.format("delete from %s WHERE task_id = %d", WAITING_TASK_TABLE, taskId);
-        try (Connection connection = this.dataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(sql);
-        } catch (SQLException e) {
-            String msg = String.format("Can't delete waiting task of task_id [%d], sql [%s]", taskId, sql);
-            throw new AthenaException(msg, e);
-        }
-    }
-
-    public void deleteAllWaitingTask() {
-        try (Connection connection = this.dataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            String sql = "DELETE FROM " + WAITING_TASK_TABLE;
-            statement.execute(sql);
-        } catch (SQLException e) {
-            throw new AthenaException("Can't delete all waiting tasks", e);
-        }
-    }
+    /**
+     * create a waiting task, unless its idempotency key is taken by a task which is not archived
+     *
+     * @return task with task id set, to the id of the existing task if key is taken
+     */
+    TaskInfo create(TaskInfo task);
+
+    /**
+     * create waiting tasks atomically. A task whose idempotency key is taken, by an existing task or by a task before
+     * it in the list, isn't created and gets the id of that task.
+     *
+     * @param tasks tasks, all of them get task id set
+     * @return created tasks, in the same order
+     */
+    <T extends TaskInfo> List<T> create(List<T> tasks);
+
+    /**
+     * @return waiting task, or null if task isn't waiting
+     */
+    WaitingTask getWaitingTask(long taskId);
+
+    PagedResult<WaitingTask> getWaitingTasks(Page page);
+
+    /**
+     * iterate all waiting tasks
+     *
+     * @return number of tasks
+     */
+    long forEachWaitingTask(Consumer<? super WaitingTask> consumer);
+
+    void deleteWaitingTask(Long taskId);
+
+    void deleteAllWaitingTask();
 
 
     //************************ Running task ************************
-    public void moveToRunning(RunningTask task) {
-        Connection connection = null;
-        Statement statement = null;
-        try {
-            connection = this.dataSource.getConnection();
-            connection.setAutoCommit(false);
-            statement = connection.createStatement();
-
-            long taskId = task.getTaskId();
-            String deleteWaitingTaskSql = String.format("delete from %s WHERE task_id = %d", WAITING_TASK_TABLE, taskId);
-            statement.execute(deleteWaitingTaskSql);
-
-            String createRunningTaskSql = "INSERT INTO " + RUNNING_TASK_TABLE +
-                    "(task_id, task_name, host, class_name, params, max_tries, submit_time, start_time, try_number, pid, classpath, retry_wait, task_type) " +
-                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pStatement = connection.prepareStatement(createRunningTaskSql);
-            pStatement.setLong(1, task.getTaskId());
-            pStatement.setString(2, task.getTaskName());
-            pStatement.setString(3, task.getHost());
-            pStatement.setString(4, task.getClassName());
-            pStatement.setString(5, task.getParams());
-            pStatement.setInt(6, task.getMaxTries());
-            pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
-            pStatement.setTimestamp(8, Timestamp.from(task.getStartTime()));
-            pStatement.setInt(9, task.getTryNumber());
-            pStatement.setInt(10, task.getPid());
-            pStatement.setString(11, task.getClasspath());
-            pStatement.setLong(12, task.getRetryWait());
-            pStatement.setString(13, task.getTaskType().toString());
-
-            pStatement.execute();
-
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.error("Move waiting task to running failed. task: " + task, e);
-
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e1) {
-                    e1.printStackTrace();
-                }
-            }
-
-            if (connection != null) {
-                try {
-                    connection.rollback();
-                } catch (SQLException e1) {
-                    e1.printStackTrace();
-                }
-            }
-        }
-    }
-
-    public void updateRunningTask(RunningTask task) {
-        String sql = "UPDATE " + RUNNING_TASK_TABLE + " " +
-                "SET try_number = ?, pid = ? " +
-                "WHERE task_id = ?";
-        try (Connection connection = this.dataSource.getConnection();
-             PreparedStatement pStatement = connection.prepareStatement(sql, new String[]{"task_id"})) {
-            pStatement.setInt(1, task.getTryNumber());
-            pStatement.setInt(2, task.getPid());
-            pStatement.setLong(3, task.getTaskId());
-
-            pStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new AthenaException("Can't create waiting task, sql: " + sql, e);
-        }
-    }
-
-    public Optional<RunningTask> getRunningTask(long taskId) {
-        String sql = String.format("select * from %s where task_id = %d",
-                RUNNING_TASK_TABLE, taskId);
-        List<RunningTask> query = JdbcUtils.query(dataSource, sql, runningTaskRowMapper);
-        if (query.isEmpty()) {
-            return Optional.empty();
-        } else {
-            return Optional.of(query.get(0));
-        }
-    }
-
-    public List<RunningTask> getAllRunningTasks() {
-        Page page = new Page(0, Integer.MAX_VALUE);
-        return getRunningTasks(page).getElements();
-    }
-
-    public PagedResult<RunningTask> getRunningTasks(Page page) {
-        return JdbcUtils.queryPage(dataSource, RUNNING_TASK_TABLE, page, runningTaskRowMapper);
-    }
+    /**
+     * move waiting task to running, nothing is changed if task isn't waiting
+     */
+    void moveToRunning(RunningTask task);
+
+    /**
+     * update try number and pid of running task, which also clears its retry time
+     */
+    void updateRunningTask(RunningTask task);
+
+    Optional<RunningTask> getRunningTask(long taskId);
+
+    /**
+     * iterate all running tasks
+     *
+     * @return number of tasks
+     */
+    long forEachRunningTask(Consumer<? super RunningTask> consumer);
+
+    PagedResult<RunningTask> getRunningTasks(Page page);
 
 
     //************************ Finished Task ************************
-    public void moveFromWaitingToFinished(FinishedTask task) {
-        Connection connection = null;
-        Statement statement = null;
-        try {
-            connection = this.dataSource.getConnection();
-            connection.setAutoCommit(false);
-            statement = connection.createStatement();
-
-            long taskId = task.getTaskId();
-            String deleteRunningTaskSql = String.format("delete from %s WHERE task_id = %d", WAITING_TASK_TABLE, taskId);
-            statement.execute(deleteRunningTaskSql);
-
-            String createFinishedTaskSql = "INSERT INTO " + FINISHED_TASK_TABLE +
-                    "(task_id, task_name, host, class_name, params, max_tries,submit_time,  state, try_number, classpath, retry_wait, task_type) " +
-                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pStatement = connection.prepareStatement(createFinishedTaskSql);
-            pStatement.setLong(1, task.getTaskId());
-            pStatement.setString(2, task.getTaskName());
-            pStatement.setString(3, task.getHost());
-            pStatement.setString(4, task.getClassName());
-            pStatement.setString(5, task.getParams());
-            pStatement.setInt(6, task.getMaxTries());
-            pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
-            pStatement.setString(8, task.getState().toString());
-            pStatement.setInt(9, task.getTryNumber());
-            pStatement.setString(10, task.getClasspath());
-            pStatement.setLong(11, task.getRetryWait());
-            pStatement.setString(12, task.getTaskType().toString());
-
-            pStatement.execute();
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.error("Move waiting task to finished failed. task: " + task, e);
-
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e1) {
-                    e1.printStackTrace();
-                }
-            }
-
-            if (connection != null) {
-                try {
-                    connection.rollback();
-                } catch (SQLException e1) {
-                    e1.printStackTrace();
-                }
-            }
-        }
-    }
-
-    public void moveToFinished(FinishedTask task) {
-        Connection connection = null;
-        Statement statement = null;
-        try {
-            connection = this.dataSource.getConnection();
-            connection.setAutoCommit(false);
-            statement = connection.createStatement();
-
-            long taskId = task.getTaskId();
-            String deleteRunningTaskSql = String.format("delete from %s WHERE task_id = %d", RUNNING_TASK_TABLE, taskId);
-            statement.execute(deleteRunningTaskSql);
-
-            String createFinishedTaskSql = "INSERT INTO " + FINISHED_TASK_TABLE +
-                    "(task_id, task_name, host, class_name, params, max_tries, submit_time, start_time, end_time, duration, state, try_number, classpath, retry_wait, task_type) " +
-                    "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pStatement = connection.prepareStatement(createFinishedTaskSql);
-            pStatement.setLong(1, task.getTaskId());
-            pStatement.setString(2, task.getTaskName());
-            pStatement.setString(3, task.getHost());
-            pStatement.setString(4, task.getClassName());
-            pStatement.setString(5, task.getParams());
-            pStatement.setInt(6, task.getMaxTries());
-            pStatement.setTimestamp(7, Timestamp.from(task.getSubmitTime()));
-            pStatement.setTimestamp(8, Timestamp.from(task.getStartTime()));
-            pStatement.setTimestamp(9, Timestamp.from(task.getEndTime()));
-            pStatement.setLong(10, task.getDuration().getSeconds());
-            pStatement.setString(11, task.getState().toString());
-            pStatement.setInt(12, task.getTryNumber());
-            pStatement.setString(13, task.getClasspath());
-            pStatement.setLong(14, task.getRetryWait());
-            pStatement.setString(15, task.getTaskType().toString());
-
-            pStatement.execute();
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.error("Move running task to finished failed. task: " + task, e);
-
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e1) {
-                    e1.printStackTrace();
-                }
-            }
-
-            if (connection != null) {
-                try {
-                    connection.rollback();
-                } catch (SQLException e1) {
-                    e1.printStackTrace();
-                }
-            }
-        }
-    }
-
-    public List<FinishedTask> getAllFinishedTasks() {
-        Page page = new Page(0, Integer.MAX_VALUE);
-        return getFinishedTasks(page).getElements();
-    }
-
-    public PagedResult<FinishedTask> getFinishedTasks(Page page) {
-        return JdbcUtils.queryPage(dataSource, FINISHED_TASK_TABLE, page, finishedTaskRowMapper);
-    }
-
-    public FinishedTask getFinishedTask(long taskId) {
-        String sql = String.format("select * from %s where task_id=%d",
-                FINISHED_TASK_TABLE, taskId);
-
-        List<FinishedTask> tasks = JdbcUtils.query(
-                this.dataSource, sql, finishedTaskRowMapper);
-
-        if (!tasks.isEmpty())
-            return tasks.get(0);
-        else
-            return null;
-    }
-
-    private RowMapper<WaitingTask> waitingTaskRowMapper = (rs, rowNum) -> {
-        WaitingTask task = new WaitingTask();
-        task.setTaskId(rs.getLong("task_id"));
-        task.setTaskName(rs.getString("task_name"));
-        task.setTaskType(TaskType.valueOf(rs.getString("task_type")));
-        task.setHost(rs.getString("host"));
-        task.setClassName(rs.getString("class_name"));
-        task.setClasspath(rs.getString("classpath"));
-        task.setParams(rs.getString("params"));
-        task.setMaxTries(rs.getInt("max_tries"));
-        task.setRetryWait(rs.getLong("retry_wait"));
-        task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
-
-        return task;
-    };
-
-    private RowMapper<FinishedTask> finishedTaskRowMapper = (rs, rowNum) -> {
-        FinishedTask task = new FinishedTask();
-        task.setTaskId(rs.getLong("task_id"));
-        task.setTaskName(rs.getString("task_name"));
-        task.setTaskType(TaskType.valueOf(rs.getString("task_type")));
-        task.setHost(rs.getString("host"));
-        task.setClassName(rs.getString("class_name"));
-        task.setClasspath(rs.getString("classpath"));
-        task.setParams(rs.getString("params"));
-        task.setMaxTries(rs.getInt("max_tries"));
-        task.setRetryWait(rs.getLong("retry_wait"));
-        task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
-        task.setStartTime(rs.getTimestamp("start_time").toInstant());
-        task.setDuration(Duration.ofSeconds(rs.getLong("duration")));
-        task.setEndTime(rs.getTimestamp("end_time").toInstant());
-        task.setState(TaskState.valueOf(rs.getString("state")));
-        task.setTryNumber(rs.getInt("try_number"));
-
-        return task;
-    };
-
-    private RowMapper<RunningTask> runningTaskRowMapper = (rs, rowNum) -> {
-        RunningTask task = new RunningTask();
-        task.setTaskId(rs.getLong("task_id"));
-        task.setTaskName(rs.getString("task_name"));
-        task.setTaskType(TaskType.valueOf(rs.getString("task_type")));
-        task.setHost(rs.getString("host"));
-        task.setClassName(rs.getString("class_name"));
-        task.setClasspath(rs.getString("classpath"));
-        task.setParams(rs.getString("params"));
-        task.setMaxTries(rs.getInt("max_tries"));
-        task.setRetryWait(rs.getLong("retry_wait"));
-        task.setSubmitTime(rs.getTimestamp("submit_time").toInstant());
-        task.setStartTime(rs.getTimestamp("start_time").toInstant());
-        task.setTryNumber(rs.getInt("try_number"));
-        task.setPid(rs.getInt("pid"));
-
-        return task;
-    };
+    /**
+     * finish a task which never runs, nothing is changed if task isn't waiting
+     */
+    void moveFromWaitingToFinished(FinishedTask task);
+
+    /**
+     * finish running task, nothing is changed if task isn't running
+     */
+    void moveToFinished(FinishedTask task);
+
+    /**
+     * iterate all finished tasks which are not archived
+     *
+     * @return number of tasks
+     */
+    long forEachFinishedTask(Consumer<? super FinishedTask> consumer);
+
+    /**
+     * get a page of finished tasks which are not archived
+     */
+    PagedResult<FinishedTask> getFinishedTasks(Page page);
+
+    /**
+     * get finished task, archived tasks included
+     *
+     * @return finished task, or null if task isn't finished or doesn't exist
+     */
+    FinishedTask getFinishedTask(long taskId);
+
+
+    //************************ Batch ************************
+    /**
+     * get current state of tasks
+     *
+     * @param taskIds task ids
+     * @return task id to {@link WaitingTask}, {@link RunningTask} or not archived {@link FinishedTask}, tasks not
+     * found are absent
+     */
+    Map<Long, TaskInfo> getTasks(Collection<Long> taskIds);
+
+    /**
+     * apply transitions atomically. Transitions of the same task are applied in order, each one only changes the task
+     * if it's in the state required by its type, like the single task methods.
+     *
+     * @return number of changed tasks of each transition, in the same order
+     */
+    int[] applyTransitions(List<TaskTransition> transitions);
+
+
+    //************************ Lease ************************
+    /**
+     * lease waiting tasks which aren't leased or whose lease expired, so that schedulers of several instances
+     * don't launch the same task
+     *
+     * @param owner     id of scheduler instance
+     * @param limit     max number of tasks to lease
+     * @param leaseTime time until lease expires if not renewed
+     * @return leased tasks, highest priority first, then oldest first
+     */
+    List<WaitingTask> claimWaitingTasks(String owner, int limit, Duration leaseTime);
+
+    /**
+     * lease waiting tasks of a queue like {@link #claimWaitingTasks(String, int, Duration)}
+     *
+     * @return leased tasks of queue, highest priority first, then oldest first
+     */
+    List<WaitingTask> claimWaitingTasks(String owner, String queue, int limit, Duration leaseTime);
+
+    /**
+     * lease running tasks whose retry time has come, see {@link TaskTransition#retryRunning(RunningTask)}. Retries
+     * are kept in storage, so they are claimed by any instance and survive restarts
+     *
+     * @return leased tasks, earliest retry time first
+     */
+    List<RunningTask> claimDueRetries(String owner, int limit, Duration leaseTime);
+
+    /**
+     * @return queues which have waiting tasks, leased or not
+     */
+    Set<String> getWaitingQueues();
+
+    /**
+     * lease or renew lease of waiting or running tasks, a task is leased if it isn't leased, its lease expired, or
+     * it's leased by {@code owner} already
+     *
+     * @return ids of tasks leased by {@code owner}
+     */
+    Set<Long> claimTasks(String owner, Collection<Long> taskIds, Duration leaseTime);
+
+    /**
+     * give up leases {@code owner} holds on tasks it can't launch, so any instance can claim them right away
+     */
+    void releaseTasks(String owner, Collection<Long> taskIds);
+
+
+    //************************ History ************************
+    /**
+     * move finished tasks which ended before {@code before} into monthly history, and merge them into daily rollups
+     *
+     * @return number of archived tasks
+     */
+    int archiveFinishedTasks(Instant before);
+
+    /**
+     * drop monthly history whose tasks all ended before {@code before}, daily rollups are kept
+     *
+     * @return months of dropped history
+     */
+    List<YearMonth> dropFinishedTaskHistory(Instant before);
+
+    /**
+     * @return months which have archived tasks, newest first
+     */
+    List<YearMonth> getArchivedMonths();
+
+    PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page);
+
+    /**
+     * @param from first day, inclusive
+     * @param to   last day, inclusive
+     * @return rollups ordered by day, task name and state
+     */
+    List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to);
+
+
+    //************************ Stats ************************
+    /**
+     * statistics are updated as tasks finish, including tasks archived or dropped from history since
+     *
+     * @return statistics of finished tasks of each task name, ordered by task name
+     */
+    List<TaskStats> getTaskStats();
+
+    /**
+     * @return statistics of finished tasks of task name, or null if no task of this name finished
+     */
+    TaskStats getTaskStats(String taskName);
+
+
+    //************************ Schedule ************************
+    /**
+     * @return schedule with schedule id set
+     */
+    TaskSchedule createSchedule(TaskSchedule schedule);
+
+    /**
+     * @return null if schedule doesn't exist
+     */
+    TaskSchedule getSchedule(long scheduleId);
+
+    /**
+     * @return all schedules ordered by schedule id
+     */
+    List<TaskSchedule> getSchedules();
+
+    void deleteSchedule(long scheduleId);
+
+    /**
+     * atomically create tasks of a fire and move schedule to its next fire time, if it's still at expected fire
+     * time. Instances sharing storage may fire the same schedule, only one of them succeeds
+     *
+     * @param expectedFireTime fire time the schedule fired at
+     * @param nextFireTime     next fire time, null if schedule won't fire again
+     * @param fireTime         time schedule fired, kept as its last fire time
+     * @param tasks            tasks of the fire, may be empty when missed fires are skipped
+     * @return false if schedule was deleted or fired by another instance, nothing is changed
+     */
+    boolean fireSchedule(long scheduleId, Instant expectedFireTime, Instant nextFireTime, Instant fireTime,
+                         List<WaitingTask> tasks);
+
+    /**
+     * reload tasks kept in memory from storage, so a standby scheduler, whose memory isn't updated by the instance
+     * changing tasks, serves current state when it takes over. Repositories which don't keep tasks in memory do nothing
+     */
+    void refresh();
+
+    /**
+     * release resources held by repository
+     */
+    void close();
 
 }
@@ -0,0 +1,232 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.utill.CronExpression;
+import com.timeyang.athena.utill.StringUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * recurring schedule which submits a task made from a template by a cron expression or at a fixed rate
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class TaskSchedule {
+    private Long scheduleId;
+    private String scheduleName;
+    /**
+     * cron expression of 5 fields, see {@link CronExpression}. Exactly one of it and fixed rate is set
+     */
+    private String cronExpression;
+    /**
+     * seconds between two fires
+     */
+    private Long fixedRate;
+    /**
+     * time zone cron expression is evaluated in, system default if absent
+     */
+    private String timeZone;
+    private MisfirePolicy misfirePolicy;
+    /**
+     * template of tasks submitted, task id and submit time are ignored
+     */
+    private WaitingTask task;
+    private Instant createTime;
+    /**
+     * time the schedule fires next, null if it won't fire again
+     */
+    private Instant nextFireTime;
+    private Instant lastFireTime;
+    private transient CronExpression cron;
+
+    public Long getScheduleId() {
+        return scheduleId;
+    }
+
+    public void setScheduleId(Long scheduleId) {
+        this.scheduleId = scheduleId;
+    }
+
+    public String getScheduleName() {
+        return scheduleName;
+    }
+
+    public void setScheduleName(String scheduleName) {
+        this.scheduleName = scheduleName;
+    }
+
+    public String getCronExpression() {
+        return cronExpression;
+    }
+
+    public void setCronExpression(String cronExpression) {
+        this.cronExpression = cronExpression;
+        this.cron = null;
+    }
+
+    public Long getFixedRate() {
+        return fixedRate;
+    }
+
+    public void setFixedRate(Long fixedRate) {
+        this.fixedRate = fixedRate;
+    }
+
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public MisfirePolicy getMisfirePolicy() {
+        return misfirePolicy;
+    }
+
+    public void setMisfirePolicy(MisfirePolicy misfirePolicy) {
+        this.misfirePolicy = misfirePolicy;
+    }
+
+    public WaitingTask getTask() {
+        return task;
+    }
+
+    public void setTask(WaitingTask task) {
+        this.task = task;
+    }
+
+    public Instant getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Instant createTime) {
+        this.createTime = createTime;
+    }
+
+    public Instant getNextFireTime() {
+        return nextFireTime;
+    }
+
+    public void setNextFireTime(Instant nextFireTime) {
+        this.nextFireTime = nextFireTime;
+    }
+
+    public Instant getLastFireTime() {
+        return lastFireTime;
+    }
+
+    public void setLastFireTime(Instant lastFireTime) {
+        this.lastFireTime = lastFireTime;
+    }
+
+    /**
+     * @throws AthenaException if schedule has neither or both of cron expression and fixed rate, or they are invalid
+     */
+    public void validate() {
+        boolean hasCron = StringUtils.hasText(cronExpression);
+        if (hasCron == (fixedRate != null))
+            throw new AthenaException("Schedule must have either cron expression or fixed rate: " + this);
+        if (fixedRate != null && fixedRate <= 0)
+            throw new AthenaException("Fixed rate of schedule must be positive: " + this);
+        if (hasCron)
+            cron();
+        zone();
+        if (task == null || !StringUtils.hasText(task.getClassName()))
+            throw new AthenaException("Schedule must have a task with class name: " + this);
+        if (task.getIdempotencyKey() != null)
+            throw new AthenaException("Task of schedule can't have an idempotency key, every fire creates a task: " + this);
+    }
+
+    /**
+     * @return first fire time after given time, or null if schedule won't fire again
+     */
+    public Instant fireTimeAfter(Instant after) {
+        if (fixedRate != null) {
+            Duration rate = Duration.ofSeconds(fixedRate);
+            if (nextFireTime == null || after.isBefore(nextFireTime))
+                return nextFireTime == null ? after.plus(rate) : nextFireTime;
+            // keep phase of fixed rate
+            long periods = Duration.between(nextFireTime, after).getSeconds() / fixedRate + 1;
+            return nextFireTime.plus(rate.multipliedBy(periods));
+        }
+        ZonedDateTime next = cron().next(after.atZone(zone()));
+        return next == null ? null : next.toInstant();
+    }
+
+    /**
+     * @return a new waiting task made from template
+     */
+    public WaitingTask newTask(Instant submitTime) {
+        WaitingTask newTask = new WaitingTask(task);
+        newTask.setTaskId(null);
+        newTask.setSubmitTime(submitTime);
+        return newTask;
+    }
+
+    TaskSchedule copy() {
+        TaskSchedule copy = new TaskSchedule();
+        copy.scheduleId = scheduleId;
+        copy.scheduleName = scheduleName;
+        copy.cronExpression = cronExpression;
+        copy.fixedRate = fixedRate;
+        copy.timeZone = timeZone;
+        copy.misfirePolicy = misfirePolicy;
+        copy.task = task == null ? null : new WaitingTask(task);
+        copy.createTime = createTime;
+        copy.nextFireTime = nextFireTime;
+        copy.lastFireTime = lastFireTime;
+        copy.cron = cron;
+        return copy;
+    }
+
+    private CronExpression cron() {
+        if (cron == null)
+            cron = CronExpression.parse(cronExpression);
+        return cron;
+    }
+
+    private ZoneId zone() {
+        try {
+            return StringUtils.hasText(timeZone) ? ZoneId.of(timeZone) : ZoneId.systemDefault();
+        } catch (RuntimeException e) {
+            throw new AthenaException("Invalid time zone of schedule: " + timeZone, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TaskSchedule{" +
+                "scheduleId=" + scheduleId +
+                ", scheduleName='" + scheduleName + '\'' +
+                ", cronExpression='" + cronExpression + '\'' +
+                ", fixedRate=" + fixedRate +
+                ", timeZone='" + timeZone + '\'' +
+                ", misfirePolicy=" + misfirePolicy +
+                ", nextFireTime=" + nextFireTime +
+                ", lastFireTime=" + lastFireTime +
+                '}';
+    }
+
+    /**
+     * what a schedule does when it fires later than misfire threshold after its fire time, e.g. after downtime
+     */
+    public enum MisfirePolicy {
+        /**
+         * submit one task for all missed fire times
+         */
+        FIRE_ONCE,
+        /**
+         * submit a task for each missed fire time, up to a limit, to catch up
+         */
+        CATCH_UP,
+        /**
+         * submit nothing for missed fire times
+         */
+        SKIP
+    }
+}
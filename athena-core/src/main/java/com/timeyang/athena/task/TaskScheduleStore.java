@@ -0,0 +1,160 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskSchedule.MisfirePolicy;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.JdbcUtils.RowMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Recurring schedules in table {@code task_schedule}, next to task tables. A schedule row holds its task template
+ * inline, tasks made from it store params and classpath in content store when they are created. Fires advance
+ * {@code next_fire_time} by compare and set, in the transaction which creates tasks of the fire.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskScheduleStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskScheduleStore.class);
+    static final String TASK_SCHEDULE_TABLE = "task_schedule";
+
+    private static final String INSERT_SQL = "INSERT INTO " + TASK_SCHEDULE_TABLE + "(schedule_name, " +
+            "cron_expression, fixed_rate, time_zone, misfire_policy, create_time, next_fire_time, task_name, " +
+            "task_type, class_name, classpath, params, max_tries, retry_wait, priority, queue, cpus, memory_mb) " +
+            "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String FIRE_SQL = "UPDATE " + TASK_SCHEDULE_TABLE + " SET next_fire_time = ?, " +
+            "last_fire_time = ? WHERE schedule_id = ? AND next_fire_time = ?";
+
+    private final DataSource dataSource;
+
+    TaskScheduleStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void createTableIfAbsent(Connection connection) {
+        String sql = "CREATE TABLE " + TASK_SCHEDULE_TABLE +
+                "(" +
+                "schedule_id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) PRIMARY KEY, " +
+                "schedule_name VARCHAR(100), " +
+                "cron_expression VARCHAR(200), " +
+                "fixed_rate BIGINT, " +
+                "time_zone VARCHAR(60), " +
+                "misfire_policy VARCHAR(20) NOT NULL, " +
+                "create_time TIMESTAMP, " +
+                "next_fire_time TIMESTAMP, " +
+                "last_fire_time TIMESTAMP, " +
+                "task_name VARCHAR(100), " +
+                "task_type VARCHAR(100), " +
+                "class_name VARCHAR(100), " +
+                "classpath VARCHAR(30000), " +
+                "params VARCHAR(10000), " +
+                "max_tries INTEGER, " +
+                "retry_wait BIGINT, " +
+                "priority INTEGER, " +
+                "queue VARCHAR(100), " +
+                "cpus DOUBLE, " +
+                "memory_mb INTEGER" +
+                ")";
+        boolean created = JdbcUtils.createTableIfAbsent(connection, TASK_SCHEDULE_TABLE, sql);
+        if (created) LOGGER.info("Created table " + TASK_SCHEDULE_TABLE);
+    }
+
+    TaskSchedule create(TaskSchedule schedule) {
+        WaitingTask task = schedule.getTask();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement pStatement = connection.prepareStatement(INSERT_SQL, new String[]{"schedule_id"})) {
+            JdbcUtils.setParameters(pStatement, schedule.getScheduleName(), schedule.getCronExpression(),
+                    schedule.getFixedRate(), schedule.getTimeZone(), schedule.getMisfirePolicy(),
+                    schedule.getCreateTime(), schedule.getNextFireTime(), task.getTaskName(), task.getTaskType(),
+                    task.getClassName(), task.getClasspath(), task.getParams(), task.getMaxTries(),
+                    task.getRetryWait(), task.getPriority(), task.getQueue(), task.getCpus(), task.getMemoryMb());
+            pStatement.executeUpdate();
+            try (ResultSet rs = pStatement.getGeneratedKeys()) {
+                rs.next();
+                schedule.setScheduleId(rs.getLong(1));
+            }
+            return schedule;
+        } catch (SQLException e) {
+            throw new AthenaException("Can't create schedule " + schedule, e);
+        }
+    }
+
+    TaskSchedule get(long scheduleId) {
+        String sql = "SELECT * FROM " + TASK_SCHEDULE_TABLE + " WHERE schedule_id = ?";
+        List<TaskSchedule> schedules = JdbcUtils.query(dataSource, sql, scheduleRowMapper, scheduleId);
+        return schedules.isEmpty() ? null : schedules.get(0);
+    }
+
+    List<TaskSchedule> getAll() {
+        String sql = "SELECT * FROM " + TASK_SCHEDULE_TABLE + " ORDER BY schedule_id";
+        return JdbcUtils.query(dataSource, sql, scheduleRowMapper);
+    }
+
+    void delete(long scheduleId) {
+        JdbcUtils.update(dataSource, "DELETE FROM " + TASK_SCHEDULE_TABLE + " WHERE schedule_id = ?", scheduleId);
+    }
+
+    /**
+     * move schedule from expected fire time to next fire time in caller's transaction
+     *
+     * @return false if schedule doesn't exist or isn't at expected fire time
+     */
+    boolean fire(Connection connection, long scheduleId, Instant expectedFireTime, Instant nextFireTime,
+                 Instant fireTime) throws SQLException {
+        try (PreparedStatement pStatement = connection.prepareStatement(FIRE_SQL)) {
+            if (nextFireTime == null)
+                pStatement.setNull(1, Types.TIMESTAMP);
+            else
+                pStatement.setTimestamp(1, Timestamp.from(nextFireTime));
+            pStatement.setTimestamp(2, Timestamp.from(fireTime));
+            pStatement.setLong(3, scheduleId);
+            pStatement.setTimestamp(4, Timestamp.from(expectedFireTime));
+            return pStatement.executeUpdate() > 0;
+        }
+    }
+
+    private static final RowMapper<TaskSchedule> scheduleRowMapper = (rs, rowNum) -> {
+        TaskSchedule schedule = new TaskSchedule();
+        schedule.setScheduleId(rs.getLong("schedule_id"));
+        schedule.setScheduleName(rs.getString("schedule_name"));
+        schedule.setCronExpression(rs.getString("cron_expression"));
+        long fixedRate = rs.getLong("fixed_rate");
+        schedule.setFixedRate(rs.wasNull() ? null : fixedRate);
+        schedule.setTimeZone(rs.getString("time_zone"));
+        schedule.setMisfirePolicy(MisfirePolicy.valueOf(rs.getString("misfire_policy")));
+        schedule.setCreateTime(toInstant(rs.getTimestamp("create_time")));
+        schedule.setNextFireTime(toInstant(rs.getTimestamp("next_fire_time")));
+        schedule.setLastFireTime(toInstant(rs.getTimestamp("last_fire_time")));
+
+        WaitingTask task = new WaitingTask();
+        task.setTaskName(rs.getString("task_name"));
+        String taskType = rs.getString("task_type");
+        task.setTaskType(taskType == null ? null : TaskType.valueOf(taskType));
+        task.setClassName(rs.getString("class_name"));
+        task.setClasspath(rs.getString("classpath"));
+        task.setParams(rs.getString("params"));
+        task.setMaxTries(rs.getInt("max_tries"));
+        task.setRetryWait(rs.getLong("retry_wait"));
+        task.setPriority(rs.getInt("priority"));
+        task.setQueue(rs.getString("queue"));
+        task.setCpus(rs.getDouble("cpus"));
+        task.setMemoryMb(rs.getInt("memory_mb"));
+        schedule.setTask(task);
+        return schedule;
+    };
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+}
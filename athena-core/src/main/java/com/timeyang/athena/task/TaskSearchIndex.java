@@ -0,0 +1,200 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.utill.TrigramIndex;
+import com.timeyang.athena.utill.jdbc.Criterion;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.Page;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Substring index of task names and params, so that searching tasks by part of their name or params doesn't scan task
+ * tables with {@code LIKE '%x%'}. Distinct names and params are indexed in memory by {@link TrigramIndex}, a search
+ * finds matching names or params hashes there and is rewritten to {@code task_name IN (...)} or
+ * {@code params_hash IN (...)}, which use indexes of task tables. A search of params matching more than
+ * {@link #MAX_MATCHES} params is rewritten to a subquery of the content table instead.
+ * <p>The index is loaded on start, and reloaded when history partitions are dropped, as texts can't be removed from
+ * it. Tasks created by this instance are added on commit, tasks created by other instances are picked up by a refresh
+ * at most every {@link #REFRESH_MILLIS} milliseconds. Task ids are allocated before commit, so a task may be committed
+ * after tasks of greater id were seen. A refresh scans again the ids seen in the last {@link #RESCAN_MILLIS}
+ * milliseconds, tasks committed later than that after a greater id was seen are only found by a reload.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskSearchIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskSearchIndex.class);
+    static final long REFRESH_MILLIS = 5000;
+    /**
+     * ids seen within this many milliseconds are scanned again, as tasks of smaller ids may not be committed yet
+     */
+    static final long RESCAN_MILLIS = 60000;
+    /**
+     * max number of names or params a search is rewritten to, a broader search of names falls back to LIKE
+     */
+    static final int MAX_MATCHES = 1000;
+    private static final int MAX_IN_LIST_SIZE = 500;
+
+    private final DataSource dataSource;
+    private final String taskTable;
+    private volatile TrigramIndex names = new TrigramIndex();
+    /**
+     * params content keyed by content hash
+     */
+    private volatile TrigramIndex params = new TrigramIndex();
+    /**
+     * max task id seen by each refresh, keyed by refresh time. Guarded by this
+     */
+    private final TreeMap<Long, Long> seenTaskIds = new TreeMap<>();
+    private volatile long nextRefreshTime;
+
+    TaskSearchIndex(DataSource dataSource, String taskTable) {
+        this.dataSource = dataSource;
+        this.taskTable = taskTable;
+    }
+
+    /**
+     * index names and params of all tasks, including archived ones. Called again after partitions are dropped, so
+     * that their names and params aren't found any more
+     */
+    synchronized void load(List<YearMonth> partitions) {
+        long start = System.currentTimeMillis();
+        List<String> tables = new ArrayList<>();
+        tables.add(taskTable);
+        partitions.forEach(month -> tables.add(TaskHistoryStore.partitionTable(month)));
+        // read first, tasks committed while loading are found by next refresh
+        List<Long> maxIds = JdbcUtils.query(dataSource, "SELECT MAX(task_id) FROM " + taskTable,
+                (rs, rowNum) -> rs.getLong(1));
+
+        TrigramIndex loadedNames = new TrigramIndex();
+        TrigramIndex loadedParams = new TrigramIndex();
+        Set<String> paramsHashes = new HashSet<>();
+        for (String table : tables) {
+            JdbcUtils.query(dataSource, "SELECT DISTINCT task_name FROM " + table,
+                    (rs, rowNum) -> loadedNames.add(rs.getString(1), rs.getString(1)));
+            paramsHashes.addAll(JdbcUtils.query(dataSource, "SELECT DISTINCT params_hash FROM " + table +
+                    " WHERE params_hash IS NOT NULL", (rs, rowNum) -> rs.getString(1)));
+        }
+        indexParams(loadedParams, paramsHashes);
+        names = loadedNames;
+        params = loadedParams;
+        seenTaskIds.clear();
+        seenTaskIds.put(start, maxIds.isEmpty() ? 0 : maxIds.get(0));
+        nextRefreshTime = 0;
+        LOGGER.info("Indexed {} task names and {} task params in {} ms",
+                loadedNames.size(), loadedParams.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * index a task committed by this instance
+     */
+    void add(TaskInfo task) {
+        names.add(task.getTaskName(), task.getTaskName());
+        if (task.getParamsHash() != null)
+            params.add(task.getParamsHash(), task.getParams());
+    }
+
+    /**
+     * rewrite substring searches of task name and params into equivalent criteria which use indexes
+     *
+     * @return page with rewritten criteria, or the same page if it has no search
+     */
+    Page rewrite(Page page) {
+        List<Criterion> criteria = page.getCriteria();
+        if (criteria == null || criteria.stream().noneMatch(TaskSearchIndex::isSearch))
+            return page;
+
+        refreshIfStale();
+        List<Criterion> rewritten = new ArrayList<>(criteria.size());
+        for (Criterion criterion : criteria) {
+            rewritten.add(isSearch(criterion) ? rewrite(criterion) : criterion);
+        }
+        return page.withCriteria(rewritten);
+    }
+
+    private static boolean isSearch(Criterion criterion) {
+        Criterion.Predicate predicate = criterion.getPredicate();
+        if ("task_name".equalsIgnoreCase(criterion.getField()))
+            return predicate == Criterion.Predicate.LIKE;
+        if ("params".equalsIgnoreCase(criterion.getField()))
+            return predicate == Criterion.Predicate.LIKE || predicate == Criterion.Predicate.STARTS_WITH;
+        return false;
+    }
+
+    private Criterion rewrite(Criterion criterion) {
+        String query = Criterion.Predicate.getString(criterion);
+        if ("task_name".equalsIgnoreCase(criterion.getField())) {
+            List<String> matched = names.searchContains(query, MAX_MATCHES);
+            if (matched == null)
+                return criterion;
+            return new Criterion("task_name", Criterion.Predicate.IN, matched, criterion.getCondition());
+        } else {
+            // params are stored in content store, only their hashes are in task tables
+            List<String> matched = criterion.getPredicate() == Criterion.Predicate.LIKE ?
+                    params.searchContains(query, MAX_MATCHES) : params.searchPrefix(query, MAX_MATCHES);
+            if (matched == null)
+                return TaskContentStore.toHashCriterion(criterion, "params_hash");
+            return new Criterion("params_hash", Criterion.Predicate.IN, matched, criterion.getCondition());
+        }
+    }
+
+    /**
+     * index tasks created by other instances since last refresh, and tasks committed late within rescan window
+     */
+    private void refreshIfStale() {
+        if (System.currentTimeMillis() < nextRefreshTime)
+            return;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now < nextRefreshTime)
+                return;
+            // ids seen before rescan window are assumed committed
+            Map.Entry<Long, Long> committed = seenTaskIds.floorEntry(now - RESCAN_MILLIS);
+            if (committed != null)
+                seenTaskIds.headMap(committed.getKey()).clear();
+            long fromTaskId = seenTaskIds.firstEntry().getValue();
+
+            TrigramIndex currentNames = names;
+            Set<String> paramsHashes = new HashSet<>();
+            long[] maxTaskId = {seenTaskIds.lastEntry().getValue()};
+            String sql = "SELECT task_id, task_name, params_hash FROM " + taskTable + " WHERE task_id > ?";
+            JdbcUtils.query(dataSource, sql, (rs, rowNum) -> {
+                maxTaskId[0] = Math.max(maxTaskId[0], rs.getLong("task_id"));
+                currentNames.add(rs.getString("task_name"), rs.getString("task_name"));
+                String paramsHash = rs.getString("params_hash");
+                if (paramsHash != null)
+                    paramsHashes.add(paramsHash);
+                return null;
+            }, fromTaskId);
+            indexParams(params, paramsHashes);
+            seenTaskIds.put(now, maxTaskId[0]);
+            nextRefreshTime = System.currentTimeMillis() + REFRESH_MILLIS;
+        }
+    }
+
+    private void indexParams(TrigramIndex index, Collection<String> hashes) {
+        List<String> absent = new ArrayList<>();
+        for (String hash : hashes) {
+            if (!index.contains(hash))
+                absent.add(hash);
+        }
+        for (int from = 0; from < absent.size(); from += MAX_IN_LIST_SIZE) {
+            List<String> chunk = absent.subList(from, Math.min(from + MAX_IN_LIST_SIZE, absent.size()));
+            String sql = "SELECT content_hash, content FROM " + TaskContentStore.TASK_CONTENT_TABLE +
+                    " WHERE content_hash IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            JdbcUtils.query(dataSource, sql,
+                    (rs, rowNum) -> index.add(rs.getString("content_hash"), rs.getString("content")),
+                    chunk.toArray());
+        }
+    }
+}
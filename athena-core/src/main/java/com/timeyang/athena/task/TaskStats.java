@@ -0,0 +1,210 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.utill.QuantileSketch;
+
+/**
+ * statistics of all finished tasks of a task name, updated incrementally as tasks finish
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class TaskStats {
+    private String taskName;
+    private long successCount;
+    private long failedCount;
+    private long killedCount;
+    private long lostCount;
+    /**
+     * number of tasks which ran more than once
+     */
+    private long retriedCount;
+    private long totalTries;
+    /**
+     * sum of task duration in seconds
+     */
+    private long totalDuration;
+    /**
+     * max task duration in seconds
+     */
+    private long maxDuration;
+    /**
+     * durations in seconds of tasks which have duration, tasks finished before running don't have duration
+     */
+    private QuantileSketch durationSketch = new QuantileSketch();
+
+    public TaskStats() { }
+
+    TaskStats(String taskName) {
+        this.taskName = taskName;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public long getTaskCount() {
+        return successCount + failedCount + killedCount + lostCount;
+    }
+
+    public long getSuccessCount() {
+        return successCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getKilledCount() {
+        return killedCount;
+    }
+
+    public long getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * @return ratio of succeeded tasks in [0, 1], 0 if no task finished
+     */
+    public double getSuccessRate() {
+        long taskCount = getTaskCount();
+        return taskCount == 0 ? 0 : (double) successCount / taskCount;
+    }
+
+    public long getRetriedCount() {
+        return retriedCount;
+    }
+
+    public long getTotalTries() {
+        return totalTries;
+    }
+
+    public double getAvgTries() {
+        long taskCount = getTaskCount();
+        return taskCount == 0 ? 0 : (double) totalTries / taskCount;
+    }
+
+    public long getDurationCount() {
+        return durationSketch.getCount();
+    }
+
+    public long getTotalDuration() {
+        return totalDuration;
+    }
+
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * @return average duration in seconds of tasks which have duration
+     */
+    public double getAvgDuration() {
+        long durationCount = getDurationCount();
+        return durationCount == 0 ? 0 : (double) totalDuration / durationCount;
+    }
+
+    /**
+     * @return estimated median duration in seconds, 0 if no task has duration
+     */
+    public double getP50Duration() {
+        return getDurationQuantile(0.5);
+    }
+
+    public double getP95Duration() {
+        return getDurationQuantile(0.95);
+    }
+
+    public double getP99Duration() {
+        return getDurationQuantile(0.99);
+    }
+
+    private double getDurationQuantile(double quantile) {
+        return durationSketch.getCount() == 0 ? 0 : durationSketch.getQuantile(quantile);
+    }
+
+    QuantileSketch getDurationSketch() {
+        return durationSketch;
+    }
+
+    /**
+     * count a finished task
+     */
+    void add(FinishedTask task) {
+        switch (task.getState()) {
+            case SUCCESS:
+                successCount++;
+                break;
+            case FAILED:
+                failedCount++;
+                break;
+            case KILLED:
+                killedCount++;
+                break;
+            case LOST:
+                lostCount++;
+                break;
+            default:
+                throw new IllegalArgumentException("Task [" + task.getTaskId() + "] isn't finished: " + task.getState());
+        }
+        int tries = task.getTryNumber() == null ? 0 : task.getTryNumber();
+        totalTries += tries;
+        if (tries > 1)
+            retriedCount++;
+        if (task.getDuration() != null) {
+            long duration = task.getDuration().getSeconds();
+            totalDuration += duration;
+            maxDuration = Math.max(maxDuration, duration);
+            durationSketch.add(duration);
+        }
+    }
+
+    void merge(TaskStats other) {
+        this.successCount += other.successCount;
+        this.failedCount += other.failedCount;
+        this.killedCount += other.killedCount;
+        this.lostCount += other.lostCount;
+        this.retriedCount += other.retriedCount;
+        this.totalTries += other.totalTries;
+        this.totalDuration += other.totalDuration;
+        this.maxDuration = Math.max(this.maxDuration, other.maxDuration);
+        this.durationSketch.merge(other.durationSketch);
+    }
+
+    TaskStats copy() {
+        TaskStats copy = new TaskStats(taskName);
+        copy.merge(this);
+        return copy;
+    }
+
+    void setCounts(long successCount, long failedCount, long killedCount, long lostCount,
+                   long retriedCount, long totalTries) {
+        this.successCount = successCount;
+        this.failedCount = failedCount;
+        this.killedCount = killedCount;
+        this.lostCount = lostCount;
+        this.retriedCount = retriedCount;
+        this.totalTries = totalTries;
+    }
+
+    void setDurations(long totalDuration, long maxDuration, QuantileSketch durationSketch) {
+        this.totalDuration = totalDuration;
+        this.maxDuration = maxDuration;
+        this.durationSketch = durationSketch;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskStats{" +
+                "taskName='" + taskName + '\'' +
+                ", successCount=" + successCount +
+                ", failedCount=" + failedCount +
+                ", killedCount=" + killedCount +
+                ", lostCount=" + lostCount +
+                ", retriedCount=" + retriedCount +
+                ", totalTries=" + totalTries +
+                ", totalDuration=" + totalDuration +
+                ", maxDuration=" + maxDuration +
+                ", durationCount=" + getDurationCount() +
+                '}';
+    }
+}
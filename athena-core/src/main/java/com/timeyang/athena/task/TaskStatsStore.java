@@ -0,0 +1,214 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.utill.QuantileSketch;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.JdbcUtils.RowMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per task name statistics of finished tasks in table {@code task_stats}. Rows are updated in the transaction which
+ * finishes tasks, so statistics are exact without scanning task table or history, and queries read one row per task
+ * name. Durations are kept in a {@link QuantileSketch}, which merges with the durations of newly finished tasks.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskStatsStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskStatsStore.class);
+    static final String TASK_STATS_TABLE = "task_stats";
+    private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+
+    private static final String UPDATE_COUNTS_SQL = "UPDATE " + TASK_STATS_TABLE + " SET " +
+            "success_count = success_count + ?, failed_count = failed_count + ?, killed_count = killed_count + ?, " +
+            "lost_count = lost_count + ?, retried_count = retried_count + ?, total_tries = total_tries + ?, " +
+            "total_duration = total_duration + ?, " +
+            "max_duration = CASE WHEN max_duration < ? THEN ? ELSE max_duration END " +
+            "WHERE task_name = ?";
+    private static final String SELECT_SKETCH_SQL = "SELECT duration_sketch FROM " + TASK_STATS_TABLE +
+            " WHERE task_name = ?";
+    private static final String UPDATE_SKETCH_SQL = "UPDATE " + TASK_STATS_TABLE + " SET duration_sketch = ? " +
+            "WHERE task_name = ?";
+    private static final String INSERT_SQL = "INSERT INTO " + TASK_STATS_TABLE + "(task_name, success_count, " +
+            "failed_count, killed_count, lost_count, retried_count, total_tries, total_duration, max_duration, " +
+            "duration_sketch) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final DataSource dataSource;
+
+    TaskStatsStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void createTableIfAbsent(Connection connection) {
+        String sql = "CREATE TABLE " + TASK_STATS_TABLE +
+                "(" +
+                "task_name VARCHAR(100) NOT NULL PRIMARY KEY, " +
+                "success_count BIGINT NOT NULL, " +
+                "failed_count BIGINT NOT NULL, " +
+                "killed_count BIGINT NOT NULL, " +
+                "lost_count BIGINT NOT NULL, " +
+                "retried_count BIGINT NOT NULL, " +
+                "total_tries BIGINT NOT NULL, " +
+                "total_duration BIGINT NOT NULL, " +
+                "max_duration BIGINT NOT NULL, " +
+                "duration_sketch VARCHAR(32672) FOR BIT DATA" +
+                ")";
+        boolean created = JdbcUtils.createTableIfAbsent(connection, TASK_STATS_TABLE, sql);
+        if (created) LOGGER.info("Created table " + TASK_STATS_TABLE);
+    }
+
+    /**
+     * compute statistics of finished tasks in task table and history partitions, in caller's transaction
+     *
+     * @param taskTable         table of hot tasks
+     * @param finishedCondition condition of finished tasks in task table
+     * @param partitions        months of history partitions
+     */
+    void backfill(Connection connection, String taskTable, String finishedCondition, List<YearMonth> partitions)
+            throws SQLException {
+        Map<String, TaskStats> stats = new TreeMap<>();
+        RowMapper<FinishedTask> rowMapper = (rs, rowNum) -> {
+            FinishedTask task = new FinishedTask();
+            task.setTaskName(rs.getString("task_name"));
+            task.setState(TaskState.valueOf(rs.getString("state")));
+            task.setTryNumber(rs.getInt("try_number"));
+            long duration = rs.getLong("duration");
+            task.setDuration(rs.wasNull() ? null : Duration.ofSeconds(duration));
+            return task;
+        };
+        List<String> sqls = new ArrayList<>();
+        sqls.add("SELECT task_name, state, try_number, duration FROM " + taskTable + " WHERE " + finishedCondition);
+        for (YearMonth month : partitions) {
+            sqls.add("SELECT task_name, state, try_number, duration FROM " + TaskHistoryStore.partitionTable(month));
+        }
+        for (String sql : sqls) {
+            for (FinishedTask task : JdbcUtils.query(connection, sql, rowMapper)) {
+                stats.computeIfAbsent(statsKey(task.getTaskName()), TaskStats::new).add(task);
+            }
+        }
+        record(connection, stats.values());
+        LOGGER.info("Computed statistics of {} task names", stats.size());
+    }
+
+    /**
+     * add statistics of newly finished tasks in caller's transaction. The counter update takes the row lock first, so
+     * concurrent writers of the same task name merge sketches one after another.
+     *
+     * @param deltas statistics of newly finished tasks, one per task name
+     */
+    void record(Connection connection, Collection<TaskStats> deltas) throws SQLException {
+        for (TaskStats delta : deltas) {
+            if (!addCounts(connection, delta)) {
+                try {
+                    insert(connection, delta);
+                    continue;
+                } catch (SQLException e) {
+                    // inserted by another writer meanwhile
+                    if (!DUPLICATE_KEY_SQL_STATE.equals(e.getSQLState()) || !addCounts(connection, delta))
+                        throw e;
+                }
+            }
+            if (delta.getDurationCount() > 0)
+                mergeSketch(connection, delta);
+        }
+    }
+
+    private boolean addCounts(Connection connection, TaskStats delta) throws SQLException {
+        try (PreparedStatement pStatement = connection.prepareStatement(UPDATE_COUNTS_SQL)) {
+            pStatement.setLong(1, delta.getSuccessCount());
+            pStatement.setLong(2, delta.getFailedCount());
+            pStatement.setLong(3, delta.getKilledCount());
+            pStatement.setLong(4, delta.getLostCount());
+            pStatement.setLong(5, delta.getRetriedCount());
+            pStatement.setLong(6, delta.getTotalTries());
+            pStatement.setLong(7, delta.getTotalDuration());
+            pStatement.setLong(8, delta.getMaxDuration());
+            pStatement.setLong(9, delta.getMaxDuration());
+            pStatement.setString(10, delta.getTaskName());
+            return pStatement.executeUpdate() > 0;
+        }
+    }
+
+    private void mergeSketch(Connection connection, TaskStats delta) throws SQLException {
+        QuantileSketch sketch;
+        try (PreparedStatement pStatement = connection.prepareStatement(SELECT_SKETCH_SQL)) {
+            pStatement.setString(1, delta.getTaskName());
+            try (ResultSet rs = pStatement.executeQuery()) {
+                rs.next();
+                sketch = toSketch(rs.getBytes("duration_sketch"));
+            }
+        }
+        sketch.merge(delta.getDurationSketch());
+        try (PreparedStatement pStatement = connection.prepareStatement(UPDATE_SKETCH_SQL)) {
+            pStatement.setBytes(1, sketch.toBytes());
+            pStatement.setString(2, delta.getTaskName());
+            pStatement.executeUpdate();
+        }
+    }
+
+    private void insert(Connection connection, TaskStats stats) throws SQLException {
+        try (PreparedStatement pStatement = connection.prepareStatement(INSERT_SQL)) {
+            pStatement.setString(1, stats.getTaskName());
+            pStatement.setLong(2, stats.getSuccessCount());
+            pStatement.setLong(3, stats.getFailedCount());
+            pStatement.setLong(4, stats.getKilledCount());
+            pStatement.setLong(5, stats.getLostCount());
+            pStatement.setLong(6, stats.getRetriedCount());
+            pStatement.setLong(7, stats.getTotalTries());
+            pStatement.setLong(8, stats.getTotalDuration());
+            pStatement.setLong(9, stats.getMaxDuration());
+            pStatement.setBytes(10, stats.getDurationSketch().toBytes());
+            pStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return statistics of all task names, ordered by task name
+     */
+    List<TaskStats> getAll() {
+        String sql = "SELECT * FROM " + TASK_STATS_TABLE + " ORDER BY task_name";
+        return JdbcUtils.query(dataSource, sql, statsRowMapper);
+    }
+
+    /**
+     * @return statistics of task name, or null if no task of this name finished
+     */
+    TaskStats get(String taskName) {
+        String sql = "SELECT * FROM " + TASK_STATS_TABLE + " WHERE task_name = ?";
+        List<TaskStats> stats = JdbcUtils.query(dataSource, sql, statsRowMapper, statsKey(taskName));
+        return stats.isEmpty() ? null : stats.get(0);
+    }
+
+    /**
+     * tasks without name are counted under empty name, because task name is the primary key
+     */
+    static String statsKey(String taskName) {
+        return taskName == null ? "" : taskName;
+    }
+
+    private static QuantileSketch toSketch(byte[] bytes) {
+        return bytes == null ? new QuantileSketch() : QuantileSketch.fromBytes(bytes);
+    }
+
+    private static final RowMapper<TaskStats> statsRowMapper = (rs, rowNum) -> {
+        TaskStats stats = new TaskStats(rs.getString("task_name"));
+        stats.setCounts(rs.getLong("success_count"), rs.getLong("failed_count"), rs.getLong("killed_count"),
+                rs.getLong("lost_count"), rs.getLong("retried_count"), rs.getLong("total_tries"));
+        stats.setDurations(rs.getLong("total_duration"), rs.getLong("max_duration"),
+                toSketch(rs.getBytes("duration_sketch")));
+        return stats;
+    };
+}
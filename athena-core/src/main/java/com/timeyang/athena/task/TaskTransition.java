@@ -0,0 +1,110 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+
+/**
+ * a lifecycle change of a task, applied in batches by {@link TaskRepository#applyTransitions(java.util.List)}
+ *
+ * @author https://github.com/chaokunyang
+ */
+public final class TaskTransition {
+    private final Type type;
+    private final TaskInfo task;
+    private final String leaseOwner;
+
+    private TaskTransition(Type type, TaskInfo task) {
+        this(type, task, null);
+    }
+
+    private TaskTransition(Type type, TaskInfo task, String leaseOwner) {
+        this.type = type;
+        this.task = task;
+        this.leaseOwner = leaseOwner;
+    }
+
+    /**
+     * @see TaskRepository#moveToRunning(RunningTask)
+     */
+    public static TaskTransition moveToRunning(RunningTask task) {
+        return moveToRunning(task, null);
+    }
+
+    /**
+     * @param leaseOwner instance which must hold the lease of task, null to skip checking lease
+     */
+    public static TaskTransition moveToRunning(RunningTask task, String leaseOwner) {
+        return new TaskTransition(Type.MOVE_TO_RUNNING, task, leaseOwner);
+    }
+
+    /**
+     * @see TaskRepository#updateRunningTask(RunningTask)
+     */
+    public static TaskTransition updateRunning(RunningTask task) {
+        return updateRunning(task, null);
+    }
+
+    /**
+     * @param leaseOwner instance which must hold the lease of task, null to skip checking lease
+     */
+    public static TaskTransition updateRunning(RunningTask task, String leaseOwner) {
+        return new TaskTransition(Type.UPDATE_RUNNING, task, leaseOwner);
+    }
+
+    /**
+     * keep a running task whose try failed until its {@link RunningTask#getRetryTime() retry time}, and release its
+     * lease so that any instance can claim the retry by {@link TaskRepository#claimDueRetries}
+     */
+    public static TaskTransition retryRunning(RunningTask task) {
+        return new TaskTransition(Type.RETRY_RUNNING, task);
+    }
+
+    /**
+     * @see TaskRepository#moveFromWaitingToFinished(FinishedTask)
+     */
+    public static TaskTransition moveFromWaitingToFinished(FinishedTask task) {
+        return new TaskTransition(Type.MOVE_FROM_WAITING_TO_FINISHED, task);
+    }
+
+    /**
+     * @see TaskRepository#moveToFinished(FinishedTask)
+     */
+    public static TaskTransition moveToFinished(FinishedTask task) {
+        return new TaskTransition(Type.MOVE_TO_FINISHED, task);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return task after transition, a {@link RunningTask} or {@link FinishedTask} according to type
+     */
+    public TaskInfo getTask() {
+        return task;
+    }
+
+    /**
+     * @return instance which must hold the lease of task, a transition which doesn't affect the task then means the
+     * lease was lost. Null if lease isn't checked
+     */
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskTransition{" +
+                "type=" + type +
+                ", taskId=" + task.getTaskId() +
+                '}';
+    }
+
+    public enum Type {
+        MOVE_TO_RUNNING,
+        UPDATE_RUNNING,
+        RETRY_RUNNING,
+        MOVE_FROM_WAITING_TO_FINISHED,
+        MOVE_TO_FINISHED
+    }
+}
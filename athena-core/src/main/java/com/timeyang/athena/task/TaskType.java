@@ -40,13 +40,20 @@ public enum TaskType {
             String params = " --taskId " + task.getTaskId()
                     + " --taskManagerHost " + taskRpcHost
                     + " --taskManagerPort " + taskRpcPort
-                    + " " + task.getParams();
+                    + TaskUtils.getTaskManagerPeersParam()
+                    + " " + task.loadParams();
 
             String cmd = "spark-submit --master yarn-client --class " + TaskExecutor.class.getCanonicalName() +
                     " --jars " + SystemUtils.CLASSPATH.replaceAll(";", ",")
                     + " " + ClassUtils.findJar(TaskExecutor.class)
-                    + " " + params;
-            return cmd;
+                    + " " + params
+                    + TaskUtils.getBackgroundRedirect(task.getTaskId());
+            if (SystemUtils.isLinux())
+                cmd = "nohup " + cmd;
+
+            // driver runs as long as task in yarn-client mode, so it runs in background like java executor, and
+            // launch command only waits for it to be started
+            return TaskUtils.getTaskInitCmd(task.getTaskId()) + " && " + cmd;
         }
     },
     FLINK {
@@ -0,0 +1,1509 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.RunningTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.utill.QuantileSketch;
+import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.utill.jdbc.PageUtils;
+import com.timeyang.athena.utill.jdbc.PagedResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Embedded task repository for single node deployments. Tasks are kept in memory and every change is appended to a
+ * {@link TaskLog} before the call returns, so a change costs a buffered write and a share of a batched fsync instead
+ * of database round trips. A snapshot is written every {@code snapshotRecords} records in background to keep
+ * recovery short, and on close.
+ * <p>A change is built from current state and appended to the log before it's applied in memory, in the same
+ * critical section, so log order is the order of changes, replaying the log rebuilds the same state, and memory is
+ * never ahead of the log. If appending fails, memory is unchanged, and the repository stops accepting changes because
+ * the log may end with a partly written record.</p>
+ * <p>A change is visible to readers once applied, before the log is synced, so syncs of concurrent changes are
+ * batched. The changing call returns after sync, but a reader may see a change that a machine crash before the sync
+ * loses. Appended records reach the operating system before they are applied, so a process crash loses nothing
+ * readers saw.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class WalTaskRepository implements TaskRepository {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WalTaskRepository.class);
+    private static final long TASK_ID_START = 10000000;
+
+    private static final byte CREATE = 1;
+    private static final byte DELETE_WAITING = 2;
+    private static final byte DELETE_ALL_WAITING = 3;
+    private static final byte MOVE_TO_RUNNING = 4;
+    private static final byte UPDATE_RUNNING = 5;
+    private static final byte MOVE_FROM_WAITING_TO_FINISHED = 6;
+    private static final byte MOVE_TO_FINISHED = 7;
+    private static final byte ARCHIVE = 8;
+    private static final byte DROP_HISTORY = 9;
+    private static final byte TRANSITIONS = 10;
+    /**
+     * create record whose rows are encoded in a given row format, {@link #CREATE} records are of format 1
+     */
+    private static final byte CREATE_ROWS = 11;
+    /**
+     * format 2 adds priority and queue, format 3 adds resource requests, format 4 adds retry time, format 5 adds
+     * idempotency key
+     */
+    private static final int ROW_FORMAT = 5;
+    private static final byte CREATE_SCHEDULE = 12;
+    private static final byte DELETE_SCHEDULE = 13;
+    private static final byte FIRE_SCHEDULE = 14;
+    private static final byte RETRY_RUNNING = 15;
+    /**
+     * waiting tasks of a queue in launch order
+     */
+    private static final Comparator<TaskRow> LAUNCH_ORDER = Comparator.<TaskRow>comparingInt(row -> -row.priority)
+            .thenComparingLong(row -> row.taskId);
+    /**
+     * running tasks waiting for a retry in retry order
+     */
+    private static final Comparator<TaskRow> RETRY_ORDER = Comparator.<TaskRow, Instant>comparing(row -> row.retryTime)
+            .thenComparingLong(row -> row.taskId);
+
+    private final TaskLog log;
+    private final long snapshotRecords;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "task-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private volatile Throwable failure;
+
+    // state below is guarded by lock
+    private long nextTaskId = TASK_ID_START;
+    private long recordsSinceSnapshot;
+    private final TreeMap<Long, TaskRow> waitingTasks = new TreeMap<>();
+    private final Map<String, TreeSet<TaskRow>> waitingQueues = new HashMap<>();
+    private final TreeMap<Long, TaskRow> runningTasks = new TreeMap<>();
+    private final TreeSet<TaskRow> retries = new TreeSet<>(RETRY_ORDER);
+    private final TreeMap<Long, TaskRow> finishedTasks = new TreeMap<>();
+    /**
+     * ids of tasks which are not archived by their idempotency keys, like the unique index of jdbc task table
+     */
+    private final Map<String, Long> taskIdsByKey = new HashMap<>();
+    private final TreeMap<YearMonth, TreeMap<Long, TaskRow>> history = new TreeMap<>();
+    private final TreeMap<LocalDate, TreeMap<String, TaskDailyRollup>> rollups = new TreeMap<>();
+    private final TreeMap<String, TaskStats> stats = new TreeMap<>();
+    private long nextScheduleId = 1;
+    private final TreeMap<Long, TaskSchedule> schedules = new TreeMap<>();
+    /**
+     * leases of active tasks. Not logged, a log directory is used by one process only, so leases don't outlive it
+     */
+    private final Map<Long, Lease> leases = new HashMap<>();
+
+    /**
+     * @param dir             directory of log and snapshots
+     * @param fsync           whether to force log to disk before a change returns
+     * @param snapshotRecords number of records between two snapshots
+     */
+    public WalTaskRepository(Path dir, boolean fsync, long snapshotRecords) {
+        this(new TaskLog(dir, fsync), snapshotRecords);
+    }
+
+    WalTaskRepository(TaskLog log, long snapshotRecords) {
+        this.log = log;
+        this.snapshotRecords = snapshotRecords;
+        long start = System.currentTimeMillis();
+        recordsSinceSnapshot = log.recover(this::loadSnapshot, this::applyRecord);
+        LOGGER.info("Recovered {} waiting, {} running and {} finished tasks from {} in {} ms",
+                waitingTasks.size(), runningTasks.size(), finishedTasks.size(), log.getDir(),
+                System.currentTimeMillis() - start);
+    }
+
+
+    //************************ Waiting task ************************
+    @Override
+    public TaskInfo create(TaskInfo task) {
+        create(Collections.singletonList(task));
+        return task;
+    }
+
+    /**
+     * tasks whose idempotency key is taken get the id of the existing task in write lock, and are not logged
+     */
+    @Override
+    public <T extends TaskInfo> List<T> create(List<T> tasks) {
+        if (tasks.isEmpty())
+            return tasks;
+
+        List<T> created = new ArrayList<>(tasks.size());
+        execute(() -> {
+            created.clear();
+            Map<String, Long> createdKeys = new HashMap<>();
+            for (T task : tasks) {
+                String key = task.getIdempotencyKey();
+                Long existingId = key == null ? null : taskIdsByKey.getOrDefault(key, createdKeys.get(key));
+                if (existingId != null) {
+                    task.setTaskId(existingId);
+                } else {
+                    // created tasks get ids from nextTaskId in order
+                    if (key != null)
+                        createdKeys.put(key, nextTaskId + created.size());
+                    created.add(task);
+                }
+            }
+            if (created.isEmpty())
+                return null;
+            return record(CREATE_ROWS, out -> {
+                out.writeInt(ROW_FORMAT);
+                out.writeInt(created.size());
+                // ids are assigned in write lock, applying the record advances nextTaskId past them
+                long taskId = nextTaskId;
+                for (T task : created) {
+                    TaskRow row = TaskRow.of(task);
+                    row.taskId = taskId;
+                    row.state = TaskState.PENDING;
+                    writeRow(out, row);
+                    task.setTaskId(taskId++);
+                }
+            });
+        });
+        return created;
+    }
+
+    @Override
+    public WaitingTask getWaitingTask(long taskId) {
+        return read(() -> {
+            TaskRow row = waitingTasks.get(taskId);
+            return row == null ? null : row.toWaitingTask();
+        });
+    }
+
+    @Override
+    public PagedResult<WaitingTask> getWaitingTasks(Page page) {
+        return read(() -> PageUtils.queryPage(waitingTasks.values(), TaskRow::column, "task_id", page,
+                TaskRow::toWaitingTask));
+    }
+
+    @Override
+    public long forEachWaitingTask(Consumer<? super WaitingTask> consumer) {
+        return forEach(waitingTasks, TaskRow::toWaitingTask, consumer);
+    }
+
+    @Override
+    public void deleteWaitingTask(Long taskId) {
+        execute(() -> record(DELETE_WAITING, out -> out.writeLong(taskId)));
+    }
+
+    @Override
+    public void deleteAllWaitingTask() {
+        execute(() -> record(DELETE_ALL_WAITING, out -> { }));
+    }
+
+
+    //************************ Running task ************************
+    @Override
+    public void moveToRunning(RunningTask task) {
+        int rows = execute(() -> transitionRecord(TaskTransition.moveToRunning(task)))[0];
+        if (rows == 0)
+            LOGGER.warn("Task [{}] isn't waiting, can't move it to running", task.getTaskId());
+    }
+
+    @Override
+    public void updateRunningTask(RunningTask task) {
+        execute(() -> transitionRecord(TaskTransition.updateRunning(task)));
+    }
+
+    @Override
+    public Optional<RunningTask> getRunningTask(long taskId) {
+        return read(() -> Optional.ofNullable(runningTasks.get(taskId)).map(TaskRow::toRunningTask));
+    }
+
+    @Override
+    public long forEachRunningTask(Consumer<? super RunningTask> consumer) {
+        return forEach(runningTasks, TaskRow::toRunningTask, consumer);
+    }
+
+    @Override
+    public PagedResult<RunningTask> getRunningTasks(Page page) {
+        return read(() -> PageUtils.queryPage(runningTasks.values(), TaskRow::column, "task_id", page,
+                TaskRow::toRunningTask));
+    }
+
+
+    //************************ Finished Task ************************
+    @Override
+    public void moveFromWaitingToFinished(FinishedTask task) {
+        int rows = execute(() -> transitionRecord(TaskTransition.moveFromWaitingToFinished(task)))[0];
+        if (rows == 0)
+            LOGGER.warn("Task [{}] isn't waiting, can't move it to finished", task.getTaskId());
+    }
+
+    @Override
+    public void moveToFinished(FinishedTask task) {
+        int rows = execute(() -> transitionRecord(TaskTransition.moveToFinished(task)))[0];
+        if (rows == 0)
+            LOGGER.warn("Task [{}] isn't running, can't move it to finished", task.getTaskId());
+    }
+
+    @Override
+    public long forEachFinishedTask(Consumer<? super FinishedTask> consumer) {
+        return forEach(finishedTasks, TaskRow::toFinishedTask, consumer);
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getFinishedTasks(Page page) {
+        return read(() -> PageUtils.queryPage(finishedTasks.values(), TaskRow::column, "task_id", page,
+                TaskRow::toFinishedTask));
+    }
+
+    @Override
+    public FinishedTask getFinishedTask(long taskId) {
+        return read(() -> {
+            TaskRow row = finishedTasks.get(taskId);
+            if (row == null && !waitingTasks.containsKey(taskId) && !runningTasks.containsKey(taskId)) {
+                for (TreeMap<Long, TaskRow> monthTasks : history.descendingMap().values()) {
+                    row = monthTasks.get(taskId);
+                    if (row != null)
+                        break;
+                }
+            }
+            return row == null ? null : row.toFinishedTask();
+        });
+    }
+
+
+    //************************ Batch ************************
+    @Override
+    public Map<Long, TaskInfo> getTasks(Collection<Long> taskIds) {
+        return read(() -> {
+            Map<Long, TaskInfo> tasks = new HashMap<>();
+            for (Long taskId : taskIds) {
+                TaskRow row;
+                if ((row = waitingTasks.get(taskId)) != null)
+                    tasks.put(taskId, row.toWaitingTask());
+                else if ((row = runningTasks.get(taskId)) != null)
+                    tasks.put(taskId, row.toRunningTask());
+                else if ((row = finishedTasks.get(taskId)) != null)
+                    tasks.put(taskId, row.toFinishedTask());
+            }
+            return tasks;
+        });
+    }
+
+    /**
+     * apply transitions as one record, so they are applied, logged and synced together. Leases aren't logged, so
+     * transitions of owners which lost their lease are left out of the record and don't affect any task
+     */
+    @Override
+    public int[] applyTransitions(List<TaskTransition> transitions) {
+        if (transitions.isEmpty())
+            return new int[0];
+        int[] counts = new int[transitions.size()];
+        List<Integer> applied = new ArrayList<>();
+        int[] rows = execute(() -> {
+            applied.clear();
+            for (int i = 0; i < transitions.size(); i++) {
+                if (holdsLease(transitions.get(i)))
+                    applied.add(i);
+            }
+            if (applied.isEmpty())
+                return null;
+            return record(TRANSITIONS, out -> {
+                out.writeInt(applied.size());
+                for (int i : applied) {
+                    byte[] record = transitionRecord(transitions.get(i));
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+            });
+        });
+        for (int i = 0; i < applied.size(); i++)
+            counts[applied.get(i)] = rows[i];
+        return counts;
+    }
+
+    /**
+     * called with write lock held
+     */
+    private boolean holdsLease(TaskTransition transition) {
+        if (transition.getLeaseOwner() == null)
+            return true;
+        Lease lease = leases.get(transition.getTask().getTaskId());
+        return lease != null && lease.owner.equals(transition.getLeaseOwner());
+    }
+
+    private static byte[] transitionRecord(TaskTransition transition) {
+        switch (transition.getType()) {
+            case MOVE_TO_RUNNING: {
+                RunningTask task = (RunningTask) transition.getTask();
+                return record(MOVE_TO_RUNNING, out -> {
+                    out.writeLong(task.getTaskId());
+                    writeString(out, task.getHost());
+                    writeInstant(out, task.getStartTime());
+                    writeInteger(out, task.getTryNumber());
+                    writeInteger(out, task.getPid());
+                });
+            }
+            case UPDATE_RUNNING: {
+                RunningTask task = (RunningTask) transition.getTask();
+                return record(UPDATE_RUNNING, out -> {
+                    out.writeLong(task.getTaskId());
+                    writeInteger(out, task.getTryNumber());
+                    writeInteger(out, task.getPid());
+                });
+            }
+            case RETRY_RUNNING: {
+                RunningTask task = (RunningTask) transition.getTask();
+                return record(RETRY_RUNNING, out -> {
+                    out.writeLong(task.getTaskId());
+                    writeInstant(out, task.getRetryTime());
+                });
+            }
+            case MOVE_FROM_WAITING_TO_FINISHED: {
+                FinishedTask task = (FinishedTask) transition.getTask();
+                if (task.getEndTime() == null)
+                    task.setEndTime(Instant.now());
+                return record(MOVE_FROM_WAITING_TO_FINISHED, out -> {
+                    out.writeLong(task.getTaskId());
+                    writeString(out, task.getState().toString());
+                    writeInteger(out, task.getTryNumber());
+                    writeInstant(out, task.getEndTime());
+                });
+            }
+            case MOVE_TO_FINISHED: {
+                FinishedTask task = (FinishedTask) transition.getTask();
+                return record(MOVE_TO_FINISHED, out -> {
+                    out.writeLong(task.getTaskId());
+                    writeString(out, task.getState().toString());
+                    writeInteger(out, task.getTryNumber());
+                    writeInstant(out, task.getEndTime());
+                    writeLong(out, task.getDuration() == null ? null : task.getDuration().getSeconds());
+                });
+            }
+            default:
+                throw new IllegalArgumentException("Unknown transition type: " + transition.getType());
+        }
+    }
+
+
+    //************************ Lease ************************
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, int limit, Duration leaseTime) {
+        Instant now = Instant.now();
+        lock.writeLock().lock();
+        try {
+            leases.keySet().removeIf(taskId -> !waitingTasks.containsKey(taskId) && !runningTasks.containsKey(taskId));
+            // task ids increase with submit time
+            List<TaskRow> rows = waitingTasks.values().stream().sorted(LAUNCH_ORDER).collect(Collectors.toList());
+            return claim(rows, owner, limit, now.plus(leaseTime), now);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<WaitingTask> claimWaitingTasks(String owner, String queue, int limit, Duration leaseTime) {
+        Instant now = Instant.now();
+        lock.writeLock().lock();
+        try {
+            TreeSet<TaskRow> queueTasks = waitingQueues.get(queue);
+            if (queueTasks == null)
+                return Collections.emptyList();
+            return claim(queueTasks, owner, limit, now.plus(leaseTime), now);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * lease rows in iteration order which aren't leased or whose lease expired
+     */
+    private List<WaitingTask> claim(Iterable<TaskRow> rows, String owner, int limit, Instant expiry, Instant now) {
+        List<WaitingTask> claimed = new ArrayList<>();
+        for (TaskRow row : rows) {
+            if (claimed.size() >= limit)
+                break;
+            Lease lease = leases.get(row.taskId);
+            if (lease == null || lease.expiry.isBefore(now)) {
+                leases.put(row.taskId, new Lease(owner, expiry));
+                claimed.add(row.toWaitingTask());
+            }
+        }
+        return claimed;
+    }
+
+    @Override
+    public List<RunningTask> claimDueRetries(String owner, int limit, Duration leaseTime) {
+        Instant now = Instant.now();
+        lock.writeLock().lock();
+        try {
+            List<RunningTask> claimed = new ArrayList<>();
+            for (TaskRow row : retries) {
+                if (claimed.size() >= limit || row.retryTime.isAfter(now))
+                    break;
+                Lease lease = leases.get(row.taskId);
+                if (lease == null || lease.expiry.isBefore(now)) {
+                    leases.put(row.taskId, new Lease(owner, now.plus(leaseTime)));
+                    claimed.add(row.toRunningTask());
+                }
+            }
+            return claimed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getWaitingQueues() {
+        return read(() -> new HashSet<>(waitingQueues.keySet()));
+    }
+
+    @Override
+    public Set<Long> claimTasks(String owner, Collection<Long> taskIds, Duration leaseTime) {
+        Instant now = Instant.now();
+        lock.writeLock().lock();
+        try {
+            Set<Long> claimed = new HashSet<>();
+            for (Long taskId : taskIds) {
+                if (!waitingTasks.containsKey(taskId) && !runningTasks.containsKey(taskId))
+                    continue;
+                Lease lease = leases.get(taskId);
+                if (lease == null || lease.owner.equals(owner) || lease.expiry.isBefore(now)) {
+                    leases.put(taskId, new Lease(owner, now.plus(leaseTime)));
+                    claimed.add(taskId);
+                }
+            }
+            return claimed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void releaseTasks(String owner, Collection<Long> taskIds) {
+        lock.writeLock().lock();
+        try {
+            for (Long taskId : taskIds) {
+                Lease lease = leases.get(taskId);
+                if (lease != null && lease.owner.equals(owner))
+                    leases.remove(taskId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    //************************ History ************************
+    @Override
+    public int archiveFinishedTasks(Instant before) {
+        return execute(() -> {
+            boolean expired = finishedTasks.values().stream()
+                    .anyMatch(row -> (row.endTime != null ? row.endTime : row.submitTime).isBefore(before));
+            if (!expired)
+                return null;
+            return record(ARCHIVE, out -> {
+                writeInstant(out, before);
+                writeString(out, ZoneId.systemDefault().getId());
+            });
+        })[0];
+    }
+
+    @Override
+    public List<YearMonth> dropFinishedTaskHistory(Instant before) {
+        List<YearMonth> months = read(() -> expiredMonths(before, ZoneId.systemDefault()));
+        if (months.isEmpty())
+            return months;
+
+        execute(() -> expiredMonths(before, ZoneId.systemDefault()).isEmpty() ? null : record(DROP_HISTORY, out -> {
+            writeInstant(out, before);
+            writeString(out, ZoneId.systemDefault().getId());
+        }));
+        return months;
+    }
+
+    @Override
+    public List<YearMonth> getArchivedMonths() {
+        return read(() -> new ArrayList<>(history.descendingKeySet()));
+    }
+
+    @Override
+    public PagedResult<FinishedTask> getArchivedTasks(YearMonth month, Page page) {
+        return read(() -> {
+            TreeMap<Long, TaskRow> monthTasks = history.get(month);
+            if (monthTasks == null)
+                throw new AthenaException("Task history of month " + month + " doesn't exist");
+            return PageUtils.queryPage(monthTasks.values(), TaskRow::column, "task_id", page,
+                    TaskRow::toFinishedTask);
+        });
+    }
+
+    @Override
+    public List<TaskDailyRollup> getDailyRollups(LocalDate from, LocalDate to) {
+        return read(() -> rollups.subMap(from, true, to, true).values().stream()
+                .flatMap(dayRollups -> dayRollups.values().stream())
+                .map(TaskDailyRollup::copy)
+                .collect(Collectors.toList()));
+    }
+
+
+
+    //************************ Stats ************************
+    @Override
+    public List<TaskStats> getTaskStats() {
+        return read(() -> stats.values().stream().map(TaskStats::copy).collect(Collectors.toList()));
+    }
+
+    @Override
+    public TaskStats getTaskStats(String taskName) {
+        return read(() -> {
+            TaskStats taskStats = stats.get(TaskStatsStore.statsKey(taskName));
+            return taskStats == null ? null : taskStats.copy();
+        });
+    }
+
+
+
+    //************************ Schedule ************************
+    @Override
+    public TaskSchedule createSchedule(TaskSchedule schedule) {
+        execute(() -> record(CREATE_SCHEDULE, out -> {
+            // id is assigned in write lock, applying the record advances nextScheduleId past it
+            schedule.setScheduleId(nextScheduleId);
+            out.writeInt(ROW_FORMAT);
+            writeSchedule(out, schedule);
+        }));
+        return schedule;
+    }
+
+    @Override
+    public TaskSchedule getSchedule(long scheduleId) {
+        return read(() -> {
+            TaskSchedule schedule = schedules.get(scheduleId);
+            return schedule == null ? null : schedule.copy();
+        });
+    }
+
+    @Override
+    public List<TaskSchedule> getSchedules() {
+        return read(() -> schedules.values().stream().map(TaskSchedule::copy).collect(Collectors.toList()));
+    }
+
+    @Override
+    public void deleteSchedule(long scheduleId) {
+        execute(() -> record(DELETE_SCHEDULE, out -> out.writeLong(scheduleId)));
+    }
+
+    @Override
+    public boolean fireSchedule(long scheduleId, Instant expectedFireTime, Instant nextFireTime, Instant fireTime,
+                                List<WaitingTask> tasks) {
+        int[] rows = execute(() -> record(FIRE_SCHEDULE, out -> {
+            out.writeLong(scheduleId);
+            writeInstant(out, expectedFireTime);
+            writeInstant(out, nextFireTime);
+            writeInstant(out, fireTime);
+            out.writeInt(ROW_FORMAT);
+            out.writeInt(tasks.size());
+            long taskId = nextTaskId;
+            for (WaitingTask task : tasks) {
+                TaskRow row = TaskRow.of(task);
+                row.taskId = taskId;
+                row.state = TaskState.PENDING;
+                writeRow(out, row);
+                task.setTaskId(taskId++);
+            }
+        }));
+        if (rows[0] > 0)
+            return true;
+        tasks.forEach(task -> task.setTaskId(null));
+        return false;
+    }
+
+    /**
+     * log is written by this process only, so memory is always current
+     */
+    @Override
+    public void refresh() {
+    }
+
+    /**
+     * write a snapshot so that next start doesn't replay log, then close log
+     */
+    @Override
+    public void close() {
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure == null)
+            snapshot();
+        log.close();
+    }
+
+
+    //************************ Log ************************
+    /**
+     * build record, append it to log and apply it in one critical section, then wait for the log to be durable.
+     * A record which affects no task, e.g. a transition of a task in another state, is logged too and replayed as a
+     * no-op, builders of frequent no-op changes return null instead.
+     *
+     * @param recordBuilder builds record from current state, or returns null if there is nothing to change
+     * @return number of affected tasks of each change in record
+     */
+    private int[] execute(Supplier<byte[]> recordBuilder) {
+        if (failure != null)
+            throw new AthenaException("Task repository stopped accepting changes", failure);
+
+        int[] rows;
+        long lsn;
+        boolean snapshotNeeded;
+        lock.writeLock().lock();
+        try {
+            byte[] record = recordBuilder.get();
+            if (record == null)
+                return new int[]{0};
+            try {
+                lsn = log.append(record);
+                rows = applyRecord(record);
+            } catch (RuntimeException e) {
+                // log may end with a partly written record, or with a record memory doesn't have
+                failure = e;
+                throw e;
+            }
+            snapshotNeeded = ++recordsSinceSnapshot >= snapshotRecords;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        log.sync(lsn);
+        if (snapshotNeeded && snapshotting.compareAndSet(false, true)) {
+            snapshotExecutor.execute(() -> {
+                try {
+                    snapshot();
+                } catch (Exception e) {
+                    LOGGER.error("Write task snapshot failed", e);
+                } finally {
+                    snapshotting.set(false);
+                }
+            });
+        }
+        return rows;
+    }
+
+    private void snapshot() {
+        long lsn;
+        byte[] snapshot;
+        lock.writeLock().lock();
+        try {
+            lsn = log.roll();
+            snapshot = record(out -> {
+                // snapshots before row formats start with next task id, which is positive
+                out.writeLong(-ROW_FORMAT);
+                out.writeLong(nextTaskId);
+                List<TaskRow> rows = new ArrayList<>(waitingTasks.values());
+                rows.addAll(runningTasks.values());
+                rows.addAll(finishedTasks.values());
+                out.writeInt(rows.size());
+                for (TaskRow row : rows) {
+                    writeRow(out, row);
+                }
+
+                out.writeInt(history.size());
+                for (Map.Entry<YearMonth, TreeMap<Long, TaskRow>> entry : history.entrySet()) {
+                    out.writeInt(entry.getKey().getYear());
+                    out.writeInt(entry.getKey().getMonthValue());
+                    out.writeInt(entry.getValue().size());
+                    for (TaskRow row : entry.getValue().values()) {
+                        writeRow(out, row);
+                    }
+                }
+
+                List<TaskDailyRollup> allRollups = rollups.values().stream()
+                        .flatMap(dayRollups -> dayRollups.values().stream())
+                        .collect(Collectors.toList());
+                out.writeInt(allRollups.size());
+                for (TaskDailyRollup rollup : allRollups) {
+                    writeRollup(out, rollup);
+                }
+
+                out.writeInt(stats.size());
+                for (TaskStats taskStats : stats.values()) {
+                    writeStats(out, taskStats);
+                }
+
+                out.writeLong(nextScheduleId);
+                out.writeInt(schedules.size());
+                for (TaskSchedule schedule : schedules.values()) {
+                    writeSchedule(out, schedule);
+                }
+            });
+            recordsSinceSnapshot = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.writeSnapshot(lsn, snapshot);
+    }
+
+    private void loadSnapshot(byte[] snapshot) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            long head = in.readLong();
+            int format = head < 0 ? (int) -head : 1;
+            nextTaskId = head < 0 ? in.readLong() : head;
+            int rowCount = in.readInt();
+            for (int i = 0; i < rowCount; i++) {
+                TaskRow row = readRow(in, format);
+                if (row.state == TaskState.PENDING)
+                    putWaiting(row);
+                else
+                    tableOf(row.state).put(row.taskId, row);
+                putKey(row);
+                if (row.state == TaskState.RUNNING && row.retryTime != null)
+                    retries.add(row);
+            }
+
+            int monthCount = in.readInt();
+            for (int i = 0; i < monthCount; i++) {
+                YearMonth month = YearMonth.of(in.readInt(), in.readInt());
+                TreeMap<Long, TaskRow> monthTasks = new TreeMap<>();
+                int count = in.readInt();
+                for (int j = 0; j < count; j++) {
+                    TaskRow row = readRow(in, format);
+                    monthTasks.put(row.taskId, row);
+                }
+                history.put(month, monthTasks);
+            }
+
+            int rollupCount = in.readInt();
+            for (int i = 0; i < rollupCount; i++) {
+                TaskDailyRollup rollup = readRollup(in);
+                rollups.computeIfAbsent(rollup.getDay(), day -> new TreeMap<>()).put(rollupKey(rollup), rollup);
+            }
+
+            if (in.available() > 0) {
+                int statsCount = in.readInt();
+                for (int i = 0; i < statsCount; i++) {
+                    TaskStats taskStats = readStats(in);
+                    stats.put(taskStats.getTaskName(), taskStats);
+                }
+            } else {
+                // snapshot written before stats were kept, compute stats of finished and archived tasks
+                finishedTasks.values().forEach(this::countStats);
+                history.values().forEach(monthTasks -> monthTasks.values().forEach(this::countStats));
+            }
+
+            // snapshots written before schedules end here
+            if (in.available() > 0) {
+                nextScheduleId = in.readLong();
+                int scheduleCount = in.readInt();
+                for (int i = 0; i < scheduleCount; i++) {
+                    putSchedule(readSchedule(in, format));
+                }
+            }
+        } catch (IOException e) {
+            throw new AthenaException("Can't load task snapshot", e);
+        }
+    }
+
+    /**
+     * apply a record to memory, used by both changes and replaying
+     *
+     * @return number of affected tasks of each change in record
+     */
+    private int[] applyRecord(byte[] record) {
+        if (record[0] != TRANSITIONS)
+            return new int[]{apply(record)};
+        try {
+            DataInput in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+            int[] rows = new int[in.readInt()];
+            for (int i = 0; i < rows.length; i++) {
+                byte[] transition = new byte[in.readInt()];
+                in.readFully(transition);
+                rows[i] = apply(transition);
+            }
+            return rows;
+        } catch (IOException e) {
+            throw new AthenaException("Can't apply task log record", e);
+        }
+    }
+
+    /**
+     * apply a record of a single change
+     *
+     * @return number of affected tasks
+     */
+    private int apply(byte[] record) {
+        try {
+            DataInput in = new DataInputStream(new ByteArrayInputStream(record));
+            byte type = in.readByte();
+            switch (type) {
+                case CREATE:
+                case CREATE_ROWS: {
+                    int format = type == CREATE ? 1 : in.readInt();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        TaskRow row = readRow(in, format);
+                        putWaiting(row);
+                        putKey(row);
+                        nextTaskId = Math.max(nextTaskId, row.taskId + 1);
+                    }
+                    return count;
+                }
+                case DELETE_WAITING: {
+                    TaskRow row = removeWaiting(in.readLong());
+                    if (row == null)
+                        return 0;
+                    removeKey(row);
+                    return 1;
+                }
+                case DELETE_ALL_WAITING: {
+                    int count = waitingTasks.size();
+                    waitingTasks.values().forEach(this::removeKey);
+                    waitingTasks.clear();
+                    waitingQueues.clear();
+                    return count;
+                }
+                case MOVE_TO_RUNNING: {
+                    TaskRow row = removeWaiting(in.readLong());
+                    if (row == null)
+                        return 0;
+                    row.state = TaskState.RUNNING;
+                    row.host = readString(in);
+                    row.startTime = readInstant(in);
+                    row.tryNumber = readInteger(in);
+                    row.pid = readInteger(in);
+                    runningTasks.put(row.taskId, row);
+                    return 1;
+                }
+                case UPDATE_RUNNING: {
+                    TaskRow row = runningTasks.get(in.readLong());
+                    if (row == null)
+                        return 0;
+                    row.tryNumber = readInteger(in);
+                    row.pid = readInteger(in);
+                    setRetryTime(row, null);
+                    return 1;
+                }
+                case RETRY_RUNNING: {
+                    TaskRow row = runningTasks.get(in.readLong());
+                    if (row == null)
+                        return 0;
+                    setRetryTime(row, readInstant(in));
+                    // retry is claimed by its retry time, not by the lease of the failed try
+                    leases.remove(row.taskId);
+                    return 1;
+                }
+                case MOVE_FROM_WAITING_TO_FINISHED: {
+                    TaskRow row = removeWaiting(in.readLong());
+                    if (row == null)
+                        return 0;
+                    row.state = TaskState.valueOf(readString(in));
+                    row.tryNumber = readInteger(in);
+                    row.endTime = readInstant(in);
+                    finishedTasks.put(row.taskId, row);
+                    countStats(row);
+                    return 1;
+                }
+                case MOVE_TO_FINISHED: {
+                    TaskRow row = runningTasks.remove(in.readLong());
+                    if (row == null)
+                        return 0;
+                    setRetryTime(row, null);
+                    row.state = TaskState.valueOf(readString(in));
+                    row.tryNumber = readInteger(in);
+                    row.endTime = readInstant(in);
+                    row.duration = readLong(in);
+                    finishedTasks.put(row.taskId, row);
+                    countStats(row);
+                    return 1;
+                }
+                case ARCHIVE:
+                    return archive(readInstant(in), ZoneId.of(readString(in)));
+                case DROP_HISTORY: {
+                    List<YearMonth> months = expiredMonths(readInstant(in), ZoneId.of(readString(in)));
+                    months.forEach(history::remove);
+                    return months.size();
+                }
+                case CREATE_SCHEDULE:
+                    putSchedule(readSchedule(in, in.readInt()));
+                    return 1;
+                case DELETE_SCHEDULE:
+                    return schedules.remove(in.readLong()) == null ? 0 : 1;
+                case FIRE_SCHEDULE: {
+                    TaskSchedule schedule = schedules.get(in.readLong());
+                    Instant expectedFireTime = readInstant(in);
+                    if (schedule == null || !expectedFireTime.equals(schedule.getNextFireTime()))
+                        return 0;
+                    schedule.setNextFireTime(readInstant(in));
+                    schedule.setLastFireTime(readInstant(in));
+                    int format = in.readInt();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        TaskRow row = readRow(in, format);
+                        putWaiting(row);
+                        putKey(row);
+                        nextTaskId = Math.max(nextTaskId, row.taskId + 1);
+                    }
+                    return 1 + count;
+                }
+                default:
+                    throw new AthenaException("Unknown task log record type " + type);
+            }
+        } catch (IOException e) {
+            throw new AthenaException("Can't apply task log record", e);
+        }
+    }
+
+    private int archive(Instant before, ZoneId zone) {
+        List<TaskRow> archived = new ArrayList<>();
+        for (TaskRow row : finishedTasks.values()) {
+            // tasks finished before end time was recorded are archived by their submit time
+            Instant endTime = row.endTime != null ? row.endTime : row.submitTime;
+            if (endTime.isBefore(before)) {
+                row.endTime = endTime;
+                archived.add(row);
+            }
+        }
+
+        for (TaskRow row : archived) {
+            finishedTasks.remove(row.taskId);
+            removeKey(row);
+            LocalDate day = row.endTime.atZone(zone).toLocalDate();
+            history.computeIfAbsent(YearMonth.from(day), month -> new TreeMap<>()).put(row.taskId, row);
+
+            TaskDailyRollup rollup = new TaskDailyRollup();
+            rollup.setDay(day);
+            rollup.setTaskName(row.taskName == null ? "" : row.taskName);
+            rollup.setState(row.state);
+            rollup.setTaskCount(1);
+            if (row.duration != null) {
+                rollup.setDurationCount(1);
+                rollup.setTotalDuration(row.duration);
+                rollup.setMaxDuration(row.duration);
+            }
+            rollup.setTotalTries(row.tryNumber == null ? 0 : row.tryNumber);
+            TaskDailyRollup old = rollups.computeIfAbsent(day, d -> new TreeMap<>()).putIfAbsent(rollupKey(rollup), rollup);
+            if (old != null)
+                old.merge(rollup);
+        }
+        return archived.size();
+    }
+
+    private void countStats(TaskRow row) {
+        stats.computeIfAbsent(TaskStatsStore.statsKey(row.taskName), TaskStats::new).add(row.toFinishedTask());
+    }
+
+    private List<YearMonth> expiredMonths(Instant before, ZoneId zone) {
+        return history.keySet().stream()
+                .filter(month -> !month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().isAfter(before))
+                .collect(Collectors.toList());
+    }
+
+    private void putWaiting(TaskRow row) {
+        waitingTasks.put(row.taskId, row);
+        waitingQueues.computeIfAbsent(row.queue, queue -> new TreeSet<>(LAUNCH_ORDER)).add(row);
+    }
+
+    private TaskRow removeWaiting(long taskId) {
+        TaskRow row = waitingTasks.remove(taskId);
+        if (row != null) {
+            TreeSet<TaskRow> queueTasks = waitingQueues.get(row.queue);
+            queueTasks.remove(row);
+            if (queueTasks.isEmpty())
+                waitingQueues.remove(row.queue);
+        }
+        return row;
+    }
+
+    private void putKey(TaskRow row) {
+        if (row.idempotencyKey != null)
+            taskIdsByKey.put(row.idempotencyKey, row.taskId);
+    }
+
+    private void removeKey(TaskRow row) {
+        if (row.idempotencyKey != null)
+            taskIdsByKey.remove(row.idempotencyKey, row.taskId);
+    }
+
+    /**
+     * change retry time of a running row, keeping retries ordered
+     */
+    private void setRetryTime(TaskRow row, Instant retryTime) {
+        if (row.retryTime != null)
+            retries.remove(row);
+        row.retryTime = retryTime;
+        if (retryTime != null)
+            retries.add(row);
+    }
+
+    private void putSchedule(TaskSchedule schedule) {
+        schedules.put(schedule.getScheduleId(), schedule);
+        nextScheduleId = Math.max(nextScheduleId, schedule.getScheduleId() + 1);
+    }
+
+    private TreeMap<Long, TaskRow> tableOf(TaskState state) {
+        switch (state) {
+            case PENDING:
+                return waitingTasks;
+            case RUNNING:
+                return runningTasks;
+            default:
+                return finishedTasks;
+        }
+    }
+
+    private static String rollupKey(TaskDailyRollup rollup) {
+        return rollup.getTaskName() + "\n" + rollup.getState();
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * map tasks in read lock, then consume them out of lock so that a slow consumer doesn't block changes
+     */
+    private <T> long forEach(NavigableMap<Long, TaskRow> table, Function<TaskRow, T> mapper,
+                             Consumer<? super T> consumer) {
+        List<T> tasks = read(() -> table.values().stream().map(mapper).collect(Collectors.toList()));
+        tasks.forEach(consumer);
+        return tasks.size();
+    }
+
+
+    //************************ Encoding ************************
+    private static byte[] record(byte type, RecordWriter writer) {
+        return record(out -> {
+            out.writeByte(type);
+            writer.write(out);
+        });
+    }
+
+    private static byte[] record(RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writer.write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new AthenaException("Can't encode task log record", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeRow(DataOutput out, TaskRow row) throws IOException {
+        out.writeLong(row.taskId);
+        writeString(out, row.taskName);
+        writeString(out, row.taskType == null ? null : row.taskType.toString());
+        writeString(out, row.host);
+        writeString(out, row.className);
+        writeString(out, row.classpath);
+        writeString(out, row.params);
+        writeInteger(out, row.maxTries);
+        writeInteger(out, row.tryNumber);
+        writeLong(out, row.retryWait);
+        writeString(out, row.state.toString());
+        writeInstant(out, row.submitTime);
+        writeInstant(out, row.startTime);
+        writeInstant(out, row.endTime);
+        writeLong(out, row.duration);
+        writeInteger(out, row.pid);
+        out.writeInt(row.priority);
+        writeString(out, row.queue);
+        out.writeDouble(row.cpus);
+        out.writeInt(row.memoryMb);
+        writeInstant(out, row.retryTime);
+        writeString(out, row.idempotencyKey);
+    }
+
+    /**
+     * @param format row format of record or snapshot, fields added by later formats get their defaults
+     */
+    private static TaskRow readRow(DataInput in, int format) throws IOException {
+        TaskRow row = new TaskRow();
+        row.taskId = in.readLong();
+        row.taskName = readString(in);
+        String taskType = readString(in);
+        row.taskType = taskType == null ? null : TaskType.valueOf(taskType);
+        row.host = readString(in);
+        row.className = readString(in);
+        row.classpath = readString(in);
+        row.params = readString(in);
+        row.maxTries = readInteger(in);
+        row.tryNumber = readInteger(in);
+        row.retryWait = readLong(in);
+        row.state = TaskState.valueOf(readString(in));
+        row.submitTime = readInstant(in);
+        row.startTime = readInstant(in);
+        row.endTime = readInstant(in);
+        row.duration = readLong(in);
+        row.pid = readInteger(in);
+        if (format >= 2) {
+            row.priority = in.readInt();
+            row.queue = readString(in);
+        }
+        if (format >= 3) {
+            row.cpus = in.readDouble();
+            row.memoryMb = in.readInt();
+        }
+        if (format >= 4)
+            row.retryTime = readInstant(in);
+        if (format >= 5)
+            row.idempotencyKey = readString(in);
+        return row;
+    }
+
+    private static void writeRollup(DataOutput out, TaskDailyRollup rollup) throws IOException {
+        out.writeLong(rollup.getDay().toEpochDay());
+        writeString(out, rollup.getTaskName());
+        writeString(out, rollup.getState().toString());
+        out.writeLong(rollup.getTaskCount());
+        out.writeLong(rollup.getDurationCount());
+        out.writeLong(rollup.getTotalDuration());
+        out.writeLong(rollup.getMaxDuration());
+        out.writeLong(rollup.getTotalTries());
+    }
+
+    private static TaskDailyRollup readRollup(DataInput in) throws IOException {
+        TaskDailyRollup rollup = new TaskDailyRollup();
+        rollup.setDay(LocalDate.ofEpochDay(in.readLong()));
+        rollup.setTaskName(readString(in));
+        rollup.setState(TaskState.valueOf(readString(in)));
+        rollup.setTaskCount(in.readLong());
+        rollup.setDurationCount(in.readLong());
+        rollup.setTotalDuration(in.readLong());
+        rollup.setMaxDuration(in.readLong());
+        rollup.setTotalTries(in.readLong());
+        return rollup;
+    }
+
+    private static void writeStats(DataOutput out, TaskStats taskStats) throws IOException {
+        writeString(out, taskStats.getTaskName());
+        out.writeLong(taskStats.getSuccessCount());
+        out.writeLong(taskStats.getFailedCount());
+        out.writeLong(taskStats.getKilledCount());
+        out.writeLong(taskStats.getLostCount());
+        out.writeLong(taskStats.getRetriedCount());
+        out.writeLong(taskStats.getTotalTries());
+        out.writeLong(taskStats.getTotalDuration());
+        out.writeLong(taskStats.getMaxDuration());
+        byte[] sketch = taskStats.getDurationSketch().toBytes();
+        out.writeInt(sketch.length);
+        out.write(sketch);
+    }
+
+    private static TaskStats readStats(DataInput in) throws IOException {
+        TaskStats taskStats = new TaskStats(readString(in));
+        taskStats.setCounts(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        long totalDuration = in.readLong();
+        long maxDuration = in.readLong();
+        byte[] sketch = new byte[in.readInt()];
+        in.readFully(sketch);
+        taskStats.setDurations(totalDuration, maxDuration, QuantileSketch.fromBytes(sketch));
+        return taskStats;
+    }
+
+    private static void writeSchedule(DataOutput out, TaskSchedule schedule) throws IOException {
+        out.writeLong(schedule.getScheduleId());
+        writeString(out, schedule.getScheduleName());
+        writeString(out, schedule.getCronExpression());
+        writeLong(out, schedule.getFixedRate());
+        writeString(out, schedule.getTimeZone());
+        writeString(out, schedule.getMisfirePolicy().name());
+        writeInstant(out, schedule.getCreateTime());
+        writeInstant(out, schedule.getNextFireTime());
+        writeInstant(out, schedule.getLastFireTime());
+        TaskRow template = TaskRow.of(schedule.getTask());
+        template.state = TaskState.PENDING;
+        writeRow(out, template);
+    }
+
+    /**
+     * @param format row format of task template
+     */
+    private static TaskSchedule readSchedule(DataInput in, int format) throws IOException {
+        TaskSchedule schedule = new TaskSchedule();
+        schedule.setScheduleId(in.readLong());
+        schedule.setScheduleName(readString(in));
+        schedule.setCronExpression(readString(in));
+        schedule.setFixedRate(readLong(in));
+        schedule.setTimeZone(readString(in));
+        schedule.setMisfirePolicy(TaskSchedule.MisfirePolicy.valueOf(readString(in)));
+        schedule.setCreateTime(readInstant(in));
+        schedule.setNextFireTime(readInstant(in));
+        schedule.setLastFireTime(readInstant(in));
+        WaitingTask task = readRow(in, format).toWaitingTask();
+        task.setTaskId(null);
+        task.setSubmitTime(null);
+        schedule.setTask(task);
+        return schedule;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInstant(DataOutput out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+
+    private static void writeInteger(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeInt(value);
+    }
+
+    private static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeLong(DataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeLong(value);
+    }
+
+    private static Long readLong(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    /**
+     * a task in memory, with the same columns as task table of {@link JdbcTaskRepository}
+     */
+    private static final class TaskRow {
+        long taskId;
+        String taskName;
+        TaskType taskType;
+        String host;
+        String className;
+        String classpath;
+        String params;
+        Integer maxTries;
+        Integer tryNumber;
+        Long retryWait;
+        TaskState state;
+        Instant submitTime;
+        Instant startTime;
+        Instant endTime;
+        /**
+         * duration in seconds
+         */
+        Long duration;
+        Integer pid;
+        int priority;
+        String queue = TaskInfo.DEFAULT_QUEUE;
+        double cpus = TaskInfo.DEFAULT_CPUS;
+        int memoryMb = TaskInfo.DEFAULT_MEMORY_MB;
+        Instant retryTime;
+        String idempotencyKey;
+
+        static TaskRow of(TaskInfo task) {
+            TaskRow row = new TaskRow();
+            row.taskName = task.getTaskName();
+            row.taskType = task.getTaskType();
+            row.host = task.getHost();
+            row.className = task.getClassName();
+            row.classpath = task.loadClasspath();
+            row.params = task.loadParams();
+            row.maxTries = task.getMaxTries();
+            row.retryWait = task.getRetryWait();
+            row.submitTime = task.getSubmitTime();
+            if (task.getPriority() != null)
+                row.priority = task.getPriority();
+            if (task.getQueue() != null)
+                row.queue = task.getQueue();
+            if (task.getCpus() != null)
+                row.cpus = task.getCpus();
+            if (task.getMemoryMb() != null)
+                row.memoryMb = task.getMemoryMb();
+            row.idempotencyKey = task.getIdempotencyKey();
+            return row;
+        }
+
+        /**
+         * @return column value, of the same type as read by jdbc
+         */
+        Object column(String column) {
+            switch (column.toLowerCase()) {
+                case "task_id":
+                    return taskId;
+                case "task_name":
+                    return taskName;
+                case "task_type":
+                    return taskType == null ? null : taskType.toString();
+                case "host":
+                    return host;
+                case "class_name":
+                    return className;
+                case "classpath":
+                    return classpath;
+                case "params":
+                    return params;
+                case "max_tries":
+                    return maxTries;
+                case "try_number":
+                    return tryNumber;
+                case "retry_wait":
+                    return retryWait;
+                case "state":
+                    return state.toString();
+                case "submit_time":
+                    return timestamp(submitTime);
+                case "start_time":
+                    return timestamp(startTime);
+                case "end_time":
+                    return timestamp(endTime);
+                case "duration":
+                    return duration;
+                case "pid":
+                    return pid;
+                case "priority":
+                    return priority;
+                case "queue":
+                    return queue;
+                case "cpus":
+                    return cpus;
+                case "memory_mb":
+                    return memoryMb;
+                case "retry_time":
+                    return timestamp(retryTime);
+                case "idempotency_key":
+                    return idempotencyKey;
+                default:
+                    throw new AthenaException("Unknown task column " + column);
+            }
+        }
+
+        private static Timestamp timestamp(Instant instant) {
+            return instant == null ? null : Timestamp.from(instant);
+        }
+
+        private void fill(TaskInfo task) {
+            task.setTaskId(taskId);
+            task.setTaskName(taskName);
+            task.setTaskType(taskType);
+            task.setHost(host);
+            task.setClassName(className);
+            task.setClasspath(classpath);
+            task.setParams(params);
+            task.setMaxTries(maxTries);
+            task.setRetryWait(retryWait);
+            task.setSubmitTime(submitTime);
+            task.setPriority(priority);
+            task.setQueue(queue);
+            task.setCpus(cpus);
+            task.setMemoryMb(memoryMb);
+            task.setIdempotencyKey(idempotencyKey);
+        }
+
+        WaitingTask toWaitingTask() {
+            WaitingTask task = new WaitingTask();
+            fill(task);
+            return task;
+        }
+
+        RunningTask toRunningTask() {
+            RunningTask task = new RunningTask();
+            fill(task);
+            task.setStartTime(startTime);
+            task.setTryNumber(tryNumber);
+            task.setPid(pid);
+            task.setRetryTime(retryTime);
+            return task;
+        }
+
+        FinishedTask toFinishedTask() {
+            FinishedTask task = new FinishedTask();
+            fill(task);
+            task.setStartTime(startTime);
+            task.setEndTime(endTime);
+            task.setDuration(duration == null ? null : Duration.ofSeconds(duration));
+            task.setState(state);
+            task.setTryNumber(tryNumber);
+            return task;
+        }
+    }
+
+    private static final class Lease {
+        private final String owner;
+        private final Instant expiry;
+
+        Lease(String owner, Instant expiry) {
+            this.owner = owner;
+            this.expiry = expiry;
+        }
+    }
+
+}
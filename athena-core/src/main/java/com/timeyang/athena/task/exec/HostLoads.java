@@ -0,0 +1,60 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.task.message.TaskMessage.HostLoad;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest load reported by executors of each host through heartbeats. A report older than max age is ignored, as the
+ * host may have no executor left to report how it changed since.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class HostLoads {
+    private final long maxAgeMillis;
+    private final Map<String, Report> reports = new ConcurrentHashMap<>();
+
+    public HostLoads(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public void report(String host, HostLoad load) {
+        reports.put(host, new Report(load, System.currentTimeMillis()));
+    }
+
+    /**
+     * @return latest report of host, or null if host didn't report recently
+     */
+    public Report get(String host) {
+        Report report = reports.get(host);
+        if (report == null)
+            return null;
+        if (System.currentTimeMillis() - report.receivedMillis > maxAgeMillis) {
+            reports.remove(host, report);
+            return null;
+        }
+        return report;
+    }
+
+    public static final class Report {
+        private final HostLoad load;
+        private final long receivedMillis;
+
+        Report(HostLoad load, long receivedMillis) {
+            this.load = load;
+            this.receivedMillis = receivedMillis;
+        }
+
+        public HostLoad getLoad() {
+            return load;
+        }
+
+        /**
+         * @return time report was received, tasks launched after it aren't reflected in load
+         */
+        public long getReceivedMillis() {
+            return receivedMillis;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.timeyang.athena.task.exec;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Slots of executors, limited globally and per host. A task holds a slot from before its executor is forked until
+ * the executor finishes, so a burst of waiting tasks can't fork more executors than hosts can run; tasks beyond the
+ * limits stay waiting until a slot is released. A slot also reserves cores and memory the task requested on its host,
+ * which placement subtracts from capacity the host reported.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class SlotManager {
+    private final int globalSlots;
+    private final ToIntFunction<String> hostSlots;
+    // state below is guarded by this
+    private final Map<Long, Slot> taskSlots = new HashMap<>();
+    private final Map<String, Reserved> hostReserved = new HashMap<>();
+    private final Set<String> hosts = new LinkedHashSet<>();
+    private Runnable releaseListener = () -> { };
+
+    /**
+     * @param globalSlots max number of executors of all hosts
+     * @param hostSlots   max number of executors of a host
+     */
+    public SlotManager(int globalSlots, ToIntFunction<String> hostSlots) {
+        this.globalSlots = globalSlots;
+        this.hostSlots = hostSlots;
+    }
+
+    /**
+     * add a host which tasks can be placed on
+     */
+    public synchronized void addHost(String host) {
+        hosts.add(host);
+    }
+
+    /**
+     * called after a slot is released, out of lock
+     */
+    public synchronized void setReleaseListener(Runnable releaseListener) {
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * take a slot of host for task, a task holding a slot already keeps it
+     *
+     * @return false if no slot is free globally or on host
+     */
+    public boolean tryAcquire(long taskId, String host) {
+        return tryAcquire(taskId, host, 0, 0);
+    }
+
+    /**
+     * take a slot of host for task and reserve resources it requested, a task holding a slot already keeps it
+     *
+     * @return false if no slot is free globally or on host
+     */
+    public synchronized boolean tryAcquire(long taskId, String host, double cpus, int memoryMb) {
+        if (taskSlots.containsKey(taskId))
+            return true;
+        if (taskSlots.size() >= globalSlots || getUsedSlots(host) >= hostSlots.applyAsInt(host))
+            return false;
+        hosts.add(host);
+        taskSlots.put(taskId, new Slot(host, cpus, memoryMb, System.currentTimeMillis()));
+        Reserved reserved = hostReserved.computeIfAbsent(host, h -> new Reserved());
+        reserved.slots++;
+        reserved.cpus += cpus;
+        reserved.memoryMb += memoryMb;
+        return true;
+    }
+
+    /**
+     * release slot of task if it holds one
+     */
+    public void release(long taskId) {
+        Runnable listener;
+        synchronized (this) {
+            Slot slot = taskSlots.remove(taskId);
+            if (slot == null)
+                return;
+            Reserved reserved = hostReserved.get(slot.host);
+            if (--reserved.slots == 0) {
+                hostReserved.remove(slot.host);
+            } else {
+                reserved.cpus -= slot.cpus;
+                reserved.memoryMb -= slot.memoryMb;
+            }
+            listener = releaseListener;
+        }
+        listener.run();
+    }
+
+    /**
+     * @return number of tasks which can be launched now on all known hosts
+     */
+    public synchronized int getAvailableSlots() {
+        int hostAvailable = 0;
+        for (String host : hosts) {
+            hostAvailable += Math.max(0, hostSlots.applyAsInt(host) - getUsedSlots(host));
+        }
+        return Math.min(globalSlots - taskSlots.size(), hostAvailable);
+    }
+
+    /**
+     * @return number of tasks which can be launched now on host
+     */
+    public synchronized int getAvailableSlots(String host) {
+        return Math.max(0, Math.min(globalSlots - taskSlots.size(), hostSlots.applyAsInt(host) - getUsedSlots(host)));
+    }
+
+    public synchronized int getUsedSlots() {
+        return taskSlots.size();
+    }
+
+    public synchronized int getUsedSlots(String host) {
+        Reserved reserved = hostReserved.get(host);
+        return reserved == null ? 0 : reserved.slots;
+    }
+
+    /**
+     * @return cores reserved by tasks holding slots of host
+     */
+    public synchronized double getReservedCpus(String host) {
+        Reserved reserved = hostReserved.get(host);
+        return reserved == null ? 0 : reserved.cpus;
+    }
+
+    /**
+     * @return memory in MB reserved by tasks holding slots of host
+     */
+    public synchronized long getReservedMemoryMb(String host) {
+        Reserved reserved = hostReserved.get(host);
+        return reserved == null ? 0 : reserved.memoryMb;
+    }
+
+    /**
+     * @return cores reserved by tasks which took slots of host since given time
+     */
+    public synchronized double getReservedCpus(String host, long sinceMillis) {
+        double cpus = 0;
+        for (Slot slot : taskSlots.values()) {
+            if (slot.host.equals(host) && slot.acquiredMillis >= sinceMillis)
+                cpus += slot.cpus;
+        }
+        return cpus;
+    }
+
+    /**
+     * @return memory in MB reserved by tasks which took slots of host since given time
+     */
+    public synchronized long getReservedMemoryMb(String host, long sinceMillis) {
+        long memoryMb = 0;
+        for (Slot slot : taskSlots.values()) {
+            if (slot.host.equals(host) && slot.acquiredMillis >= sinceMillis)
+                memoryMb += slot.memoryMb;
+        }
+        return memoryMb;
+    }
+
+    /**
+     * @return hosts tasks can be placed on
+     */
+    public synchronized Set<String> getHosts() {
+        return new LinkedHashSet<>(hosts);
+    }
+
+    /**
+     * @return host of slot held by task, or null if it holds none
+     */
+    public synchronized String getHost(long taskId) {
+        Slot slot = taskSlots.get(taskId);
+        return slot == null ? null : slot.host;
+    }
+
+    private static final class Slot {
+        private final String host;
+        private final double cpus;
+        private final int memoryMb;
+        private final long acquiredMillis;
+
+        Slot(String host, double cpus, int memoryMb, long acquiredMillis) {
+            this.host = host;
+            this.cpus = cpus;
+            this.memoryMb = memoryMb;
+            this.acquiredMillis = acquiredMillis;
+        }
+    }
+
+    private static final class Reserved {
+        private int slots;
+        private double cpus;
+        private long memoryMb;
+    }
+
+}
@@ -3,14 +3,13 @@ package com.timeyang.athena.task.exec;
 import com.timeyang.athena.AthenaConf;
 import com.timeyang.athena.task.TaskInfo;
 import com.timeyang.athena.task.message.TaskMessage;
+import com.timeyang.athena.task.message.TaskMessage.HostLoad;
 import com.timeyang.athena.task.message.TaskMessage.LogQueryRequest;
 import com.timeyang.athena.task.message.TaskMessage.LogQueryResult;
 import com.timeyang.athena.task.message.TaskMessage.TaskFailure;
 import com.timeyang.athena.task.message.TaskMessage.TaskSuccess;
 import com.timeyang.athena.task.message.TaskMessageCodec;
-import com.timeyang.athena.utill.IoUtils;
 import com.timeyang.athena.utill.ParametersUtils;
-import com.timeyang.athena.utill.StringUtils;
 import com.timeyang.athena.utill.SystemUtils;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
@@ -28,17 +27,25 @@ import io.netty.util.concurrent.ImmediateEventExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
  * TaskBackend, responsible for communicating with TaskExecutor
+ * <p>An executor which lost its scheduler reconnects with a resumed handshake. Its task is adopted if
+ * {@link TaskCallback#onResumed(long, int)} accepts it, then the executor reports to this backend as if it launched
+ * the task, otherwise the connection is closed and the executor tries another scheduler.</p>
+ * <p>An executor which doesn't hand shake in {@link AthenaConf#getTaskExecutorHandshakeTimeoutMillis()} after its
+ * launch command exited fails its task, a late handshake of it is rejected.</p>
  *
  * @author https://github.com/chaokunyang
  */
@@ -60,15 +67,35 @@ public class TaskBackend {
     // remote task handles
     private final ConcurrentMap<Long, RemoteTaskHandle> remoteTasks = new ConcurrentHashMap<>();
     private final TaskCallback taskCallback;
+    private final SlotManager slotManager;
+    private final HostLoads hostLoads;
+    private final TaskLauncher launcher;
 
     private final ConcurrentMap<Long, Task> taskInstances = new ConcurrentHashMap<>();
+    // guarded by itself for handshake against failure of start
     private final Set<Long> startingTaskIds = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Long, ScheduledFuture<?>> handshakeTimeouts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService handshakeTimer;
+    private final long handshakeTimeoutMillis;
 
-    public TaskBackend(AthenaConf athenaConf, TaskCallback taskCallback) {
+    /**
+     * @param slotManager slots which executors hold from fork until they finish
+     */
+    public TaskBackend(AthenaConf athenaConf, TaskCallback taskCallback, SlotManager slotManager,
+                       HostLoads hostLoads) {
         this.host = athenaConf.getTaskRpcHost();
         this.port = athenaConf.getTaskRpcPort();
         this.athenaConf = athenaConf;
         this.taskCallback = taskCallback;
+        this.slotManager = slotManager;
+        this.hostLoads = hostLoads;
+        this.launcher = new TaskLauncher(athenaConf.getTaskLauncherThreads(), athenaConf.getTaskLauncherTimeoutSeconds());
+        this.handshakeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "task-handshake-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.handshakeTimeoutMillis = athenaConf.getTaskExecutorHandshakeTimeoutMillis();
 
         if (SystemUtils.IS_LINUX) {
             bossGroup = new EpollEventLoopGroup(1);
@@ -106,6 +133,8 @@ public class TaskBackend {
     }
 
     public void stop() {
+        launcher.stop();
+        handshakeTimer.shutdownNow();
         ChannelGroupFuture channelGroupFuture = channelGroup.writeAndFlush(new TaskMessage.KillTask());
         channelGroupFuture.syncUninterruptibly();
 
@@ -117,51 +146,65 @@ public class TaskBackend {
         bossGroup.shutdownGracefully();
     }
 
-    public void runTask(TaskInfo taskInfo) {
+    /**
+     * start executor of task on its host in background if it isn't starting. A launch failure or an executor which
+     * doesn't hand shake in time is reported by {@link TaskCallback#onFailure(long)}
+     *
+     * @return false if no slot is free on host, task isn't started
+     */
+    public boolean runTask(TaskInfo taskInfo) {
         Long taskId = taskInfo.getTaskId();
         // start task if not started
-        if (!startingTaskIds.contains(taskId)) {
-            startingTaskIds.add(taskId);
-
-            String className = taskInfo.getClassName();
-            Task task = TaskUtils.createTask(className, ParametersUtils.fromArgs(taskInfo.getParams()).get());
+        if (startingTaskIds.contains(taskId))
+            return true;
+        double cpus = taskInfo.getCpus() == null ? TaskInfo.DEFAULT_CPUS : taskInfo.getCpus();
+        int memoryMb = taskInfo.getMemoryMb() == null ? TaskInfo.DEFAULT_MEMORY_MB : taskInfo.getMemoryMb();
+        if (!slotManager.tryAcquire(taskId, taskInfo.getHost(), cpus, memoryMb))
+            return false;
+        startingTaskIds.add(taskId);
+
+        launcher.launch(taskId, () -> {
+            Task task = TaskUtils.createTask(taskInfo.getClassName(),
+                    ParametersUtils.fromArgs(taskInfo.loadParams()).get());
             taskInstances.put(taskId, task);
 
             LOGGER.info("init task [{}]", taskId);
             task.init(TaskContextImpl.makeTaskContext(taskId));
+            return TaskUtils.getTaskCmd(taskInfo, host, port);
+        }, () -> handshakeTimeouts.put(taskId, handshakeTimer.schedule(() -> {
+            handshakeTimeouts.remove(taskId);
+            if (failStart(taskId))
+                LOGGER.warn("Executor of task [{}] didn't hand shake in {} ms, task failed", taskId,
+                        handshakeTimeoutMillis);
+        }, handshakeTimeoutMillis, TimeUnit.MILLISECONDS)), e -> failStart(taskId));
+        return true;
+    }
 
-            String taskCmd = TaskUtils.getTaskCmd(taskInfo, host, port);
-            try {
-                LOGGER.info("Starting task. task_start_cmd: [{}]", taskCmd);
-                Process process = Runtime.getRuntime().exec(taskCmd);
-                process.waitFor();
-                String procOutput = IoUtils.toString(process.getInputStream(), SystemUtils.ENCODING);
-                String procError = IoUtils.toString(process.getErrorStream(), "GBK");
-                if (StringUtils.hasLength(procOutput))
-                    LOGGER.info("task cmd output: " + procOutput);
-                if (StringUtils.hasLength(procError)) {
-                    LOGGER.warn("task error output: " + procError);
-                }
-
-                LOGGER.info("task_start_cmd of task [{}] executed", taskId);
-            } catch (Exception e) {
-                Throwable cause = e.getCause();
-                cause.printStackTrace();
-                if (cause instanceof ClassNotFoundException) {
-                    LOGGER.error("Can't find task class {}, mark task failed", className);
-                }
-                if (cause instanceof IllegalAccessException || cause instanceof InstantiationException) {
-                    LOGGER.error("can't instantiate task class, mark task failed");
-                }
-                if (cause instanceof IOException || cause instanceof InterruptedException) {
-                    LOGGER.error("Execute task_cmd failed. task_cmd []", taskCmd);
-                }
-
-                taskCallback.onFailure(taskId);
-                startingTaskIds.remove(taskId);
-                taskInstances.remove(taskId);
-            }
+    /**
+     * fail a task whose executor didn't hand shake, a task which handshook already is started and its executor
+     * reports how it ends
+     *
+     * @return true if task failed
+     */
+    private boolean failStart(long taskId) {
+        synchronized (startingTaskIds) {
+            if (remoteTasks.containsKey(taskId) || !startingTaskIds.remove(taskId))
+                return false;
         }
+        slotManager.release(taskId);
+        taskInstances.remove(taskId);
+        logFailure(taskCallback.onFailure(taskId), taskId, "failure");
+        return true;
+    }
+
+    /**
+     * scheduler recovers a task whose state change isn't persisted, it's only logged here
+     */
+    private static void logFailure(CompletableFuture<?> future, long taskId, String event) {
+        future.whenComplete((v, e) -> {
+            if (e != null)
+                LOGGER.warn(String.format("Persist %s of task [%d] failed", event, taskId), e);
+        });
     }
 
     public Future killTask(long taskId, Runnable runnable) {
@@ -175,7 +218,7 @@ public class TaskBackend {
     }
 
     public boolean isTaskRunning(long taskId) {
-        return taskInstances.containsKey(taskId);
+        return taskInstances.containsKey(taskId) || remoteTasks.containsKey(taskId);
     }
 
     public List<String> getLogLines(long taskId, int lineNumber, int rows) {
@@ -198,29 +241,93 @@ public class TaskBackend {
      * <ol>
      * <li>taskId(8 bytes)</li>
      * <li>pid(4 bytes)</li>
+     * <li>resumed(1 byte), 1 if executor reconnects after it lost its scheduler</li>
      * </ol>
      */
     private class TaskHandShakeHandler extends ChannelInboundHandlerAdapter {
         private static final short TASK_ID_LENGTH = 8; // taskId: long
         private static final short PID_LENGTH = 4; // pid: int
+        private static final short RESUMED_LENGTH = 1; // resumed: byte
 
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
             ByteBuf byteBuf = (ByteBuf) msg;
 
-            if (byteBuf.readableBytes() < TASK_ID_LENGTH + PID_LENGTH)
+            if (byteBuf.readableBytes() < TASK_ID_LENGTH + PID_LENGTH + RESUMED_LENGTH)
                 return;
             long taskId = byteBuf.readLong();
             int pid = byteBuf.readInt();
+            boolean resumed = byteBuf.readByte() == 1;
+            if (resumed) {
+                resume(ctx, taskId, pid, byteBuf);
+                return;
+            }
 
-            channelGroup.add(ctx.channel());
             RemoteTaskHandle remoteTaskHandle =
                     new RemoteTaskHandle(taskId, pid, ctx.channel());
-            remoteTasks.put(taskId, remoteTaskHandle);
+            synchronized (startingTaskIds) {
+                if (!startingTaskIds.contains(taskId)) {
+                    LOGGER.warn("task [{}] executor hand shake after its start failed, close it", taskId);
+                    byteBuf.release();
+                    ctx.close();
+                    return;
+                }
+                remoteTasks.put(taskId, remoteTaskHandle);
+            }
+            ScheduledFuture<?> handshakeTimeout = handshakeTimeouts.remove(taskId);
+            if (handshakeTimeout != null)
+                handshakeTimeout.cancel(false);
+            channelGroup.add(ctx.channel());
 
             LOGGER.info("task [{}] hand shake finished, remove TaskHandShakeHandler from pipeline, fire TaskStarted event");
             ctx.pipeline().remove(this); // handshake finished, remove TaskHandShakeHandler from pipeline
-            ctx.fireUserEventTriggered(new TaskStarted(remoteTaskHandle));
+            ctx.fireUserEventTriggered(new TaskStarted(remoteTaskHandle, false));
+        }
+
+        /**
+         * stop reading until scheduler decided, so a result the executor resends after handshake waits for adoption
+         */
+        private void resume(ChannelHandlerContext ctx, long taskId, int pid, ByteBuf byteBuf) {
+            ctx.channel().config().setAutoRead(false);
+            taskCallback.onResumed(taskId, pid).whenComplete((task, e) -> ctx.executor().execute(() -> {
+                if (task == null) {
+                    LOGGER.info("task [{}] executor reconnected, but its task isn't adopted, close it", taskId, e);
+                    byteBuf.release();
+                    ctx.close();
+                    return;
+                }
+                adopt(task);
+                channelGroup.add(ctx.channel());
+                RemoteTaskHandle remoteTaskHandle = new RemoteTaskHandle(taskId, pid, ctx.channel());
+                remoteTasks.put(taskId, remoteTaskHandle);
+
+                ctx.pipeline().remove(this);
+                ctx.fireUserEventTriggered(new TaskStarted(remoteTaskHandle, true));
+                if (byteBuf.isReadable())
+                    ctx.fireChannelRead(byteBuf);
+                else
+                    byteBuf.release();
+                ctx.channel().config().setAutoRead(true);
+            }));
+        }
+    }
+
+    /**
+     * take slot and task instance of a task launched by another scheduler, task instance is created without init
+     */
+    private void adopt(TaskInfo taskInfo) {
+        long taskId = taskInfo.getTaskId();
+        double cpus = taskInfo.getCpus() == null ? TaskInfo.DEFAULT_CPUS : taskInfo.getCpus();
+        int memoryMb = taskInfo.getMemoryMb() == null ? TaskInfo.DEFAULT_MEMORY_MB : taskInfo.getMemoryMb();
+        // executor runs already, it's kept even beyond limits
+        if (!slotManager.tryAcquire(taskId, taskInfo.getHost(), cpus, memoryMb))
+            LOGGER.warn("No slot is free on host {} for adopted task [{}]", taskInfo.getHost(), taskId);
+        try {
+            taskInstances.put(taskId, TaskUtils.createTask(taskInfo.getClassName(),
+                    ParametersUtils.fromArgs(taskInfo.loadParams()).get()));
+        } catch (Throwable e) {
+            LOGGER.warn(String.format("Create instance of adopted task [%d] failed, its callbacks aren't called",
+                    taskId), e);
         }
     }
 
@@ -255,8 +362,14 @@ public class TaskBackend {
 
                 long taskId = this.remoteTaskHandle.getTaskId();
                 int pid = this.remoteTaskHandle.getPid();
+                if (((TaskStarted) evt).isResumed()) {
+                    // executor has its task already, acknowledge adoption
+                    LOGGER.info("task [{}] adopted, executor pid: {}", taskId, pid);
+                    ctx.writeAndFlush(new TaskMessage.HeartBeat());
+                    return;
+                }
 
-                taskCallback.onStarted(taskId, pid);
+                logFailure(taskCallback.onStarted(taskId, pid), taskId, "start");
                 // task started. move task form waiting_task to running_task table
                 // remove taskId from startingTaskIds
                 startingTaskIds.remove(taskId);
@@ -275,7 +388,8 @@ public class TaskBackend {
                     String msg = String.format("Call task [%s] onLost method failed", task);
                     LOGGER.warn(msg, e);
                 }
-                taskCallback.onLost(taskId);
+                slotManager.release(taskId);
+                logFailure(taskCallback.onLost(taskId), taskId, "loss");
 
                 LOGGER.info("task {} lost", taskInstances.get(taskId));
                 taskInstances.remove(taskId);
@@ -287,7 +401,8 @@ public class TaskBackend {
         protected void channelRead0(ChannelHandlerContext ctx, TaskMessage msg) throws Exception {
             if (msg instanceof TaskSuccess) {
                 long taskId = this.remoteTaskHandle.getTaskId();
-                taskCallback.onSuccess(taskId);
+                slotManager.release(taskId);
+                logFailure(taskCallback.onSuccess(taskId), taskId, "success");
 
                 Task task = ((TaskSuccess) msg).getTask();
                 try {
@@ -317,10 +432,15 @@ public class TaskBackend {
                 }
 
                 LOGGER.info("task [{}] {} failed", taskId, taskInstances.get(taskId));
-                taskCallback.onFailure(taskId);
+                slotManager.release(taskId);
+                logFailure(taskCallback.onFailure(taskId), taskId, "failure");
 
                 taskInstances.remove(taskId);
                 remoteTasks.remove(taskId);
+            } else if (msg instanceof HostLoad) {
+                String host = slotManager.getHost(this.remoteTaskHandle.getTaskId());
+                if (host != null)
+                    hostLoads.report(host, (HostLoad) msg);
             } else if (msg instanceof LogQueryResult) {
                 LogQueryResult logQueryResult = (LogQueryResult) msg;
                 System.out.println("logQueryResult: " + logQueryResult);
@@ -336,6 +456,7 @@ public class TaskBackend {
     }
 
     private void removeTaskInfo(long taskId) {
+        slotManager.release(taskId);
         taskInstances.remove(taskId);
         remoteTasks.remove(taskId);
         startingTaskIds.remove(taskId);
@@ -416,15 +537,24 @@ public class TaskBackend {
 
     private static class TaskStarted {
         private final RemoteTaskHandle remoteTaskHandle;
+        private final boolean resumed;
 
-        TaskStarted(RemoteTaskHandle remoteTaskHandle) {
+        TaskStarted(RemoteTaskHandle remoteTaskHandle, boolean resumed) {
             this.remoteTaskHandle = remoteTaskHandle;
+            this.resumed = resumed;
         }
 
         public RemoteTaskHandle getRemoteTaskHandle() {
             return remoteTaskHandle;
         }
 
+        /**
+         * @return true if executor reconnected to take its task over, false if it was just launched
+         */
+        public boolean isResumed() {
+            return resumed;
+        }
+
     }
 
 }
@@ -1,17 +1,29 @@
 package com.timeyang.athena.task.exec;
 
+import com.timeyang.athena.task.TaskInfo;
+
+import java.util.concurrent.CompletableFuture;
+
 /**
- * 任务执行回调
+ * 任务执行回调. Callbacks are called on network threads, so they must not wait for storage, the returned future
+ * completes after the task state change is persisted.
  * @author https://github.com/chaokunyang
  */
 public interface TaskCallback {
 
-    void onStarted(long taskId, int pid);
+    CompletableFuture<Void> onStarted(long taskId, int pid);
+
+    CompletableFuture<Void> onSuccess(long taskId);
 
-    void onSuccess(long taskId);
+    CompletableFuture<Void> onFailure(long taskId);
 
-    void onFailure(long taskId);
+    CompletableFuture<Void> onLost(long taskId);
 
-    void onLost(long taskId);
+    /**
+     * an executor which lost its scheduler reconnected, e.g. after this instance took over as leader
+     *
+     * @return future of the running task if it's adopted, or null if executor is rejected
+     */
+    CompletableFuture<TaskInfo> onResumed(long taskId, int pid);
 
 }
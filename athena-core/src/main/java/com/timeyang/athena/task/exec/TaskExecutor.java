@@ -18,7 +18,12 @@ import io.netty.handler.timeout.IdleStateHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -36,29 +41,76 @@ import static com.timeyang.athena.task.message.TaskMessage.*;
  *     <li>For mapreduce task, submitted by hadoop</li>
  *     <li>For flink task, submitted by flink</li>
  * </ol>
+ * <p>If connection to scheduler is lost after task was received, e.g. scheduler died, executor keeps running task and
+ * reconnects to the scheduler and its peers in turn with a resumed handshake, until one of them adopts the task, then
+ * resends result of task if it wasn't sent. Executor exits if no scheduler adopts it in
+ * {@link #RECONNECT_TIMEOUT_SECONDS}.</p>
  * @author https://github.com/chaokunyang
  */
 public class TaskExecutor {
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskExecutor.class);
+    /**
+     * host load is reported when nothing was written for this long, which also keeps channel alive
+     */
+    private static final int HOST_LOAD_INTERVAL_SECONDS = 10;
+    /**
+     * max time to find a scheduler which adopts task after connection was lost, longer than a leader takeover
+     */
+    private static final int RECONNECT_TIMEOUT_SECONDS = 120;
+    private static final int RECONNECT_INTERVAL_SECONDS = 1;
 
     private final long taskId;
     private final String taskManagerHost;
     private final int taskManagerPort;
+    /**
+     * scheduler which launched task first, then its peers
+     */
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
 
     private Class<? extends Channel> channelClass;
     private EventLoopGroup group;
     private Bootstrap b;
-    private Channel channel;
-    private Task task;
+    private volatile Channel channel;
+    private volatile Task task;
     private TaskContext taskContext;
     private LogInspection logInspection;
     // wait TaskManager send task object to TaskExecutor, and synchronizes memory
     private CountDownLatch latch = new CountDownLatch(1);
+    /**
+     * TaskSuccess or TaskFailure, resent after reconnecting until it was sent
+     */
+    private volatile TaskMessage result;
+    private final CountDownLatch resultSent = new CountDownLatch(1);
+    private volatile boolean stopping;
+    private volatile int reconnectAttempts;
+    /**
+     * time to give up reconnecting, 0 while connected to a scheduler which has task
+     */
+    private volatile long reconnectDeadline;
 
     public TaskExecutor(long taskId, String taskManagerHost, int taskManagerPort, String taskFilePath) {
+        this(taskId, taskManagerHost, taskManagerPort, taskFilePath, null);
+    }
+
+    /**
+     * @param taskManagerPeers task rpc addresses of other schedulers as host:port, comma separated, may be null
+     */
+    public TaskExecutor(long taskId, String taskManagerHost, int taskManagerPort, String taskFilePath,
+                        String taskManagerPeers) {
         this.taskId = taskId;
         this.taskManagerHost = taskManagerHost;
         this.taskManagerPort = taskManagerPort;
+        this.addresses.add(new InetSocketAddress(taskManagerHost, taskManagerPort));
+        if (StringUtils.hasText(taskManagerPeers)) {
+            for (String peer : taskManagerPeers.split(",")) {
+                if (peer.trim().isEmpty())
+                    continue;
+                String[] hostPort = peer.trim().split(":");
+                InetSocketAddress address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+                if (!addresses.contains(address))
+                    addresses.add(address);
+            }
+        }
         if (StringUtils.hasText(taskFilePath)) {
             this.logInspection = new LogInspection(taskFilePath);
         } else {
@@ -76,14 +128,13 @@ public class TaskExecutor {
         b = new Bootstrap();
         b.group(group)
                 .channel(channelClass)
-                .remoteAddress(new InetSocketAddress(taskManagerHost, taskManagerPort))
                 .handler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch)
                             throws Exception {
                         ChannelPipeline pipeline = ch.pipeline();
 
-                        pipeline.addLast(new IdleStateHandler(0, 0, 60, TimeUnit.SECONDS));
+                        pipeline.addLast(new IdleStateHandler(0, HOST_LOAD_INTERVAL_SECONDS, 0, TimeUnit.SECONDS));
                         pipeline.addLast(new TaskMessageCodec());
                         pipeline.addLast(new HeartbeatHandler());
                         pipeline.addLast(new TaskExecutorHandler());
@@ -93,7 +144,7 @@ public class TaskExecutor {
 
     public void start() {
         try {
-            channel = b.connect().sync().channel();
+            channel = b.connect(addresses.get(0)).sync().channel();
             LOGGER.info("TaskExecutor started");
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -104,6 +155,7 @@ public class TaskExecutor {
     }
 
     public void stop() {
+        stopping = true;
         if (channel != null) {
             channel.close().syncUninterruptibly();
         }
@@ -118,7 +170,7 @@ public class TaskExecutor {
                 task.exec(taskContext);
                 LOGGER.info("task [{}] execute succeed", taskContext.taskId());
                 try {
-                    channel.writeAndFlush(new TaskSuccess(task));
+                    sendResult(new TaskSuccess(task));
                     LOGGER.info("Send TaskSuccess message succeed");
                 } catch (Throwable e) {
                     LOGGER.info("Send TaskSuccess message failed");
@@ -128,7 +180,7 @@ public class TaskExecutor {
                 LOGGER.info("task [{}] execute failed", taskContext.taskId());
                 throwable.printStackTrace();
                 try {
-                    channel.writeAndFlush(new TaskFailure(task, throwable));
+                    sendResult(new TaskFailure(task, throwable));
                     LOGGER.info("Send TaskFailure message succeed");
                     System.exit(0);
                 } catch (Throwable e) {
@@ -143,17 +195,60 @@ public class TaskExecutor {
     }
 
     /**
-     * exit when timeout
+     * send result, and wait until it's sent, to this or the scheduler which adopts task after connection was lost
+     */
+    private void sendResult(TaskMessage message) throws InterruptedException {
+        result = message;
+        writeResult(channel);
+        if (!resultSent.await(RECONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            throw new IllegalStateException("No scheduler received result of task " + taskId);
+    }
+
+    private void writeResult(Channel ch) {
+        TaskMessage message = result;
+        if (message == null || ch == null || !ch.isActive())
+            return;
+        ch.writeAndFlush(message).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess())
+                resultSent.countDown();
+        });
+    }
+
+    /**
+     * connect to next scheduler in turn, a connection closed before adoption is acknowledged moves on to the next one
+     */
+    private void reconnect() {
+        if (stopping)
+            return;
+        if (System.currentTimeMillis() > reconnectDeadline) {
+            LOGGER.error("task [{}] isn't adopted by any scheduler in {} seconds, exit", taskId,
+                    RECONNECT_TIMEOUT_SECONDS);
+            System.exit(0);
+        }
+        InetSocketAddress address = addresses.get(reconnectAttempts++ % addresses.size());
+        b.connect(address).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                channel = future.channel();
+                LOGGER.info("task [{}] reconnected to {}", taskId, address);
+            } else {
+                group.schedule(this::reconnect, RECONNECT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            }
+        });
+    }
+
+    /**
+     * report host load as heartbeat, exit when it can't be sent before task was received
      */
-    private static class HeartbeatHandler extends ChannelInboundHandlerAdapter {
+    private class HeartbeatHandler extends ChannelInboundHandlerAdapter {
 
         @Override
         public void userEventTriggered(ChannelHandlerContext ctx,
                                        Object evt) throws Exception {
             if (evt instanceof IdleStateEvent) {
-                ctx.writeAndFlush(new HeartBeat())
+                ctx.writeAndFlush(sampleHostLoad())
                         .addListener((ChannelFutureListener) future -> {
-                            if (!future.isSuccess()) {
+                            // after task was received, lost connection is reconnected
+                            if (!future.isSuccess() && task == null) {
                                 System.exit(0);
                             }
                         });
@@ -163,27 +258,89 @@ public class TaskExecutor {
         }
     }
 
+    /**
+     * read load of this host from /proc, or from jvm where /proc isn't available
+     */
+    static HostLoad sampleHostLoad() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        if (SystemUtils.IS_LINUX) {
+            try {
+                String loadavg = new String(Files.readAllBytes(Paths.get("/proc/loadavg")), StandardCharsets.US_ASCII);
+                long memoryTotalKb = -1;
+                long memoryAvailableKb = -1;
+                for (String line : Files.readAllLines(Paths.get("/proc/meminfo"), StandardCharsets.US_ASCII)) {
+                    if (line.startsWith("MemTotal:"))
+                        memoryTotalKb = parseMeminfoKb(line);
+                    else if (line.startsWith("MemAvailable:"))
+                        memoryAvailableKb = parseMeminfoKb(line);
+                }
+                if (memoryTotalKb >= 0 && memoryAvailableKb >= 0)
+                    return new HostLoad(cpus, Double.parseDouble(loadavg.trim().split("\\s+")[0]),
+                            memoryTotalKb / 1024, memoryAvailableKb / 1024);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Read host load from /proc failed, read it from jvm", e);
+            }
+        }
+
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double loadAverage = Math.max(0, os.getSystemLoadAverage());
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean sunOs = (com.sun.management.OperatingSystemMXBean) os;
+            return new HostLoad(cpus, loadAverage, sunOs.getTotalPhysicalMemorySize() >> 20,
+                    sunOs.getFreePhysicalMemorySize() >> 20);
+        }
+        return new HostLoad(cpus, loadAverage, 0, 0);
+    }
+
+    private static long parseMeminfoKb(String line) {
+        // MemTotal:       16314500 kB
+        return Long.parseLong(line.substring(line.indexOf(':') + 1).trim().split("\\s+")[0]);
+    }
+
     private class TaskExecutorHandler extends SimpleChannelInboundHandler<TaskMessage> {
 
-        // handshake with TaskManager
+        // handshake with TaskManager, resumed if task was received from a scheduler already
         @Override
         public void channelActive(ChannelHandlerContext ctx) {
+            boolean resumed = task != null;
             ByteBuf buffer = ctx.alloc().buffer();
             buffer.writeLong(taskId);
             buffer.writeInt(SystemUtils.getPID());
+            buffer.writeByte(resumed ? 1 : 0);
             ChannelFuture channelFuture = ctx.writeAndFlush(buffer);
             channelFuture.addListener(f -> {
                 if (f.isSuccess()) {
                     LOGGER.info("");
-                } else {
+                    // read by scheduler after it adopted task
+                    if (resumed)
+                        writeResult(ctx.channel());
+                } else if (!resumed) {
                     LOGGER.error("task [{}] hand shake failed", taskId);
                     System.exit(0);
                 }
             });
         }
 
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (!stopping && task != null) {
+                // deadline starts when an adopted connection is lost, not when a rejected one is closed
+                if (reconnectDeadline == 0)
+                    reconnectDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RECONNECT_TIMEOUT_SECONDS);
+                LOGGER.warn("task [{}] lost connection to scheduler, reconnect", taskId);
+                ctx.channel().eventLoop().schedule(TaskExecutor.this::reconnect, RECONNECT_INTERVAL_SECONDS,
+                        TimeUnit.SECONDS);
+            }
+            super.channelInactive(ctx);
+        }
+
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, TaskMessage msg) throws Exception {
+            if (msg instanceof HeartBeat) {
+                // scheduler adopted task after reconnect, or checks connection
+                reconnectDeadline = 0;
+            }
+
             if (msg instanceof TaskSubmit) {
                 TaskSubmit submit = (TaskSubmit) msg;
                 task = submit.getTask();
@@ -225,7 +382,9 @@ public class TaskExecutor {
         String taskManagerHost = parametersUtils.get("taskManagerHost");
         int taskManagerPort = parametersUtils.getInt("taskManagerPort");
         String taskFilePath = parametersUtils.get("taskFilePath");
-        TaskExecutor executor = new TaskExecutor(taskId, taskManagerHost, taskManagerPort, taskFilePath);
+        String taskManagerPeers = parametersUtils.get("taskManagerPeers");
+        TaskExecutor executor = new TaskExecutor(taskId, taskManagerHost, taskManagerPort, taskFilePath,
+                taskManagerPeers);
 
         executor.start();
         executor.execute();
@@ -75,6 +75,7 @@ public class TaskExecutorLauncher {
         String taskManagerHost = parametersUtils.get("taskManagerHost");
         int taskManagerPort = parametersUtils.getInt("taskManagerPort");
         String taskFilePath = parametersUtils.get("taskFilePath");
+        String taskManagerPeers = parametersUtils.get("taskManagerPeers");
         String mainClasspath = System.getProperty("java.class.path");
         String classpathFile = parametersUtils.get("classpathFile");
         URL[] classpath = getClassPath(mainClasspath, classpathFile);
@@ -88,8 +89,9 @@ public class TaskExecutorLauncher {
             Class<?> executorClass = urlClassLoader.loadClass(TASK_EXECUTOR_NAME);
             info("executorClass: " + executorClass);
             Constructor<?> constructor =
-                    executorClass.getDeclaredConstructor(long.class, String.class, int.class, String.class);
-            Object executor = constructor.newInstance(taskId, taskManagerHost, taskManagerPort, taskFilePath);
+                    executorClass.getDeclaredConstructor(long.class, String.class, int.class, String.class, String.class);
+            Object executor = constructor.newInstance(taskId, taskManagerHost, taskManagerPort, taskFilePath,
+                    taskManagerPeers);
             info("executor instance: " + executor);
 
             info("start task executor");
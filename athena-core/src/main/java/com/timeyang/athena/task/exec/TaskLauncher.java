@@ -0,0 +1,117 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.utill.SystemUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs launch commands of task executors on a bounded pool, so that launching many tasks isn't serialized behind the
+ * scheduler thread. Output of a command is drained line by line while it runs, so a command writing a lot can't
+ * block on a full pipe, and a command running longer than timeout is killed. Launch commands start executors in
+ * background, see {@link com.timeyang.athena.task.TaskType#getTaskCmd}, so timeout bounds starting a task, not
+ * running it.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskLauncher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskLauncher.class);
+
+    private final ExecutorService launchExecutor;
+    private final ExecutorService outputExecutor;
+    private final long timeoutSeconds;
+
+    /**
+     * @param threads        max number of commands running at once
+     * @param timeoutSeconds seconds after which a command is killed and its launch fails
+     */
+    TaskLauncher(int threads, long timeoutSeconds) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.launchExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "task-launcher-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.outputExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "task-launcher-output");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * prepare and run launch command of a task in background
+     *
+     * @param prepare   prepares task and returns its launch command, runs on launcher thread
+     * @param onFailure called on launcher thread if preparing fails, command can't run or exits with non zero code
+     */
+    void launch(long taskId, Callable<String> prepare, Consumer<Throwable> onFailure) {
+        launch(taskId, prepare, () -> { }, onFailure);
+    }
+
+    /**
+     * @param onLaunched called on launcher thread if command exits with zero code. The executor it started in
+     *                   background may still die before it connects
+     */
+    void launch(long taskId, Callable<String> prepare, Runnable onLaunched, Consumer<Throwable> onFailure) {
+        launchExecutor.execute(() -> {
+            try {
+                String cmd = prepare.call();
+                int exitCode = run(taskId, cmd);
+                if (exitCode != 0)
+                    throw new AthenaException(String.format("Launch command of task [%d] exited with code %d, cmd: [%s]",
+                            taskId, exitCode, cmd));
+                LOGGER.info("task_start_cmd of task [{}] executed", taskId);
+            } catch (Throwable e) {
+                LOGGER.error("Launch task [" + taskId + "] failed", e);
+                onFailure.accept(e);
+                return;
+            }
+            onLaunched.run();
+        });
+    }
+
+    private int run(long taskId, String cmd) throws IOException, InterruptedException {
+        LOGGER.info("Starting task. task_start_cmd: [{}]", cmd);
+        // commands chain steps with shell operators
+        ProcessBuilder builder = SystemUtils.IS_WINDOWS ?
+                new ProcessBuilder("cmd", "/c", cmd) : new ProcessBuilder("sh", "-c", cmd);
+        Process process = builder.redirectErrorStream(true).start();
+        // drained apart from waiting, background children of a killed command may hold the pipe open
+        outputExecutor.execute(() -> drain(taskId, process));
+        if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new AthenaException(String.format("Launch command of task [%d] didn't exit in %d seconds, cmd: [%s]",
+                    taskId, timeoutSeconds, cmd));
+        }
+        return process.exitValue();
+    }
+
+    private void drain(long taskId, Process process) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), SystemUtils.ENCODING))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                LOGGER.info("task [{}] cmd output: {}", taskId, line);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Read output of task [" + taskId + "] launch command failed", e);
+        }
+    }
+
+    void stop() {
+        launchExecutor.shutdownNow();
+        outputExecutor.shutdownNow();
+    }
+}
@@ -66,12 +66,12 @@ public class TaskUtils {
 
     public static String getTaskExecCmd(TaskInfo task, String taskRpcHost, int taskRpcPort) {
         Long taskId = task.getTaskId();
-        String params = task.getParams();
+        String params = task.loadParams();
         if (!StringUtils.hasText(params)) {
             params = "";
         }
 
-        String classpath = task.getClasspath() + ";" +
+        String classpath = task.loadClasspath() + ";" +
                 ParametersUtils.fromArgs(params).getOrDefault("extraClasspath", "");
         if (StringUtils.hasText(classpath)) {
             classpath = " -classpath \"" + classpath + "\" ";
@@ -82,10 +82,10 @@ public class TaskUtils {
         params = " --taskId " + taskId
                 + " --taskManagerHost " + taskRpcHost
                 + " --taskManagerPort " + taskRpcPort
+                + getTaskManagerPeersParam()
                 + " --taskFilePath " + getRemoteTaskLogFilePath(taskId)
                 + " " + params;
-        String redirectOut = " >" + getExecTaskDir(taskId) + "/" + TASK_LOG_FILE_NAME
-                + " 2>&1 &";
+        String redirectOut = getBackgroundRedirect(taskId);
         String cmd = "java -server -XX:OnOutOfMemoryError=kill "
                 + classpath
                 + TaskExecutorLauncher.class.getCanonicalName()
@@ -104,6 +104,21 @@ public class TaskUtils {
         return cmd;
     }
 
+    /**
+     * @return redirect of a command to log file of task, which runs the command in background
+     */
+    public static String getBackgroundRedirect(long taskId) {
+        return " >" + getExecTaskDir(taskId) + "/" + TASK_LOG_FILE_NAME + " 2>&1 &";
+    }
+
+    /**
+     * @return param of scheduler peers an executor reconnects to, or empty if no peer is configured
+     */
+    public static String getTaskManagerPeersParam() {
+        String peers = athenaConf.getTaskSchedulerPeers().replaceAll("\\s", "");
+        return StringUtils.hasText(peers) ? " --taskManagerPeers " + peers : "";
+    }
+
     public static String getTaskCmd(TaskInfo task, String taskRpcHost, int taskRpcPort) {
         return task.getTaskType().getTaskCmd(task, taskRpcHost, taskRpcPort);
     }
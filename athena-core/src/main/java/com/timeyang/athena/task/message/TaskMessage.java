@@ -80,6 +80,52 @@ public abstract class TaskMessage {
 
     public static final class HeartBeat extends TaskMessage {}
 
+    /**
+     * load of the host a TaskExecutor runs on, sent periodically as heartbeat
+     */
+    public static final class HostLoad extends ObjectMessage {
+        private final int cpus;
+        private final double loadAverage;
+        private final long memoryTotalMb;
+        private final long memoryAvailableMb;
+
+        public HostLoad(int cpus, double loadAverage, long memoryTotalMb, long memoryAvailableMb) {
+            this.cpus = cpus;
+            this.loadAverage = loadAverage;
+            this.memoryTotalMb = memoryTotalMb;
+            this.memoryAvailableMb = memoryAvailableMb;
+        }
+
+        public int getCpus() {
+            return cpus;
+        }
+
+        /**
+         * @return 1 minute load average, number of runnable processes
+         */
+        public double getLoadAverage() {
+            return loadAverage;
+        }
+
+        public long getMemoryTotalMb() {
+            return memoryTotalMb;
+        }
+
+        public long getMemoryAvailableMb() {
+            return memoryAvailableMb;
+        }
+
+        @Override
+        public String toString() {
+            return "HostLoad{" +
+                    "cpus=" + cpus +
+                    ", loadAverage=" + loadAverage +
+                    ", memoryTotalMb=" + memoryTotalMb +
+                    ", memoryAvailableMb=" + memoryAvailableMb +
+                    '}';
+        }
+    }
+
     public static final class LogQueryRequest extends ObjectMessage {
         private int lineNumber;
         private int rows;
@@ -0,0 +1,68 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.exec.HostLoads;
+import com.timeyang.athena.task.exec.SlotManager;
+import com.timeyang.athena.task.message.TaskMessage.HostLoad;
+
+/**
+ * Places tasks on hosts by the cores and memory they request. Free resources of a host are what it reported through
+ * heartbeats less what tasks placed on it since reserved, as they don't show in the report yet, and no more than its
+ * capacity less what all its tasks reserved, as tasks may not use all they requested yet. Among hosts a task fits on,
+ * the one left with least free resources is chosen, so tasks pack onto busy hosts and large tasks still find an
+ * emptier host.
+ * <p>A host which hasn't reported, as no executor ran on it recently, is only limited by its slots, and chosen
+ * after hosts a task fits on.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class BestFitPlacement {
+    private final SlotManager slotManager;
+    private final HostLoads hostLoads;
+
+    BestFitPlacement(SlotManager slotManager, HostLoads hostLoads) {
+        this.slotManager = slotManager;
+        this.hostLoads = hostLoads;
+    }
+
+    /**
+     * @return host task fits on best, or null if it fits on none now
+     */
+    String place(TaskInfo task) {
+        double cpus = task.getCpus() == null ? TaskInfo.DEFAULT_CPUS : task.getCpus();
+        int memoryMb = task.getMemoryMb() == null ? TaskInfo.DEFAULT_MEMORY_MB : task.getMemoryMb();
+
+        String bestHost = null;
+        double bestScore = Double.MAX_VALUE;
+        String unreportedHost = null;
+        for (String host : slotManager.getHosts()) {
+            if (slotManager.getAvailableSlots(host) <= 0)
+                continue;
+            HostLoads.Report report = hostLoads.get(host);
+            HostLoad load = report == null ? null : report.getLoad();
+            if (load == null || load.getCpus() <= 0 || load.getMemoryTotalMb() <= 0) {
+                // least loaded by slots, as nothing else is known
+                if (unreportedHost == null ||
+                        slotManager.getUsedSlots(host) < slotManager.getUsedSlots(unreportedHost))
+                    unreportedHost = host;
+                continue;
+            }
+
+            long since = report.getReceivedMillis();
+            double freeCpus = load.getCpus() - Math.max(slotManager.getReservedCpus(host),
+                    load.getLoadAverage() + slotManager.getReservedCpus(host, since));
+            double freeMemoryMb = Math.min(
+                    load.getMemoryAvailableMb() - slotManager.getReservedMemoryMb(host, since),
+                    load.getMemoryTotalMb() - slotManager.getReservedMemoryMb(host));
+            if (freeCpus < cpus || freeMemoryMb < memoryMb)
+                continue;
+            // fractions of host left free after placing task
+            double score = (freeCpus - cpus) / load.getCpus() + (freeMemoryMb - memoryMb) / load.getMemoryTotalMb();
+            if (score < bestScore) {
+                bestScore = score;
+                bestHost = host;
+            }
+        }
+        return bestHost != null ? bestHost : unreportedHost;
+    }
+}
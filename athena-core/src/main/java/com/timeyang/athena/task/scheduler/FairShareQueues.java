@@ -0,0 +1,100 @@
+package com.timeyang.athena.task.scheduler;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Shares launches between queues by their weights with stride scheduling. Each queue has a pass which advances by
+ * its stride, inversely proportional to its weight, for every task it launches, and the queue of lowest pass goes
+ * next. So over time each busy queue gets launches in proportion to its weight, and deciding the next queue costs
+ * O(log q) for q queues.
+ * <p>A queue doesn't bank credit while it has no waiting task: when it becomes busy again its pass is moved up to
+ * the pass of last served queue.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class FairShareQueues {
+    private static final long STRIDE_BASE = 1 << 20;
+
+    private final Map<String, Integer> weights;
+    // state below is guarded by this
+    private final Map<String, Long> passes = new HashMap<>();
+    private Set<String> busyQueues = new HashSet<>();
+    /**
+     * pass of last served queue
+     */
+    private long globalPass;
+
+    /**
+     * @param weights weights of queues, queues absent have weight 1
+     */
+    FairShareQueues(Map<String, Integer> weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * split launch slots between queues which have waiting tasks
+     *
+     * @param queues queues which have waiting tasks
+     * @param slots  number of tasks which can be launched
+     * @return number of slots of each queue, in order of first slot
+     */
+    synchronized Map<String, Integer> allocate(Collection<String> queues, int slots) {
+        Map<String, Integer> allocation = new LinkedHashMap<>();
+        if (queues.isEmpty() || slots <= 0)
+            return allocation;
+
+        PriorityQueue<QueuePass> heap = new PriorityQueue<>(queues.size());
+        for (String queue : queues) {
+            long pass = passes.getOrDefault(queue, globalPass);
+            if (!busyQueues.contains(queue))
+                pass = Math.max(pass, globalPass);
+            passes.put(queue, pass);
+            heap.add(new QueuePass(queue, pass));
+        }
+        busyQueues = new HashSet<>(queues);
+
+        for (int i = 0; i < slots; i++) {
+            QueuePass next = heap.poll();
+            allocation.merge(next.queue, 1, Integer::sum);
+            heap.add(new QueuePass(next.queue, next.pass + stride(next.queue)));
+        }
+        return allocation;
+    }
+
+    /**
+     * advance pass of a queue by the tasks it launched, which may be fewer than its slots
+     */
+    synchronized void charge(String queue, int launched) {
+        if (launched <= 0)
+            return;
+        long pass = passes.getOrDefault(queue, globalPass) + launched * stride(queue);
+        passes.put(queue, pass);
+        globalPass = Math.max(globalPass, pass - stride(queue));
+    }
+
+    private long stride(String queue) {
+        return STRIDE_BASE / Math.max(1, weights.getOrDefault(queue, 1));
+    }
+
+    private static final class QueuePass implements Comparable<QueuePass> {
+        private final String queue;
+        private final long pass;
+
+        QueuePass(String queue, long pass) {
+            this.queue = queue;
+            this.pass = pass;
+        }
+
+        @Override
+        public int compareTo(QueuePass o) {
+            int result = Long.compare(pass, o.pass);
+            return result != 0 ? result : queue.compareTo(o.queue);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.utill.jdbc.JdbcUtils;
+import com.timeyang.athena.utill.jdbc.SchemaMigrator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elects one of the instances sharing a database as leader of a role by a lease row in table {@code leader_lease}.
+ * A candidate takes the row if it's expired, or renews it if it holds it already, in one conditional update, so at most
+ * one candidate holds an unexpired lease. Candidates try every third of lease time, so a standby takes over at most a
+ * third of lease time after the lease of a dead leader expired.
+ * <p>A leader counts its lease from before the lease is written, and stops being leader when that time passed
+ * without a renewal, e.g. when database is unreachable, so it stops acting before a standby can take over. Expiry is
+ * compared by clocks of candidates like leases of tasks, so their clocks should be synchronized.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class LeaderElection {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeaderElection.class);
+    static final String LEADER_LEASE_TABLE = "leader_lease";
+    private static final long AWAIT_TERMINATION_SECONDS = 5;
+
+    private static final String RENEW_SQL = "UPDATE " + LEADER_LEASE_TABLE + " SET owner = ?, expiry = ? " +
+            "WHERE role = ? AND (owner = ? OR expiry < ?)";
+    private static final String SELECT_SQL = "SELECT owner FROM " + LEADER_LEASE_TABLE + " WHERE role = ?";
+    private static final String INSERT_SQL = "INSERT INTO " + LEADER_LEASE_TABLE + "(role, owner, expiry) " +
+            "VALUES(?, ?, ?)";
+    private static final String RELEASE_SQL = "UPDATE " + LEADER_LEASE_TABLE + " SET expiry = ? " +
+            "WHERE role = ? AND owner = ?";
+
+    private final DataSource dataSource;
+    private final String role;
+    private final String candidateId;
+    private final Duration leaseTime;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "leader-election");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean leader;
+    /**
+     * {@link System#nanoTime()} the lease held by this candidate expires at
+     */
+    private volatile long leaseDeadline;
+    private volatile Runnable electedListener;
+
+    /**
+     * @param role        what leader is elected for, candidates of different roles don't compete
+     * @param candidateId id of this candidate, a restarted candidate with the same id gets its lease back
+     * @param leaseTime   time until lease expires if leader stops renewing it
+     */
+    public LeaderElection(DataSource dataSource, String role, String candidateId, Duration leaseTime) {
+        this.dataSource = dataSource;
+        this.role = role;
+        this.candidateId = candidateId;
+        this.leaseTime = leaseTime;
+        new SchemaMigrator(LEADER_LEASE_TABLE)
+                .add(1, "create leader lease table", this::createTable)
+                .migrate(dataSource);
+    }
+
+    private void createTable(Connection connection) {
+        String sql = "CREATE TABLE " + LEADER_LEASE_TABLE +
+                "(" +
+                "role VARCHAR(100) PRIMARY KEY, " +
+                "owner VARCHAR(255) NOT NULL, " +
+                "expiry TIMESTAMP NOT NULL" +
+                ")";
+        if (JdbcUtils.createTableIfAbsent(connection, LEADER_LEASE_TABLE, sql))
+            LOGGER.info("Created table " + LEADER_LEASE_TABLE);
+    }
+
+    /**
+     * called on election thread after this candidate became leader, must not block
+     */
+    public void setElectedListener(Runnable electedListener) {
+        this.electedListener = electedListener;
+    }
+
+    /**
+     * try to become leader now, then keep trying or renewing in background
+     */
+    public void start() {
+        elect();
+        long intervalMillis = Math.max(1, leaseTime.toMillis() / 3);
+        executor.scheduleWithFixedDelay(this::elect, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Candidate [{}] of {} started, leader: {}", candidateId, role, leader);
+    }
+
+    /**
+     * stop trying, and give the lease up if held, so a standby takes over without waiting for expiry
+     */
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(AWAIT_TERMINATION_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (leader) {
+            leader = false;
+            try {
+                JdbcUtils.update(dataSource, RELEASE_SQL, Instant.now(), role, candidateId);
+                LOGGER.info("Candidate [{}] released leader lease of {}", candidateId, role);
+            } catch (Exception e) {
+                LOGGER.warn("Release leader lease of " + role + " failed, it expires instead", e);
+            }
+        }
+    }
+
+    /**
+     * @return whether this candidate holds an unexpired lease
+     */
+    public boolean isLeader() {
+        return leader && System.nanoTime() - leaseDeadline < 0;
+    }
+
+    public String getCandidateId() {
+        return candidateId;
+    }
+
+    private void elect() {
+        // catch all, or else subsequent runs are suppressed
+        try {
+            long start = System.nanoTime();
+            boolean held = acquire(Instant.now());
+            if (held)
+                leaseDeadline = start + leaseTime.toNanos();
+            setLeader(held);
+        } catch (Exception e) {
+            LOGGER.error("Acquire leader lease of " + role + " failed", e);
+            if (!isLeader())
+                setLeader(false);
+        }
+    }
+
+    /**
+     * renew lease held by this candidate or take an expired one, or create lease row if no candidate created it
+     *
+     * @return whether lease is held by this candidate now
+     */
+    boolean acquire(Instant now) {
+        Instant expiry = now.plus(leaseTime);
+        if (JdbcUtils.update(dataSource, RENEW_SQL, candidateId, expiry, role, candidateId, now) > 0)
+            return true;
+        if (!JdbcUtils.query(dataSource, SELECT_SQL, (rs, rowNum) -> rs.getString(1), role).isEmpty())
+            return false;
+        try {
+            JdbcUtils.update(dataSource, INSERT_SQL, role, candidateId, expiry);
+            return true;
+        } catch (AthenaException e) {
+            // another candidate created it first
+            if (e.getCause() instanceof SQLException && JdbcUtils.isUniqueViolation((SQLException) e.getCause()))
+                return false;
+            throw e;
+        }
+    }
+
+    private void setLeader(boolean held) {
+        if (held == leader)
+            return;
+        leader = held;
+        if (held) {
+            LOGGER.info("Candidate [{}] became leader of {}", candidateId, role);
+            Runnable listener = electedListener;
+            if (listener != null)
+                listener.run();
+        } else {
+            LOGGER.warn("Candidate [{}] is no longer leader of {}", candidateId, role);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the wait before retrying a failed try. The wait starts from the task's own retry wait, is multiplied by
+ * {@code multiplier} for each further failed try and capped at {@code maxWaitSeconds}. A random part of the wait,
+ * up to {@code jitter} of it, is taken off, so tasks which failed together, e.g. when a host was lost, don't retry
+ * together.
+ *
+ * @author https://github.com/chaokunyang
+ */
+class RetryBackoff {
+    private final long defaultWaitSeconds;
+    private final double multiplier;
+    private final long maxWaitSeconds;
+    private final double jitter;
+
+    /**
+     * @param defaultWaitSeconds wait of tasks which have no retry wait
+     * @param multiplier         growth of wait per failed try, 1 for a fixed wait
+     * @param maxWaitSeconds     max wait before jitter
+     * @param jitter             fraction of wait which is random, between 0 and 1
+     */
+    RetryBackoff(long defaultWaitSeconds, double multiplier, long maxWaitSeconds, double jitter) {
+        this.defaultWaitSeconds = defaultWaitSeconds;
+        this.multiplier = Math.max(1, multiplier);
+        this.maxWaitSeconds = maxWaitSeconds;
+        this.jitter = Math.min(1, Math.max(0, jitter));
+    }
+
+    /**
+     * @param task     task to retry
+     * @param tryNumber number of the try which failed, starting from 1
+     */
+    Duration delay(TaskInfo task, int tryNumber) {
+        long waitSeconds = task.getRetryWait() == null ? defaultWaitSeconds : task.getRetryWait();
+        double waitMillis = Math.min(waitSeconds * 1000 * Math.pow(multiplier, Math.max(0, tryNumber - 1)),
+                Math.max(waitSeconds, maxWaitSeconds) * 1000.0);
+        double random = ThreadLocalRandom.current().nextDouble();
+        return Duration.ofMillis((long) (waitMillis * (1 - jitter * random)));
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskRepository;
+import com.timeyang.athena.task.TaskSchedule;
+import com.timeyang.athena.task.TaskSchedule.MisfirePolicy;
+import com.timeyang.athena.utill.HashedTimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires recurring schedules from a {@link HashedTimingWheel} on a dedicated thread. The thread sleeps until next tick,
+ * so a tick costs the visit of one bucket however many schedules there are, and a schedule fires at most a tick after
+ * its fire time. Each fire creates its tasks and advances the schedule's next fire time in one repository call, which
+ * only succeeds if the schedule is still at the fire time, so when several instances load a schedule exactly one of
+ * them fires it, and the others reload it.
+ * <p>A schedule firing later than misfire threshold, e.g. after downtime, follows its {@link MisfirePolicy}, and
+ * then continues from the first fire time after now. Schedules are reloaded from repository periodically to pick up
+ * schedules created and deleted by other instances.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class ScheduleWheel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleWheel.class);
+
+    private final TaskRepository taskRepository;
+    private final HashedTimingWheel<Long> wheel;
+    private final Duration misfireThreshold;
+    private final int catchUpMax;
+    private final long reloadMillis;
+    /**
+     * called after a fire submitted tasks
+     */
+    private final Runnable submitListener;
+    private final Map<Long, TaskSchedule> schedules = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    ScheduleWheel(TaskRepository taskRepository, long tickMillis, int wheelSize, Duration misfireThreshold,
+                  int catchUpMax, long reloadMillis, Runnable submitListener) {
+        this.taskRepository = taskRepository;
+        this.wheel = new HashedTimingWheel<>(tickMillis, wheelSize, System.currentTimeMillis());
+        this.misfireThreshold = misfireThreshold;
+        this.catchUpMax = catchUpMax;
+        this.reloadMillis = reloadMillis;
+        this.submitListener = submitListener;
+        this.thread = new Thread(this::run, "task-schedule-wheel");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * add or replace a schedule, a schedule whose fire time passed fires on next tick
+     */
+    void add(TaskSchedule schedule) {
+        long scheduleId = schedule.getScheduleId();
+        schedules.put(scheduleId, schedule);
+        if (schedule.getNextFireTime() == null)
+            wheel.cancel(scheduleId);
+        else
+            wheel.schedule(scheduleId, scheduleId, schedule.getNextFireTime().toEpochMilli());
+    }
+
+    void remove(long scheduleId) {
+        schedules.remove(scheduleId);
+        wheel.cancel(scheduleId);
+    }
+
+    int size() {
+        return schedules.size();
+    }
+
+    /**
+     * replace schedules by those in repository
+     */
+    void reload() {
+        List<TaskSchedule> loaded = taskRepository.getSchedules();
+        Set<Long> removed = new HashSet<>(schedules.keySet());
+        for (TaskSchedule schedule : loaded) {
+            removed.remove(schedule.getScheduleId());
+            add(schedule);
+        }
+        removed.forEach(this::remove);
+    }
+
+    private void run() {
+        long nextReload = 0;
+        while (!stopped) {
+            try {
+                long now = System.currentTimeMillis();
+                if (now >= nextReload) {
+                    reload();
+                    nextReload = now + reloadMillis;
+                }
+                for (Long scheduleId : wheel.advance(now)) {
+                    fire(scheduleId, Instant.now());
+                }
+            } catch (Exception e) {
+                // catch all, or else wheel thread dies
+                LOGGER.error("Fire task schedules failed", e);
+            }
+            long sleepMillis = wheel.nextTickMillis() - System.currentTimeMillis();
+            try {
+                if (sleepMillis > 0)
+                    Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        LOGGER.info("Task schedule wheel stopped");
+    }
+
+    /**
+     * fire a schedule whose fire time came, submitting tasks by its misfire policy if it's late
+     *
+     * @return number of tasks submitted, 0 if another instance fired it first
+     */
+    int fire(long scheduleId, Instant now) {
+        TaskSchedule schedule = schedules.get(scheduleId);
+        if (schedule == null || schedule.getNextFireTime() == null)
+            return 0;
+
+        Instant fireTime = schedule.getNextFireTime();
+        List<WaitingTask> tasks = new ArrayList<>();
+        Instant nextFireTime;
+        if (Duration.between(fireTime, now).compareTo(misfireThreshold) <= 0) {
+            tasks.add(schedule.newTask(now));
+            // fire times passed meanwhile fire on next ticks
+            nextFireTime = schedule.fireTimeAfter(fireTime);
+        } else {
+            LOGGER.info("Task schedule [{}] misfired at {}, apply {}", scheduleId, fireTime,
+                    schedule.getMisfirePolicy());
+            switch (schedule.getMisfirePolicy()) {
+                case CATCH_UP:
+                    for (Instant time = fireTime; time != null && !time.isAfter(now) && tasks.size() < catchUpMax;
+                         time = schedule.fireTimeAfter(time)) {
+                        tasks.add(schedule.newTask(now));
+                    }
+                    break;
+                case SKIP:
+                    break;
+                case FIRE_ONCE:
+                default:
+                    tasks.add(schedule.newTask(now));
+                    break;
+            }
+            nextFireTime = schedule.fireTimeAfter(now);
+        }
+
+        if (!taskRepository.fireSchedule(scheduleId, fireTime, nextFireTime, now, tasks)) {
+            LOGGER.info("Task schedule [{}] was fired or changed elsewhere, reload it", scheduleId);
+            TaskSchedule current = taskRepository.getSchedule(scheduleId);
+            if (current == null)
+                remove(scheduleId);
+            else
+                add(current);
+            return 0;
+        }
+
+        schedule.setNextFireTime(nextFireTime);
+        schedule.setLastFireTime(now);
+        // unless removed or replaced by a reload meanwhile
+        if (schedules.get(scheduleId) == schedule)
+            add(schedule);
+        if (!tasks.isEmpty()) {
+            LOGGER.info("Task schedule [{}] submitted {} tasks", scheduleId, tasks.size());
+            submitListener.run();
+        }
+        return tasks.size();
+    }
+}
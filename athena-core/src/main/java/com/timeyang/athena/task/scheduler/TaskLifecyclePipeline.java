@@ -0,0 +1,287 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskRepository;
+import com.timeyang.athena.task.TaskTransition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Persists task lifecycle events on a dedicated writer thread, so callers such as netty event loops never wait for
+ * storage. The writer takes all queued events up to batch size, reads their tasks in one query, decides transitions
+ * in arrival order and applies them in one transaction. Events queued while a batch is being committed form the
+ * next batch, so batches grow with load and each event costs a share of a commit.
+ * <p>Actions depending on a transition, like collecting logs or scheduling a retry, run on the writer thread after
+ * commit, then the event's future completes. A batch which still can't be committed after a few attempts fails
+ * futures of its events, their transitions are dropped and callers recover from it.</p>
+ * <p>When the queue is full, events are handed to an overflow thread which waits for room, so callers still don't
+ * block. Events submitted while the overflow thread has events follow them, so events of a task stay in order.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+class TaskLifecyclePipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskLifecyclePipeline.class);
+    private static final int MAX_COMMIT_ATTEMPTS = 3;
+    private static final long COMMIT_RETRY_WAIT_MILLIS = 100;
+    private static final Event STOP = new Event(-1, task -> Decision.none());
+
+    private final TaskRepository taskRepository;
+    private final int batchSize;
+    private final BlockingQueue<Event> queue;
+    private final Thread writer;
+    private final ExecutorService overflow = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "task-lifecycle-overflow");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * events handed to overflow thread and not queued yet
+     */
+    private final AtomicInteger overflowing = new AtomicInteger();
+    private volatile boolean stopped;
+
+    TaskLifecyclePipeline(TaskRepository taskRepository, int batchSize, int queueCapacity) {
+        this.taskRepository = taskRepository;
+        this.batchSize = batchSize;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this::run, "task-lifecycle-writer");
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * persist queued events, then stop the writer
+     */
+    void stop() {
+        stopped = true;
+        try {
+            overflow.shutdown();
+            overflow.awaitTermination(1, TimeUnit.MINUTES);
+            queue.put(STOP);
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive())
+            LOGGER.warn("Task lifecycle writer didn't stop in time, {} events not persisted", queue.size());
+    }
+
+    /**
+     * queue an event of a task without blocking
+     *
+     * @param taskId  task id
+     * @param handler decides transition from current state of task
+     * @return future completed after transition is committed and its follow-up action is done
+     */
+    CompletableFuture<Void> submit(long taskId, Handler handler) {
+        Event event = new Event(taskId, handler);
+        if (stopped) {
+            event.future.completeExceptionally(new AthenaException("Task lifecycle pipeline stopped"));
+            return event.future;
+        }
+        if (overflowing.get() == 0 && queue.offer(event))
+            return event.future;
+
+        LOGGER.warn("Task lifecycle queue is full, wait for writer on overflow thread. task id: {}", taskId);
+        overflowing.incrementAndGet();
+        try {
+            overflow.execute(() -> {
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    event.future.completeExceptionally(e);
+                } finally {
+                    overflowing.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            overflowing.decrementAndGet();
+            event.future.completeExceptionally(new AthenaException("Task lifecycle pipeline stopped"));
+        }
+        return event.future;
+    }
+
+    private void run() {
+        List<Event> batch = new ArrayList<>(batchSize);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                break;
+            }
+            running = !batch.remove(STOP);
+            if (!batch.isEmpty())
+                process(batch);
+            batch.clear();
+        }
+        LOGGER.info("Task lifecycle writer stopped");
+    }
+
+    private void process(List<Event> batch) {
+        Map<Long, TaskInfo> tasks;
+        try {
+            List<Long> taskIds = batch.stream().map(event -> event.taskId).distinct().collect(Collectors.toList());
+            tasks = new HashMap<>(taskRepository.getTasks(taskIds));
+        } catch (Exception e) {
+            LOGGER.error("Load tasks of " + batch.size() + " lifecycle events failed", e);
+            batch.forEach(event -> event.future.completeExceptionally(e));
+            return;
+        }
+
+        List<Event> decided = new ArrayList<>(batch.size());
+        List<TaskTransition> transitions = new ArrayList<>(batch.size());
+        Map<Event, Integer> transitionIndexes = new HashMap<>();
+        for (Event event : batch) {
+            try {
+                event.decision = event.handler.handle(tasks.get(event.taskId));
+            } catch (Exception e) {
+                LOGGER.error("Handle lifecycle event of task [" + event.taskId + "] failed", e);
+                event.future.completeExceptionally(e);
+                continue;
+            }
+            TaskTransition transition = event.decision.transition;
+            if (transition != null) {
+                transitionIndexes.put(event, transitions.size());
+                transitions.add(transition);
+                // later events of the task in this batch see the state after transition
+                tasks.put(event.taskId, transition.getTask());
+            }
+            decided.add(event);
+        }
+
+        int[] counts;
+        try {
+            counts = commit(transitions);
+        } catch (Exception e) {
+            LOGGER.error("Persist " + transitions.size() + " task transitions failed", e);
+            decided.forEach(event -> event.future.completeExceptionally(e));
+            return;
+        }
+
+        for (Event event : decided) {
+            try {
+                Integer index = transitionIndexes.get(event);
+                Runnable action = index != null && counts[index] == 0 ? event.decision.notApplied
+                        : event.decision.afterCommit;
+                if (action != null)
+                    action.run();
+                event.future.complete(null);
+            } catch (Exception e) {
+                LOGGER.error("Follow-up action of task [" + event.taskId + "] failed", e);
+                event.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * transitions are applied atomically, so a failed commit can be retried as a whole
+     */
+    private int[] commit(List<TaskTransition> transitions) throws InterruptedException {
+        if (transitions.isEmpty())
+            return new int[0];
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int[] counts = taskRepository.applyTransitions(transitions);
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 0)
+                        continue;
+                    TaskTransition transition = transitions.get(i);
+                    if (transition.getLeaseOwner() != null)
+                        LOGGER.warn("Task transition {} doesn't match task state or {} lost lease of task, ignored",
+                                transition, transition.getLeaseOwner());
+                    else
+                        LOGGER.warn("Task transition {} doesn't match task state, ignored", transition);
+                }
+                return counts;
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_COMMIT_ATTEMPTS)
+                    throw e;
+                LOGGER.warn("Persist task transitions failed, retry it, attempt: " + attempt, e);
+                Thread.sleep(COMMIT_RETRY_WAIT_MILLIS * attempt);
+            }
+        }
+    }
+
+    /**
+     * decides what an event does to its task
+     */
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * @param task current state of task after earlier events, null if task doesn't exist or is archived
+         */
+        Decision handle(TaskInfo task);
+    }
+
+    static final class Decision {
+        private final TaskTransition transition;
+        private final Runnable afterCommit;
+        private final Runnable notApplied;
+
+        private Decision(TaskTransition transition, Runnable afterCommit, Runnable notApplied) {
+            this.transition = transition;
+            this.afterCommit = afterCommit;
+            this.notApplied = notApplied;
+        }
+
+        static Decision none() {
+            return new Decision(null, null, null);
+        }
+
+        /**
+         * @param afterCommit action run after commit, may be null
+         */
+        static Decision of(TaskTransition transition, Runnable afterCommit) {
+            return new Decision(transition, afterCommit, null);
+        }
+
+        /**
+         * @param afterCommit action run after commit, may be null
+         * @param notApplied  action run instead of afterCommit when transition didn't affect task, e.g. lease of task
+         *                    was lost. May be null
+         */
+        static Decision of(TaskTransition transition, Runnable afterCommit, Runnable notApplied) {
+            return new Decision(transition, afterCommit, notApplied);
+        }
+
+        /**
+         * no transition, but an action runs after events before it are committed
+         */
+        static Decision then(Runnable action) {
+            return new Decision(null, action, null);
+        }
+    }
+
+    private static final class Event {
+        private final long taskId;
+        private final Handler handler;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private Decision decision;
+
+        Event(long taskId, Handler handler) {
+            this.taskId = taskId;
+            this.handler = handler;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.timeyang.athena.task.scheduler;
 
 import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskSchedule;
 
 import java.util.List;
 import java.util.concurrent.Future;
@@ -14,7 +15,29 @@ public interface TaskScheduler {
 
     void stop();
 
-    void schedule(TaskInfo taskInfo);
+    /**
+     * launch a task
+     *
+     * @return false if no slot is free, task isn't launched
+     */
+    boolean schedule(TaskInfo taskInfo);
+
+    /**
+     * signal that waiting tasks were submitted, so they are launched without waiting for next poll
+     */
+    void wakeUp();
+
+    /**
+     * fire a persisted schedule from its next fire time on, replacing a schedule of the same id
+     */
+    void addSchedule(TaskSchedule schedule);
+
+    void removeSchedule(long scheduleId);
+
+    /**
+     * @return whether this instance launches tasks, false while it stands by for the leader of other instances
+     */
+    boolean isLeader();
 
     boolean isTaskRunning(long taskId);
 
@@ -6,30 +6,58 @@ import com.timeyang.athena.task.TaskInfo.FinishedTask;
 import com.timeyang.athena.task.TaskInfo.RunningTask;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
 import com.timeyang.athena.task.TaskRepository;
+import com.timeyang.athena.task.TaskSchedule;
 import com.timeyang.athena.task.TaskState;
+import com.timeyang.athena.task.TaskTransition;
+import com.timeyang.athena.task.exec.HostLoads;
 import com.timeyang.athena.task.exec.LogManager;
+import com.timeyang.athena.task.exec.SlotManager;
 import com.timeyang.athena.task.exec.TaskBackend;
 import com.timeyang.athena.task.exec.TaskCallback;
-import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.task.scheduler.TaskLifecyclePipeline.Decision;
 import com.timeyang.athena.utill.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Launches waiting tasks on a dedicated scheduler thread. Submits to this instance and finished tasks wake the thread
+ * up, which then leases and launches waiting tasks in batches until they run out or no slot of {@link SlotManager}
+ * is free, so tasks beyond global and per host limits stay waiting until running tasks finish. Tasks are placed on
+ * hosts by {@link BestFitPlacement}. Tasks submitted through other instances are found by polling, whose interval
+ * doubles from {@code task.scheduler.poll.min.ms} up to {@code task.scheduler.poll.max.ms} while polls find nothing.
+ * <p>Launches of a batch are split between queues by {@link FairShareQueues}, and each queue launches its highest
+ * priority tasks first.</p>
+ * <p>Recurring schedules submit their tasks from {@link ScheduleWheel}, which wakes this scheduler up.</p>
+ * <p>A failed try is retried after a wait computed by {@link RetryBackoff}. Its retry time is persisted and its lease
+ * released, and due retries are claimed and launched before waiting tasks of each batch, by any instance, so retries
+ * survive restarts and take free slots like other tasks instead of firing all at once.</p>
+ * <p>With a {@link LeaderElection}, only the leader launches tasks and checks running tasks. Standbys refresh their
+ * task registry every leader lease time, and again when they take over. Executors launched by a dead leader
+ * reconnect to the new one, which adopts their tasks instead of launching them again, and running tasks without
+ * executor are only relaunched after executors had a heartbeat timeout to reconnect.</p>
+ *
  * @author https://github.com/chaokunyang
  */
 public class TaskSchedulerImpl implements TaskScheduler {
     private static final Logger LOGGER = LoggerFactory.getLogger(TaskSchedulerImpl.class);
-    private static final long SCHEDULE_INTERVAL_SECONDS = 1;
     private static final long AWAIT_TERMINATION_SECONDS = 5;
     private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(2);
 
@@ -37,31 +65,127 @@ public class TaskSchedulerImpl implements TaskScheduler {
     private final TaskRepository taskRepository;
     private final TaskBackend taskBackend;
     private final LogManager logManager;
+    private final TaskLifecyclePipeline lifecyclePipeline;
+    /**
+     * null if this instance always schedules
+     */
+    private final LeaderElection leaderElection;
+    private final long standbyRefreshMillis;
+    private final long reconcileMillis;
+    /**
+     * running tasks aren't relaunched before this time, so executors of previous leader can reconnect
+     */
+    private volatile long reconcileUntilMillis = Long.MAX_VALUE;
+    private final String schedulerId;
+    private final Duration leaseTime;
+    /**
+     * tasks this scheduler launched or is launching, whose leases are renewed until they finish
+     */
+    private final Set<Long> leasedTaskIds = ConcurrentHashMap.newKeySet();
+    private final SlotManager slotManager;
+    private final BestFitPlacement placement;
+    private final int batchSize;
+    private final long pollMinMillis;
+    private final long pollMaxMillis;
+    private final FairShareQueues fairShareQueues;
+    private final RetryBackoff retryBackoff;
+    private final ScheduleWheel scheduleWheel;
+    private final Thread scheduleThread;
+    private final Object wakeUpMonitor = new Object();
+    // guarded by wakeUpMonitor
+    private boolean wakeUpRequested;
+    private volatile boolean stopped;
 
     public TaskSchedulerImpl(AthenaConf athenaConf,
                              TaskRepository taskRepository) {
+        this(athenaConf, taskRepository, null);
+    }
+
+    /**
+     * @param leaderElection election of scheduler leader among instances, null if this instance always schedules
+     */
+    public TaskSchedulerImpl(AthenaConf athenaConf,
+                             TaskRepository taskRepository,
+                             LeaderElection leaderElection) {
+        this(athenaConf, taskRepository, leaderElection,
+                new HostLoads(TimeUnit.SECONDS.toMillis(athenaConf.getTaskHeartbeatTimeout())));
+    }
+
+    /**
+     * @param hostLoads loads reported by executors of hosts
+     */
+    TaskSchedulerImpl(AthenaConf athenaConf,
+                      TaskRepository taskRepository,
+                      LeaderElection leaderElection,
+                      HostLoads hostLoads) {
         this.athenaConf = athenaConf;
         this.taskRepository = taskRepository;
+        this.leaderElection = leaderElection;
+        this.standbyRefreshMillis = TimeUnit.SECONDS.toMillis(athenaConf.getTaskSchedulerLeaderLeaseSeconds());
+        this.reconcileMillis = TimeUnit.SECONDS.toMillis(athenaConf.getTaskHeartbeatTimeout());
+        this.schedulerId = athenaConf.getTaskSchedulerId();
+        this.leaseTime = Duration.ofSeconds(athenaConf.getTaskLeaseSeconds());
+        this.slotManager = new SlotManager(athenaConf.getTaskSchedulerMaxRunning(), athenaConf::getTaskHostSlots);
+        for (String host : athenaConf.getTaskHosts()) {
+            this.slotManager.addHost(host);
+        }
+        this.slotManager.setReleaseListener(this::wakeUp);
+        this.placement = new BestFitPlacement(slotManager, hostLoads);
+        this.batchSize = athenaConf.getTaskSchedulerBatchSize();
+        this.pollMinMillis = athenaConf.getTaskSchedulerPollMinMillis();
+        this.pollMaxMillis = Math.max(pollMinMillis, athenaConf.getTaskSchedulerPollMaxMillis());
+        this.fairShareQueues = new FairShareQueues(athenaConf.getTaskQueueWeights());
+        this.retryBackoff = new RetryBackoff(athenaConf.getDefaultTaskRetryWait(),
+                athenaConf.getTaskRetryBackoffMultiplier(), athenaConf.getTaskRetryMaxWaitSeconds(),
+                athenaConf.getTaskRetryJitter());
+        this.scheduleWheel = new ScheduleWheel(taskRepository, athenaConf.getTaskScheduleWheelTickMillis(),
+                athenaConf.getTaskScheduleWheelSize(),
+                Duration.ofSeconds(athenaConf.getTaskScheduleMisfireThresholdSeconds()),
+                athenaConf.getTaskScheduleCatchUpMax(),
+                TimeUnit.SECONDS.toMillis(athenaConf.getTaskScheduleReloadSeconds()), this::wakeUp);
+        this.scheduleThread = new Thread(this::runScheduleLoop, "task-scheduler");
+        this.scheduleThread.setDaemon(true);
+        this.lifecyclePipeline = new TaskLifecyclePipeline(taskRepository,
+                athenaConf.getTaskLifecycleBatchSize(), athenaConf.getTaskLifecycleQueueCapacity());
 
         TaskCallback callback = new TaskCallbackImpl();
-        this.taskBackend = new TaskBackend(athenaConf, callback);
+        this.taskBackend = new TaskBackend(athenaConf, callback, slotManager, hostLoads);
         this.logManager = new LogManager(athenaConf);
     }
 
     @Override
     public void start() {
+        lifecyclePipeline.start();
         taskBackend.start();
+        if (leaderElection != null) {
+            leaderElection.setElectedListener(this::wakeUp);
+            leaderElection.start();
+        }
+        scheduleThread.start();
+        scheduleWheel.start();
+        // renew leases several times before they expire
+        long renewInterval = Math.max(1, leaseTime.getSeconds() / 3);
         scheduledExecutorService.scheduleWithFixedDelay(
-                this::scheduleWaitingTasks, 0, SCHEDULE_INTERVAL_SECONDS, TimeUnit.SECONDS);
-        LOGGER.info("Task scheduler started");
-        checkRunningTasks();
+                this::renewLeases, renewInterval, renewInterval, TimeUnit.SECONDS);
+        // restart running tasks of this instance after restart, and tasks of instances which stopped renewing leases
+        scheduledExecutorService.scheduleWithFixedDelay(
+                this::checkRunningTasks, 0, leaseTime.getSeconds(), TimeUnit.SECONDS);
+        LOGGER.info("Task scheduler [{}] started", schedulerId);
     }
 
     @Override
     public void stop() {
+        stopped = true;
+        scheduleThread.interrupt();
+        // a standby takes over without waiting for lease expiry
+        if (leaderElection != null)
+            leaderElection.stop();
+        scheduleWheel.stop();
         taskBackend.stop();
+        lifecyclePipeline.stop();
         scheduledExecutorService.shutdown();
         try {
+            scheduleThread.join(TimeUnit.SECONDS.toMillis(AWAIT_TERMINATION_SECONDS));
             scheduledExecutorService.awaitTermination(AWAIT_TERMINATION_SECONDS, TimeUnit.SECONDS);
             LOGGER.info("Task scheduler stopped");
         } catch (InterruptedException e) {
@@ -70,12 +194,38 @@ public class TaskSchedulerImpl implements TaskScheduler {
     }
 
     @Override
-    public void schedule(TaskInfo task) {
+    public boolean schedule(TaskInfo task) {
         if (!StringUtils.hasText(task.getHost())) {
-            task.setHost(getTaskHost(task));
+            String host = placement.place(task);
+            if (host == null)
+                return false;
+            task.setHost(host);
+        }
+
+        return this.taskBackend.runTask(task);
+    }
+
+    @Override
+    public void wakeUp() {
+        synchronized (wakeUpMonitor) {
+            wakeUpRequested = true;
+            wakeUpMonitor.notifyAll();
         }
+    }
+
+    @Override
+    public void addSchedule(TaskSchedule schedule) {
+        scheduleWheel.add(schedule);
+    }
+
+    @Override
+    public void removeSchedule(long scheduleId) {
+        scheduleWheel.remove(scheduleId);
+    }
 
-        this.taskBackend.runTask(task);
+    @Override
+    public boolean isLeader() {
+        return leaderElection == null || leaderElection.isLeader();
     }
 
     @Override
@@ -93,6 +243,7 @@ public class TaskSchedulerImpl implements TaskScheduler {
                 finishedTask.setState(TaskState.FAILED);
 
                 taskRepository.moveToFinished(finishedTask);
+                released(taskId);
                 LOGGER.info("task [{}] killed", taskId);
             }
         });
@@ -107,39 +258,250 @@ public class TaskSchedulerImpl implements TaskScheduler {
         }
     }
 
-    private void scheduleWaitingTasks() {
-        List<Page.Sort> sorts = Collections.singletonList(
-                new Page.Sort("submit_time", Page.Order.ASC));
-        Page page = new Page(0, 10, sorts);
-        List<WaitingTask> waitingTasks = taskRepository
-                .getWaitingTasks(page)
-                .getElements();
+    private void runScheduleLoop() {
+        long pollMillis = pollMinMillis;
+        boolean leading = false;
+        long nextRefresh = 0;
+        while (!stopped) {
+            if (isLeader()) {
+                if (!leading)
+                    leading = takeOver();
+                int launched = leading ? scheduleWaitingTasks() : 0;
+                pollMillis = launched > 0 ? pollMinMillis : Math.min(pollMillis * 2, pollMaxMillis);
+            } else {
+                if (leading) {
+                    reconcileUntilMillis = Long.MAX_VALUE;
+                    LOGGER.warn("Task scheduler [{}] lost leadership, stand by", schedulerId);
+                }
+                leading = false;
+                if (System.currentTimeMillis() >= nextRefresh) {
+                    refreshStandby();
+                    nextRefresh = System.currentTimeMillis() + standbyRefreshMillis;
+                }
+                pollMillis = pollMaxMillis;
+            }
+            try {
+                awaitWakeUp(pollMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        LOGGER.info("Task scheduler [{}] stopped scheduling waiting tasks", schedulerId);
+    }
 
-        waitingTasks.forEach(task -> {
-            // response thread interrupt
-            if(!Thread.currentThread().isInterrupted())
-                schedule(task);
-        });
+    /**
+     * reload task registry, which previous leader changed behind it, and give executors launched by previous leader
+     * time to reconnect before their tasks are relaunched
+     *
+     * @return false if registry can't be reloaded, it's tried again on next loop
+     */
+    private boolean takeOver() {
+        try {
+            taskRepository.refresh();
+        } catch (Exception e) {
+            LOGGER.error("Refresh task registry on take over failed", e);
+            return false;
+        }
+        reconcileUntilMillis = System.currentTimeMillis() + reconcileMillis;
+        LOGGER.info("Task scheduler [{}] is leader, running tasks are checked after {} ms", schedulerId,
+                reconcileMillis);
+        return true;
     }
 
-    private void checkRunningTasks() {
-        List<RunningTask> tasks = taskRepository.getAllRunningTasks();
-        tasks.forEach(task -> {
-            // if task is not running(maybe system restarted), schedule the task
-            if (!taskBackend.isTaskRunning(task.getTaskId())) {
-                LOGGER.info("task {} in table {} is not running, start it", task.getTaskId(), TaskRepository.RUNNING_TASK_TABLE);
-                schedule(task);
+    /**
+     * keep task registry of a standby close to state of repository, so taking over reloads few tasks
+     */
+    private void refreshStandby() {
+        try {
+            taskRepository.refresh();
+        } catch (Exception e) {
+            LOGGER.error("Refresh task registry of standby failed", e);
+        }
+    }
+
+    private void awaitWakeUp(long timeoutMillis) throws InterruptedException {
+        synchronized (wakeUpMonitor) {
+            if (!wakeUpRequested)
+                wakeUpMonitor.wait(timeoutMillis);
+            wakeUpRequested = false;
+        }
+    }
+
+    /**
+     * lease due retries and waiting tasks and launch them until none is left or this scheduler runs at capacity,
+     * tasks leased by other instances are skipped. A queue whose task can't be placed on any host gets no more tasks
+     * this round, and leases of tasks not launched are released
+     *
+     * @return number of tasks launched
+     */
+    int scheduleWaitingTasks() {
+        int launched = 0;
+        // catch all, or else scheduler thread dies
+        try {
+            launched = scheduleDueRetries();
+            Set<String> queues = taskRepository.getWaitingQueues();
+            while (!stopped && !queues.isEmpty()) {
+                int slots = Math.min(batchSize, slotManager.getAvailableSlots());
+                if (slots <= 0)
+                    break;
+                for (Map.Entry<String, Integer> entry : fairShareQueues.allocate(queues, slots).entrySet()) {
+                    String queue = entry.getKey();
+                    List<WaitingTask> waitingTasks =
+                            taskRepository.claimWaitingTasks(schedulerId, queue, entry.getValue(), leaseTime);
+                    fairShareQueues.charge(queue, waitingTasks.size());
+                    List<Long> unlaunched = new ArrayList<>();
+                    for (WaitingTask task : waitingTasks) {
+                        leasedTaskIds.add(task.getTaskId());
+                        if (schedule(task)) {
+                            launched++;
+                        } else {
+                            leasedTaskIds.remove(task.getTaskId());
+                            unlaunched.add(task.getTaskId());
+                            LOGGER.info("No host has slot and resources for task [{}], leave it waiting",
+                                    task.getTaskId());
+                        }
+                    }
+                    release(unlaunched);
+                    // slots left by a drained queue go to other queues in next allocation, a queue whose tasks don't
+                    // fit waits for resources to be freed
+                    if (waitingTasks.size() < entry.getValue() || !unlaunched.isEmpty())
+                        queues.remove(queue);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Schedule waiting tasks failed", e);
+        }
+        return launched;
+    }
+
+    /**
+     * lease running tasks whose retry time has come and launch them, oldest retry first
+     *
+     * @return number of retries launched
+     */
+    private int scheduleDueRetries() {
+        int launched = 0;
+        while (!stopped) {
+            int slots = Math.min(batchSize, slotManager.getAvailableSlots());
+            if (slots <= 0)
+                break;
+            List<RunningTask> retries = taskRepository.claimDueRetries(schedulerId, slots, leaseTime);
+            List<Long> unlaunched = new ArrayList<>();
+            for (RunningTask task : retries) {
+                leasedTaskIds.add(task.getTaskId());
+                if (schedule(task)) {
+                    launched++;
+                } else {
+                    leasedTaskIds.remove(task.getTaskId());
+                    unlaunched.add(task.getTaskId());
+                    LOGGER.info("No slot for retry of task [{}], wait again", task.getTaskId());
+                }
+            }
+            release(unlaunched);
+            if (retries.size() < slots || !unlaunched.isEmpty())
+                break;
+        }
+        return launched;
+    }
+
+    /**
+     * give up leases of claimed tasks which weren't launched, so they are claimed again as soon as resources are free
+     */
+    private void release(List<Long> taskIds) {
+        if (!taskIds.isEmpty())
+            taskRepository.releaseTasks(schedulerId, taskIds);
+    }
+
+    /**
+     * a retry was persisted, stop renewing the lease of failed try and wake up when retry is due. Wake up is lost on
+     * restart, then polling finds the retry.
+     */
+    private void retryScheduled(RunningTask task) {
+        leasedTaskIds.remove(task.getTaskId());
+        if (stopped)
+            return;
+        long delayMillis = Math.max(0, Duration.between(Instant.now(), task.getRetryTime()).toMillis());
+        scheduledExecutorService.schedule(this::wakeUp, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * another instance took over a task launched here, so its state is left to that instance
+     */
+    private void leaseLost(long taskId) {
+        LOGGER.warn("Lease of task [{}] was lost after it was launched, stop renewing it", taskId);
+        leasedTaskIds.remove(taskId);
+    }
+
+    /**
+     * end of a launched task couldn't be persisted, its row stays running. Stop renewing its lease and give it up, so
+     * the task is found not running and started again by {@link #checkRunningTasks()}. If giving up fails too, the
+     * lease expires
+     */
+    private CompletableFuture<Void> releaseOnFailure(long taskId, CompletableFuture<Void> future) {
+        return future.whenComplete((v, e) -> {
+            if (e == null)
+                return;
+            LOGGER.error("Persist end of task [" + taskId + "] failed, give up its lease to check it again", e);
+            leasedTaskIds.remove(taskId);
+            try {
+                release(Collections.singletonList(taskId));
+            } catch (Exception releaseError) {
+                LOGGER.warn("Release lease of task [" + taskId + "] failed, wait for it to expire", releaseError);
             }
         });
     }
 
     /**
-     * get host by task type, host available resources and roles
-     * @param taskInfo task info
-     * @return task exec host
+     * forget a finished task, and launch waiting tasks in its place
      */
-    private String getTaskHost(TaskInfo taskInfo) {
-        return "localhost";
+    private void released(long taskId) {
+        leasedTaskIds.remove(taskId);
+        wakeUp();
+    }
+
+    /**
+     * renew leases of tasks this scheduler is responsible for, finished tasks and tasks taken over by other
+     * instances are forgotten. Adopted tasks are kept while lease of previous leader hasn't expired yet
+     */
+    private void renewLeases() {
+        try {
+            Set<Long> taskIds = new HashSet<>(leasedTaskIds);
+            if (taskIds.isEmpty())
+                return;
+            Set<Long> renewed = taskRepository.claimTasks(schedulerId, taskIds, leaseTime);
+            taskIds.removeAll(renewed);
+            taskIds.removeIf(taskBackend::isTaskRunning);
+            leasedTaskIds.removeAll(taskIds);
+        } catch (Exception e) {
+            LOGGER.error("Renew task leases failed", e);
+        }
+    }
+
+    private void checkRunningTasks() {
+        if (!isLeader() || System.currentTimeMillis() < reconcileUntilMillis)
+            return;
+        try {
+            Map<Long, RunningTask> orphans = new HashMap<>();
+            taskRepository.forEachRunningTask(task -> {
+                // if task is not running(maybe system restarted), schedule the task. Retries wait for their time
+                if (task.getRetryTime() == null && !taskBackend.isTaskRunning(task.getTaskId())
+                        && !leasedTaskIds.contains(task.getTaskId()))
+                    orphans.put(task.getTaskId(), task);
+            });
+            if (orphans.isEmpty())
+                return;
+
+            // tasks whose lease is held by a live instance are left to it
+            for (Long taskId : taskRepository.claimTasks(schedulerId, orphans.keySet(), leaseTime)) {
+                leasedTaskIds.add(taskId);
+                LOGGER.info("task {} in state {} is not running, start it", taskId, TaskState.RUNNING);
+                // started by a later check if no slot is free now
+                if (!schedule(orphans.get(taskId)))
+                    leasedTaskIds.remove(taskId);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Check running tasks failed", e);
+        }
     }
 
     /**
@@ -147,94 +509,125 @@ public class TaskSchedulerImpl implements TaskScheduler {
      */
     public class TaskCallbackImpl implements TaskCallback {
 
-        private final ScheduledExecutorService scheduledExecutorService =
-                Executors.newSingleThreadScheduledExecutor();
-
         @Override
-        public void onStarted(long taskId, int pid) {
-            Optional<RunningTask> optionalTask = taskRepository.getRunningTask(taskId);
-
-            // task is not in running_task, implies that it's first time run
-            if (!optionalTask.isPresent()) {
-                WaitingTask waitingTask = taskRepository.getWaitingTask(taskId);
-                RunningTask runningTask = new RunningTask(waitingTask);
-                runningTask.setStartTime(Instant.now());
-                runningTask.setTryNumber(1);
-                runningTask.setPid(pid);
-
-                taskRepository.moveToRunning(runningTask);
-            } else { // task is in running_task, implies retrying
-                RunningTask runningTask = optionalTask.get();
-                runningTask.setPid(pid);
-                int tryNumber = runningTask.getTryNumber() + 1;
-                runningTask.setTryNumber(tryNumber);
-                LOGGER.info("Task [{}] retry started, try number: {}", taskId, runningTask.getTryNumber() + 1);
-
-                taskRepository.updateRunningTask(runningTask);
-            }
+        public CompletableFuture<Void> onStarted(long taskId, int pid) {
+            return lifecyclePipeline.submit(taskId, task -> {
+                if (task instanceof WaitingTask) { // first time run
+                    RunningTask runningTask = new RunningTask(task);
+                    runningTask.setStartTime(Instant.now());
+                    runningTask.setTryNumber(1);
+                    runningTask.setPid(pid);
+
+                    return Decision.of(TaskTransition.moveToRunning(runningTask, schedulerId), null,
+                            () -> leaseLost(taskId));
+                } else if (task instanceof RunningTask) { // retrying
+                    RunningTask runningTask = (RunningTask) task;
+                    runningTask.setPid(pid);
+                    runningTask.setRetryTime(null);
+                    int tryNumber = runningTask.getTryNumber() + 1;
+                    runningTask.setTryNumber(tryNumber);
+                    LOGGER.info("Task [{}] retry started, try number: {}", taskId, tryNumber);
+
+                    return Decision.of(TaskTransition.updateRunning(runningTask, schedulerId), null,
+                            () -> leaseLost(taskId));
+                } else {
+                    LOGGER.warn("Task [{}] isn't waiting or running, ignore its start", taskId);
+                    return Decision.none();
+                }
+            });
         }
 
         @Override
-        public void onSuccess(long taskId) {
-            Optional<RunningTask> optionalInfo = taskRepository.getRunningTask(taskId);
-            if (optionalInfo.isPresent()) {
-                RunningTask runningTask = optionalInfo.get();
+        public CompletableFuture<Void> onSuccess(long taskId) {
+            return releaseOnFailure(taskId, lifecyclePipeline.submit(taskId, task -> {
+                if (!(task instanceof RunningTask))
+                    return Decision.none();
+
+                RunningTask runningTask = (RunningTask) task;
                 FinishedTask finishedTask = new FinishedTask(runningTask);
                 finishedTask.setState(TaskState.SUCCESS);
 
-                taskRepository.moveToFinished(finishedTask);
-
-                logManager.collect(runningTask);
-            }
+                return Decision.of(TaskTransition.moveToFinished(finishedTask), () -> {
+                    released(taskId);
+                    logManager.collect(runningTask);
+                });
+            }));
         }
 
         @Override
-        public void onFailure(long taskId) {
-            Optional<RunningTask> optionalTask = taskRepository.getRunningTask(taskId);
-            if (optionalTask.isPresent()) { // task started, exec failed
-                RunningTask runningTaskInfo = optionalTask.get();
-                if (runningTaskInfo.getTryNumber() < runningTaskInfo.getMaxTries()) {
-                    LOGGER.info("Task [{}] execute failed, retry it, try number: {}", taskId, runningTaskInfo.getTryNumber() + 1);
-                    scheduledExecutorService.schedule(
-                            () -> schedule(runningTaskInfo),
-                            athenaConf.getDefaultTaskRetryWait(),
-                            TimeUnit.SECONDS);
-                } else {
-                    FinishedTask finishedTask = new FinishedTask(runningTaskInfo);
+        public CompletableFuture<Void> onFailure(long taskId) {
+            return releaseOnFailure(taskId, lifecyclePipeline.submit(taskId, task -> {
+                if (task instanceof RunningTask) { // task started, exec failed
+                    RunningTask runningTaskInfo = (RunningTask) task;
+                    if (runningTaskInfo.getTryNumber() < runningTaskInfo.getMaxTries()) {
+                        LOGGER.info("Task [{}] execute failed, retry it, try number: {}", taskId, runningTaskInfo.getTryNumber() + 1);
+                        return retry(runningTaskInfo);
+                    } else {
+                        FinishedTask finishedTask = new FinishedTask(runningTaskInfo);
+                        finishedTask.setState(TaskState.FAILED);
+
+                        return Decision.of(TaskTransition.moveToFinished(finishedTask), () -> {
+                            released(taskId);
+                            logManager.collect(runningTaskInfo);
+                        });
+                    }
+                } else if (task instanceof WaitingTask) { // task started failed
+                    FinishedTask finishedTask = new FinishedTask(task);
                     finishedTask.setState(TaskState.FAILED);
-                    taskRepository.moveToFinished(finishedTask);
+                    finishedTask.setTryNumber(1);
 
-                    logManager.collect(runningTaskInfo);
+                    return Decision.of(TaskTransition.moveFromWaitingToFinished(finishedTask), () -> released(taskId));
+                } else {
+                    return Decision.none();
                 }
-            } else { // task started failed
-                WaitingTask waitingTask = taskRepository.getWaitingTask(taskId);
-                FinishedTask finishedTask = new FinishedTask(waitingTask);
-                finishedTask.setState(TaskState.FAILED);
-                finishedTask.setTryNumber(1);
-                taskRepository.moveFromWaitingToFinished(finishedTask);
-            }
+            }));
         }
 
         @Override
-        public void onLost(long taskId) {
-            Optional<RunningTask> optionalTask = taskRepository.getRunningTask(taskId);
+        public CompletableFuture<Void> onLost(long taskId) {
+            return releaseOnFailure(taskId, lifecyclePipeline.submit(taskId, task -> {
+                if (!(task instanceof RunningTask))
+                    return Decision.none();
 
-            if (optionalTask.isPresent()) {
-                RunningTask runningTask = optionalTask.get();
+                RunningTask runningTask = (RunningTask) task;
                 if (runningTask.getTryNumber() < runningTask.getMaxTries()) {
                     LOGGER.info("Task [{}] lost, retry it, try number: {}", taskId, runningTask.getTryNumber() + 1);
-                    scheduledExecutorService.schedule(
-                            () -> schedule(runningTask),
-                            athenaConf.getDefaultTaskRetryWait(),
-                            TimeUnit.SECONDS);
+                    return retry(runningTask);
                 } else {
                     FinishedTask finishedTask = new FinishedTask(runningTask);
                     finishedTask.setState(TaskState.LOST);
-                    taskRepository.moveToFinished(finishedTask);
 
-                    logManager.collect(finishedTask);
+                    return Decision.of(TaskTransition.moveToFinished(finishedTask), () -> {
+                        released(taskId);
+                        logManager.collect(finishedTask);
+                    });
                 }
-            }
+            }));
+        }
+
+        /**
+         * adopt a running task whose executor reconnected, unless this scheduler isn't leader or executor isn't the
+         * one of current try
+         */
+        @Override
+        public CompletableFuture<TaskInfo> onResumed(long taskId, int pid) {
+            return CompletableFuture.supplyAsync(() -> {
+                if (!isLeader())
+                    return null;
+                Optional<RunningTask> task = taskRepository.getRunningTask(taskId);
+                if (!task.isPresent() || task.get().getRetryTime() != null
+                        || !Objects.equals(task.get().getPid(), pid))
+                    return null;
+                leasedTaskIds.add(taskId);
+                LOGGER.info("Task [{}] executor reconnected, adopt it", taskId);
+                return task.get();
+            }, scheduledExecutorService);
+        }
+
+        private Decision retry(RunningTask runningTask) {
+            Duration delay = retryBackoff.delay(runningTask, runningTask.getTryNumber());
+            runningTask.setRetryTime(Instant.now().plus(delay));
+            return Decision.of(TaskTransition.retryRunning(runningTask), () -> retryScheduled(runningTask));
         }
     }
 }
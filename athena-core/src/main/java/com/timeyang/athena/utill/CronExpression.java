@@ -0,0 +1,155 @@
+package com.timeyang.athena.utill;
+
+import com.timeyang.athena.AthenaException;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Cron expression of 5 fields: minute, hour, day of month, month and day of week. A field is a comma separated list
+ * of {@code *}, values and ranges {@code a-b}, each optionally followed by a step {@code /n}. Months and days of week
+ * accept three letter names, and day of week 7 is Sunday as 0. When both day of month and day of week are
+ * restricted, a day matching either matches, as in Vixie cron.
+ * <p>Each field is kept as a bitset, so finding next fire time skips whole months, days and hours which don't match,
+ * instead of stepping minute by minute.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class CronExpression {
+    private static final String[] MONTH_NAMES =
+            {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+    /**
+     * a day matching both fields may be years away, e.g. Feb 29 on a Monday
+     */
+    private static final int MAX_YEARS = 30;
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    private CronExpression(String expression) {
+        this.expression = expression;
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5)
+            throw new AthenaException("Cron expression must have 5 fields: " + expression);
+        minutes = parseField(fields[0], 0, 59, null);
+        hours = parseField(fields[1], 0, 23, null);
+        daysOfMonth = parseField(fields[2], 1, 31, null);
+        months = parseField(fields[3], 1, 12, MONTH_NAMES);
+        daysOfWeek = parseField(fields[4], 0, 7, DAY_NAMES);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+            daysOfWeek.clear(7);
+        }
+        anyDayOfMonth = fields[2].startsWith("*");
+        anyDayOfWeek = fields[4].startsWith("*");
+    }
+
+    /**
+     * @throws AthenaException if expression is invalid
+     */
+    public static CronExpression parse(String expression) {
+        return new CronExpression(expression);
+    }
+
+    /**
+     * @return first time after given time which matches, in time zone of given time, or null if none in
+     * {@value #MAX_YEARS} years
+     */
+    public ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = after.plusYears(MAX_YEARS);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+                continue;
+            }
+            if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                continue;
+            }
+            if (!hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                continue;
+            }
+            int minute = minutes.nextSetBit(time.getMinute());
+            if (minute < 0) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                continue;
+            }
+            return time.withMinute(minute);
+        }
+        return null;
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek)
+            return dayOfMonth && dayOfWeek;
+        return dayOfMonth || dayOfWeek;
+    }
+
+    private BitSet parseField(String field, int min, int max, String[] names) {
+        BitSet bits = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseValue(part.substring(slash + 1), 1, max, null);
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash >= 0) {
+                    from = parseValue(part.substring(0, dash), min, max, names);
+                    to = parseValue(part.substring(dash + 1), min, max, names);
+                } else {
+                    from = parseValue(part, min, max, names);
+                    // a/n means from a to max by n
+                    to = slash >= 0 ? max : from;
+                }
+                if (from > to)
+                    throw new AthenaException(
+                            String.format("Invalid range %s in cron expression: %s", part, expression));
+            }
+            for (int i = from; i <= to; i += step) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    private int parseValue(String value, int min, int max, String[] names) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(value))
+                    return i + min;
+            }
+        }
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= min && result <= max)
+                return result;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new AthenaException(String.format("Invalid value %s in cron expression: %s", value, expression));
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,143 @@
+package com.timeyang.athena.utill;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashed timing wheel of timeouts identified by a key. Time is split into ticks, and a timeout due at tick {@code t}
+ * is kept in bucket {@code t mod wheelSize}, so adding, replacing and cancelling a timeout cost O(1), and advancing a
+ * tick only visits the timeouts of one bucket, about {@code n / wheelSize} of {@code n} timeouts, instead of all of
+ * them. Timeouts are never due before their deadline, and at most a tick after it if the wheel is advanced on time.
+ * Thread safe.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class HashedTimingWheel<T> {
+    private final long tickMillis;
+    private final long startMillis;
+    private final int mask;
+    // state below is guarded by this
+    private final Entry<T>[] buckets;
+    private final Map<Long, Entry<T>> entries = new HashMap<>();
+    /**
+     * last tick whose bucket was visited
+     */
+    private long currentTick;
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of 2
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * add timeout of key, replacing its current one
+     */
+    public synchronized void schedule(long key, T value, long deadlineMillis) {
+        cancel(key);
+        // round up, so that a timeout isn't due before its deadline
+        long tick = Math.max(currentTick + 1, Math.floorDiv(deadlineMillis - startMillis + tickMillis - 1, tickMillis));
+        Entry<T> entry = new Entry<>(key, value, tick);
+        link(entry);
+        entries.put(key, entry);
+    }
+
+    /**
+     * @return false if key has no timeout
+     */
+    public synchronized boolean cancel(long key) {
+        Entry<T> entry = entries.remove(key);
+        if (entry == null)
+            return false;
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * @return value of timeout of key, or null if key has no timeout
+     */
+    public synchronized T get(long key) {
+        Entry<T> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return time when next tick starts, advancing wheel before it finds nothing due
+     */
+    public synchronized long nextTickMillis() {
+        return startMillis + (currentTick + 1) * tickMillis;
+    }
+
+    /**
+     * visit buckets of ticks passed up to given time and remove timeouts which are due
+     *
+     * @return values of timeouts due, in no particular order
+     */
+    public synchronized List<T> advance(long nowMillis) {
+        List<T> due = new ArrayList<>();
+        long targetTick = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        if (targetTick <= currentTick)
+            return due;
+        // a full turn visits every bucket, more ticks would visit buckets again
+        long fromTick = Math.max(currentTick + 1, targetTick - buckets.length + 1);
+        for (long tick = fromTick; tick <= targetTick; tick++) {
+            Entry<T> entry = buckets[(int) (tick & mask)];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.tick <= targetTick) {
+                    unlink(entry);
+                    entries.remove(entry.key);
+                    due.add(entry.value);
+                }
+                entry = next;
+            }
+        }
+        currentTick = targetTick;
+        return due;
+    }
+
+    private void link(Entry<T> entry) {
+        int index = (int) (entry.tick & mask);
+        entry.next = buckets[index];
+        if (entry.next != null)
+            entry.next.prev = entry;
+        buckets[index] = entry;
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.prev != null)
+            entry.prev.next = entry.next;
+        else
+            buckets[(int) (entry.tick & mask)] = entry.next;
+        if (entry.next != null)
+            entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static final class Entry<T> {
+        private final long key;
+        private final T value;
+        private final long tick;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        Entry(long key, T value, long tick) {
+            this.key = key;
+            this.value = value;
+            this.tick = tick;
+        }
+    }
+}
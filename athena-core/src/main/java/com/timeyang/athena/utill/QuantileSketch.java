@@ -0,0 +1,143 @@
+package com.timeyang.athena.utill;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mergeable sketch of non-negative values which answers quantiles with bounded relative error. A value {@code v} is
+ * counted in bucket {@code ceil(log(v) / log(gamma))}, {@code gamma = (1 + a) / (1 - a)} for relative accuracy
+ * {@code a}, so a quantile is estimated within {@code a} of the true value while the number of buckets only grows
+ * with the log of the value range, e.g. about 800 buckets cover 1 second to 100 days at 1% accuracy.
+ * <p>Sketches of the same accuracy merge by adding bucket counts, so they can be kept per partition and combined,
+ * and updated incrementally as values arrive. Not thread safe.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    /**
+     * values smaller than this are counted as zero
+     */
+    private static final double MIN_VALUE = 1e-9;
+    private static final byte FORMAT_VERSION = 1;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+    private long zeroCount;
+    private long count;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy max relative error of quantiles, in (0, 1)
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        Asserts.check(relativeAccuracy > 0 && relativeAccuracy < 1,
+                "relative accuracy should be in (0, 1), but got " + relativeAccuracy);
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, long times) {
+        Asserts.check(value >= 0, "value should be non-negative, but got " + value);
+        if (value < MIN_VALUE)
+            zeroCount += times;
+        else
+            buckets.merge((int) Math.ceil(Math.log(value) / logGamma), times, Long::sum);
+        count += times;
+    }
+
+    public void merge(QuantileSketch other) {
+        Asserts.check(other.relativeAccuracy == this.relativeAccuracy,
+                "can't merge sketches of different relative accuracy");
+        other.buckets.forEach((index, bucketCount) -> buckets.merge(index, bucketCount, Long::sum));
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * @param quantile quantile in [0, 1], e.g. 0.99
+     * @return estimated value of quantile, or NaN if sketch is empty
+     */
+    public double getQuantile(double quantile) {
+        Asserts.check(quantile >= 0 && quantile <= 1, "quantile should be in [0, 1], but got " + quantile);
+        if (count == 0)
+            return Double.NaN;
+
+        // nearest rank, so that high quantiles of few values are the largest value rather than a lower one
+        long rank = Math.max((long) Math.ceil(quantile * count) - 1, 0);
+        if (rank < zeroCount)
+            return 0;
+        long seen = zeroCount;
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            seen += bucket.getValue();
+            if (seen > rank)
+                return 2 * Math.pow(gamma, bucket.getKey()) / (gamma + 1);
+        }
+        return 2 * Math.pow(gamma, buckets.lastKey()) / (gamma + 1);
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(relativeAccuracy);
+        copy.merge(this);
+        return copy;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Double.BYTES + Long.BYTES + Integer.BYTES +
+                buckets.size() * (Integer.BYTES + Long.BYTES));
+        buffer.put(FORMAT_VERSION);
+        buffer.putDouble(relativeAccuracy);
+        buffer.putLong(zeroCount);
+        buffer.putInt(buckets.size());
+        buckets.forEach((index, bucketCount) -> {
+            buffer.putInt(index);
+            buffer.putLong(bucketCount);
+        });
+        return buffer.array();
+    }
+
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte version = buffer.get();
+        Asserts.check(version == FORMAT_VERSION, "unknown sketch format version " + version);
+        QuantileSketch sketch = new QuantileSketch(buffer.getDouble());
+        sketch.zeroCount = buffer.getLong();
+        sketch.count = sketch.zeroCount;
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            int index = buffer.getInt();
+            long bucketCount = buffer.getLong();
+            sketch.buckets.put(index, bucketCount);
+            sketch.count += bucketCount;
+        }
+        return sketch;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch{" +
+                "relativeAccuracy=" + relativeAccuracy +
+                ", count=" + count +
+                ", buckets=" + buckets.size() +
+                '}';
+    }
+}
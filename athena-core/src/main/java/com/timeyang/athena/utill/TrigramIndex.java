@@ -0,0 +1,159 @@
+package com.timeyang.athena.utill;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+
+/**
+ * In-memory substring index of texts, each identified by a key. Every 3-character substring (trigram) of a text maps
+ * to the ids of texts containing it, so a search of {@code n} characters intersects the id lists of its trigrams and
+ * only verifies texts containing all of them, instead of scanning every text. Queries shorter than a trigram scan all
+ * texts. Texts are only added, never removed. Thread safe.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class TrigramIndex {
+    private static final int GRAM = 3;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // state below is guarded by lock
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> texts = new ArrayList<>();
+    private final Map<String, IntList> postings = new HashMap<>();
+
+    /**
+     * @return false if key was indexed already
+     */
+    public boolean add(String key, String text) {
+        if (key == null || text == null)
+            return false;
+        lock.writeLock().lock();
+        try {
+            if (ids.containsKey(key))
+                return false;
+            int id = keys.size();
+            ids.put(key, id);
+            keys.add(key);
+            texts.add(text);
+            for (String gram : grams(text)) {
+                postings.computeIfAbsent(gram, g -> new IntList()).add(id);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return ids.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return keys.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param limit max number of keys returned
+     * @return keys of texts containing query, or null if more than {@code limit} texts match
+     */
+    public List<String> searchContains(String query, int limit) {
+        return search(query, limit, String::contains);
+    }
+
+    /**
+     * @param limit max number of keys returned
+     * @return keys of texts starting with query, or null if more than {@code limit} texts match
+     */
+    public List<String> searchPrefix(String query, int limit) {
+        return search(query, limit, String::startsWith);
+    }
+
+    private List<String> search(String query, int limit, BiPredicate<String, String> matcher) {
+        List<String> matched = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (query.length() < GRAM) {
+                for (int id = 0; id < texts.size(); id++) {
+                    if (matcher.test(texts.get(id), query) && !addMatch(matched, id, limit))
+                        return null;
+                }
+                return matched;
+            }
+
+            List<IntList> lists = new ArrayList<>();
+            for (String gram : grams(query)) {
+                IntList list = postings.get(gram);
+                if (list == null)
+                    return matched;
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            IntList shortest = lists.get(0);
+            for (int i = 0; i < shortest.size; i++) {
+                int id = shortest.values[i];
+                if (containsAll(lists, id) && matcher.test(texts.get(id), query) && !addMatch(matched, id, limit))
+                    return null;
+            }
+            return matched;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean addMatch(List<String> matched, int id, int limit) {
+        if (matched.size() >= limit)
+            return false;
+        matched.add(keys.get(id));
+        return true;
+    }
+
+    private static boolean containsAll(List<IntList> lists, int id) {
+        for (int i = 1; i < lists.size(); i++) {
+            IntList list = lists.get(i);
+            if (Arrays.binarySearch(list.values, 0, list.size, id) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    /**
+     * ascending ids, ids are added in increasing order
+     */
+    private static final class IntList {
+        private int[] values = new int[2];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.timeyang.athena.utill.jdbc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * page totals counted by {@link JdbcUtils#queryPage(javax.sql.DataSource, String, String, String, Page,
+ * JdbcUtils.RowMapper, CountCache)}, reused for pages of the same criteria.
+ * <p>A cache belongs to the store which owns the counted table, and the store invalidates it on writes which add
+ * or remove rows. A cached total is stale for other writes, like state changes or writes of other processes, for at
+ * most {@code ttlMillis}.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class CountCache {
+    public static final long DEFAULT_TTL_MILLIS = 5000;
+    private static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final long ttlMillis;
+    private final int maxSize;
+    private final ConcurrentMap<String, CachedCount> counts = new ConcurrentHashMap<>();
+    /**
+     * incremented by every invalidation, counts started before it are not reused
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    public CountCache() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    public CountCache(long ttlMillis, int maxSize) {
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key     count sql and parameters
+     * @param counter counts when there is no valid cached total
+     */
+    long get(String key, LongSupplier counter) {
+        long currentGeneration = generation.get();
+        long now = System.currentTimeMillis();
+        CachedCount cached = counts.get(key);
+        if (cached != null && cached.generation == currentGeneration && cached.expireTime > now)
+            return cached.total;
+
+        long total = counter.getAsLong();
+        if (counts.size() >= maxSize)
+            counts.values().removeIf(count -> count.generation != currentGeneration || count.expireTime <= now);
+        if (counts.size() < maxSize)
+            counts.put(key, new CachedCount(total, currentGeneration, now + ttlMillis));
+        return total;
+    }
+
+    /**
+     * drop cached totals, called after writes to counted tables
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        counts.clear();
+    }
+
+    private static final class CachedCount {
+        private final long total;
+        private final long generation;
+        private final long expireTime;
+
+        CachedCount(long total, long generation, long expireTime) {
+            this.total = total;
+            this.generation = generation;
+            this.expireTime = expireTime;
+        }
+    }
+}
@@ -1,9 +1,22 @@
 package com.timeyang.athena.utill.jdbc;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 /**
+ * A filter on a column. Compiles to a clause with a bind parameter placeholder, so that criteria of the same shape
+ * always produce the same sql text and the database can reuse the parsed statement.
+ *
  * @author https://github.com/chaokunyang
  */
 public class Criterion {
+    /**
+     * escape character of LIKE patterns
+     */
+    static final char LIKE_ESCAPE = '!';
+
     private final String field;
     private final Predicate predicate;
     private final Object compareTo;
@@ -15,7 +28,7 @@ public class Criterion {
 
     public Criterion(String field, Predicate predicate,
                   Object compareTo, Condition condition) {
-        this.field = field;
+        this.field = JdbcUtils.checkIdentifier(field);
         this.predicate = predicate;
         this.compareTo = compareTo;
         this.condition = condition;
@@ -41,52 +54,213 @@ public class Criterion {
         return predicate.toClause(this);
     }
 
+    /**
+     * @return values bound to the placeholders of {@link #toClause()}, in order
+     */
+    public List<Object> toParameters() {
+        return predicate.toParameters(this);
+    }
+
+    /**
+     * evaluate criterion on a column value in memory, with the same result as {@link #toClause()} in database
+     *
+     * @param value column value, null for SQL NULL
+     */
+    public boolean matches(Object value) {
+        return value != null && predicate.matches(this, value);
+    }
+
     public enum Predicate {
         LIKE {
             @Override
             public String toClause(Criterion criterion) {
-                return String.format(" %s LIKE '%%%s%%' ", criterion.field, getString(criterion));
+                return String.format(" %s LIKE ? ESCAPE '%s' ", criterion.field, LIKE_ESCAPE);
+            }
+
+            @Override
+            public Object toParameter(Criterion criterion) {
+                return "%" + escapeLike(getString(criterion)) + "%";
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                return value.toString().contains(getString(criterion));
+            }
+        },
+        /**
+         * prefix match, which can use an index on the field unlike {@link #LIKE}
+         */
+        STARTS_WITH {
+            @Override
+            public String toClause(Criterion criterion) {
+                return String.format(" %s LIKE ? ESCAPE '%s' ", criterion.field, LIKE_ESCAPE);
+            }
+
+            @Override
+            public Object toParameter(Criterion criterion) {
+                return escapeLike(getString(criterion)) + "%";
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                return value.toString().startsWith(getString(criterion));
             }
         },
         NOT_LIKE {
             @Override
             public String toClause(Criterion criterion) {
-                return String.format(" %s NOT LIKE '%%%s%%' ", criterion.field, getString(criterion));
+                return String.format(" %s NOT LIKE ? ESCAPE '%s' ", criterion.field, LIKE_ESCAPE);
+            }
+
+            @Override
+            public Object toParameter(Criterion criterion) {
+                return "%" + escapeLike(getString(criterion)) + "%";
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                return !value.toString().contains(getString(criterion));
             }
         },
         EQ {
             @Override
             public String toClause(Criterion criterion) {
-                if (criterion.getCompareTo() instanceof String) {
-                    return String.format(" %s = '%s' ",
-                            criterion.field, criterion.getCompareTo());
-                } else {
-                    return String.format(" %s = %s ",
-                            criterion.field, criterion.getCompareTo());
-                }
+                return String.format(" %s = ? ", criterion.field);
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                return criterion.compareTo != null && PageUtils.compare(value, criterion.compareTo) == 0;
             }
         },
         NEQ {
             @Override
             public String toClause(Criterion criterion) {
-                if (criterion.getCompareTo() instanceof String) {
-                    return String.format(" %s <> '%s' ",
-                            criterion.field, criterion.getCompareTo());
-                } else {
-                    return String.format(" %s <> %s ",
-                            criterion.field, criterion.getCompareTo());
-                }
+                return String.format(" %s <> ? ", criterion.field);
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                return criterion.compareTo != null && PageUtils.compare(value, criterion.compareTo) != 0;
+            }
+        },
+        /**
+         * field equals one of a collection of values, each bound to its own placeholder
+         */
+        IN {
+            @Override
+            public String toClause(Criterion criterion) {
+                int size = getCollection(criterion).size();
+                if (size == 0)
+                    return " 1 = 0 ";
+                return String.format(" %s IN (%s) ", criterion.field, String.join(", ", Collections.nCopies(size, "?")));
+            }
+
+            @Override
+            public List<Object> toParameters(Criterion criterion) {
+                return new ArrayList<>(getCollection(criterion));
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                return getCollection(criterion).stream()
+                        .anyMatch(element -> element != null && PageUtils.compare(value, element) == 0);
+            }
+        },
+        /**
+         * field equals a value of a column selected from another table by a criterion, which is a {@link Select}
+         */
+        IN_SELECT {
+            @Override
+            public String toClause(Criterion criterion) {
+                Select select = getSelect(criterion);
+                return String.format(" %s IN (SELECT %s FROM %s WHERE %s) ",
+                        criterion.field, select.column, select.table, select.criterion.toClause());
+            }
+
+            @Override
+            public List<Object> toParameters(Criterion criterion) {
+                return getSelect(criterion).criterion.toParameters();
+            }
+
+            @Override
+            boolean matches(Criterion criterion, Object value) {
+                throw new IllegalArgumentException("Predicate " + this + " isn't supported in memory");
             }
         };
 
         public abstract String toClause(Criterion criterion);
 
+        /**
+         * @param value non null column value
+         */
+        abstract boolean matches(Criterion criterion, Object value);
+
+        public Object toParameter(Criterion criterion) {
+            return criterion.getCompareTo();
+        }
+
+        public List<Object> toParameters(Criterion criterion) {
+            return Collections.singletonList(toParameter(criterion));
+        }
+
         public static String getString(Criterion f) {
             if (!(f.getCompareTo() instanceof String))
                 throw new IllegalArgumentException(f.getField());
 
             return (String) f.getCompareTo();
         }
+
+        public static Collection<?> getCollection(Criterion f) {
+            if (!(f.getCompareTo() instanceof Collection))
+                throw new IllegalArgumentException(f.getField());
+
+            return (Collection<?>) f.getCompareTo();
+        }
+
+        public static Select getSelect(Criterion f) {
+            if (!(f.getCompareTo() instanceof Select))
+                throw new IllegalArgumentException(f.getField());
+
+            return (Select) f.getCompareTo();
+        }
+
+        private static String escapeLike(String value) {
+            StringBuilder builder = new StringBuilder(value.length());
+            for (char c : value.toCharArray()) {
+                if (c == '%' || c == '_' || c == LIKE_ESCAPE)
+                    builder.append(LIKE_ESCAPE);
+                builder.append(c);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * {@code SELECT column FROM table WHERE criterion}, compared to by {@link Predicate#IN_SELECT}
+     */
+    public static class Select {
+        private final String table;
+        private final String column;
+        private final Criterion criterion;
+
+        public Select(String table, String column, Criterion criterion) {
+            this.table = JdbcUtils.checkIdentifier(table);
+            this.column = JdbcUtils.checkIdentifier(column);
+            this.criterion = criterion;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public Criterion getCriterion() {
+            return criterion;
+        }
     }
 
     public enum Condition {
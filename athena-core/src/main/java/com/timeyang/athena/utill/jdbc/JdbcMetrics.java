@@ -0,0 +1,200 @@
+package com.timeyang.athena.utill.jdbc;
+
+import com.timeyang.athena.utill.QuantileSketch;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Latency of database operations and usage of the connection pool, to size the pool from data. Operations are named
+ * by caller, e.g. by task repository method, and each keeps a {@link QuantileSketch} of its latencies. Statements
+ * executed by {@link JdbcUtils} keep a sketch per sql, whose parameter lists are collapsed so that sql of the same
+ * statement with a different number of parameters share it. Pool usage is collected by registering this as the
+ * {@link MetricsTrackerFactory} of a Hikari pool. Operations and statements slower than the threshold are logged.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class JdbcMetrics implements MetricsTrackerFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcMetrics.class);
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * statements beyond this number are recorded together, sql built from criteria may vary without bound
+     */
+    static final int MAX_STATEMENTS = 200;
+    static final String OTHER_STATEMENTS = "other";
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+
+    private final long slowMillis;
+    private final ConcurrentMap<String, Latency> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Latency> statements = new ConcurrentHashMap<>();
+    private final Latency connectionWait = new Latency("connectionWait");
+    private final Latency connectionUsage = new Latency("connectionUsage");
+    private final AtomicLong connectionTimeouts = new AtomicLong();
+    private volatile String poolName;
+    private volatile PoolStats poolStats;
+
+    /**
+     * @param slowMillis operations and statements slower than this many milliseconds are logged
+     */
+    public JdbcMetrics(long slowMillis) {
+        this.slowMillis = slowMillis;
+    }
+
+    /**
+     * run operation and record its latency, failed operations are counted as errors
+     */
+    public <T> T time(String operation, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = supplier.get();
+            failed = false;
+            return result;
+        } finally {
+            record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    public void time(String operation, Runnable runnable) {
+        time(operation, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public void record(String operation, long nanos, boolean failed) {
+        operations.computeIfAbsent(operation, Latency::new).record(nanos, failed);
+        if (nanos >= slowMillis * NANOS_PER_MILLI)
+            LOGGER.warn("Slow database operation {} took {} ms", operation, nanos / NANOS_PER_MILLI);
+    }
+
+    /**
+     * record latency of statement, and log it if it's slow
+     */
+    public void recordStatement(String sql, long nanos) {
+        String statement = PARAMETER_LIST.matcher(sql).replaceAll("?, ...");
+        Latency latency = statements.get(statement);
+        if (latency == null) {
+            String name = statements.size() < MAX_STATEMENTS ? statement : OTHER_STATEMENTS;
+            latency = statements.computeIfAbsent(name, Latency::new);
+        }
+        latency.record(nanos, false);
+        if (nanos >= slowMillis * NANOS_PER_MILLI)
+            LOGGER.warn("Slow sql statement took {} ms: {}", nanos / NANOS_PER_MILLI, sql);
+    }
+
+    /**
+     * @return latencies of operations, ordered by name
+     */
+    public List<LatencyMetrics> getOperations() {
+        return operations.values().stream()
+                .map(Latency::toMetrics)
+                .sorted((m1, m2) -> m1.getName().compareTo(m2.getName()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return latencies of statements, ordered by sql
+     */
+    public List<LatencyMetrics> getStatements() {
+        return statements.values().stream()
+                .map(Latency::toMetrics)
+                .sorted((m1, m2) -> m1.getName().compareTo(m2.getName()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return pool usage, or null if not registered to a pool
+     */
+    public PoolMetrics getPool() {
+        PoolStats stats = this.poolStats;
+        if (stats == null)
+            return null;
+
+        PoolMetrics metrics = new PoolMetrics();
+        metrics.setPoolName(poolName);
+        metrics.setMaxConnections(stats.getMaxConnections());
+        metrics.setMinConnections(stats.getMinConnections());
+        metrics.setTotalConnections(stats.getTotalConnections());
+        metrics.setActiveConnections(stats.getActiveConnections());
+        metrics.setIdleConnections(stats.getIdleConnections());
+        metrics.setPendingThreads(stats.getPendingThreads());
+        metrics.setConnectionTimeouts(connectionTimeouts.get());
+        metrics.setConnectionWait(connectionWait.toMetrics());
+        metrics.setConnectionUsage(connectionUsage.toMetrics());
+        return metrics;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolName = poolName;
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                connectionWait.record(elapsedAcquiredNanos, false);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                connectionUsage.record(elapsedBorrowedMillis * NANOS_PER_MILLI, false);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                connectionTimeouts.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * latencies of an operation, in milliseconds
+     */
+    private static final class Latency {
+        private final String name;
+        private final QuantileSketch sketch = new QuantileSketch();
+        private long errorCount;
+        private double totalMillis;
+        private double maxMillis;
+
+        Latency(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(long nanos, boolean failed) {
+            double millis = (double) nanos / NANOS_PER_MILLI;
+            sketch.add(Math.max(millis, 0));
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            if (failed)
+                errorCount++;
+        }
+
+        synchronized LatencyMetrics toMetrics() {
+            LatencyMetrics metrics = new LatencyMetrics();
+            metrics.setName(name);
+            long count = sketch.getCount();
+            metrics.setCount(count);
+            metrics.setErrorCount(errorCount);
+            if (count > 0) {
+                metrics.setAvgMillis(totalMillis / count);
+                metrics.setP50Millis(sketch.getQuantile(0.5));
+                metrics.setP95Millis(sketch.getQuantile(0.95));
+                metrics.setP99Millis(sketch.getQuantile(0.99));
+                metrics.setMaxMillis(maxMillis);
+            }
+            return metrics;
+        }
+    }
+}
@@ -7,8 +7,16 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * @author https://github.com/chaokunyang
@@ -16,6 +24,52 @@ import java.util.List;
 public class JdbcUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JdbcUtils.class);
+    private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static volatile JdbcMetrics metrics;
+
+    /**
+     * set metrics which statements executed by this class are reported to, e.g. to log slow statements
+     */
+    public static void setMetrics(JdbcMetrics metrics) {
+        JdbcUtils.metrics = metrics;
+    }
+
+    private static void statementExecuted(String sql, long startNanos) {
+        JdbcMetrics jdbcMetrics = metrics;
+        if (jdbcMetrics != null)
+            jdbcMetrics.recordStatement(sql, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * roll back transaction of connection after a failure, a failed rollback is logged so that it doesn't hide the
+     * original failure
+     *
+     * @param connection may be null if it couldn't be got
+     */
+    public static void rollback(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                LOGGER.warn("Can't roll back transaction", e);
+            }
+        }
+    }
+
+    /**
+     * close a connection, statement or result set, a failed close is logged
+     *
+     * @param resource may be null if it couldn't be got
+     */
+    public static void close(AutoCloseable resource) {
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOGGER.warn("Can't close " + resource, e);
+            }
+        }
+    }
 
     public static List<String> getAllTables(Connection connection) {
         List<String> tables = new ArrayList<>();
@@ -65,7 +119,6 @@ public class JdbcUtils {
             try (Statement statement = connection.createStatement()) {
                 statement.execute(tableSql);
             } catch (SQLException e) {
-                e.printStackTrace();
                 String msg = String.format("Can't create table %s, table sql: %s", tableName, tableSql);
                 LOGGER.error(msg, e);
                 throw new AthenaException(msg, e);
@@ -76,59 +129,430 @@ public class JdbcUtils {
         return false;
     }
 
-    public static <T> List<T> query(Connection connection, String sql, RowMapper<T> rowMapper) {
+    public static boolean isColumnExists(Connection connection, String tableName, String columnName) {
+        try (ResultSet rs = connection.getMetaData().getColumns(
+                null, null, tableName.toUpperCase(), columnName.toUpperCase())) {
+            return rs.next();
+        } catch (SQLException e) {
+            String msg = String.format("Can't get column %s of table %s", columnName, tableName);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    /**
+     * add column if column absent
+     *
+     * @param connection       Connection
+     * @param tableName        table name
+     * @param columnName       column name
+     * @param columnDefinition column type and constraints, e.g. {@code VARCHAR(100)}
+     * @return true if column added or false if column exists
+     */
+    public static boolean addColumnIfAbsent(Connection connection, String tableName,
+                                            String columnName, String columnDefinition) {
+        if (!isColumnExists(connection, tableName, columnName)) {
+            String sql = String.format("ALTER TABLE %s ADD COLUMN %s %s",
+                    checkIdentifier(tableName), checkIdentifier(columnName), columnDefinition);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                String msg = String.format("Can't add column %s to table %s, sql: %s", columnName, tableName, sql);
+                LOGGER.error(msg, e);
+                throw new AthenaException(msg, e);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    public static boolean isIndexExists(Connection connection, String tableName, String indexName) {
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(
+                null, null, tableName.toUpperCase(), false, true)) {
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME")))
+                    return true;
+            }
+            return false;
+        } catch (SQLException e) {
+            String msg = String.format("Can't get indexes of table %s", tableName);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    /**
+     * create index if index absent
+     *
+     * @param connection Connection
+     * @param tableName  table name
+     * @param indexName  index name
+     * @param columns    indexed columns, in order
+     * @return true if index created or false if index exists
+     */
+    public static boolean createIndexIfAbsent(Connection connection, String tableName,
+                                              String indexName, String... columns) {
+        if (!isIndexExists(connection, tableName, indexName)) {
+            for (String column : columns) {
+                checkIdentifier(column.endsWith(" DESC") ? column.substring(0, column.length() - 5) : column);
+            }
+            String sql = String.format("CREATE INDEX %s ON %s(%s)",
+                    checkIdentifier(indexName), checkIdentifier(tableName), String.join(", ", columns));
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                String msg = String.format("Can't create index %s on table %s, sql: %s", indexName, tableName, sql);
+                LOGGER.error(msg, e);
+                throw new AthenaException(msg, e);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * add unique constraint if no unique index covers exactly the given columns. Rows whose columns are null don't
+     * conflict with each other.
+     *
+     * @param connection     Connection
+     * @param tableName      table name
+     * @param constraintName constraint name
+     * @param columns        constrained columns
+     * @return true if constraint added or false if columns are already unique
+     */
+    public static boolean addUniqueConstraintIfAbsent(Connection connection, String tableName,
+                                                      String constraintName, String... columns) {
+        Set<String> expected = new HashSet<>();
+        for (String column : columns) {
+            expected.add(checkIdentifier(column).toUpperCase());
+        }
+        Map<String, Set<String>> uniqueIndexes = new HashMap<>();
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(
+                null, null, tableName.toUpperCase(), true, true)) {
+            while (rs.next()) {
+                String indexName = rs.getString("INDEX_NAME");
+                String columnName = rs.getString("COLUMN_NAME");
+                if (indexName != null && columnName != null)
+                    uniqueIndexes.computeIfAbsent(indexName, name -> new HashSet<>()).add(columnName.toUpperCase());
+            }
+        } catch (SQLException e) {
+            String msg = String.format("Can't get indexes of table %s", tableName);
+            throw new AthenaException(msg, e);
+        }
+        if (uniqueIndexes.containsValue(expected))
+            return false;
+
+        String sql = String.format("ALTER TABLE %s ADD CONSTRAINT %s UNIQUE (%s)",
+                checkIdentifier(tableName), checkIdentifier(constraintName), String.join(", ", columns));
         try (Statement statement = connection.createStatement()) {
-            ResultSet rs = statement.executeQuery(sql);
+            statement.execute(sql);
+        } catch (SQLException e) {
+            String msg = String.format("Can't add unique constraint %s to table %s, sql: %s",
+                    constraintName, tableName, sql);
+            LOGGER.error(msg, e);
+            throw new AthenaException(msg, e);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether exception is caused by a violated unique or primary key constraint
+     */
+    public static boolean isUniqueViolation(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            // derby and postgres report sql state 23505, mysql reports error code 1062
+            if ("23505".equals(cause.getSQLState()) || cause.getErrorCode() == 1062)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * query with bind parameters
+     *
+     * @param connection Connection
+     * @param sql        sql with a {@code ?} placeholder for each parameter
+     * @param rowMapper  row mapper
+     * @param params     parameters, see {@link #setParameters(PreparedStatement, Object...)}
+     * @return mapped rows
+     */
+    public static <T> List<T> query(Connection connection, String sql, RowMapper<T> rowMapper, Object... params) {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            setParameters(statement, params);
+            ResultSet rs = statement.executeQuery();
 
             List<T> results = new ArrayList<>();
             while (rs.next()) {
                 results.add(rowMapper.mapRow(rs, rs.getRow()));
             }
             rs.close();
+            statementExecuted(sql, start);
 
             return results;
         } catch (SQLException e) {
-            e.printStackTrace();
             throw new AthenaException("Execute sql failed, sql: " + sql, e);
         }
     }
 
-    public static <T> List<T> query(DataSource dataSource, String sql, RowMapper<T> rowMapper) {
+    public static <T> List<T> query(DataSource dataSource, String sql, RowMapper<T> rowMapper, Object... params) {
         try (Connection connection = dataSource.getConnection()) {
-            return query(connection, sql, rowMapper);
+            return query(connection, sql, rowMapper, params);
         } catch (SQLException e) {
-            e.printStackTrace();
             throw new AthenaException("Can't get connection", e);
         }
     }
 
+    /**
+     * stream rows of a forward-only, read-only result set to consumer, so memory stays flat regardless of result size.
+     * <p>The connection is held until all rows are consumed, consumer should be quick.</p>
+     *
+     * @param dataSource DataSource
+     * @param sql        sql with a {@code ?} placeholder for each parameter
+     * @param fetchSize  number of rows fetched from database in one round trip
+     * @param rowMapper  row mapper
+     * @param consumer   row consumer
+     * @param params     parameters, see {@link #setParameters(PreparedStatement, Object...)}
+     * @return number of consumed rows
+     */
+    public static <T> long forEach(DataSource dataSource, String sql, int fetchSize,
+                                   RowMapper<T> rowMapper, Consumer<? super T> consumer, Object... params) {
+        try (Connection connection = dataSource.getConnection()) {
+            // some drivers (e.g. postgresql) only use a cursor when auto commit is disabled
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                setParameters(statement, params);
+                long rows = 0;
+                long start = System.nanoTime();
+                try (ResultSet rs = statement.executeQuery()) {
+                    // rows are consumed as they are fetched, so only the time to the first batch is the statement's
+                    statementExecuted(sql, start);
+                    while (rs.next()) {
+                        consumer.accept(rowMapper.mapRow(rs, (int) Math.min(++rows, Integer.MAX_VALUE)));
+                    }
+                }
+                return rows;
+            } finally {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            throw new AthenaException("Execute sql failed, sql: " + sql, e);
+        }
+    }
+
+    /**
+     * execute insert, update or delete with bind parameters
+     *
+     * @return affected rows
+     */
+    public static int update(DataSource dataSource, String sql, Object... params) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            setParameters(statement, params);
+            long start = System.nanoTime();
+            int rows = statement.executeUpdate();
+            statementExecuted(sql, start);
+            return rows;
+        } catch (SQLException e) {
+            throw new AthenaException("Execute sql failed, sql: " + sql, e);
+        }
+    }
+
     public static <T> PagedResult<T> queryPage(DataSource dataSource, String tableName, Page page, RowMapper<T> rowMapper) {
-        long offset = page.getPage() * page.getSize();
-        String orderByClause = page.buildOrderByClause();
+        return queryPage(dataSource, tableName, null, null, page, rowMapper);
+    }
+
+    public static <T> PagedResult<T> queryPage(DataSource dataSource, String tableName, String condition,
+                                               Page page, RowMapper<T> rowMapper) {
+        return queryPage(dataSource, tableName, null, condition, page, rowMapper);
+    }
+
+    public static <T> PagedResult<T> queryPage(DataSource dataSource, String tableName, String keyColumn,
+                                               String condition, Page page, RowMapper<T> rowMapper) {
+        return queryPage(dataSource, tableName, keyColumn, condition, page, rowMapper, null);
+    }
+
+    /**
+     * query a page of table rows. Criteria values, offset and size are bound as parameters, so pages of the same
+     * sorts and criteria shape share one statement.
+     * <p>Rows are ordered by page sorts followed by key column, which makes the order total. Nulls are ordered
+     * last in both directions. A page with {@link Page#getAfter()} seeks past that cursor instead of skipping rows.
+     * Total size is counted with the same where clause, and reused from {@code countCache} if given.</p>
+     *
+     * @param dataSource DataSource
+     * @param tableName  table name
+     * @param keyColumn  unique key column used to break ties of sorts, null if sorts are unique
+     * @param condition  constant condition that all rows must match in addition to page criteria, null if none
+     * @param page       page
+     * @param rowMapper  row mapper
+     * @param countCache cache of totals invalidated by writes to the table, null to count every time
+     * @return paged result
+     */
+    public static <T> PagedResult<T> queryPage(DataSource dataSource, String tableName, String keyColumn,
+                                               String condition, Page page, RowMapper<T> rowMapper,
+                                               CountCache countCache) {
+        List<Page.Sort> sorts = getSeekSorts(page.getSorts(), keyColumn);
+
+        List<String> filters = new ArrayList<>();
+        List<Object> filterParameters = new ArrayList<>();
+        if (StringUtils.hasText(condition)) {
+            filters.add(condition);
+        }
         String criterionClause = page.buildCriterionClause();
-        String whereClause = " ";
         if (StringUtils.hasText(criterionClause)) {
-            whereClause = String.format(" where %s ", criterionClause);
+            filters.add("(" + criterionClause + ")");
+            filterParameters.addAll(page.buildCriterionParameters());
         }
-        String sql = String.format("select * from %s %s %s offset %d ROWS FETCH NEXT %d ROWS ONLY",
-                tableName, whereClause, orderByClause, offset, page.getSize());
-        try (Connection connection = dataSource.getConnection();
-                Statement statement = connection.createStatement()) {
-            List<T> tables = query(connection, sql, rowMapper);
+        String countSql = "SELECT COUNT(*) AS total FROM " + tableName + buildWhereClause(filters);
+
+        List<Object> params = new ArrayList<>(filterParameters);
+        if (page.getAfter() != null) {
+            if (sorts.isEmpty())
+                throw new IllegalArgumentException("Seeking page after a cursor needs sorts or key column");
+            filters.add(buildSeekClause(sorts, Page.Cursor.decode(page.getAfter()), params));
+        }
+        String orderByClause = sorts.isEmpty() ? "" : " ORDER BY " + sorts.stream()
+                .map(sort -> checkIdentifier(sort.getField()) + " " + sort.getOrder().toString() + " NULLS LAST")
+                .collect(Collectors.joining(", "));
+        String sql = "select * from " + tableName + buildWhereClause(filters) + orderByClause;
+        if (page.getAfter() != null) {
+            sql += " FETCH FIRST ? ROWS ONLY";
+        } else {
+            sql += " offset ? ROWS FETCH NEXT ? ROWS ONLY";
+            params.add((long) page.getPage() * page.getSize());
+        }
+        // fetch one more row to know whether there is a next page
+        int size = page.getSize();
+        params.add(size < Integer.MAX_VALUE ? size + 1 : size);
 
-            ResultSet countRs = statement.executeQuery("SELECT COUNT(*) AS total FROM " + tableName);
-            long total = 0;
-            while(countRs.next())
-                total = countRs.getLong("total");
+        try (Connection connection = dataSource.getConnection()) {
+            List<List<Object>> sortValues = new ArrayList<>();
+            List<T> elements = query(connection, sql, (rs, rowNum) -> {
+                if (sortValues.size() < size) {
+                    List<Object> values = new ArrayList<>(sorts.size());
+                    for (Page.Sort sort : sorts)
+                        values.add(rs.getObject(sort.getField()));
+                    sortValues.add(values);
+                }
+                return rowMapper.mapRow(rs, rowNum);
+            }, params.toArray());
+
+            String nextCursor = null;
+            if (elements.size() > size) {
+                elements.remove(elements.size() - 1);
+                if (!sorts.isEmpty())
+                    nextCursor = Page.Cursor.encode(sortValues.get(size - 1));
+            }
+
+            long total = -1;
+            if (page.isCountTotal()) {
+                total = countCache == null ? count(connection, countSql, filterParameters)
+                        : countCache.get(countSql + filterParameters,
+                        () -> count(connection, countSql, filterParameters));
+            }
 
-            return new PagedResult<>(tables, total, page);
+            return new PagedResult<>(elements, total, page, nextCursor);
         } catch (SQLException e) {
-            e.printStackTrace();
             String msg = String.format("Can't execute %s, sql: %s", tableName, sql);
             throw new AthenaException(msg, e);
         }
     }
 
+    static List<Page.Sort> getSeekSorts(List<Page.Sort> pageSorts, String keyColumn) {
+        List<Page.Sort> sorts = new ArrayList<>();
+        if (pageSorts != null)
+            sorts.addAll(pageSorts);
+        if (keyColumn != null && sorts.stream().noneMatch(sort -> keyColumn.equalsIgnoreCase(sort.getField())))
+            sorts.add(new Page.Sort(keyColumn, Page.Order.ASC));
+        return sorts;
+    }
+
+    /**
+     * {@code (s1 > v1 OR s1 IS NULL) OR (s1 = v1 AND (s2 > v2 OR s2 IS NULL)) OR ...}, {@code <} for descending
+     * sorts. Nulls are ordered last, so a null cursor value only matches {@code IS NULL} and nothing is after it.
+     */
+    private static String buildSeekClause(List<Page.Sort> sorts, List<Object> cursorValues, List<Object> params) {
+        if (cursorValues.size() != sorts.size())
+            throw new IllegalArgumentException("Cursor doesn't match page sorts");
+
+        List<String> disjuncts = new ArrayList<>();
+        for (int i = 0; i < sorts.size(); i++) {
+            if (cursorValues.get(i) == null)
+                continue;
+            StringBuilder builder = new StringBuilder("(");
+            for (int j = 0; j < i; j++) {
+                String field = checkIdentifier(sorts.get(j).getField());
+                if (cursorValues.get(j) == null) {
+                    builder.append(field).append(" IS NULL AND ");
+                } else {
+                    builder.append(field).append(" = ? AND ");
+                    params.add(cursorValues.get(j));
+                }
+            }
+            Page.Sort sort = sorts.get(i);
+            String field = checkIdentifier(sort.getField());
+            builder.append("(").append(field)
+                    .append(sort.getOrder() == Page.Order.DESC ? " < ?" : " > ?")
+                    .append(" OR ").append(field).append(" IS NULL))");
+            params.add(cursorValues.get(i));
+            disjuncts.add(builder.toString());
+        }
+        return disjuncts.isEmpty() ? "1 = 0" : "(" + String.join(" OR ", disjuncts) + ")";
+    }
+
+    private static String buildWhereClause(List<String> filters) {
+        return filters.isEmpty() ? " " : " where " + String.join(" and ", filters) + " ";
+    }
+
+    private static long count(Connection connection, String countSql, List<Object> params) {
+        List<Long> total = query(connection, countSql, (rs, rowNum) -> rs.getLong("total"), params.toArray());
+        return total.isEmpty() ? 0 : total.get(0);
+    }
+
+    /**
+     * bind parameters to statement. {@link Instant} is bound as timestamp and {@link Enum} as its name.
+     */
+    public static void setParameters(PreparedStatement statement, Object... params) throws SQLException {
+        if (params == null)
+            return;
+
+        for (int i = 0; i < params.length; i++) {
+            Object param = params[i];
+            int index = i + 1;
+            if (param == null) {
+                statement.setNull(index, getParameterType(statement, index));
+            } else if (param instanceof Instant) {
+                statement.setTimestamp(index, Timestamp.from((Instant) param));
+            } else if (param instanceof Enum) {
+                statement.setString(index, ((Enum<?>) param).name());
+            } else {
+                statement.setObject(index, param);
+            }
+        }
+    }
+
+    private static int getParameterType(PreparedStatement statement, int index) {
+        try {
+            return statement.getParameterMetaData().getParameterType(index);
+        } catch (SQLException e) {
+            return Types.VARCHAR;
+        }
+    }
+
+    /**
+     * check that name is a plain sql identifier, so it can be put into sql text safely
+     *
+     * @param name table or column name
+     * @return name
+     */
+    public static String checkIdentifier(String name) {
+        if (name == null || !IDENTIFIER_PATTERN.matcher(name).matches())
+            throw new IllegalArgumentException("Illegal sql identifier: " + name);
+        return name;
+    }
+
     public interface RowMapper<T> {
         T mapRow(ResultSet rs, int rowNum) throws SQLException;
     }
@@ -0,0 +1,95 @@
+package com.timeyang.athena.utill.jdbc;
+
+/**
+ * latency of an operation since start, times are in milliseconds
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class LatencyMetrics {
+    private String name;
+    private long count;
+    private long errorCount;
+    private double avgMillis;
+    private double p50Millis;
+    private double p95Millis;
+    private double p99Millis;
+    private double maxMillis;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public void setErrorCount(long errorCount) {
+        this.errorCount = errorCount;
+    }
+
+    public double getAvgMillis() {
+        return avgMillis;
+    }
+
+    public void setAvgMillis(double avgMillis) {
+        this.avgMillis = avgMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public void setP50Millis(double p50Millis) {
+        this.p50Millis = p50Millis;
+    }
+
+    public double getP95Millis() {
+        return p95Millis;
+    }
+
+    public void setP95Millis(double p95Millis) {
+        this.p95Millis = p95Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public void setP99Millis(double p99Millis) {
+        this.p99Millis = p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public void setMaxMillis(double maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyMetrics{" +
+                "name='" + name + '\'' +
+                ", count=" + count +
+                ", errorCount=" + errorCount +
+                ", avgMillis=" + avgMillis +
+                ", p50Millis=" + p50Millis +
+                ", p95Millis=" + p95Millis +
+                ", p99Millis=" + p99Millis +
+                ", maxMillis=" + maxMillis +
+                '}';
+    }
+}
@@ -1,10 +1,18 @@
 package com.timeyang.athena.utill.jdbc;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
 /**
  * page starts from 0
+ * <p>When {@link #getAfter()} is set, the page is fetched by seeking past the cursor returned as
+ * {@link PagedResult#getNextCursor()} of the previous page instead of skipping {@code page * size} rows, so deep pages
+ * cost the same as the first one. Sorts and criteria must stay the same while following cursors.</p>
  *
  * @author https://github.com/chaokunyang
  */
@@ -13,6 +21,8 @@ public class Page {
     private int size;
     private List<Sort> sorts;
     private List<Criterion> criteria;
+    private String after;
+    private boolean countTotal = true;
 
     public Page() { }
 
@@ -56,11 +66,52 @@ public class Page {
         this.size = size;
     }
 
+    public List<Sort> getSorts() {
+        return sorts;
+    }
+
+    public List<Criterion> getCriteria() {
+        return criteria;
+    }
+
+    /**
+     * @return copy of this page with criteria replaced, e.g. by equivalent criteria which use an index
+     */
+    public Page withCriteria(List<Criterion> criteria) {
+        Page copy = new Page(page, size, sorts, criteria);
+        copy.after = after;
+        copy.countTotal = countTotal;
+        return copy;
+    }
+
+    /**
+     * @return cursor of the last row of previous page, null if page is fetched by offset
+     */
+    public String getAfter() {
+        return after;
+    }
+
+    public void setAfter(String after) {
+        this.after = after;
+    }
+
+    /**
+     * @return whether to count total size of matched rows. Counting can be skipped when only next pages are needed,
+     * then {@link PagedResult#getTotalSize()} is -1
+     */
+    public boolean isCountTotal() {
+        return countTotal;
+    }
+
+    public void setCountTotal(boolean countTotal) {
+        this.countTotal = countTotal;
+    }
+
     public String buildOrderByClause() {
         String clause = "";
         if (sorts != null) {
             String orderBy = sorts.stream()
-                    .map(sort -> sort.getField() + " " + sort.getOrder().toString())
+                    .map(sort -> JdbcUtils.checkIdentifier(sort.getField()) + " " + sort.getOrder().toString())
                     .collect(Collectors.joining(", "));
             orderBy = " ORDER BY " + orderBy;
             clause = orderBy;
@@ -69,6 +120,10 @@ public class Page {
         return clause;
     }
 
+    /**
+     * @return criterion clause with a placeholder for each criterion, values are returned by
+     * {@link #buildCriterionParameters()}
+     */
     public String buildCriterionClause() {
         StringBuilder filterBuilder = new StringBuilder(" ");
         if (criteria != null) {
@@ -87,6 +142,17 @@ public class Page {
         return filterBuilder.toString();
     }
 
+    /**
+     * @return values bound to placeholders of {@link #buildCriterionClause()}, in order
+     */
+    public List<Object> buildCriterionParameters() {
+        List<Object> parameters = new ArrayList<>();
+        if (criteria != null) {
+            criteria.forEach(criterion -> parameters.addAll(criterion.toParameters()));
+        }
+        return parameters;
+    }
+
     public static class Sort {
         private String field;
         private Order order;
@@ -117,4 +183,87 @@ public class Page {
         ASC, DESC
     }
 
+    /**
+     * opaque cursor token of sort values and key of a row
+     */
+    static final class Cursor {
+        private static final String SEPARATOR = ".";
+
+        static String encode(List<Object> values) {
+            Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+            return values.stream()
+                    .map(value -> {
+                        String type;
+                        String str;
+                        if (value == null) {
+                            type = "n";
+                            str = "";
+                        } else if (value instanceof Timestamp) {
+                            Timestamp timestamp = (Timestamp) value;
+                            type = "t";
+                            str = timestamp.getTime() + ":" + timestamp.getNanos();
+                        } else if (value instanceof Long) {
+                            type = "l";
+                            str = value.toString();
+                        } else if (value instanceof Integer || value instanceof Short) {
+                            type = "i";
+                            str = value.toString();
+                        } else if (value instanceof BigDecimal) {
+                            type = "b";
+                            str = value.toString();
+                        } else if (value instanceof Double || value instanceof Float) {
+                            type = "d";
+                            str = value.toString();
+                        } else {
+                            type = "s";
+                            str = value.toString();
+                        }
+                        return type + encoder.encodeToString(str.getBytes(StandardCharsets.UTF_8));
+                    })
+                    .collect(Collectors.joining(SEPARATOR));
+        }
+
+        static List<Object> decode(String cursor) {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            List<Object> values = new ArrayList<>();
+            try {
+                for (String token : cursor.split("\\" + SEPARATOR)) {
+                    char type = token.charAt(0);
+                    String str = new String(decoder.decode(token.substring(1)), StandardCharsets.UTF_8);
+                    switch (type) {
+                        case 't':
+                            String[] parts = str.split(":");
+                            Timestamp timestamp = new Timestamp(Long.parseLong(parts[0]));
+                            timestamp.setNanos(Integer.parseInt(parts[1]));
+                            values.add(timestamp);
+                            break;
+                        case 'l':
+                            values.add(Long.valueOf(str));
+                            break;
+                        case 'i':
+                            values.add(Integer.valueOf(str));
+                            break;
+                        case 'b':
+                            values.add(new BigDecimal(str));
+                            break;
+                        case 'd':
+                            values.add(Double.valueOf(str));
+                            break;
+                        case 's':
+                            values.add(str);
+                            break;
+                        case 'n':
+                            values.add(null);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Illegal cursor: " + cursor);
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Illegal cursor: " + cursor, e);
+            }
+            return values;
+        }
+    }
+
 }
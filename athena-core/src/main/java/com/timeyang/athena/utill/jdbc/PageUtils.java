@@ -0,0 +1,141 @@
+package com.timeyang.athena.utill.jdbc;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * query pages of rows kept in memory, with the same sorts, criteria, cursors and counting as
+ * {@link JdbcUtils#queryPage(javax.sql.DataSource, String, String, String, Page, JdbcUtils.RowMapper)}
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class PageUtils {
+
+    /**
+     * @param rows      rows to query, which already match the constant condition of the query
+     * @param reader    reads column value of a row, e.g. timestamp columns are read as {@link java.sql.Timestamp}
+     * @param keyColumn unique key column used to break ties of sorts, null if sorts are unique
+     * @param page      page
+     * @param mapper    maps matched rows to elements of result
+     * @return paged result
+     */
+    public static <R, T> PagedResult<T> queryPage(Collection<R> rows, ColumnReader<R> reader, String keyColumn,
+                                                  Page page, Function<R, T> mapper) {
+        List<Page.Sort> sorts = JdbcUtils.getSeekSorts(page.getSorts(), keyColumn);
+        List<Criterion> criteria = page.getCriteria();
+
+        List<R> matched = rows.stream()
+                .filter(row -> matches(criteria, column -> reader.read(row, column)))
+                .collect(Collectors.toList());
+        Comparator<List<Object>> valuesComparator = (values1, values2) -> compareSortValues(sorts, values1, values2);
+        matched.sort(Comparator.comparing(row -> sortValues(sorts, reader, row), valuesComparator));
+
+        int from;
+        if (page.getAfter() != null) {
+            if (sorts.isEmpty())
+                throw new IllegalArgumentException("Seeking page after a cursor needs sorts or key column");
+            List<Object> cursorValues = Page.Cursor.decode(page.getAfter());
+            if (cursorValues.size() != sorts.size())
+                throw new IllegalArgumentException("Cursor doesn't match page sorts");
+            // first row after cursor
+            int low = 0, high = matched.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (valuesComparator.compare(sortValues(sorts, reader, matched.get(mid)), cursorValues) <= 0)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            from = low;
+        } else {
+            from = (int) Math.min((long) page.getPage() * page.getSize(), matched.size());
+        }
+        int to = (int) Math.min((long) from + page.getSize(), matched.size());
+        List<R> pageRows = matched.subList(from, to);
+
+        String nextCursor = null;
+        if (to < matched.size() && !pageRows.isEmpty()) {
+            if (!sorts.isEmpty())
+                nextCursor = Page.Cursor.encode(sortValues(sorts, reader, pageRows.get(pageRows.size() - 1)));
+        }
+
+        List<T> elements = pageRows.stream().map(mapper).collect(Collectors.toList());
+        long total = page.isCountTotal() ? matched.size() : -1;
+        return new PagedResult<>(elements, total, page, nextCursor);
+    }
+
+    /**
+     * evaluate criteria like the clause built by {@link Page#buildCriterionClause()}, AND binds tighter than OR
+     *
+     * @param criteria criteria, null or empty matches all
+     * @param values   column name to column value
+     */
+    public static boolean matches(List<Criterion> criteria, Function<String, Object> values) {
+        if (criteria == null || criteria.isEmpty())
+            return true;
+
+        boolean matched = false;
+        boolean conjunction = true;
+        for (int i = 0; i < criteria.size(); i++) {
+            Criterion criterion = criteria.get(i);
+            Criterion.Condition condition = i == 0 ? Criterion.Condition.AND : criterion.getCondition();
+            if (condition == Criterion.Condition.OR) {
+                matched |= conjunction;
+                conjunction = true;
+            } else if (condition != Criterion.Condition.AND) {
+                throw new IllegalArgumentException("Condition " + condition + " isn't supported in memory");
+            }
+            conjunction &= criterion.matches(values.apply(criterion.getField()));
+        }
+        return matched || conjunction;
+    }
+
+    /**
+     * compare two non null column values, numbers are compared by value and other types of different classes by
+     * their string forms
+     */
+    @SuppressWarnings("unchecked")
+    public static int compare(Object value1, Object value2) {
+        if (value1 instanceof Number && value2 instanceof Number)
+            return new BigDecimal(value1.toString()).compareTo(new BigDecimal(value2.toString()));
+        if (value1 instanceof Comparable && value1.getClass() == value2.getClass())
+            return ((Comparable<Object>) value1).compareTo(value2);
+        return value1.toString().compareTo(value2.toString());
+    }
+
+    private static <R> List<Object> sortValues(List<Page.Sort> sorts, ColumnReader<R> reader, R row) {
+        List<Object> values = new ArrayList<>(sorts.size());
+        for (Page.Sort sort : sorts)
+            values.add(reader.read(row, sort.getField()));
+        return values;
+    }
+
+    /**
+     * nulls are ordered last in both directions, like {@code NULLS LAST} of database queries
+     */
+    private static int compareSortValues(List<Page.Sort> sorts, List<Object> values1, List<Object> values2) {
+        for (int i = 0; i < sorts.size(); i++) {
+            Object value1 = values1.get(i);
+            Object value2 = values2.get(i);
+            if (value1 == null || value2 == null) {
+                if (value1 != value2)
+                    return value1 == null ? 1 : -1;
+                continue;
+            }
+            int result = compare(value1, value2);
+            if (result != 0)
+                return sorts.get(i).getOrder() == Page.Order.DESC ? -result : result;
+        }
+        return 0;
+    }
+
+    @FunctionalInterface
+    public interface ColumnReader<R> {
+        Object read(R row, String column);
+    }
+}
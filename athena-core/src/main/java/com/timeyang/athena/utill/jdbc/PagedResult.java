@@ -14,16 +14,26 @@ public class PagedResult<T> {
     private int size;
     private long totalSize;
     private List<T> elements;
+    private String nextCursor;
 
     public PagedResult(List<T> elements, long totalSize, Page page) {
+        this(elements, totalSize, page, null);
+    }
+
+    /**
+     * @param totalSize  total size, -1 if not counted
+     * @param nextCursor cursor to fetch next page with {@link Page#setAfter(String)}, null if no more rows
+     */
+    public PagedResult(List<T> elements, long totalSize, Page page, String nextCursor) {
         this.elements = elements;
         this.totalSize = totalSize;
         this.page = page.getPage();
         this.size = page.getSize();
+        this.nextCursor = nextCursor;
     }
 
     public boolean hasMore() {
-        return totalSize > page + size;
+        return nextCursor != null || totalSize > (long) page * size + elements.size();
     }
 
     public boolean hasPrevious() {
@@ -46,12 +56,17 @@ public class PagedResult<T> {
         return elements;
     }
 
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
     @Override
     public String toString() {
         return "PagedResult{" +
                 "page=" + page +
                 ", size=" + size +
                 ", totalSize=" + totalSize +
+                ", nextCursor=" + nextCursor +
                 ", elements=" + elements +
                 '}';
     }
@@ -0,0 +1,121 @@
+package com.timeyang.athena.utill.jdbc;
+
+/**
+ * usage of a connection pool. Connection counts are current, latencies and timeouts are since start.
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class PoolMetrics {
+    private String poolName;
+    private int maxConnections;
+    private int minConnections;
+    private int totalConnections;
+    private int activeConnections;
+    private int idleConnections;
+    /**
+     * threads waiting for a connection
+     */
+    private int pendingThreads;
+    private long connectionTimeouts;
+    /**
+     * time threads waited to get a connection
+     */
+    private LatencyMetrics connectionWait;
+    /**
+     * time connections were borrowed from pool
+     */
+    private LatencyMetrics connectionUsage;
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    public void setMinConnections(int minConnections) {
+        this.minConnections = minConnections;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public void setTotalConnections(int totalConnections) {
+        this.totalConnections = totalConnections;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public void setActiveConnections(int activeConnections) {
+        this.activeConnections = activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public void setIdleConnections(int idleConnections) {
+        this.idleConnections = idleConnections;
+    }
+
+    public int getPendingThreads() {
+        return pendingThreads;
+    }
+
+    public void setPendingThreads(int pendingThreads) {
+        this.pendingThreads = pendingThreads;
+    }
+
+    public long getConnectionTimeouts() {
+        return connectionTimeouts;
+    }
+
+    public void setConnectionTimeouts(long connectionTimeouts) {
+        this.connectionTimeouts = connectionTimeouts;
+    }
+
+    public LatencyMetrics getConnectionWait() {
+        return connectionWait;
+    }
+
+    public void setConnectionWait(LatencyMetrics connectionWait) {
+        this.connectionWait = connectionWait;
+    }
+
+    public LatencyMetrics getConnectionUsage() {
+        return connectionUsage;
+    }
+
+    public void setConnectionUsage(LatencyMetrics connectionUsage) {
+        this.connectionUsage = connectionUsage;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolMetrics{" +
+                "poolName='" + poolName + '\'' +
+                ", maxConnections=" + maxConnections +
+                ", totalConnections=" + totalConnections +
+                ", activeConnections=" + activeConnections +
+                ", idleConnections=" + idleConnections +
+                ", pendingThreads=" + pendingThreads +
+                ", connectionTimeouts=" + connectionTimeouts +
+                '}';
+    }
+}
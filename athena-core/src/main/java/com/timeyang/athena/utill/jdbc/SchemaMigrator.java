@@ -0,0 +1,146 @@
+package com.timeyang.athena.utill.jdbc;
+
+import com.timeyang.athena.AthenaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Versioned schema migrations of a component. Applied versions are recorded in {@link #SCHEMA_VERSION_TABLE}, so each
+ * migration runs once per database and existing deployments are evolved by the migrations they haven't applied.
+ * <p>Each migration runs in its own transaction, which inserts the version row first. The row lock makes other
+ * instances starting at the same time wait, then they find the version applied and skip it. Migrations of tables
+ * which existed before versioning should be idempotent, e.g. use {@link JdbcUtils#createTableIfAbsent}.</p>
+ *
+ * @author https://github.com/chaokunyang
+ */
+public class SchemaMigrator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+    public static final String SCHEMA_VERSION_TABLE = "schema_version";
+    private static final String DUPLICATE_KEY_SQL_STATE = "23505";
+
+    private final String component;
+    private final TreeMap<Integer, Migration> migrations = new TreeMap<>();
+    private final Map<Integer, String> descriptions = new TreeMap<>();
+
+    /**
+     * @param component name of the component whose schema is versioned, e.g. a table name
+     */
+    public SchemaMigrator(String component) {
+        this.component = component;
+    }
+
+    /**
+     * @param version     version after migration, versions are applied in ascending order
+     * @param description what migration does
+     */
+    public SchemaMigrator add(int version, String description, Migration migration) {
+        if (migrations.putIfAbsent(version, migration) != null)
+            throw new IllegalArgumentException("Duplicate schema version " + version + " of " + component);
+        descriptions.put(version, description);
+        return this;
+    }
+
+    /**
+     * apply migrations not applied yet
+     *
+     * @return number of migrations applied
+     */
+    public int migrate(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return migrate(connection);
+        } catch (SQLException e) {
+            throw new AthenaException("Can't get connection", e);
+        }
+    }
+
+    private int migrate(Connection connection) throws SQLException {
+        String versionSql = "CREATE TABLE " + SCHEMA_VERSION_TABLE +
+                "(" +
+                "component VARCHAR(100) NOT NULL, " +
+                "version INTEGER NOT NULL, " +
+                "description VARCHAR(200), " +
+                "installed_on TIMESTAMP, " +
+                "PRIMARY KEY (component, version)" +
+                ")";
+        try {
+            if (JdbcUtils.createTableIfAbsent(connection, SCHEMA_VERSION_TABLE, versionSql))
+                LOGGER.info("Created table " + SCHEMA_VERSION_TABLE);
+        } catch (AthenaException e) {
+            // created by another instance meanwhile
+            if (!JdbcUtils.isTableExists(connection, SCHEMA_VERSION_TABLE))
+                throw e;
+        }
+
+        Set<Integer> applied = getAppliedVersions(connection);
+        int count = 0;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (Map.Entry<Integer, Migration> entry : migrations.entrySet()) {
+                if (!applied.contains(entry.getKey()) && apply(connection, entry.getKey(), entry.getValue()))
+                    count++;
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return count;
+    }
+
+    /**
+     * @return false if version was applied by another instance
+     */
+    private boolean apply(Connection connection, int version, Migration migration) throws SQLException {
+        String description = descriptions.get(version);
+        String insertSql = "INSERT INTO " + SCHEMA_VERSION_TABLE +
+                "(component, version, description, installed_on) VALUES(?, ?, ?, ?)";
+        try {
+            try (PreparedStatement pStatement = connection.prepareStatement(insertSql)) {
+                pStatement.setString(1, component);
+                pStatement.setInt(2, version);
+                pStatement.setString(3, description);
+                pStatement.setTimestamp(4, Timestamp.from(Instant.now()));
+                pStatement.executeUpdate();
+            }
+            migration.migrate(connection);
+            connection.commit();
+            LOGGER.info("Migrated schema of {} to version {}: {}", component, version, description);
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            if (DUPLICATE_KEY_SQL_STATE.equals(e.getSQLState())) {
+                LOGGER.info("Schema version {} of {} was applied by another instance", version, component);
+                return false;
+            }
+            String msg = String.format("Can't migrate schema of %s to version %d: %s", component, version, description);
+            throw new AthenaException(msg, e);
+        } catch (RuntimeException e) {
+            connection.rollback();
+            String msg = String.format("Can't migrate schema of %s to version %d: %s", component, version, description);
+            throw new AthenaException(msg, e);
+        }
+    }
+
+    private Set<Integer> getAppliedVersions(Connection connection) {
+        String sql = "SELECT version FROM " + SCHEMA_VERSION_TABLE + " WHERE component = ?";
+        return new HashSet<>(JdbcUtils.query(connection, sql, (rs, rowNum) -> rs.getInt("version"), component));
+    }
+
+    /**
+     * a schema change, executed in a transaction of the given connection
+     */
+    @FunctionalInterface
+    public interface Migration {
+        void migrate(Connection connection) throws SQLException;
+    }
+}
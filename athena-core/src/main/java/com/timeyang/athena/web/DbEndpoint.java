@@ -0,0 +1,62 @@
+package com.timeyang.athena.web;
+
+import com.timeyang.athena.Athena;
+import com.timeyang.athena.utill.jdbc.JdbcMetrics;
+import com.timeyang.athena.utill.jdbc.LatencyMetrics;
+import com.timeyang.athena.utill.jdbc.PoolMetrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+/**
+ * metrics of database access, to size connection pool from data. Metrics are not found if jdbc is disabled
+ *
+ * @author https://github.com/chaokunyang
+ */
+@Path("/db")
+public class DbEndpoint {
+    private JdbcMetrics jdbcMetrics = Athena.getInstance().getJdbcMetrics();
+
+    /**
+     * connection counts, threads waiting for a connection, and wait and usage latencies of connections
+     */
+    @GET
+    @Path("/pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    public PoolMetrics getPoolMetrics() {
+        PoolMetrics pool = jdbcMetrics().getPool();
+        if (pool == null)
+            throw new NotFoundException("Database pool isn't metered");
+        return pool;
+    }
+
+    /**
+     * latencies of task repository methods
+     */
+    @GET
+    @Path("/operations")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<LatencyMetrics> getOperationMetrics() {
+        return jdbcMetrics().getOperations();
+    }
+
+    /**
+     * latencies of sql statements
+     */
+    @GET
+    @Path("/statements")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<LatencyMetrics> getStatementMetrics() {
+        return jdbcMetrics().getStatements();
+    }
+
+    private JdbcMetrics jdbcMetrics() {
+        if (jdbcMetrics == null)
+            throw new NotFoundException("Jdbc is disabled");
+        return jdbcMetrics;
+    }
+}
@@ -1,16 +1,25 @@
 package com.timeyang.athena.web;
 
 import com.timeyang.athena.Athena;
+import com.timeyang.athena.task.TaskDailyRollup;
 import com.timeyang.athena.task.TaskInfo.WaitingTask;
 import com.timeyang.athena.task.TaskManager;
+import com.timeyang.athena.task.TaskSchedule;
+import com.timeyang.athena.task.TaskStats;
 import com.timeyang.athena.utill.jdbc.Page;
 import com.timeyang.athena.utill.jdbc.PagedResult;
 
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
 
 import static com.timeyang.athena.task.TaskInfo.FinishedTask;
 import static com.timeyang.athena.task.TaskInfo.RunningTask;
@@ -22,6 +31,13 @@ import static com.timeyang.athena.task.TaskInfo.RunningTask;
 public class TaskEndpoint {
     private TaskManager taskManager = Athena.getInstance().getTaskManager();
 
+    @POST
+    @Path("/submit_tasks")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<Long> submitTasks(List<WaitingTask> tasks) {
+        return taskManager.submitTasks(tasks);
+    }
+
     @POST
     @Path("/waiting_tasks")
     @Produces(MediaType.APPLICATION_JSON)
@@ -42,4 +58,66 @@ public class TaskEndpoint {
     public PagedResult<FinishedTask> getFinishedTasks(Page page) {
         return taskManager.getFinishedTasks(page);
     }
+
+    @GET
+    @Path("/archived_months")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<YearMonth> getArchivedMonths() {
+        return taskManager.getArchivedMonths();
+    }
+
+    /**
+     * @param month month in format of yyyy-MM
+     */
+    @POST
+    @Path("/archived_tasks/{month}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public PagedResult<FinishedTask> getArchivedTasks(@PathParam("month") String month, Page page) {
+        return taskManager.getArchivedTasks(YearMonth.parse(month), page);
+    }
+
+    /**
+     * @param from first day in format of yyyy-MM-dd, inclusive
+     * @param to   last day in format of yyyy-MM-dd, inclusive
+     */
+    @GET
+    @Path("/daily_rollups")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<TaskDailyRollup> getDailyRollups(@QueryParam("from") String from, @QueryParam("to") String to) {
+        return taskManager.getDailyRollups(LocalDate.parse(from), LocalDate.parse(to));
+    }
+
+    @GET
+    @Path("/task_stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<TaskStats> getTaskStats() {
+        return taskManager.getTaskStats();
+    }
+
+    @GET
+    @Path("/task_stats/{taskName}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public TaskStats getTaskStats(@PathParam("taskName") String taskName) {
+        return taskManager.getTaskStats(taskName);
+    }
+
+    @POST
+    @Path("/schedules")
+    @Produces(MediaType.APPLICATION_JSON)
+    public TaskSchedule createSchedule(TaskSchedule schedule) {
+        return taskManager.createSchedule(schedule);
+    }
+
+    @GET
+    @Path("/schedules")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<TaskSchedule> getSchedules() {
+        return taskManager.getSchedules();
+    }
+
+    @DELETE
+    @Path("/schedules/{scheduleId}")
+    public void deleteSchedule(@PathParam("scheduleId") long scheduleId) {
+        taskManager.deleteSchedule(scheduleId);
+    }
 }
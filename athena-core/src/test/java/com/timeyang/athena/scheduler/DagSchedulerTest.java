@@ -0,0 +1,276 @@
+package com.timeyang.athena.scheduler;
+
+import com.timeyang.athena.Athena;
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.FinishedTask;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskManager;
+import com.timeyang.athena.task.TaskState;
+import com.timeyang.athena.task.TaskType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class DagSchedulerTest {
+
+    private DataSource dataSource;
+    /**
+     * tasks of task manager by id, tasks are never launched and finished by tests
+     */
+    private final Map<Long, TaskInfo> tasks = new ConcurrentHashMap<>();
+    private final Map<String, Long> idempotencyKeys = new ConcurrentHashMap<>();
+    private final AtomicLong taskIds = new AtomicLong();
+    private JobStore jobStore;
+    private List<DagScheduler> schedulers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Athena athena = Athena.builder()
+                .disable("hive", "webServer", "messageServer")
+                .getOrCreate();
+        dataSource = athena.getDataSource();
+        jobStore = new JobStore(dataSource);
+    }
+
+    @After
+    public void tearDown() {
+        schedulers.forEach(DagScheduler::stop);
+    }
+
+    @Test
+    public void rankPriority() {
+        // ranks of any job take at most RANK_PRIORITY_BAND priorities
+        assertEquals(DagScheduler.RANK_PRIORITY_BAND - 1, DagScheduler.rankPriority(1000, 1000));
+        assertEquals(DagScheduler.RANK_PRIORITY_BAND - 1, DagScheduler.rankPriority(1, 1));
+        assertEquals(0, DagScheduler.rankPriority(1, 1000));
+        assertEquals(0, DagScheduler.rankPriority(0, 0));
+        for (int rank = 0; rank <= 100; rank++) {
+            int priority = DagScheduler.rankPriority(rank, 100);
+            assertTrue(priority >= 0 && priority < DagScheduler.RANK_PRIORITY_BAND);
+            if (rank > 0)
+                assertTrue(priority >= DagScheduler.rankPriority(rank - 1, 100));
+        }
+    }
+
+    @Test
+    public void storeJob() {
+        Job job = new Job().setJobName("store");
+        JobNode root = new JobNode();
+        root.setNodeIndex(0);
+        root.setTask(template("storeRoot"));
+        root.setRank(2.5);
+        JobNode leaf = new JobNode();
+        leaf.setNodeIndex(1);
+        leaf.setTask(template("storeLeaf"));
+        leaf.getTask().setPriority(3);
+        leaf.setUpstreams(Collections.singletonList(0));
+        leaf.setRank(1);
+        job.setJobNodes(new ArrayList<>(Arrays.asList(root, leaf)));
+        job.setState(JobState.RUNNING);
+        job.setSubmitTime(Instant.now());
+        long jobId = jobStore.create(job).getJobId();
+
+        Job stored = jobStore.get(jobId);
+        assertEquals(JobState.RUNNING, stored.getState());
+        assertEquals(2, stored.getJobNodes().size());
+        JobNode storedLeaf = stored.getJobNodes().get(1);
+        assertEquals(Collections.singletonList(0), storedLeaf.getUpstreams());
+        assertEquals(1, storedLeaf.getRank(), 0);
+        assertEquals("storeLeaf", storedLeaf.getTask().getTaskName());
+        assertEquals(Integer.valueOf(3), storedLeaf.getTask().getPriority());
+        assertEquals(JobNode.State.PENDING, storedLeaf.getState());
+        assertTrue(jobStore.getRunningJobs().stream().anyMatch(running -> running.getJobId() == jobId));
+
+        // only changed nodes are saved
+        root.setTaskId(100L);
+        root.setState(JobNode.State.SUBMITTED);
+        jobStore.update(job, Collections.singletonList(root));
+        stored = jobStore.get(jobId);
+        assertEquals(Long.valueOf(100), stored.getJobNodes().get(0).getTaskId());
+        assertEquals(JobNode.State.SUBMITTED, stored.getJobNodes().get(0).getState());
+        assertNull(stored.getJobNodes().get(1).getTaskId());
+
+        job.setState(JobState.SUCCESS);
+        job.setEndTime(Instant.now());
+        jobStore.update(job, Collections.emptyList());
+        assertEquals(JobState.SUCCESS, jobStore.get(jobId).getState());
+        assertNotNull(jobStore.get(jobId).getEndTime());
+        assertTrue(jobStore.getRunningJobs().stream().noneMatch(running -> running.getJobId() == jobId));
+        assertNull(jobStore.get(-1));
+    }
+
+    @Test
+    public void advanceJob() throws InterruptedException {
+        DagScheduler scheduler = startScheduler();
+        long jobId = scheduler.submit(diamond("advance"));
+
+        // only root is ready
+        Job job = await(jobId, j -> state(j, 0) == JobNode.State.SUBMITTED);
+        assertEquals(JobNode.State.PENDING, state(job, 1));
+        assertEquals(JobNode.State.PENDING, state(job, 2));
+        finish(job.getJobNodes().get(0), TaskState.SUCCESS);
+
+        // both branches are submitted together
+        job = await(jobId, j -> state(j, 1) == JobNode.State.SUBMITTED && state(j, 2) == JobNode.State.SUBMITTED);
+        assertEquals(JobNode.State.PENDING, state(job, 3));
+        finish(job.getJobNodes().get(1), TaskState.SUCCESS);
+        finish(job.getJobNodes().get(2), TaskState.SUCCESS);
+
+        job = await(jobId, j -> state(j, 3) == JobNode.State.SUBMITTED);
+        finish(job.getJobNodes().get(3), TaskState.SUCCESS);
+        job = await(jobId, j -> j.getState() != JobState.RUNNING);
+        assertEquals(JobState.SUCCESS, job.getState());
+        assertNotNull(job.getEndTime());
+        for (JobNode node : job.getJobNodes())
+            assertEquals(JobNode.State.SUCCESS, node.getState());
+    }
+
+    @Test
+    public void cancelOnFailure() throws InterruptedException {
+        DagScheduler scheduler = startScheduler();
+        long jobId = scheduler.submit(diamond("cancel"));
+
+        Job job = await(jobId, j -> state(j, 0) == JobNode.State.SUBMITTED);
+        finish(job.getJobNodes().get(0), TaskState.SUCCESS);
+        job = await(jobId, j -> state(j, 1) == JobNode.State.SUBMITTED && state(j, 2) == JobNode.State.SUBMITTED);
+        finish(job.getJobNodes().get(1), TaskState.FAILED);
+
+        // pending node is cancelled, job fails when submitted branch finished
+        job = await(jobId, j -> state(j, 3) == JobNode.State.CANCELLED);
+        assertEquals(JobNode.State.FAILED, state(job, 1));
+        assertEquals(JobState.RUNNING, job.getState());
+        finish(job.getJobNodes().get(2), TaskState.SUCCESS);
+        job = await(jobId, j -> j.getState() != JobState.RUNNING);
+        assertEquals(JobState.FAILED, job.getState());
+        assertEquals(JobNode.State.SUCCESS, state(job, 2));
+        assertNull(job.getJobNodes().get(3).getTaskId());
+    }
+
+    @Test
+    public void resumeAfterRestart() throws InterruptedException {
+        DagScheduler scheduler = startScheduler();
+        long jobId = scheduler.submit(diamond("resume"));
+        Job job = await(jobId, j -> state(j, 0) == JobNode.State.SUBMITTED);
+        long rootTaskId = job.getJobNodes().get(0).getTaskId();
+        scheduler.stop();
+        schedulers.remove(scheduler);
+
+        // root finished while no scheduler was running
+        finish(job.getJobNodes().get(0), TaskState.SUCCESS);
+        DagScheduler restarted = startScheduler();
+        job = await(jobId, j -> state(j, 1) == JobNode.State.SUBMITTED && state(j, 2) == JobNode.State.SUBMITTED);
+        assertEquals(Long.valueOf(rootTaskId), job.getJobNodes().get(0).getTaskId());
+        assertEquals(JobNode.State.SUCCESS, state(job, 0));
+        assertEquals(JobState.RUNNING, restarted.getJob(jobId).getState());
+    }
+
+    private DagScheduler startScheduler() {
+        AthenaConf conf = new AthenaConf(Collections.singletonMap("job.scheduler.poll.ms", "50"));
+        DagScheduler scheduler = new DagScheduler(conf, taskManager(), dataSource);
+        scheduler.start();
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    /**
+     * task manager which keeps submitted tasks in memory, a task submitted again by its idempotency key gets its
+     * id back
+     */
+    private TaskManager taskManager() {
+        return (TaskManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{TaskManager.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isLeader":
+                            return true;
+                        case "getTaskStats":
+                            return null;
+                        case "getTasks":
+                            Map<Long, TaskInfo> found = new HashMap<>();
+                            for (Object taskId : (Collection<?>) args[0]) {
+                                if (tasks.containsKey(taskId))
+                                    found.put((Long) taskId, tasks.get(taskId));
+                            }
+                            return found;
+                        case "submitTasks":
+                            List<Long> ids = new ArrayList<>();
+                            for (Object submitted : (List<?>) args[0]) {
+                                TaskInfo task = (TaskInfo) submitted;
+                                long taskId = idempotencyKeys.computeIfAbsent(task.getIdempotencyKey(),
+                                        key -> taskIds.incrementAndGet());
+                                task.setTaskId(taskId);
+                                tasks.putIfAbsent(taskId, task);
+                                ids.add(taskId);
+                            }
+                            return ids;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private void finish(JobNode node, TaskState state) {
+        FinishedTask task = new FinishedTask(tasks.get(node.getTaskId()));
+        task.setState(state);
+        tasks.put(node.getTaskId(), task);
+    }
+
+    private Job await(long jobId, Predicate<Job> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            Job job = jobStore.get(jobId);
+            if (condition.test(job))
+                return job;
+            assertTrue("job " + job + " didn't reach expected state", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static JobNode.State state(Job job, int nodeIndex) {
+        return job.getJobNodes().get(nodeIndex).getState();
+    }
+
+    /**
+     * root, two parallel branches and a leaf joining them, added in topological order
+     */
+    private static Job diamond(String name) {
+        String prefix = name + System.currentTimeMillis();
+        TaskInfo root = template(prefix + "Root");
+        TaskInfo left = template(prefix + "Left");
+        TaskInfo right = template(prefix + "Right");
+        TaskInfo leaf = template(prefix + "Leaf");
+        return new Job().setJobName(name)
+                .addTask(root, left, right, leaf)
+                .setUpStrteam(left, root)
+                .setUpStrteam(right, root)
+                .setUpStrteam(leaf, left)
+                .setUpStrteam(leaf, right);
+    }
+
+    private static WaitingTask template(String name) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskName(name);
+        task.setClassName("com.timeyang.athena.Test");
+        task.setTaskType(TaskType.JAVA);
+        task.setMaxTries(1);
+        task.setRetryWait(10L);
+        return task;
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.timeyang.athena.scheduler;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class JobGraphTest {
+
+    @Test
+    public void topologicalOrder() {
+        TaskInfo load = task("load");
+        TaskInfo clean = task("clean");
+        TaskInfo report = task("report");
+        TaskInfo stats = task("stats");
+        // added in reverse order of dependencies
+        Job job = new Job().addTask(report, stats, clean, load)
+                .setUpStrteam(report, clean)
+                .setUpStrteam(report, stats)
+                .setUpStrteam(clean, load)
+                .setUpStrteam(stats, load);
+
+        JobGraph graph = job.buildGrapth();
+        assertEquals(4, graph.size());
+        assertSame(load, graph.getTask(0));
+        assertSame(report, graph.getTask(3));
+        for (int i = 0; i < graph.size(); i++) {
+            for (int up : graph.getUpstreams(i)) {
+                assertTrue(up < i);
+                assertTrue(graph.getDownstreams(up).contains(i));
+            }
+        }
+        assertEquals(Collections.emptyList(), graph.getUpstreams(0));
+        assertEquals(Arrays.asList(1, 2), graph.getUpstreams(3));
+    }
+
+    @Test
+    public void criticalPathRanks() {
+        TaskInfo load = task("load");
+        TaskInfo fast = task("fast");
+        TaskInfo slow = task("slow");
+        TaskInfo report = task("report");
+        Job job = new Job().addTask(load, fast, slow, report)
+                .setUpStrteam(fast, load)
+                .setUpStrteam(slow, load)
+                .setUpStrteam(report, fast)
+                .setUpStrteam(report, slow);
+
+        double[] ranks = job.buildGrapth().ranks(new double[]{1, 2, 10, 3});
+        assertArrayEquals(new double[]{14, 5, 13, 3}, ranks, 0.0001);
+    }
+
+    @Test
+    public void rejectCycle() {
+        TaskInfo a = task("a");
+        TaskInfo b = task("b");
+        TaskInfo c = task("c");
+        Job job = new Job().addTask(a, b, c)
+                .setUpStrteam(b, a)
+                .setUpStrteam(c, b)
+                .setUpStrteam(b, c);
+        try {
+            job.buildGrapth();
+            fail("cycle should be rejected");
+        } catch (AthenaException e) {
+            assertTrue(e.getMessage().contains("cycle"));
+            assertFalse(e.getMessage().contains("a,"));
+        }
+    }
+
+    @Test(expected = AthenaException.class)
+    public void rejectSelfDependency() {
+        TaskInfo a = task("a");
+        new Job().addTask(a).setUpStrteam(a, a).buildGrapth();
+    }
+
+    @Test(expected = AthenaException.class)
+    public void rejectUnknownTask() {
+        TaskInfo a = task("a");
+        new Job().addTask(a).setUpStrteam(a, task("b")).buildGrapth();
+    }
+
+    @Test(expected = AthenaException.class)
+    public void rejectDuplicateTask() {
+        TaskInfo a = task("a");
+        new Job().addTask(a, a).buildGrapth();
+    }
+
+    @Test(expected = AthenaException.class)
+    public void rejectEmptyJob() {
+        new Job().buildGrapth();
+    }
+
+    private static TaskInfo task(String name) {
+        WaitingTask task = new WaitingTask();
+        task.setTaskName(name);
+        return task;
+    }
+}
@@ -0,0 +1,162 @@
+package com.timeyang.athena.task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CachingTaskRepositoryTest {
+
+    private Path dir;
+    private WalTaskRepository delegate;
+    private CachingTaskRepository taskRepository;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("athena-registry");
+        delegate = new WalTaskRepository(dir, false, 1000);
+        taskRepository = new CachingTaskRepository(delegate, 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        taskRepository.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void serveActiveTasksFromMemory() {
+        List<TaskInfo> tasks = createTasks(3);
+        long taskId = tasks.get(0).getTaskId();
+
+        // changed behind registry, registry still serves its own state
+        delegate.deleteWaitingTask(taskId);
+        assertNotNull(taskRepository.getWaitingTask(taskId));
+        assertNull(taskRepository.getFinishedTask(taskId));
+
+        // finished by another instance, finished task is found in repository
+        TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(tasks.get(1));
+        finishedTask.setState(TaskState.KILLED);
+        delegate.moveFromWaitingToFinished(finishedTask);
+        assertEquals(TaskState.KILLED, taskRepository.getFinishedTask(finishedTask.getTaskId()).getState());
+        assertNull(taskRepository.getWaitingTask(finishedTask.getTaskId()));
+
+        // returned tasks are copies
+        taskRepository.getWaitingTask(taskId).setTaskName("changed");
+        assertEquals("registryTask0", taskRepository.getWaitingTask(taskId).getTaskName());
+
+        // transition doesn't match repository, so task is reloaded
+        taskRepository.moveToRunning(running(tasks.get(0)));
+        assertNull(taskRepository.getWaitingTask(taskId));
+        assertFalse(taskRepository.getRunningTask(taskId).isPresent());
+    }
+
+    @Test
+    public void trackTransitions() {
+        List<TaskInfo> tasks = createTasks(3);
+        TaskInfo.RunningTask runningTask = running(tasks.get(0));
+        taskRepository.moveToRunning(runningTask);
+        assertEquals(Integer.valueOf(1), taskRepository.getRunningTask(runningTask.getTaskId()).get().getPid());
+
+        TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(runningTask);
+        finishedTask.setState(TaskState.SUCCESS);
+        taskRepository.moveToFinished(finishedTask);
+        assertEquals(TaskState.SUCCESS, taskRepository.getFinishedTask(finishedTask.getTaskId()).getState());
+        assertFalse(taskRepository.getRunningTask(runningTask.getTaskId()).isPresent());
+
+        // registry loads active tasks on start
+        CachingTaskRepository restarted = new CachingTaskRepository(delegate, 2);
+        delegate.deleteAllWaitingTask();
+        assertNotNull(restarted.getWaitingTask(tasks.get(1).getTaskId()));
+        assertEquals(TaskState.SUCCESS, restarted.getTasks(Collections.singletonList(finishedTask.getTaskId()))
+                .values().stream().map(task -> ((TaskInfo.FinishedTask) task).getState()).findFirst().get());
+    }
+
+    @Test
+    public void resubmitActiveTaskFromMemory() {
+        List<TaskInfo> tasks = createTasks(1);
+        TaskInfo keyed = new TaskInfo.WaitingTask(tasks.get(0));
+        keyed.setTaskId(null);
+        keyed.setIdempotencyKey("key");
+        long taskId = taskRepository.create(keyed).getTaskId();
+
+        // deleted behind registry, the active task is still known by its key
+        delegate.deleteWaitingTask(taskId);
+        TaskInfo resubmit = new TaskInfo.WaitingTask(keyed);
+        resubmit.setTaskId(null);
+        assertTrue(taskRepository.create(Collections.singletonList(resubmit)).isEmpty());
+        assertEquals(Long.valueOf(taskId), resubmit.getTaskId());
+
+        // finished task is checked by repository, which doesn't put it back as waiting
+        CachingTaskRepository restarted = new CachingTaskRepository(delegate, 2);
+        TaskInfo another = new TaskInfo.WaitingTask(keyed);
+        another.setTaskId(null);
+        another.setIdempotencyKey("another");
+        long anotherId = restarted.create(another).getTaskId();
+        TaskInfo.RunningTask runningTask = running(restarted.getWaitingTask(anotherId));
+        restarted.moveToRunning(runningTask);
+        TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(runningTask);
+        finishedTask.setState(TaskState.SUCCESS);
+        restarted.moveToFinished(finishedTask);
+        CachingTaskRepository reloaded = new CachingTaskRepository(delegate, 2);
+        TaskInfo anotherResubmit = new TaskInfo.WaitingTask(another);
+        anotherResubmit.setTaskId(null);
+        assertEquals(Long.valueOf(anotherId), reloaded.create(anotherResubmit).getTaskId());
+        assertNull(reloaded.getWaitingTask(anotherId));
+        assertNotNull(reloaded.getFinishedTask(anotherId));
+    }
+
+    @Test
+    public void refreshFromRepository() {
+        List<TaskInfo> tasks = createTasks(2);
+        long deletedId = tasks.get(0).getTaskId();
+        long startedId = tasks.get(1).getTaskId();
+
+        // changed behind registry, e.g. by leader while this instance stands by
+        delegate.deleteWaitingTask(deletedId);
+        delegate.moveToRunning(running(tasks.get(1)));
+        assertNotNull(taskRepository.getWaitingTask(deletedId));
+        assertNotNull(taskRepository.getWaitingTask(startedId));
+
+        taskRepository.refresh();
+        assertNull(taskRepository.getWaitingTask(deletedId));
+        assertTrue(taskRepository.getRunningTask(startedId).isPresent());
+    }
+
+    private List<TaskInfo> createTasks(int number) {
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < number; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("registryTask" + i);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        return taskRepository.create(tasks);
+    }
+
+    private static TaskInfo.RunningTask running(TaskInfo task) {
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(task);
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        runningTask.setPid(1);
+        return runningTask;
+    }
+}
@@ -7,20 +7,26 @@ import com.timeyang.athena.utill.jdbc.PagedResult;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.List;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
 
 public class TaskRepositoryTest {
 
-    private TaskRepository taskRepository;
+    private JdbcTaskRepository taskRepository;
 
     @Before
     public void setUp() {
         Athena athena = Athena.builder()
                 .disable("hive", "webServer", "messageServer")
                 .getOrCreate();
-        taskRepository = new TaskRepository(athena.getDataSource());
+        taskRepository = new JdbcTaskRepository(athena.getDataSource());
     }
 
     @Test
@@ -41,6 +47,292 @@ public class TaskRepositoryTest {
         }
     }
 
+    @Test
+    public void createWaitingTasksInBatch() {
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("batchTask" + i + System.currentTimeMillis());
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setParams("--date 1970/01/01");
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+
+        taskRepository.create(tasks);
+        Set<Long> taskIds = new HashSet<>();
+        tasks.forEach(task -> {
+            assertNotNull(task.getTaskId());
+            TaskInfo.WaitingTask stored = taskRepository.getWaitingTask(task.getTaskId());
+            assertEquals(task.getTaskName(), stored.getTaskName());
+            assertNull(stored.getIdempotencyKey());
+            taskIds.add(task.getTaskId());
+        });
+        assertEquals(tasks.size(), taskIds.size());
+
+        // later batches take the insert path detected by first one, tasks with and without keys are mixed
+        long now = System.currentTimeMillis();
+        tasks.forEach(task -> {
+            task.setTaskId(null);
+            task.setTaskName("batchTaskAgain" + task.getTaskName());
+        });
+        for (int i = 0; i < tasks.size(); i += 2) {
+            tasks.get(i).setIdempotencyKey("batch-" + now + "-" + i);
+        }
+        taskRepository.create(tasks);
+        tasks.forEach(task -> {
+            TaskInfo.WaitingTask stored = taskRepository.getWaitingTask(task.getTaskId());
+            assertEquals(task.getTaskName(), stored.getTaskName());
+            assertEquals(task.getIdempotencyKey(), stored.getIdempotencyKey());
+            assertTrue(taskIds.add(task.getTaskId()));
+        });
+    }
+
+    @Test
+    public void shareTaskContent() {
+        String classpath = "/opt/athena/lib/athena-core.jar;/opt/athena/lib/" + System.currentTimeMillis() + ".jar";
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("contentTask" + i);
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setClasspath(classpath);
+            waitingTask.setParams("--date 1970/01/0" + i);
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+
+        TaskInfo.WaitingTask first = taskRepository.getWaitingTask(tasks.get(0).getTaskId());
+        TaskInfo.WaitingTask last = taskRepository.getWaitingTask(tasks.get(2).getTaskId());
+        assertNull(first.getClasspath());
+        assertEquals(first.getClasspathHash(), last.getClasspathHash());
+        assertNotEquals(first.getParamsHash(), last.getParamsHash());
+        assertEquals(classpath, last.loadClasspath());
+        assertEquals("--date 1970/01/02", last.loadParams());
+    }
+
+    @Test
+    public void filterByClasspath() {
+        String jar = "filter" + System.nanoTime() + ".jar";
+        String classpath = "/opt/athena/lib/athena-core.jar;/opt/athena/lib/" + jar;
+        TaskInfo waitingTask = new TaskInfo.WaitingTask();
+        waitingTask.setTaskName("classpathTask");
+        waitingTask.setClassName("com.timeyang.athena.Test");
+        waitingTask.setClasspath(classpath);
+        waitingTask.setParams("--date 1970/01/01");
+        waitingTask.setMaxTries(1);
+        waitingTask.setRetryWait(10L);
+        waitingTask.setTaskType(TaskType.JAVA);
+        waitingTask.setSubmitTime(Instant.now());
+        long taskId = taskRepository.create(waitingTask).getTaskId();
+
+        List<Criterion> like = Collections.singletonList(new Criterion("classpath", Criterion.Predicate.LIKE, jar));
+        List<TaskInfo.WaitingTask> tasks = taskRepository.getWaitingTasks(new Page(0, 10, null, like)).getElements();
+        assertEquals(1, tasks.size());
+        assertEquals(Long.valueOf(taskId), tasks.get(0).getTaskId());
+        // listed tasks have their content although it's stored by hash
+        assertEquals(classpath, tasks.get(0).getClasspath());
+        assertEquals("--date 1970/01/01", tasks.get(0).getParams());
+
+        List<Criterion> eq = Collections.singletonList(new Criterion("classpath", Criterion.Predicate.EQ, classpath));
+        assertEquals(1, taskRepository.getWaitingTasks(new Page(0, 10, null, eq)).getTotalSize());
+    }
+
+    @Test
+    public void taskLifecycle() {
+        TaskInfo waitingTask = new TaskInfo.WaitingTask();
+        waitingTask.setTaskName("lifecycleTask" + System.currentTimeMillis());
+        waitingTask.setHost("localhost");
+        waitingTask.setClassName("com.timeyang.athena.Test");
+        waitingTask.setParams("--date 1970/01/01");
+        waitingTask.setMaxTries(1);
+        waitingTask.setRetryWait(10L);
+        waitingTask.setTaskType(TaskType.JAVA);
+        waitingTask.setSubmitTime(Instant.now());
+        long taskId = taskRepository.create(waitingTask).getTaskId();
+
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(taskRepository.getWaitingTask(taskId));
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        runningTask.setPid(1);
+        taskRepository.moveToRunning(runningTask);
+        assertNull(taskRepository.getWaitingTask(taskId));
+        assertEquals(Integer.valueOf(1), taskRepository.getRunningTask(taskId).get().getPid());
+
+        TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(runningTask);
+        finishedTask.setState(TaskState.SUCCESS);
+        taskRepository.moveToFinished(finishedTask);
+        assertFalse(taskRepository.getRunningTask(taskId).isPresent());
+        assertEquals(TaskState.SUCCESS, taskRepository.getFinishedTask(taskId).getState());
+    }
+
+    @Test
+    public void createWithIdempotencyKey() {
+        String key = "key" + System.nanoTime();
+        TaskInfo first = newKeyedTask(key);
+        long taskId = taskRepository.create(first).getTaskId();
+
+        // resubmits get the existing task, also after it started
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(taskRepository.getWaitingTask(taskId));
+        assertEquals(key, runningTask.getIdempotencyKey());
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        taskRepository.moveToRunning(runningTask);
+        assertEquals(Long.valueOf(taskId), taskRepository.create(newKeyedTask(key)).getTaskId());
+
+        String otherKey = "otherKey" + System.nanoTime();
+        List<TaskInfo> tasks = Arrays.asList(newKeyedTask(key), newKeyedTask(otherKey), newKeyedTask(otherKey),
+                newKeyedTask(null));
+        List<TaskInfo> created = taskRepository.create(tasks);
+        assertEquals(Arrays.asList(tasks.get(1), tasks.get(3)), created);
+        assertEquals(Long.valueOf(taskId), tasks.get(0).getTaskId());
+        assertEquals(tasks.get(1).getTaskId(), tasks.get(2).getTaskId());
+        assertNotEquals(tasks.get(1).getTaskId(), tasks.get(3).getTaskId());
+        assertEquals(otherKey, taskRepository.getWaitingTask(tasks.get(1).getTaskId()).getIdempotencyKey());
+    }
+
+    private static TaskInfo newKeyedTask(String key) {
+        TaskInfo task = new TaskInfo.WaitingTask();
+        task.setTaskName("keyedTask");
+        task.setClassName("com.timeyang.athena.Test");
+        task.setMaxTries(1);
+        task.setRetryWait(10L);
+        task.setTaskType(TaskType.JAVA);
+        task.setSubmitTime(Instant.now());
+        task.setIdempotencyKey(key);
+        return task;
+    }
+
+    @Test
+    public void archiveFinishedTasks() {
+        String taskName = "archivedTask" + System.currentTimeMillis();
+        Instant endTime = LocalDate.of(2000, 1, 15).atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant();
+        List<Long> taskIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName(taskName);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(endTime.minusSeconds(100));
+            long taskId = taskRepository.create(waitingTask).getTaskId();
+            taskIds.add(taskId);
+
+            TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(taskRepository.getWaitingTask(taskId));
+            runningTask.setStartTime(endTime.minusSeconds(10 * (i + 1)));
+            runningTask.setTryNumber(1);
+            runningTask.setPid(1);
+            taskRepository.moveToRunning(runningTask);
+            TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(runningTask);
+            finishedTask.setState(TaskState.SUCCESS);
+            finishedTask.setEndTime(endTime);
+            finishedTask.setDuration(Duration.between(runningTask.getStartTime(), endTime));
+            taskRepository.moveToFinished(finishedTask);
+        }
+
+        Instant monthEnd = LocalDate.of(2000, 2, 1).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        assertTrue(taskRepository.archiveFinishedTasks(monthEnd) >= 3);
+        assertTrue(taskRepository.getArchivedMonths().contains(YearMonth.of(2000, 1)));
+        for (Long taskId : taskIds) {
+            assertEquals(TaskState.SUCCESS, taskRepository.getFinishedTask(taskId).getState());
+        }
+        Page page = new Page(0, 10, Collections.emptyList(),
+                Collections.singletonList(new Criterion("task_name", Criterion.Predicate.EQ, taskName)));
+        assertEquals(0, taskRepository.getFinishedTasks(page).getElements().size());
+        assertEquals(3, taskRepository.getArchivedTasks(YearMonth.of(2000, 1), page).getElements().size());
+
+        TaskDailyRollup rollup = taskRepository.getDailyRollups(LocalDate.of(2000, 1, 15), LocalDate.of(2000, 1, 15))
+                .stream().filter(r -> r.getTaskName().equals(taskName)).findFirst().get();
+        assertEquals(3, rollup.getTaskCount());
+        assertEquals(60, rollup.getTotalDuration());
+        assertEquals(30, rollup.getMaxDuration());
+
+        assertEquals(Collections.singletonList(YearMonth.of(2000, 1)), taskRepository.dropFinishedTaskHistory(monthEnd));
+        assertNull(taskRepository.getFinishedTask(taskIds.get(0)));
+        assertEquals(1, taskRepository.getDailyRollups(LocalDate.of(2000, 1, 15), LocalDate.of(2000, 1, 15)).stream()
+                .filter(r -> r.getTaskName().equals(taskName)).count());
+    }
+
+    @Test
+    public void seekWaitingTasks() {
+        createWaitingTasks();
+
+        List<Page.Sort> sorts = Collections.singletonList(new Page.Sort("submit_time", Page.Order.DESC));
+        List<Long> offsetIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            taskRepository.getWaitingTasks(new Page(i, 7, sorts)).getElements()
+                    .forEach(task -> offsetIds.add(task.getTaskId()));
+        }
+
+        List<Long> seekIds = new ArrayList<>();
+        Page page = new Page(0, 7, sorts);
+        page.setCountTotal(false);
+        for (int i = 0; i < 3; i++) {
+            PagedResult<TaskInfo.WaitingTask> result = taskRepository.getWaitingTasks(page);
+            assertEquals(-1, result.getTotalSize());
+            result.getElements().forEach(task -> seekIds.add(task.getTaskId()));
+            page.setAfter(result.getNextCursor());
+        }
+        assertEquals(offsetIds, seekIds);
+    }
+
+    @Test
+    public void seekWaitingTasksByNullableSort() {
+        String prefix = "nullableSort" + System.nanoTime() + "_";
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            TaskInfo task = new TaskInfo.WaitingTask();
+            task.setTaskName(prefix + i);
+            task.setHost(i % 2 == 0 ? "host" + i % 4 : null);
+            task.setClassName("com.timeyang.athena.Test");
+            task.setMaxTries(1);
+            task.setRetryWait(10L);
+            task.setTaskType(TaskType.JAVA);
+            task.setSubmitTime(Instant.now());
+            tasks.add(task);
+        }
+        taskRepository.create(tasks);
+
+        List<Page.Sort> sorts = Collections.singletonList(new Page.Sort("host", Page.Order.DESC));
+        List<Criterion> criteria = Collections.singletonList(
+                new Criterion("task_name", Criterion.Predicate.STARTS_WITH, prefix));
+        List<Long> offsetIds = taskRepository.getWaitingTasks(new Page(0, 10, sorts, criteria)).getElements()
+                .stream().map(TaskInfo::getTaskId).collect(Collectors.toList());
+        assertEquals(10, offsetIds.size());
+
+        // cursors of pages ending with a null host still lead to the next page
+        List<Long> seekIds = new ArrayList<>();
+        Page page = new Page(0, 3, sorts, criteria);
+        for (int i = 0; i < 4; i++) {
+            PagedResult<TaskInfo.WaitingTask> result = taskRepository.getWaitingTasks(page);
+            result.getElements().forEach(task -> seekIds.add(task.getTaskId()));
+            page.setAfter(result.getNextCursor());
+        }
+        assertEquals(offsetIds, seekIds);
+        assertNull(page.getAfter());
+        assertNull(taskRepository.getWaitingTask(offsetIds.get(9)).getHost());
+    }
+
+    @Test
+    public void forEachWaitingTask() {
+        createWaitingTasks();
+
+        Set<Long> taskIds = new HashSet<>();
+        long rows = taskRepository.forEachWaitingTask(task -> taskIds.add(task.getTaskId()));
+        assertEquals(rows, taskIds.size());
+        assertEquals(taskRepository.getWaitingTasks(new Page(0, 1)).getTotalSize(), rows);
+    }
+
     @Test
     public void getWaitingTasks() {
         createWaitingTasks();
@@ -62,4 +354,382 @@ public class TaskRepositoryTest {
         sortedTasks.getElements().forEach(System.out::println);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void applyTransitions() {
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("transitionTask" + i + System.currentTimeMillis());
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(tasks.get(0));
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        runningTask.setPid(1);
+        TaskInfo.FinishedTask succeededTask = new TaskInfo.FinishedTask(runningTask);
+        succeededTask.setState(TaskState.SUCCESS);
+        TaskInfo.FinishedTask failedTask = new TaskInfo.FinishedTask(tasks.get(1));
+        failedTask.setState(TaskState.FAILED);
+        failedTask.setTryNumber(1);
+        TaskInfo.RunningTask notStartedTask = new TaskInfo.RunningTask(tasks.get(2));
+        notStartedTask.setTryNumber(2);
+        notStartedTask.setPid(2);
+
+        int[] counts = taskRepository.applyTransitions(Arrays.asList(
+                TaskTransition.moveToRunning(runningTask),
+                TaskTransition.moveFromWaitingToFinished(failedTask),
+                TaskTransition.updateRunning(notStartedTask),
+                TaskTransition.moveToFinished(succeededTask)));
+        assertArrayEquals(new int[]{1, 1, 0, 1}, counts);
+
+        List<Long> taskIds = Arrays.asList(tasks.get(0).getTaskId(), tasks.get(1).getTaskId(), tasks.get(2).getTaskId());
+        Map<Long, TaskInfo> current = taskRepository.getTasks(taskIds);
+        assertEquals(TaskState.SUCCESS, ((TaskInfo.FinishedTask) current.get(taskIds.get(0))).getState());
+        assertEquals(TaskState.FAILED, ((TaskInfo.FinishedTask) current.get(taskIds.get(1))).getState());
+        assertTrue(current.get(taskIds.get(2)) instanceof TaskInfo.WaitingTask);
+    }
+
+    @Test
+    public void claimWaitingTasks() throws InterruptedException {
+        createWaitingTasksInBatch();
+
+        Set<Long> claimedByA = new HashSet<>();
+        taskRepository.claimWaitingTasks("a", 5, Duration.ofMinutes(1))
+                .forEach(task -> claimedByA.add(task.getTaskId()));
+        assertEquals(5, claimedByA.size());
+        taskRepository.claimWaitingTasks("b", 5, Duration.ofMinutes(1))
+                .forEach(task -> assertFalse(claimedByA.contains(task.getTaskId())));
+
+        // leased tasks are only renewed by owner
+        assertTrue(taskRepository.claimTasks("b", claimedByA, Duration.ofMinutes(1)).isEmpty());
+        assertEquals(claimedByA, taskRepository.claimTasks("a", claimedByA, Duration.ofMillis(1)));
+        // expired leases are reclaimed
+        Thread.sleep(10);
+        assertEquals(claimedByA, taskRepository.claimTasks("b", claimedByA, Duration.ofMinutes(1)));
+    }
+
+    @Test
+    public void claimDueRetries() {
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("retryTask" + i + System.currentTimeMillis());
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(3);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+        List<TaskInfo.RunningTask> runningTasks = new ArrayList<>();
+        for (TaskInfo task : tasks) {
+            TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(task);
+            runningTask.setStartTime(Instant.now());
+            runningTask.setTryNumber(1);
+            runningTask.setPid(1);
+            taskRepository.moveToRunning(runningTask);
+            runningTasks.add(runningTask);
+        }
+        long dueTaskId = runningTasks.get(0).getTaskId();
+        long laterTaskId = runningTasks.get(1).getTaskId();
+        assertTrue(taskRepository.claimTasks("a", Arrays.asList(dueTaskId, laterTaskId), Duration.ofMinutes(1))
+                .contains(dueTaskId));
+
+        // retry releases lease of failed try
+        runningTasks.get(0).setRetryTime(Instant.now().minusSeconds(1));
+        runningTasks.get(1).setRetryTime(Instant.now().plusSeconds(60));
+        assertArrayEquals(new int[]{1, 1}, taskRepository.applyTransitions(Arrays.asList(
+                TaskTransition.retryRunning(runningTasks.get(0)),
+                TaskTransition.retryRunning(runningTasks.get(1)))));
+
+        Set<Long> claimed = taskRepository.claimDueRetries("b", 100, Duration.ofMinutes(1)).stream()
+                .map(TaskInfo::getTaskId).collect(Collectors.toSet());
+        assertTrue(claimed.contains(dueTaskId));
+        assertFalse(claimed.contains(laterTaskId));
+        assertNotNull(taskRepository.getRunningTask(dueTaskId).get().getRetryTime());
+        assertTrue(taskRepository.claimDueRetries("c", 100, Duration.ofMinutes(1)).stream()
+                .noneMatch(task -> task.getTaskId() == dueTaskId));
+
+        // retry started
+        runningTasks.get(0).setTryNumber(2);
+        taskRepository.updateRunningTask(runningTasks.get(0));
+        assertNull(taskRepository.getRunningTask(dueTaskId).get().getRetryTime());
+    }
+
+    @Test
+    public void launchWithLease() {
+        TaskInfo waitingTask = new TaskInfo.WaitingTask();
+        waitingTask.setTaskName("leasedTask" + System.currentTimeMillis());
+        waitingTask.setHost("localhost");
+        waitingTask.setClassName("com.timeyang.athena.Test");
+        waitingTask.setTaskType(TaskType.JAVA);
+        waitingTask.setSubmitTime(Instant.now());
+        taskRepository.create(Collections.singletonList(waitingTask));
+        long taskId = waitingTask.getTaskId();
+        assertEquals(Collections.singleton(taskId),
+                taskRepository.claimTasks("a", Collections.singletonList(taskId), Duration.ofMinutes(1)));
+
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(waitingTask);
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        runningTask.setPid(1);
+        // lease is held by another instance
+        assertArrayEquals(new int[]{0}, taskRepository.applyTransitions(
+                Collections.singletonList(TaskTransition.moveToRunning(runningTask, "b"))));
+        assertNotNull(taskRepository.getWaitingTask(taskId));
+        assertArrayEquals(new int[]{1}, taskRepository.applyTransitions(
+                Collections.singletonList(TaskTransition.moveToRunning(runningTask, "a"))));
+
+        runningTask.setPid(2);
+        assertArrayEquals(new int[]{0}, taskRepository.applyTransitions(
+                Collections.singletonList(TaskTransition.updateRunning(runningTask, "b"))));
+        assertEquals(Integer.valueOf(1), taskRepository.getRunningTask(taskId).get().getPid());
+        assertArrayEquals(new int[]{1}, taskRepository.applyTransitions(
+                Collections.singletonList(TaskTransition.updateRunning(runningTask, "a"))));
+        assertEquals(Integer.valueOf(2), taskRepository.getRunningTask(taskId).get().getPid());
+    }
+
+    @Test
+    public void claimWaitingTasksOfQueue() {
+        String queue = "queue" + System.currentTimeMillis();
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("queuedTask" + i);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now().plusMillis(i));
+            waitingTask.setPriority(i % 2 == 0 ? 0 : 5);
+            waitingTask.setQueue(queue);
+            waitingTask.setCpus(2.0);
+            waitingTask.setMemoryMb(2048);
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+        assertTrue(taskRepository.getWaitingQueues().contains(queue));
+
+        // higher priority first, then older first
+        List<TaskInfo.WaitingTask> claimed = taskRepository.claimWaitingTasks("a", queue, 3, Duration.ofMinutes(1));
+        assertEquals(Arrays.asList(tasks.get(1).getTaskId(), tasks.get(3).getTaskId(), tasks.get(0).getTaskId()),
+                claimed.stream().map(TaskInfo::getTaskId).collect(Collectors.toList()));
+        assertEquals(queue, claimed.get(0).getQueue());
+        assertEquals(Integer.valueOf(5), claimed.get(0).getPriority());
+        assertEquals(2.0, claimed.get(0).getCpus(), 0);
+        assertEquals(Integer.valueOf(2048), claimed.get(0).getMemoryMb());
+        assertEquals(1, taskRepository.claimWaitingTasks("b", queue, 3, Duration.ofMinutes(1)).size());
+    }
+
+    @Test
+    public void getTaskStats() {
+        String taskName = "statsTask" + System.currentTimeMillis();
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName(taskName);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setMaxTries(2);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+
+        for (int i = 0; i < 2; i++) {
+            TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(tasks.get(i));
+            runningTask.setStartTime(Instant.now());
+            runningTask.setTryNumber(i + 1);
+            runningTask.setPid(1);
+            taskRepository.moveToRunning(runningTask);
+            TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(runningTask);
+            finishedTask.setState(i == 0 ? TaskState.SUCCESS : TaskState.FAILED);
+            finishedTask.setDuration(Duration.ofSeconds(100 * (i + 1)));
+            taskRepository.moveToFinished(finishedTask);
+        }
+        TaskInfo.FinishedTask killedTask = new TaskInfo.FinishedTask(tasks.get(2));
+        killedTask.setState(TaskState.KILLED);
+        killedTask.setTryNumber(0);
+        taskRepository.moveFromWaitingToFinished(killedTask);
+        // not counted again if task is finished already
+        taskRepository.moveFromWaitingToFinished(killedTask);
+
+        TaskStats stats = taskRepository.getTaskStats(taskName);
+        assertEquals(3, stats.getTaskCount());
+        assertEquals(1, stats.getSuccessCount());
+        assertEquals(1, stats.getFailedCount());
+        assertEquals(1, stats.getKilledCount());
+        assertEquals(1, stats.getRetriedCount());
+        assertEquals(2, stats.getDurationCount());
+        assertEquals(200, stats.getMaxDuration());
+        assertEquals(150, stats.getAvgDuration(), 0);
+        assertEquals(200, stats.getP99Duration(), 2);
+        assertTrue(taskRepository.getTaskStats().stream().anyMatch(s -> taskName.equals(s.getTaskName())));
+    }
+
+    @Test
+    public void searchTasks() {
+        String key = String.valueOf(System.currentTimeMillis());
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("searchTask" + key + "_" + i);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setParams("--key " + key + " --index " + i);
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+
+        List<Criterion> byName = Collections.singletonList(
+                new Criterion("task_name", Criterion.Predicate.LIKE, "Task" + key));
+        assertEquals(3, taskRepository.getWaitingTasks(new Page(0, 10, null, byName)).getElements().size());
+
+        List<Criterion> byParams = Arrays.asList(
+                new Criterion("params", Criterion.Predicate.LIKE, key + " --index 1"),
+                new Criterion("host", Criterion.Predicate.EQ, "localhost"));
+        List<TaskInfo.WaitingTask> found = taskRepository.getWaitingTasks(new Page(0, 10, null, byParams)).getElements();
+        assertEquals(1, found.size());
+        assertEquals("searchTask" + key + "_1", found.get(0).getTaskName());
+
+        List<Criterion> byParamsPrefix = Collections.singletonList(
+                new Criterion("params", Criterion.Predicate.STARTS_WITH, "--key " + key));
+        assertEquals(3, taskRepository.getWaitingTasks(new Page(0, 10, null, byParamsPrefix)).getElements().size());
+    }
+
+    @Test
+    public void searchManyParams() {
+        String key = String.valueOf(System.currentTimeMillis());
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i <= TaskSearchIndex.MAX_MATCHES; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("broadSearchTask" + key);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setParams("--broad " + key + " --index " + i);
+            waitingTask.setMaxTries(1);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+
+        // more params match than the index rewrites to, content table is searched instead
+        List<Criterion> byParams = Collections.singletonList(
+                new Criterion("params", Criterion.Predicate.LIKE, "broad " + key));
+        PagedResult<TaskInfo.WaitingTask> found = taskRepository.getWaitingTasks(new Page(0, 10, null, byParams));
+        assertEquals(10, found.getElements().size());
+        assertEquals(TaskSearchIndex.MAX_MATCHES + 1, found.getTotalSize());
+        List<Criterion> byParamsPrefix = Collections.singletonList(
+                new Criterion("params", Criterion.Predicate.STARTS_WITH, "--broad " + key));
+        assertEquals(TaskSearchIndex.MAX_MATCHES + 1,
+                taskRepository.getWaitingTasks(new Page(0, 10, null, byParamsPrefix)).getTotalSize());
+    }
+
+    @Test
+    public void refreshSearchIndex() {
+        Athena athena = Athena.builder()
+                .disable("hive", "webServer", "messageServer")
+                .getOrCreate();
+        TaskSearchIndex searchIndex = new TaskSearchIndex(athena.getDataSource(), JdbcTaskRepository.TASK_TABLE);
+        searchIndex.load(taskRepository.getArchivedMonths());
+
+        // created by another instance after load
+        String taskName = "refreshedTask" + System.currentTimeMillis();
+        TaskInfo waitingTask = new TaskInfo.WaitingTask();
+        waitingTask.setTaskName(taskName);
+        waitingTask.setHost("localhost");
+        waitingTask.setClassName("com.timeyang.athena.Test");
+        waitingTask.setParams("--refreshed " + taskName);
+        waitingTask.setMaxTries(1);
+        waitingTask.setRetryWait(10L);
+        waitingTask.setTaskType(TaskType.JAVA);
+        waitingTask.setSubmitTime(Instant.now());
+        taskRepository.create(waitingTask);
+
+        Page page = searchIndex.rewrite(new Page(0, 10, null, Arrays.asList(
+                new Criterion("task_name", Criterion.Predicate.LIKE, taskName),
+                new Criterion("params", Criterion.Predicate.LIKE, "--refreshed " + taskName))));
+        assertEquals(Criterion.Predicate.IN, page.getCriteria().get(0).getPredicate());
+        assertEquals(Collections.singletonList(taskName), page.getCriteria().get(0).getCompareTo());
+        assertEquals(Collections.singletonList(waitingTask.getParamsHash()),
+                page.getCriteria().get(1).getCompareTo());
+    }
+
+    @Test
+    public void fireSchedule() {
+        TaskSchedule schedule = newSchedule();
+        taskRepository.createSchedule(schedule);
+        long scheduleId = schedule.getScheduleId();
+        TaskSchedule loaded = taskRepository.getSchedule(scheduleId);
+        assertEquals("*/5 * * * *", loaded.getCronExpression());
+        assertEquals(TaskSchedule.MisfirePolicy.CATCH_UP, loaded.getMisfirePolicy());
+        assertEquals(schedule.getNextFireTime(), loaded.getNextFireTime());
+        assertEquals("com.timeyang.athena.Test", loaded.getTask().getClassName());
+        assertEquals(Integer.valueOf(3), loaded.getTask().getPriority());
+        assertTrue(taskRepository.getSchedules().stream().anyMatch(s -> s.getScheduleId() == scheduleId));
+
+        Instant fireTime = schedule.getNextFireTime();
+        Instant nextFireTime = schedule.fireTimeAfter(fireTime);
+        List<TaskInfo.WaitingTask> tasks = Arrays.asList(schedule.newTask(fireTime), schedule.newTask(fireTime));
+        assertTrue(taskRepository.fireSchedule(scheduleId, fireTime, nextFireTime, fireTime, tasks));
+        for (TaskInfo.WaitingTask task : tasks) {
+            assertEquals("--date 1970/01/01", taskRepository.getWaitingTask(task.getTaskId()).loadParams());
+        }
+        loaded = taskRepository.getSchedule(scheduleId);
+        assertEquals(nextFireTime, loaded.getNextFireTime());
+        assertEquals(fireTime, loaded.getLastFireTime());
+
+        // fired already, tasks aren't created
+        List<TaskInfo.WaitingTask> lateTasks = Collections.singletonList(schedule.newTask(fireTime));
+        assertFalse(taskRepository.fireSchedule(scheduleId, fireTime, nextFireTime, fireTime, lateTasks));
+        assertNull(lateTasks.get(0).getTaskId());
+
+        taskRepository.deleteSchedule(scheduleId);
+        assertNull(taskRepository.getSchedule(scheduleId));
+    }
+
+    static TaskSchedule newSchedule() {
+        TaskInfo.WaitingTask task = new TaskInfo.WaitingTask();
+        task.setTaskName("scheduledTask");
+        task.setClassName("com.timeyang.athena.Test");
+        task.setParams("--date 1970/01/01");
+        task.setMaxTries(1);
+        task.setRetryWait(10L);
+        task.setTaskType(TaskType.JAVA);
+        task.setPriority(3);
+        task.setQueue(TaskInfo.DEFAULT_QUEUE);
+        task.setCpus(TaskInfo.DEFAULT_CPUS);
+        task.setMemoryMb(TaskInfo.DEFAULT_MEMORY_MB);
+
+        TaskSchedule schedule = new TaskSchedule();
+        schedule.setScheduleName("schedule" + System.currentTimeMillis());
+        schedule.setCronExpression("*/5 * * * *");
+        schedule.setTimeZone("UTC");
+        schedule.setMisfirePolicy(TaskSchedule.MisfirePolicy.CATCH_UP);
+        schedule.setTask(task);
+        Instant now = Instant.now().truncatedTo(java.time.temporal.ChronoUnit.SECONDS);
+        schedule.setCreateTime(now);
+        schedule.setNextFireTime(schedule.fireTimeAfter(now));
+        return schedule;
+    }
+
+}
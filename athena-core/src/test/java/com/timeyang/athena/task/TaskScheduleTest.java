@@ -0,0 +1,40 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class TaskScheduleTest {
+
+    @Test
+    public void fixedRateKeepsPhase() {
+        TaskSchedule schedule = new TaskSchedule();
+        schedule.setFixedRate(60L);
+        Instant start = Instant.parse("2020-01-01T00:00:10Z");
+        assertEquals(start.plusSeconds(60), schedule.fireTimeAfter(start));
+
+        schedule.setNextFireTime(start);
+        assertEquals(start, schedule.fireTimeAfter(start.minusSeconds(1)));
+        assertEquals(start.plusSeconds(60), schedule.fireTimeAfter(start));
+        assertEquals(start.plusSeconds(180), schedule.fireTimeAfter(start.plusSeconds(150)));
+    }
+
+    @Test
+    public void cronInTimeZone() {
+        TaskSchedule schedule = new TaskSchedule();
+        schedule.setCronExpression("0 8 * * *");
+        schedule.setTimeZone("Asia/Shanghai");
+        assertEquals(Instant.parse("2020-01-02T00:00:00Z"),
+                schedule.fireTimeAfter(Instant.parse("2020-01-01T01:00:00Z")));
+    }
+
+    @Test(expected = AthenaException.class)
+    public void validateRejectsBothCronAndFixedRate() {
+        TaskSchedule schedule = TaskRepositoryTest.newSchedule();
+        schedule.setFixedRate(60L);
+        schedule.validate();
+    }
+}
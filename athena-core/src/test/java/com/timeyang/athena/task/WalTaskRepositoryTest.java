@@ -0,0 +1,465 @@
+package com.timeyang.athena.task;
+
+import com.timeyang.athena.AthenaException;
+import com.timeyang.athena.utill.jdbc.Criterion;
+import com.timeyang.athena.utill.jdbc.Page;
+import com.timeyang.athena.utill.jdbc.PagedResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class WalTaskRepositoryTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("athena-wal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void recoverFromLog() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        List<TaskInfo> tasks = createTasks(taskRepository, 10);
+        long runningTaskId = tasks.get(0).getTaskId();
+        long finishedTaskId = tasks.get(1).getTaskId();
+        run(taskRepository, runningTaskId);
+        run(taskRepository, finishedTaskId);
+        finish(taskRepository, finishedTaskId, Instant.now());
+        taskRepository.deleteWaitingTask(tasks.get(2).getTaskId());
+
+        // not closed, so state is replayed from log only
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        assertEquals(7, recovered.getWaitingTasks(new Page(0, 100)).getTotalSize());
+        assertEquals(Integer.valueOf(1), recovered.getRunningTask(runningTaskId).get().getPid());
+        assertEquals(TaskState.SUCCESS, recovered.getFinishedTask(finishedTaskId).getState());
+        assertNull(recovered.getWaitingTask(tasks.get(2).getTaskId()));
+        assertEquals("--date 1970/01/03", recovered.getWaitingTask(tasks.get(3).getTaskId()).loadParams());
+
+        // ids continue after recovered ones
+        long taskId = createTasks(recovered, 1).get(0).getTaskId();
+        assertEquals(tasks.get(9).getTaskId() + 1, taskId);
+        recovered.close();
+    }
+
+    @Test
+    public void recoverFromSnapshot() throws IOException {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 10);
+        List<TaskInfo> tasks = createTasks(taskRepository, 30);
+        for (int i = 0; i < 20; i++) {
+            run(taskRepository, tasks.get(i).getTaskId());
+        }
+        for (int i = 0; i < 10; i++) {
+            finish(taskRepository, tasks.get(i).getTaskId(), Instant.now());
+        }
+        taskRepository.close();
+
+        try (Stream<Path> paths = Files.list(dir)) {
+            assertEquals(1, paths.filter(path -> path.getFileName().toString().startsWith("snapshot-")).count());
+        }
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 10);
+        assertEquals(10, recovered.getWaitingTasks(new Page(0, 100)).getTotalSize());
+        assertEquals(10, recovered.getRunningTasks(new Page(0, 100)).getTotalSize());
+        assertEquals(10, recovered.getFinishedTasks(new Page(0, 100)).getTotalSize());
+        recovered.close();
+    }
+
+    @Test
+    public void truncateTornRecord() throws IOException {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        createTasks(taskRepository, 5);
+
+        Path segment;
+        try (Stream<Path> paths = Files.list(dir)) {
+            segment = paths.filter(path -> path.getFileName().toString().startsWith("wal-")).findFirst().get();
+        }
+        // a record header whose payload never made it to disk
+        Files.write(segment, new byte[]{0, 0, 0, 100, 1, 2}, StandardOpenOption.APPEND);
+
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        assertEquals(5, recovered.getWaitingTasks(new Page(0, 100)).getTotalSize());
+        createTasks(recovered, 1);
+        assertEquals(6, new WalTaskRepository(dir, true, 1000).getWaitingTasks(new Page(0, 100)).getTotalSize());
+    }
+
+    @Test
+    public void appendBeforeApply() {
+        AtomicBoolean failing = new AtomicBoolean();
+        TaskLog log = new TaskLog(dir, false) {
+            @Override
+            long append(byte[] record) {
+                if (failing.get())
+                    throw new AthenaException("Can't append task log record");
+                return super.append(record);
+            }
+        };
+        WalTaskRepository taskRepository = new WalTaskRepository(log, 1000);
+        long taskId = createTasks(taskRepository, 1).get(0).getTaskId();
+
+        failing.set(true);
+        try {
+            run(taskRepository, taskId);
+            fail("change must fail when it can't be logged");
+        } catch (AthenaException e) {
+            // memory isn't ahead of log, readers never see the change
+            assertNotNull(taskRepository.getWaitingTask(taskId));
+            assertFalse(taskRepository.getRunningTask(taskId).isPresent());
+        }
+        failing.set(false);
+        try {
+            createTasks(taskRepository, 1);
+            fail("changes must be rejected after log failed");
+        } catch (AthenaException e) {
+            assertEquals(1, taskRepository.getWaitingTasks(new Page(0, 100)).getTotalSize());
+        }
+
+        // every change readers saw is in log
+        WalTaskRepository recovered = new WalTaskRepository(dir, false, 1000);
+        assertNotNull(recovered.getWaitingTask(taskId));
+        recovered.close();
+    }
+
+    @Test
+    public void getWaitingTasks() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, false, 1000);
+        createTasks(taskRepository, 20);
+
+        List<Page.Sort> sorts = Collections.singletonList(new Page.Sort("max_tries", Page.Order.DESC));
+        List<Criterion> criteria = Arrays.asList(
+                new Criterion("host", Criterion.Predicate.EQ, "localhost"),
+                new Criterion("params", Criterion.Predicate.LIKE, "1970/01/1"));
+        List<Long> offsetIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            PagedResult<TaskInfo.WaitingTask> result = taskRepository.getWaitingTasks(new Page(i, 4, sorts, criteria));
+            assertEquals(10, result.getTotalSize());
+            result.getElements().forEach(task -> offsetIds.add(task.getTaskId()));
+        }
+        assertEquals(10, offsetIds.size());
+
+        List<Long> seekIds = new ArrayList<>();
+        Page page = new Page(0, 4, sorts, criteria);
+        page.setCountTotal(false);
+        for (int i = 0; i < 3; i++) {
+            PagedResult<TaskInfo.WaitingTask> result = taskRepository.getWaitingTasks(page);
+            result.getElements().forEach(task -> seekIds.add(task.getTaskId()));
+            page.setAfter(result.getNextCursor());
+        }
+        assertEquals(offsetIds, seekIds);
+        assertNull(page.getAfter());
+
+        List<Integer> maxTries = offsetIds.stream()
+                .map(taskId -> taskRepository.getWaitingTask(taskId).getMaxTries())
+                .collect(Collectors.toList());
+        List<Integer> sorted = new ArrayList<>(maxTries);
+        sorted.sort(Comparator.reverseOrder());
+        assertEquals(sorted, maxTries);
+        taskRepository.close();
+    }
+
+    @Test
+    public void archiveFinishedTasks() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        List<TaskInfo> tasks = createTasks(taskRepository, 3);
+        Instant endTime = LocalDate.of(2000, 1, 15).atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant();
+        for (TaskInfo task : tasks) {
+            run(taskRepository, task.getTaskId());
+            finish(taskRepository, task.getTaskId(), endTime);
+        }
+
+        Instant monthEnd = LocalDate.of(2000, 2, 1).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        assertEquals(3, taskRepository.archiveFinishedTasks(monthEnd));
+        assertEquals(0, taskRepository.getFinishedTasks(new Page(0, 10)).getTotalSize());
+
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        assertEquals(Collections.singletonList(YearMonth.of(2000, 1)), recovered.getArchivedMonths());
+        assertEquals(3, recovered.getArchivedTasks(YearMonth.of(2000, 1), new Page(0, 10)).getTotalSize());
+        assertEquals(TaskState.SUCCESS, recovered.getFinishedTask(tasks.get(0).getTaskId()).getState());
+        List<TaskDailyRollup> rollups = recovered.getDailyRollups(LocalDate.of(2000, 1, 1), LocalDate.of(2000, 1, 31));
+        assertEquals(3, rollups.size());
+        assertEquals(3, rollups.stream().mapToLong(TaskDailyRollup::getTaskCount).sum());
+
+        assertEquals(Collections.singletonList(YearMonth.of(2000, 1)), recovered.dropFinishedTaskHistory(monthEnd));
+        assertNull(recovered.getFinishedTask(tasks.get(0).getTaskId()));
+        recovered.close();
+        assertEquals(3, new WalTaskRepository(dir, true, 1000)
+                .getDailyRollups(LocalDate.of(2000, 1, 1), LocalDate.of(2000, 1, 31)).size());
+    }
+
+    @Test
+    public void applyTransitions() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        List<TaskInfo> tasks = createTasks(taskRepository, 3);
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(tasks.get(0));
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        runningTask.setPid(1);
+        TaskInfo.FinishedTask succeededTask = new TaskInfo.FinishedTask(runningTask);
+        succeededTask.setState(TaskState.SUCCESS);
+        TaskInfo.FinishedTask failedTask = new TaskInfo.FinishedTask(tasks.get(1));
+        failedTask.setState(TaskState.FAILED);
+        failedTask.setTryNumber(1);
+
+        int[] counts = taskRepository.applyTransitions(Arrays.asList(
+                TaskTransition.moveToRunning(runningTask),
+                TaskTransition.moveFromWaitingToFinished(failedTask),
+                TaskTransition.moveToFinished(succeededTask),
+                TaskTransition.moveToFinished(failedTask)));
+        assertArrayEquals(new int[]{1, 1, 1, 0}, counts);
+
+        // not closed, transitions are replayed from log
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        Map<Long, TaskInfo> current = recovered.getTasks(
+                tasks.stream().map(TaskInfo::getTaskId).collect(Collectors.toList()));
+        assertEquals(TaskState.SUCCESS, ((TaskInfo.FinishedTask) current.get(tasks.get(0).getTaskId())).getState());
+        assertEquals(TaskState.FAILED, ((TaskInfo.FinishedTask) current.get(tasks.get(1).getTaskId())).getState());
+        assertTrue(current.get(tasks.get(2).getTaskId()) instanceof TaskInfo.WaitingTask);
+        recovered.close();
+    }
+
+    @Test
+    public void claimWaitingTasks() throws InterruptedException {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, false, 1000);
+        List<TaskInfo> tasks = createTasks(taskRepository, 10);
+
+        List<Long> claimedByA = taskRepository.claimWaitingTasks("a", 4, Duration.ofMinutes(1)).stream()
+                .map(TaskInfo::getTaskId).collect(Collectors.toList());
+        assertEquals(tasks.subList(0, 4).stream().map(TaskInfo::getTaskId).collect(Collectors.toList()), claimedByA);
+        List<Long> claimedByB = taskRepository.claimWaitingTasks("b", 10, Duration.ofMillis(1)).stream()
+                .map(TaskInfo::getTaskId).collect(Collectors.toList());
+        assertEquals(6, claimedByB.size());
+        assertTrue(Collections.disjoint(claimedByA, claimedByB));
+
+        assertTrue(taskRepository.claimTasks("b", claimedByA, Duration.ofMinutes(1)).isEmpty());
+        assertEquals(new HashSet<>(claimedByA), taskRepository.claimTasks("a", claimedByA, Duration.ofMinutes(1)));
+        Thread.sleep(10);
+        assertEquals(new HashSet<>(claimedByB), taskRepository.claimTasks("c", claimedByB, Duration.ofMinutes(1)));
+        taskRepository.close();
+    }
+
+    @Test
+    public void claimWaitingTasksOfQueue() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, false, 1000);
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("walTask" + i);
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            waitingTask.setPriority(i % 3);
+            waitingTask.setQueue(i < 4 ? "backfill" : "interactive");
+            waitingTask.setCpus(0.5 * (i + 1));
+            waitingTask.setMemoryMb(1024);
+            tasks.add(waitingTask);
+        }
+        taskRepository.create(tasks);
+        assertEquals(new HashSet<>(Arrays.asList("backfill", "interactive")), taskRepository.getWaitingQueues());
+
+        List<Long> claimed = taskRepository.claimWaitingTasks("a", "backfill", 3, Duration.ofMinutes(1)).stream()
+                .map(TaskInfo::getTaskId).collect(Collectors.toList());
+        assertEquals(Arrays.asList(tasks.get(2).getTaskId(), tasks.get(1).getTaskId(), tasks.get(0).getTaskId()),
+                claimed);
+        taskRepository.moveToRunning(new TaskInfo.RunningTask(taskRepository.getWaitingTask(tasks.get(4).getTaskId())));
+        assertEquals(Collections.singletonList(tasks.get(5).getTaskId()),
+                taskRepository.claimWaitingTasks("a", "interactive", 3, Duration.ofMinutes(1)).stream()
+                        .map(TaskInfo::getTaskId).collect(Collectors.toList()));
+
+        // priority, queue and resource requests survive recovery from log and from snapshot
+        WalTaskRepository recovered = new WalTaskRepository(dir, false, 1000);
+        TaskInfo.WaitingTask task = recovered.getWaitingTask(tasks.get(2).getTaskId());
+        assertEquals(Integer.valueOf(2), task.getPriority());
+        assertEquals("backfill", task.getQueue());
+        assertEquals(1.5, task.getCpus(), 0);
+        assertEquals(Integer.valueOf(1024), task.getMemoryMb());
+        recovered.close();
+        recovered = new WalTaskRepository(dir, false, 1000);
+        assertEquals("interactive", recovered.getWaitingTask(tasks.get(5).getTaskId()).getQueue());
+        assertEquals(new HashSet<>(Arrays.asList("backfill", "interactive")), recovered.getWaitingQueues());
+        recovered.close();
+    }
+
+    @Test
+    public void getTaskStats() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        List<TaskInfo> tasks = createTasks(taskRepository, 3);
+        for (TaskInfo task : tasks) {
+            run(taskRepository, task.getTaskId());
+            finish(taskRepository, task.getTaskId(), Instant.now());
+        }
+        // archived tasks are still counted
+        taskRepository.archiveFinishedTasks(Instant.now().plusSeconds(1));
+
+        TaskStats stats = taskRepository.getTaskStats("walTask0");
+        assertEquals(1, stats.getSuccessCount());
+        assertEquals(10, stats.getMaxDuration());
+        assertEquals(10, stats.getP50Duration(), 0.2);
+        assertEquals(3, taskRepository.getTaskStats().size());
+        assertNull(taskRepository.getTaskStats("absent"));
+        taskRepository.close();
+
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        assertEquals(3, recovered.getTaskStats().size());
+        assertEquals(1, recovered.getTaskStats("walTask2").getTaskCount());
+        assertEquals(10, recovered.getTaskStats("walTask2").getP99Duration(), 0.2);
+        recovered.close();
+    }
+
+    @Test
+    public void recoverRetries() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        List<TaskInfo> tasks = createTasks(taskRepository, 3);
+        for (TaskInfo task : tasks) {
+            run(taskRepository, task.getTaskId());
+        }
+        Instant now = Instant.now();
+        retry(taskRepository, tasks.get(0).getTaskId(), now.minusSeconds(1));
+        retry(taskRepository, tasks.get(1).getTaskId(), now.minusSeconds(2));
+        retry(taskRepository, tasks.get(2).getTaskId(), now.plusSeconds(60));
+        taskRepository.close();
+
+        // retry times are kept in snapshot, then in log
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        retry(recovered, tasks.get(2).getTaskId(), now.minusSeconds(3));
+        WalTaskRepository replayed = new WalTaskRepository(dir, true, 1000);
+        assertEquals(Arrays.asList(tasks.get(2).getTaskId(), tasks.get(1).getTaskId()),
+                replayed.claimDueRetries("a", 2, Duration.ofMinutes(1)).stream()
+                        .map(TaskInfo::getTaskId).collect(Collectors.toList()));
+        assertEquals(tasks.get(0).getTaskId(),
+                replayed.claimDueRetries("b", 10, Duration.ofMinutes(1)).get(0).getTaskId());
+
+        // started retry is no longer due
+        TaskInfo.RunningTask runningTask = replayed.getRunningTask(tasks.get(0).getTaskId()).get();
+        runningTask.setTryNumber(2);
+        replayed.updateRunningTask(runningTask);
+        assertNull(replayed.getRunningTask(tasks.get(0).getTaskId()).get().getRetryTime());
+        assertTrue(replayed.claimDueRetries("c", 10, Duration.ofMinutes(1)).isEmpty());
+    }
+
+    @Test
+    public void recoverIdempotencyKeys() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        createTasks(taskRepository, 3);
+        long taskId = taskRepository.create(newKeyedTask("a")).getTaskId();
+        run(taskRepository, taskId);
+        taskRepository.close();
+
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        List<TaskInfo> resubmits = Arrays.asList(newKeyedTask("a"), newKeyedTask("b"), newKeyedTask("b"));
+        List<TaskInfo> created = recovered.create(resubmits);
+        assertEquals(Collections.singletonList(resubmits.get(1)), created);
+        assertEquals(Long.valueOf(taskId), resubmits.get(0).getTaskId());
+        assertEquals(resubmits.get(1).getTaskId(), resubmits.get(2).getTaskId());
+
+        // deleted task frees its key
+        recovered.deleteWaitingTask(resubmits.get(1).getTaskId());
+        WalTaskRepository replayed = new WalTaskRepository(dir, true, 1000);
+        TaskInfo resubmit = newKeyedTask("b");
+        assertEquals(Collections.singletonList(resubmit), replayed.create(Collections.singletonList(resubmit)));
+        assertEquals("b", replayed.getWaitingTask(resubmit.getTaskId()).getIdempotencyKey());
+    }
+
+    private static TaskInfo newKeyedTask(String key) {
+        TaskInfo task = new TaskInfo.WaitingTask();
+        task.setTaskName("keyedTask");
+        task.setClassName("com.timeyang.athena.Test");
+        task.setTaskType(TaskType.JAVA);
+        task.setSubmitTime(Instant.now());
+        task.setIdempotencyKey(key);
+        return task;
+    }
+
+    private static void retry(TaskRepository taskRepository, long taskId, Instant retryTime) {
+        TaskInfo.RunningTask runningTask = taskRepository.getRunningTask(taskId).get();
+        runningTask.setRetryTime(retryTime);
+        taskRepository.applyTransitions(Collections.singletonList(TaskTransition.retryRunning(runningTask)));
+    }
+
+    private static List<TaskInfo> createTasks(TaskRepository taskRepository, int number) {
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < number; i++) {
+            TaskInfo waitingTask = new TaskInfo.WaitingTask();
+            waitingTask.setTaskName("walTask" + i);
+            waitingTask.setHost("localhost");
+            waitingTask.setClassName("com.timeyang.athena.Test");
+            waitingTask.setParams(String.format("--date 1970/01/%02d", i));
+            waitingTask.setMaxTries(i % 5);
+            waitingTask.setRetryWait(10L);
+            waitingTask.setTaskType(TaskType.JAVA);
+            waitingTask.setSubmitTime(Instant.now());
+            tasks.add(waitingTask);
+        }
+        return taskRepository.create(tasks);
+    }
+
+    private static void run(TaskRepository taskRepository, long taskId) {
+        TaskInfo.RunningTask runningTask = new TaskInfo.RunningTask(taskRepository.getWaitingTask(taskId));
+        runningTask.setStartTime(Instant.now());
+        runningTask.setTryNumber(1);
+        runningTask.setPid(1);
+        taskRepository.moveToRunning(runningTask);
+    }
+
+    private static void finish(TaskRepository taskRepository, long taskId, Instant endTime) {
+        TaskInfo.FinishedTask finishedTask = new TaskInfo.FinishedTask(taskRepository.getRunningTask(taskId).get());
+        finishedTask.setState(TaskState.SUCCESS);
+        finishedTask.setEndTime(endTime);
+        finishedTask.setDuration(Duration.ofSeconds(10));
+        taskRepository.moveToFinished(finishedTask);
+    }
+    @Test
+    public void recoverSchedules() {
+        WalTaskRepository taskRepository = new WalTaskRepository(dir, true, 1000);
+        TaskSchedule schedule = taskRepository.createSchedule(TaskRepositoryTest.newSchedule());
+        TaskSchedule deleted = taskRepository.createSchedule(TaskRepositoryTest.newSchedule());
+        taskRepository.deleteSchedule(deleted.getScheduleId());
+        Instant fireTime = schedule.getNextFireTime();
+        Instant nextFireTime = schedule.fireTimeAfter(fireTime);
+        List<TaskInfo.WaitingTask> tasks = Collections.singletonList(schedule.newTask(fireTime));
+        assertTrue(taskRepository.fireSchedule(schedule.getScheduleId(), fireTime, nextFireTime, fireTime, tasks));
+        assertFalse(taskRepository.fireSchedule(schedule.getScheduleId(), fireTime, nextFireTime, fireTime,
+                Collections.singletonList(schedule.newTask(fireTime))));
+
+        // not closed, so schedules are replayed from log
+        WalTaskRepository recovered = new WalTaskRepository(dir, true, 1000);
+        assertEquals(1, recovered.getSchedules().size());
+        assertEquals(nextFireTime, recovered.getSchedule(schedule.getScheduleId()).getNextFireTime());
+        assertEquals("--date 1970/01/01", recovered.getWaitingTask(tasks.get(0).getTaskId()).loadParams());
+        recovered.close();
+
+        // closed, so schedules are read from snapshot
+        WalTaskRepository reopened = new WalTaskRepository(dir, true, 1000);
+        TaskSchedule loaded = reopened.getSchedule(schedule.getScheduleId());
+        assertEquals(fireTime, loaded.getLastFireTime());
+        assertEquals("com.timeyang.athena.Test", loaded.getTask().getClassName());
+        assertEquals(Integer.valueOf(3), loaded.getTask().getPriority());
+        assertNull(reopened.getSchedule(deleted.getScheduleId()));
+        // ids continue after recovered ones
+        assertEquals(deleted.getScheduleId() + 1,
+                (long) reopened.createSchedule(TaskRepositoryTest.newSchedule()).getScheduleId());
+        reopened.close();
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.timeyang.athena.task.exec;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SlotManagerTest {
+
+    @Test
+    public void limitGloballyAndPerHost() {
+        SlotManager slotManager = new SlotManager(3, host -> "big".equals(host) ? 3 : 1);
+        slotManager.addHost("big");
+        slotManager.addHost("small");
+        assertEquals(3, slotManager.getAvailableSlots());
+
+        assertTrue(slotManager.tryAcquire(1, "small"));
+        assertFalse(slotManager.tryAcquire(2, "small"));
+        // a task holding a slot keeps it
+        assertTrue(slotManager.tryAcquire(1, "small"));
+        assertEquals(0, slotManager.getAvailableSlots("small"));
+
+        assertTrue(slotManager.tryAcquire(2, "big"));
+        assertTrue(slotManager.tryAcquire(3, "big"));
+        assertFalse(slotManager.tryAcquire(4, "big"));
+        assertEquals(0, slotManager.getAvailableSlots());
+        assertEquals(3, slotManager.getUsedSlots());
+    }
+
+    @Test
+    public void release() {
+        SlotManager slotManager = new SlotManager(1, host -> 1);
+        AtomicInteger released = new AtomicInteger();
+        slotManager.setReleaseListener(released::incrementAndGet);
+
+        assertTrue(slotManager.tryAcquire(1, "localhost"));
+        assertFalse(slotManager.tryAcquire(2, "localhost"));
+        slotManager.release(1);
+        slotManager.release(1);
+        assertEquals(1, released.get());
+        assertEquals(0, slotManager.getUsedSlots("localhost"));
+        assertTrue(slotManager.tryAcquire(2, "localhost"));
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.timeyang.athena.task.exec;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import com.timeyang.athena.task.TestTask;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TaskBackendTest {
+
+    private TaskBackend taskBackend;
+
+    @After
+    public void tearDown() {
+        if (taskBackend != null)
+            taskBackend.stop();
+    }
+
+    @Test
+    public void failWithoutHandshake() throws InterruptedException {
+        Map<String, String> settings = AthenaConf.DEFAULT_CONF.getAll();
+        settings.put("task.executor.handshake.timeout.ms", "500");
+        Set<Long> failed = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(1);
+        SlotManager slotManager = new SlotManager(1, host -> 1);
+        slotManager.addHost("localhost");
+        taskBackend = new TaskBackend(new AthenaConf(settings), new TaskCallback() {
+            @Override
+            public CompletableFuture<Void> onStarted(long taskId, int pid) {
+                throw new AssertionError("executor of task " + taskId + " can't start");
+            }
+
+            @Override
+            public CompletableFuture<Void> onSuccess(long taskId) {
+                throw new AssertionError("executor of task " + taskId + " can't succeed");
+            }
+
+            @Override
+            public CompletableFuture<Void> onFailure(long taskId) {
+                failed.add(taskId);
+                done.countDown();
+                return CompletableFuture.completedFuture(null);
+            }
+
+            @Override
+            public CompletableFuture<Void> onLost(long taskId) {
+                throw new AssertionError("executor of task " + taskId + " can't be lost");
+            }
+
+            @Override
+            public CompletableFuture<TaskInfo> onResumed(long taskId, int pid) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }, slotManager, new HostLoads(1000));
+
+        // launch command exits with zero code, but executor dies at once as its main class can't be found
+        WaitingTask task = new WaitingTask();
+        task.setTaskId(1L);
+        task.setHost("localhost");
+        task.setClassName(TestTask.class.getName());
+        task.setClasspath("/nonexistent");
+        task.setParams("");
+        task.setTaskType(TaskType.JAVA);
+        assertTrue(taskBackend.runTask(task));
+        assertFalse(slotManager.tryAcquire(2, "localhost"));
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(failed.contains(1L));
+        assertFalse(taskBackend.isTaskRunning(1L));
+        assertTrue(slotManager.tryAcquire(2, "localhost"));
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.timeyang.athena.task.exec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TaskLauncherTest {
+
+    private TaskLauncher launcher;
+
+    @Before
+    public void setUp() {
+        launcher = new TaskLauncher(8, 2);
+    }
+
+    @After
+    public void tearDown() {
+        launcher.stop();
+    }
+
+    @Test
+    public void launchConcurrently() throws InterruptedException {
+        int tasks = 8;
+        CountDownLatch prepared = new CountDownLatch(tasks);
+        long start = System.currentTimeMillis();
+        Map<Long, Throwable> failures = new ConcurrentHashMap<>();
+        for (long taskId = 0; taskId < tasks; taskId++) {
+            launcher.launch(taskId, () -> {
+                prepared.countDown();
+                return "sleep 1";
+            }, e -> failures.put(-1L, e));
+        }
+        assertTrue(prepared.await(5, TimeUnit.SECONDS));
+        // commands run in parallel, not one after another
+        launcher.stop();
+        assertTrue(System.currentTimeMillis() - start < tasks * 1000);
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void drainLargeOutput() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        Map<Long, Throwable> failures = new ConcurrentHashMap<>();
+        // output far beyond pipe buffer, followed by a failing exit code
+        launcher.launch(1, () -> "seq 1 20000; exit 3", e -> {
+            failures.put(1L, e);
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(failures.get(1L).getMessage().contains("exited with code 3"));
+    }
+
+    @Test
+    public void reportFailures() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        Map<Long, Throwable> failures = new ConcurrentHashMap<>();
+        launcher.launch(1, () -> {
+            throw new IllegalStateException("can't create task");
+        }, e -> {
+            failures.put(1L, e);
+            done.countDown();
+        });
+        // killed after timeout
+        launcher.launch(2, () -> "sleep 30", e -> {
+            failures.put(2L, e);
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(failures.get(1L) instanceof IllegalStateException);
+        assertNotNull(failures.get(2L));
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.exec.HostLoads;
+import com.timeyang.athena.task.exec.SlotManager;
+import com.timeyang.athena.task.message.TaskMessage.HostLoad;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BestFitPlacementTest {
+
+    @Test
+    public void packOntoFullestHostTaskFits() {
+        SlotManager slotManager = new SlotManager(100, host -> 10);
+        HostLoads hostLoads = new HostLoads(60_000);
+        BestFitPlacement placement = new BestFitPlacement(slotManager, hostLoads);
+        slotManager.addHost("big");
+        slotManager.addHost("busy");
+        hostLoads.report("big", new HostLoad(16, 0, 64 * 1024, 64 * 1024));
+        hostLoads.report("busy", new HostLoad(8, 5, 16 * 1024, 8 * 1024));
+
+        assertEquals("busy", placement.place(task(2, 4096)));
+        // no room left on busy host
+        assertEquals("big", placement.place(task(4, 4096)));
+        assertEquals("big", placement.place(task(2, 12 * 1024)));
+        assertNull(placement.place(task(32, 1024)));
+
+        // reservations of tasks just placed count before they show in load
+        assertTrue(slotManager.tryAcquire(1, "busy", 2, 4096));
+        assertEquals("big", placement.place(task(2, 4096)));
+        slotManager.release(1);
+        assertEquals("busy", placement.place(task(2, 4096)));
+    }
+
+    @Test
+    public void placeOnUnreportedHostLast() {
+        SlotManager slotManager = new SlotManager(100, host -> 1);
+        HostLoads hostLoads = new HostLoads(60_000);
+        BestFitPlacement placement = new BestFitPlacement(slotManager, hostLoads);
+        slotManager.addHost("new");
+        slotManager.addHost("reported");
+        hostLoads.report("reported", new HostLoad(4, 0, 8 * 1024, 8 * 1024));
+
+        assertEquals("reported", placement.place(task(1, 1024)));
+        assertEquals("new", placement.place(task(8, 1024)));
+        assertTrue(slotManager.tryAcquire(1, "new"));
+        assertNull(placement.place(task(8, 1024)));
+    }
+
+    private static WaitingTask task(double cpus, int memoryMb) {
+        WaitingTask task = new WaitingTask();
+        task.setCpus(cpus);
+        task.setMemoryMb(memoryMb);
+        return task;
+    }
+}
@@ -0,0 +1,45 @@
+package com.timeyang.athena.task.scheduler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FairShareQueuesTest {
+
+    @Test
+    public void allocateByWeight() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("interactive", 3);
+        FairShareQueues queues = new FairShareQueues(weights);
+        List<String> busy = Arrays.asList("backfill", "interactive");
+
+        Map<String, Integer> launched = new HashMap<>();
+        for (int round = 0; round < 10; round++) {
+            queues.allocate(busy, 8).forEach((queue, slots) -> {
+                queues.charge(queue, slots);
+                launched.merge(queue, slots, Integer::sum);
+            });
+        }
+        assertEquals(80, launched.get("backfill") + launched.get("interactive"));
+        assertEquals(60, launched.get("interactive"), 1);
+    }
+
+    @Test
+    public void idleQueueDoesNotBankCredit() {
+        FairShareQueues queues = new FairShareQueues(Collections.emptyMap());
+        queues.allocate(Collections.singletonList("backfill"), 100)
+                .forEach(queues::charge);
+
+        // a queue becoming busy shares from now on instead of catching up on past launches
+        Map<String, Integer> allocation = queues.allocate(Arrays.asList("backfill", "interactive"), 10);
+        assertEquals(Integer.valueOf(5), allocation.get("backfill"));
+        assertEquals(Integer.valueOf(5), allocation.get("interactive"));
+    }
+
+}
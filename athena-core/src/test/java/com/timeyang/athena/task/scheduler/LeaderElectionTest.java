@@ -0,0 +1,58 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.Athena;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class LeaderElectionTest {
+
+    private DataSource dataSource;
+    private String role;
+
+    @Before
+    public void setUp() {
+        Athena athena = Athena.builder()
+                .disable("hive", "webServer", "messageServer")
+                .getOrCreate();
+        dataSource = athena.getDataSource();
+        role = "role" + System.nanoTime();
+    }
+
+    @Test
+    public void takeOverExpiredLease() {
+        LeaderElection leader = new LeaderElection(dataSource, role, "a", Duration.ofSeconds(10));
+        LeaderElection standby = new LeaderElection(dataSource, role, "b", Duration.ofSeconds(10));
+        Instant now = Instant.now();
+
+        assertTrue(leader.acquire(now));
+        assertFalse(standby.acquire(now));
+        // renewed by its holder
+        assertTrue(leader.acquire(now.plusSeconds(5)));
+        assertFalse(standby.acquire(now.plusSeconds(14)));
+
+        // taken over after expiry, previous leader can't renew it
+        assertTrue(standby.acquire(now.plusSeconds(16)));
+        assertFalse(leader.acquire(now.plusSeconds(17)));
+    }
+
+    @Test
+    public void releaseOnStop() {
+        LeaderElection leader = new LeaderElection(dataSource, role, "a", Duration.ofMinutes(10));
+        LeaderElection standby = new LeaderElection(dataSource, role, "b", Duration.ofMinutes(10));
+        leader.start();
+        standby.start();
+        assertTrue(leader.isLeader());
+        assertFalse(standby.isLeader());
+
+        leader.stop();
+        assertFalse(leader.isLeader());
+        assertTrue(standby.acquire(Instant.now().plusMillis(1)));
+        standby.stop();
+    }
+}
@@ -0,0 +1,45 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.task.TaskInfo;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RetryBackoffTest {
+
+    @Test
+    public void growByTryNumber() {
+        RetryBackoff backoff = new RetryBackoff(10, 2, 60, 0);
+        TaskInfo task = new TaskInfo.RunningTask();
+        task.setRetryWait(5L);
+
+        assertEquals(Duration.ofSeconds(5), backoff.delay(task, 1));
+        assertEquals(Duration.ofSeconds(10), backoff.delay(task, 2));
+        assertEquals(Duration.ofSeconds(40), backoff.delay(task, 4));
+        assertEquals(Duration.ofSeconds(60), backoff.delay(task, 10));
+
+        // tasks without retry wait use default wait
+        assertEquals(Duration.ofSeconds(10), backoff.delay(new TaskInfo.RunningTask(), 1));
+    }
+
+    @Test
+    public void jitterSpreadsRetries() {
+        RetryBackoff backoff = new RetryBackoff(10, 1, 60, 0.5);
+        TaskInfo task = new TaskInfo.RunningTask();
+        task.setRetryWait(10L);
+
+        Set<Duration> delays = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            Duration delay = backoff.delay(task, 1);
+            assertTrue(delay.compareTo(Duration.ofSeconds(5)) >= 0);
+            assertTrue(delay.compareTo(Duration.ofSeconds(10)) <= 0);
+            delays.add(delay);
+        }
+        assertTrue(delays.size() > 1);
+    }
+
+}
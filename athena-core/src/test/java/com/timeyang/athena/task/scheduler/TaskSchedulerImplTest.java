@@ -0,0 +1,79 @@
+package com.timeyang.athena.task.scheduler;
+
+import com.timeyang.athena.AthenaConf;
+import com.timeyang.athena.task.TaskInfo;
+import com.timeyang.athena.task.TaskInfo.WaitingTask;
+import com.timeyang.athena.task.TaskType;
+import com.timeyang.athena.task.WalTaskRepository;
+import com.timeyang.athena.task.exec.HostLoads;
+import com.timeyang.athena.task.message.TaskMessage.HostLoad;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class TaskSchedulerImplTest {
+
+    private AthenaConf previousConf;
+    private Path dir;
+    private WalTaskRepository taskRepository;
+
+    @Before
+    public void setUp() throws IOException {
+        previousConf = AthenaConf.CONF;
+        dir = Files.createTempDirectory("athena-scheduler");
+        taskRepository = new WalTaskRepository(dir, false, 1000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        AthenaConf.CONF = previousConf;
+        taskRepository.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void releaseTasksWhichFitOnNoHost() {
+        Map<String, String> settings = AthenaConf.DEFAULT_CONF.getAll();
+        settings.put("task.scheduler.hosts", "small");
+        settings.put("task.scheduler.batch.size", "2");
+        AthenaConf athenaConf = new AthenaConf(settings);
+        HostLoads hostLoads = new HostLoads(60_000);
+        // host has free slots, but not the cores tasks request
+        hostLoads.report("small", new HostLoad(1, 0, 8 * 1024, 8 * 1024));
+        TaskSchedulerImpl scheduler = new TaskSchedulerImpl(athenaConf, taskRepository, null, hostLoads);
+
+        List<TaskInfo> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            WaitingTask task = new WaitingTask();
+            task.setTaskName("bigTask" + i);
+            task.setClassName("com.timeyang.athena.Test");
+            task.setTaskType(TaskType.JAVA);
+            task.setMaxTries(1);
+            task.setRetryWait(10L);
+            task.setQueue("default");
+            task.setCpus(8.0);
+            task.setSubmitTime(Instant.now());
+            tasks.add(task);
+        }
+        taskRepository.create(tasks);
+
+        assertEquals(0, scheduler.scheduleWaitingTasks());
+        // leases of tasks not launched were released, another instance can launch them right away
+        assertEquals(5, taskRepository.claimWaitingTasks("other", 10, Duration.ofMinutes(1)).size());
+    }
+}
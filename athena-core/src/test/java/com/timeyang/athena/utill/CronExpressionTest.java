@@ -0,0 +1,63 @@
+package com.timeyang.athena.utill;
+
+import com.timeyang.athena.AthenaException;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.*;
+
+public class CronExpressionTest {
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    @Test
+    public void next() {
+        ZonedDateTime time = ZonedDateTime.of(2020, 1, 1, 10, 7, 30, 0, UTC);
+        assertEquals(time.withSecond(0).plusMinutes(1), CronExpression.parse("* * * * *").next(time));
+        assertEquals(time.withMinute(15).withSecond(0), CronExpression.parse("*/15 * * * *").next(time));
+        assertEquals(ZonedDateTime.of(2020, 1, 2, 2, 30, 0, 0, UTC),
+                CronExpression.parse("30 2 * * *").next(time));
+        // 2020-01-06 is a Monday
+        assertEquals(ZonedDateTime.of(2020, 1, 6, 9, 0, 0, 0, UTC),
+                CronExpression.parse("0 9 * * mon-fri").next(ZonedDateTime.of(2020, 1, 3, 9, 0, 0, 0, UTC)));
+        assertEquals(ZonedDateTime.of(2020, 3, 1, 0, 0, 0, 0, UTC),
+                CronExpression.parse("0 0 1 MAR,JUN *").next(time));
+        // day of week 7 is Sunday, 2020-01-05 is a Sunday
+        assertEquals(ZonedDateTime.of(2020, 1, 5, 0, 0, 0, 0, UTC), CronExpression.parse("0 0 * * 7").next(time));
+        assertEquals(ZonedDateTime.of(2020, 2, 29, 0, 0, 0, 0, UTC), CronExpression.parse("0 0 29 2 *").next(time));
+        assertNull(CronExpression.parse("0 0 30 2 *").next(time));
+    }
+
+    @Test
+    public void eitherDayMatches() {
+        // 15th of month or Monday, 2020-01-06 is a Monday
+        CronExpression expression = CronExpression.parse("0 0 15 * 1");
+        ZonedDateTime time = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, UTC);
+        time = expression.next(time);
+        assertEquals(6, time.getDayOfMonth());
+        time = expression.next(time);
+        assertEquals(13, time.getDayOfMonth());
+        time = expression.next(time);
+        assertEquals(15, time.getDayOfMonth());
+    }
+
+    @Test
+    public void nextInTimeZone() {
+        ZoneId shanghai = ZoneId.of("Asia/Shanghai");
+        ZonedDateTime next = CronExpression.parse("0 8 * * *").next(ZonedDateTime.of(2020, 1, 1, 9, 0, 0, 0, shanghai));
+        assertEquals(ZonedDateTime.of(2020, 1, 2, 8, 0, 0, 0, shanghai), next);
+    }
+
+    @Test
+    public void invalidExpressions() {
+        for (String expression : new String[]{"* * * *", "60 * * * *", "* 24 * * *", "5-1 * * * *", "* * * foo *",
+                "*/0 * * * *"}) {
+            try {
+                CronExpression.parse(expression);
+                fail("Expect invalid cron expression: " + expression);
+            } catch (AthenaException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.timeyang.athena.utill;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HashedTimingWheelTest {
+
+    @Test
+    public void advance() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(100, 4, 0);
+        wheel.schedule(1, "a", 350);
+        wheel.schedule(2, "b", 300);
+        // more than a turn away, shares a bucket with earlier ticks
+        wheel.schedule(3, "c", 1050);
+        assertEquals(3, wheel.size());
+
+        assertTrue(wheel.advance(299).isEmpty());
+        assertEquals(Collections.singletonList("b"), wheel.advance(300));
+        assertEquals(Collections.singletonList("a"), wheel.advance(400));
+        assertTrue(wheel.advance(1000).isEmpty());
+        assertEquals(Collections.singletonList("c"), wheel.advance(1100));
+        assertEquals(0, wheel.size());
+        assertEquals(1200, wheel.nextTickMillis());
+    }
+
+    @Test
+    public void scheduleAndCancel() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(100, 8, 0);
+        wheel.schedule(1, "a", 500);
+        wheel.schedule(1, "b", 200);
+        assertEquals("b", wheel.get(1));
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.cancel(1));
+        assertFalse(wheel.cancel(1));
+        assertTrue(wheel.advance(1000).isEmpty());
+
+        // deadline passed, due on next tick
+        wheel.schedule(2, "c", 0);
+        assertEquals(Collections.singletonList("c"), wheel.advance(1100));
+    }
+
+    @Test
+    public void advanceAfterLongPause() {
+        HashedTimingWheel<Integer> wheel = new HashedTimingWheel<>(10, 16, 0);
+        for (int i = 0; i < 1000; i++) {
+            wheel.schedule(i, i, i * 10);
+        }
+        List<Integer> due = wheel.advance(100_000);
+        assertEquals(1000, due.size());
+        assertEquals(0, wheel.size());
+    }
+}
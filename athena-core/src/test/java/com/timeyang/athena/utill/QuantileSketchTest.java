@@ -0,0 +1,57 @@
+package com.timeyang.athena.utill;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void getQuantile() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(1000, sketch.getCount());
+        assertEquals(500, sketch.getQuantile(0.5), 500 * 0.01);
+        assertEquals(950, sketch.getQuantile(0.95), 950 * 0.01);
+        assertEquals(990, sketch.getQuantile(0.99), 990 * 0.01);
+        assertEquals(1000, sketch.getQuantile(1), 1000 * 0.01);
+
+        sketch.add(0, 2000);
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+    }
+
+    @Test
+    public void merge() {
+        Random random = new Random(0);
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch left = new QuantileSketch();
+        QuantileSketch right = new QuantileSketch();
+        for (int i = 0; i < 10000; i++) {
+            double value = random.nextDouble() * 3600;
+            all.add(value);
+            (i % 2 == 0 ? left : right).add(value);
+        }
+        left.merge(right);
+        assertEquals(all.getCount(), left.getCount());
+        assertEquals(all.getQuantile(0.5), left.getQuantile(0.5), 0);
+        assertEquals(all.getQuantile(0.99), left.getQuantile(0.99), 0);
+    }
+
+    @Test
+    public void toBytes() {
+        QuantileSketch sketch = new QuantileSketch(0.02);
+        for (int i = 0; i < 100; i++) {
+            sketch.add(i * 7);
+        }
+        QuantileSketch decoded = QuantileSketch.fromBytes(sketch.toBytes());
+        assertEquals(sketch.getCount(), decoded.getCount());
+        assertEquals(0.02, decoded.getRelativeAccuracy(), 0);
+        assertEquals(sketch.getQuantile(0.9), decoded.getQuantile(0.9), 0);
+    }
+
+}
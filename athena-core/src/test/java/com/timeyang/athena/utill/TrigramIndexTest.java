@@ -0,0 +1,50 @@
+package com.timeyang.athena.utill;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TrigramIndexTest {
+
+    @Test
+    public void search() {
+        TrigramIndex index = new TrigramIndex();
+        assertTrue(index.add("1", "daily_report"));
+        assertTrue(index.add("2", "hourly_report"));
+        assertTrue(index.add("3", "daily_cleanup"));
+        assertFalse(index.add("1", "other"));
+        assertEquals(3, index.size());
+        assertTrue(index.contains("2"));
+
+        assertEquals(Arrays.asList("1", "2"), index.searchContains("_report", 10));
+        assertEquals(Arrays.asList("1", "3"), index.searchPrefix("daily", 10));
+        assertEquals(Collections.singletonList("3"), index.searchContains("cleanup", 10));
+        assertEquals(Collections.emptyList(), index.searchContains("weekly", 10));
+        // all trigrams present, but not in a row
+        assertEquals(Collections.emptyList(), index.searchContains("ailyly", 10));
+    }
+
+    @Test
+    public void searchShortQuery() {
+        TrigramIndex index = new TrigramIndex();
+        index.add("1", "ab");
+        index.add("2", "abc");
+        index.add("3", "xbc");
+        assertEquals(Arrays.asList("2", "3"), index.searchContains("bc", 10));
+        assertEquals(Arrays.asList("1", "2"), index.searchPrefix("a", 10));
+    }
+
+    @Test
+    public void searchOverLimit() {
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < 10; i++) {
+            index.add(String.valueOf(i), "task_" + i);
+        }
+        assertNull(index.searchContains("task", 5));
+        assertEquals(10, index.searchContains("task", 10).size());
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.timeyang.athena.utill.jdbc;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class CountCacheTest {
+
+    @Test
+    public void invalidateOnWrite() {
+        CountCache countCache = new CountCache(60_000, 10);
+        AtomicLong rows = new AtomicLong(1);
+        assertEquals(1, countCache.get("count", rows::get));
+        rows.set(2);
+        assertEquals(1, countCache.get("count", rows::get));
+
+        countCache.invalidate();
+        assertEquals(2, countCache.get("count", rows::get));
+    }
+
+    @Test
+    public void keepCountsWhenFull() {
+        CountCache countCache = new CountCache(60_000, 2);
+        assertEquals(1, countCache.get("a", () -> 1));
+        assertEquals(2, countCache.get("b", () -> 2));
+        assertEquals(3, countCache.get("c", () -> 3));
+        // cached totals are kept, the new one isn't cached
+        assertEquals(1, countCache.get("a", () -> 10));
+        assertEquals(30, countCache.get("c", () -> 30));
+    }
+}
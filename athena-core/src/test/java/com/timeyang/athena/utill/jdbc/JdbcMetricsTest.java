@@ -0,0 +1,77 @@
+package com.timeyang.athena.utill.jdbc;
+
+import com.timeyang.athena.Athena;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JdbcMetricsTest {
+
+    @Test
+    public void time() {
+        JdbcMetrics metrics = new JdbcMetrics(1000);
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            assertEquals(Integer.valueOf(i), metrics.time("query", () -> value));
+        }
+        try {
+            metrics.time("update", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        List<LatencyMetrics> operations = metrics.getOperations();
+        assertEquals(2, operations.size());
+        assertEquals("query", operations.get(0).getName());
+        assertEquals(10, operations.get(0).getCount());
+        assertEquals(0, operations.get(0).getErrorCount());
+        assertTrue(operations.get(0).getP99Millis() <= operations.get(0).getMaxMillis() * 1.01);
+        assertEquals(1, operations.get(1).getErrorCount());
+        assertNull(metrics.getPool());
+    }
+
+    @Test
+    public void recordStatement() {
+        JdbcMetrics metrics = new JdbcMetrics(1000);
+        metrics.recordStatement("SELECT * FROM task WHERE task_id IN (?)", 1000);
+        metrics.recordStatement("SELECT * FROM task WHERE task_id IN (?, ?)", 1000);
+        metrics.recordStatement("SELECT * FROM task WHERE task_id IN (?,?, ?)", 1000);
+        metrics.recordStatement("UPDATE task SET pid = ? WHERE task_id = ?", 1000);
+
+        List<LatencyMetrics> statements = metrics.getStatements();
+        assertEquals(3, statements.size());
+        assertEquals("SELECT * FROM task WHERE task_id IN (?)", statements.get(0).getName());
+        // parameter lists of any length share a sketch
+        assertEquals("SELECT * FROM task WHERE task_id IN (?, ...)", statements.get(1).getName());
+        assertEquals(2, statements.get(1).getCount());
+        assertEquals(1, statements.get(2).getCount());
+
+        // number of statements is bounded
+        for (int i = 0; i < JdbcMetrics.MAX_STATEMENTS; i++)
+            metrics.recordStatement("SELECT * FROM t" + i, 1000);
+        statements = metrics.getStatements();
+        assertEquals(JdbcMetrics.MAX_STATEMENTS + 1, statements.size());
+        assertTrue(statements.stream().anyMatch(statement -> statement.getName().equals(JdbcMetrics.OTHER_STATEMENTS)
+                && statement.getCount() == 3));
+    }
+
+    @Test
+    public void getPool() {
+        Athena athena = Athena.builder()
+                .disable("hive", "webServer", "messageServer")
+                .getOrCreate();
+        JdbcUtils.query(athena.getDataSource(), "SELECT COUNT(*) FROM " + SchemaMigrator.SCHEMA_VERSION_TABLE,
+                (rs, rowNum) -> rs.getLong(1));
+
+        PoolMetrics pool = athena.getJdbcMetrics().getPool();
+        assertEquals(athena.athenaConf().getDbPoolSize(), pool.getMaxConnections());
+        assertTrue(pool.getConnectionWait().getCount() > 0);
+        assertTrue(pool.getTotalConnections() >= pool.getActiveConnections());
+    }
+
+}
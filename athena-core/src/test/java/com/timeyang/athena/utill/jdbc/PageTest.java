@@ -0,0 +1,58 @@
+package com.timeyang.athena.utill.jdbc;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PageTest {
+
+    @Test
+    public void buildCriterionClause() {
+        List<Criterion> criteria = Arrays.asList(
+                new Criterion("host", Criterion.Predicate.EQ, "localhost"),
+                new Criterion("class_name", Criterion.Predicate.LIKE, "50%_off"),
+                new Criterion("max_tries", Criterion.Predicate.NEQ, 1, Criterion.Condition.OR));
+        Page page = new Page(0, 10, null, criteria);
+
+        Page samePage = new Page(3, 10, null, Arrays.asList(
+                new Criterion("host", Criterion.Predicate.EQ, "other"),
+                new Criterion("class_name", Criterion.Predicate.LIKE, "athena"),
+                new Criterion("max_tries", Criterion.Predicate.NEQ, 5, Criterion.Condition.OR)));
+        assertEquals(page.buildCriterionClause(), samePage.buildCriterionClause());
+
+        assertEquals(Arrays.asList("localhost", "%50!%!_off%", 1), page.buildCriterionParameters());
+    }
+
+    @Test
+    public void buildInClause() {
+        Page page = new Page(0, 10, null, Arrays.asList(
+                new Criterion("task_name", Criterion.Predicate.IN, Arrays.asList("a", "b")),
+                new Criterion("params", Criterion.Predicate.STARTS_WITH, "--date")));
+        assertEquals("  task_name IN (?, ?)  AND  params LIKE ? ESCAPE '!'   ", page.buildCriterionClause());
+        assertEquals(Arrays.asList("a", "b", "--date%"), page.buildCriterionParameters());
+    }
+
+    @Test
+    public void cursor() {
+        Timestamp timestamp = Timestamp.from(Instant.now());
+        List<Object> values = Arrays.asList(timestamp, 10000000L, 3, "task.name:1");
+        assertEquals(values, Page.Cursor.decode(Page.Cursor.encode(values)));
+    }
+
+    @Test
+    public void cursorOfNullValue() {
+        List<Object> values = Arrays.asList(null, 1L);
+        assertEquals(values, Page.Cursor.decode(Page.Cursor.encode(values)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectIllegalField() {
+        new Criterion("host = 'a' or 1 = 1 --", Criterion.Predicate.EQ, "localhost");
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.timeyang.athena.utill.jdbc;
+
+import com.timeyang.athena.Athena;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.*;
+
+public class SchemaMigratorTest {
+
+    private DataSource dataSource;
+    private String table;
+
+    @Before
+    public void setUp() {
+        Athena athena = Athena.builder()
+                .disable("hive", "webServer", "messageServer")
+                .getOrCreate();
+        dataSource = athena.getDataSource();
+        table = "migration_test_" + System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            if (JdbcUtils.isTableExists(connection, table))
+                statement.execute("DROP TABLE " + table);
+            statement.execute("DELETE FROM " + SchemaMigrator.SCHEMA_VERSION_TABLE + " WHERE component = '" + table + "'");
+        }
+    }
+
+    @Test
+    public void migrate() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(table)
+                .add(1, "create table", connection -> JdbcUtils.createTableIfAbsent(connection, table,
+                        "CREATE TABLE " + table + "(id INTEGER PRIMARY KEY)"));
+        assertEquals(1, migrator.migrate(dataSource));
+        assertEquals(0, migrator.migrate(dataSource));
+
+        migrator.add(2, "add name", connection -> {
+            JdbcUtils.addColumnIfAbsent(connection, table, "name", "VARCHAR(100)");
+            JdbcUtils.createIndexIfAbsent(connection, table, table + "_name_idx", "name");
+        });
+        assertEquals(1, migrator.migrate(dataSource));
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(JdbcUtils.isColumnExists(connection, table, "name"));
+            assertTrue(JdbcUtils.isIndexExists(connection, table, table + "_name_idx"));
+        }
+    }
+
+    @Test
+    public void rollbackFailedMigration() throws SQLException {
+        SchemaMigrator migrator = new SchemaMigrator(table)
+                .add(1, "create table", connection -> JdbcUtils.createTableIfAbsent(connection, table,
+                        "CREATE TABLE " + table + "(id INTEGER PRIMARY KEY)"))
+                .add(2, "broken", connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("ALTER TABLE " + table + " ADD COLUMN name VARCHAR(100)");
+                        statement.execute("ALTER TABLE " + table + " ADD COLUMN name VARCHAR(100)");
+                    }
+                });
+        try {
+            migrator.migrate(dataSource);
+            fail("migration should fail");
+        } catch (RuntimeException expected) {
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(JdbcUtils.isTableExists(connection, table));
+            assertFalse(JdbcUtils.isColumnExists(connection, table, "name"));
+        }
+    }
+}